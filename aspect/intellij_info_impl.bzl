@@ -747,6 +747,7 @@ def build_java_package_manifest(ctx, target, source_files, suffix):
         progress_message = "Parsing java package strings for " + str(target.label),
         execution_requirements = {
             "supports-workers": "1",
+            "supports-multiplex-workers": "1",
             "requires-worker-protocol": "proto",
         },
     )
@@ -768,26 +769,37 @@ def _build_filtered_gen_jar(ctx, target, java_outputs, gen_java_sources, srcjars
 
     filtered_jar = ctx.actions.declare_file(target.label.name + "-filtered-gen.jar")
     filtered_source_jar = ctx.actions.declare_file(target.label.name + "-filtered-gen-src.jar")
-    args = []
+    args = ctx.actions.args()
     for jar in jar_artifacts:
-        args += ["--filter_jar", jar.path]
+        args.add("--filter_jar", jar)
     for jar in source_jar_artifacts:
-        args += ["--filter_source_jar", jar.path]
-    args += ["--filtered_jar", filtered_jar.path]
-    args += ["--filtered_source_jar", filtered_source_jar.path]
+        args.add("--filter_source_jar", jar)
+    args.add("--filtered_jar", filtered_jar)
+    args.add("--filtered_source_jar", filtered_source_jar)
     if gen_java_sources:
         for java_file in gen_java_sources:
-            args += ["--keep_java_file", java_file.path]
+            args.add("--keep_java_file", java_file)
     if srcjars:
         for source_jar in srcjars:
-            args += ["--keep_source_jar", source_jar.path]
+            args.add("--keep_source_jar", source_jar)
+
+    # Always use a params file, so the JarFilter can run as a persistent worker. See
+    # build_java_package_manifest for details.
+    args.use_param_file("@%s", use_always = True)
+    args.set_param_file_format("multiline")
+
     ctx.actions.run(
         inputs = jar_artifacts + source_jar_artifacts + gen_java_sources + srcjars,
         outputs = [filtered_jar, filtered_source_jar],
         executable = ctx.executable._jar_filter,
-        arguments = args,
+        arguments = [args],
         mnemonic = "JarFilter",
         progress_message = "Filtering generated code for " + str(target.label),
+        execution_requirements = {
+            "supports-workers": "1",
+            "supports-multiplex-workers": "1",
+            "requires-worker-protocol": "proto",
+        },
     )
     output_jar = struct(
         jar = artifact_location(filtered_jar),
@@ -21,21 +21,24 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
-import java.nio.file.attribute.FileTime;
+import java.nio.file.StandardOpenOption;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.List;
@@ -50,7 +53,6 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
 import javax.annotation.Nullable;
 
 /** Filters a jar, keeping only the classes that are indicated. */
@@ -90,10 +92,24 @@ public final class JarFilter {
   private static final Pattern JAVA_PACKAGE_PATTERN =
       Pattern.compile("^\\s*package\\s+([\\w\\.]+);");
 
+  /** Parses the java files to keep, shared by all requests handled by this process. */
+  private static final ListeningExecutorService executorService =
+      MoreExecutors.listeningDecorator(
+          Executors.newFixedThreadPool(
+              Runtime.getRuntime().availableProcessors(),
+              PersistentWorker.daemonThreads("JarFilter-%d")));
+
   public static void main(String[] args) throws Exception {
-    JarFilterOptions options = parseArgs(args);
     try {
-      main(options);
+      if (PersistentWorker.isWorkerMode(args)) {
+        // Bazel persistent workers are required to only write WorkResponses to stdout. The
+        // java.util.logging API defaults to writing to System.err, so we don't have to
+        // redirect log output away from stdout.
+        PersistentWorker.run(
+            workArgs -> main(parseArgs(workArgs)), "Error filtering jars", System.in, System.out);
+      } else {
+        main(parseArgs(args));
+      }
     } catch (Throwable e) {
       logger.log(Level.SEVERE, "Error filtering jars", e);
       System.exit(1);
@@ -146,10 +162,6 @@ public final class JarFilter {
 
   /** Finds the expected jar archive file name prefixes for the java files. */
   private static List<String> parseJavaFiles(List<Path> javaFiles) throws IOException {
-    ListeningExecutorService executorService =
-        MoreExecutors.listeningDecorator(
-            Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()));
-
     List<ListenableFuture<String>> futures = Lists.newArrayList();
     for (final Path javaFile : javaFiles) {
       futures.add(
@@ -244,38 +256,41 @@ public final class JarFilter {
     return packageString.replace('.', '/') + '/' + className;
   }
 
-  /** Filters a list of jars, keeping anything matching the passed predicate. */
+  /**
+   * Filters a list of jars, keeping anything matching the passed predicate.
+   *
+   * <p>Kept entries are copied as raw compressed bytes where possible, as inflating and deflating
+   * them again is the bulk of the work otherwise.
+   */
   private static void filterJars(List<Path> jars, Path output, Predicate<String> shouldKeep)
       throws IOException {
-    final int bufferSize = 8 * 1024;
-    byte[] buffer = new byte[bufferSize];
     Set<String> names = new HashSet<>();
 
-    try (ZipOutputStream outputStream =
-        new ZipOutputStream(new FileOutputStream(output.toFile()))) {
+    try (RawZipWriter writer =
+        new RawZipWriter(new BufferedOutputStream(new FileOutputStream(output.toFile())))) {
       for (Path jar : jars) {
+        try (FileChannel channel = FileChannel.open(jar, StandardOpenOption.READ)) {
+          List<RawZipWriter.Entry> entries = RawZipWriter.readEntries(channel);
+          if (entries != null) {
+            for (RawZipWriter.Entry entry : entries) {
+              // ignore duplicate entries, on the assumption that their contents are identical
+              if (shouldKeep.test(entry.name) && names.add(entry.name)) {
+                writer.copyEntry(channel, entry);
+              }
+            }
+            continue;
+          }
+        }
+        // the jar can't be copied raw, e.g. it uses zip64 extensions
         try (ZipFile sourceZipFile = new ZipFile(jar.toFile())) {
           Enumeration<? extends ZipEntry> entries = sourceZipFile.entries();
           while (entries.hasMoreElements()) {
             ZipEntry entry = entries.nextElement();
-            if (!shouldKeep.test(entry.getName())) {
-              continue;
-            }
-            if (!names.add(entry.getName())) {
-              // ignore duplicate entries, on the assumption that their contents are identical
+            if (!shouldKeep.test(entry.getName()) || !names.add(entry.getName())) {
               continue;
             }
-
-            ZipEntry newEntry = new ZipEntry(entry.getName());
-            // reset creation time of entry to make it deterministic
-            newEntry.setTime(0);
-            newEntry.setCreationTime(FileTime.fromMillis(0));
-            outputStream.putNextEntry(newEntry);
             try (InputStream inputStream = sourceZipFile.getInputStream(entry)) {
-              int len;
-              while ((len = inputStream.read(buffer)) != -1) {
-                outputStream.write(buffer, 0, len);
-              }
+              writer.writeEntry(entry.getName(), ByteStreams.toByteArray(inputStream));
             }
           }
         }
@@ -22,14 +22,14 @@ import com.google.common.io.Files;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
-import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
-import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
 import com.google.devtools.intellij.aspect.Common.ArtifactLocation;
 import com.google.devtools.intellij.ideinfo.IntellijIdeInfo.JavaSourcePackage;
 import com.google.devtools.intellij.ideinfo.IntellijIdeInfo.PackageManifest;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
@@ -40,8 +40,6 @@ import java.util.Map.Entry;
 import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import javax.annotation.Nullable;
 
 /** Parses the package string from each of the source .java files. */
@@ -68,15 +66,14 @@ public class PackageParser {
 
   private static final Logger logger = Logger.getLogger(PackageParser.class.getName());
 
-  private static final Pattern PACKAGE_PATTERN = Pattern.compile("^\\s*package\\s+([\\w\\.]+)");
+  /**
+   * The number of characters read from each source file while looking for its package declaration.
+   * The declaration precedes any imports or type declarations, so it's only preceded by comments
+   * and annotations in practice.
+   */
+  @VisibleForTesting static final int MAX_PACKAGE_PREFIX_CHARS = 64 * 1024;
 
-  private static boolean isWorkerMode(String [] args) {
-    return args.length == 1 && args[0].equals("--persistent_worker");
-  }
-
-  private static String[] getWorkRequestArgs(WorkRequest workRequest) {
-    return workRequest.getArgumentsList().toArray(new String[0]);
-  }
+  private static final String PACKAGE_KEYWORD = "package";
 
   private static void parsePackagesAndWriteManifest(
       PackageParser parser, PackageParserOptions options) throws Exception {
@@ -86,44 +83,27 @@ public class PackageParser {
     parser.writeManifest(outputMap, options.outputManifest);
   }
 
-  private static void runPersistentWorker(PackageParser parser) throws IOException {
-    while (true) {
-      WorkRequest workRequest = WorkRequest.parseDelimitedFrom(System.in);
-      if (workRequest == null) {
-        // parseDelimitedFrom returns null iff the stream is at EOF, thus we have no more work to
-        // do.
-        return;
-      }
-
-      WorkResponse.Builder builder =
-          WorkResponse.newBuilder().setRequestId(workRequest.getRequestId());
-
-      try {
-        PackageParserOptions workRequestOptions = parseArgs(getWorkRequestArgs(workRequest));
-
-        parsePackagesAndWriteManifest(parser, workRequestOptions);
-
-        builder.build().writeDelimitedTo(System.out);
-      } catch (Exception e) {
-        logger.log(Level.SEVERE, "Error parsing package strings ", e);
-        builder.setOutput("Error parsing package strings: " + e);
-        builder.setExitCode(1);
-      }
-    }
+  @VisibleForTesting
+  static void runPersistentWorker(PackageParser parser, InputStream in, OutputStream out)
+      throws IOException, InterruptedException {
+    PersistentWorker.run(
+        args -> parsePackagesAndWriteManifest(parser, parseArgs(args)),
+        "Error parsing package strings",
+        in,
+        out);
   }
 
   public static void main(String[] args) throws Exception {
-    PackageParserOptions options = parseArgs(args);
     PackageParser parser = new PackageParser(PackageParserIoProvider.INSTANCE);
 
     try {
-      if (isWorkerMode(args)) {
+      if (PersistentWorker.isWorkerMode(args)) {
         // Bazel persistent workers are required to only write WorkResponses to stdout. The
         // java.util.logging API defaults to writing to System.err, so we don't have to
         // redirect log output away from stdout.
-        runPersistentWorker(parser);
+        runPersistentWorker(parser, System.in, System.out);
       } else {
-        parsePackagesAndWriteManifest(parser, options);
+        parsePackagesAndWriteManifest(parser, parseArgs(args));
       }
     } catch (Throwable e) {
       logger.log(Level.SEVERE, "Error parsing package strings", e);
@@ -150,9 +130,17 @@ public class PackageParser {
 
   private final PackageParserIoProvider ioProvider;
 
+  /** Parses sources for all requests handled by this parser. */
+  private final ListeningExecutorService executorService;
+
   @VisibleForTesting
   PackageParser(PackageParserIoProvider ioProvider) {
     this.ioProvider = ioProvider;
+    this.executorService =
+        MoreExecutors.listeningDecorator(
+            Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(),
+                PersistentWorker.daemonThreads("PackageParser-%d")));
   }
 
   @VisibleForTesting
@@ -178,11 +166,6 @@ public class PackageParser {
   @VisibleForTesting
   Map<ArtifactLocation, String> parsePackageStrings(List<ArtifactLocation> sources)
       throws Exception {
-
-    ListeningExecutorService executorService =
-        MoreExecutors.listeningDecorator(
-            Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()));
-
     Map<ArtifactLocation, ListenableFuture<String>> futures = Maps.newHashMap();
     for (final ArtifactLocation source : sources) {
       futures.put(source, executorService.submit(() -> getDeclaredPackageOfJavaFile(source)));
@@ -208,15 +191,65 @@ public class PackageParser {
     }
   }
 
+  /**
+   * Returns the package declared in the source, found by scanning its lines for one matching the
+   * pattern {@code ^\s*package\s+([\w.]+)}. Only the first {@link #MAX_PACKAGE_PREFIX_CHARS}
+   * characters are read, so sources without a package declaration don't need to be read in full.
+   */
   @Nullable
   private static String parseDeclaredPackage(BufferedReader reader) throws IOException {
+    int remaining = MAX_PACKAGE_PREFIX_CHARS;
     String line;
-    while ((line = reader.readLine()) != null) {
-      Matcher packageMatch = PACKAGE_PATTERN.matcher(line);
-      if (packageMatch.find()) {
-        return packageMatch.group(1);
+    while (remaining > 0 && (line = reader.readLine()) != null) {
+      String packageString = parsePackageDeclaration(line);
+      if (packageString != null) {
+        return packageString;
       }
+      remaining -= line.length() + 1;
     }
     return null;
   }
+
+  @VisibleForTesting
+  @Nullable
+  static String parsePackageDeclaration(String line) {
+    int length = line.length();
+    int i = skipWhitespace(line, 0);
+    if (!line.startsWith(PACKAGE_KEYWORD, i)) {
+      return null;
+    }
+    i += PACKAGE_KEYWORD.length();
+    int nameStart = skipWhitespace(line, i);
+    if (nameStart == i) {
+      return null;
+    }
+    int nameEnd = nameStart;
+    while (nameEnd < length && isPackageNameChar(line.charAt(nameEnd))) {
+      nameEnd++;
+    }
+    return nameEnd > nameStart ? line.substring(nameStart, nameEnd) : null;
+  }
+
+  /** Returns the index of the first character at or after {@code start} which isn't whitespace. */
+  private static int skipWhitespace(String line, int start) {
+    int i = start;
+    while (i < line.length() && isWhitespace(line.charAt(i))) {
+      i++;
+    }
+    return i;
+  }
+
+  /** Matches the regex character class {@code \s}. */
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+
+  /** Matches the regex character class {@code [\w.]}. */
+  private static boolean isPackageNameChar(char c) {
+    return (c >= 'a' && c <= 'z')
+        || (c >= 'A' && c <= 'Z')
+        || (c >= '0' && c <= '9')
+        || c == '_'
+        || c == '.';
+  }
 }
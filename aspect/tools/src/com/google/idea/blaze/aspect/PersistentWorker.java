@@ -0,0 +1,115 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.aspect;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs an aspect tool as a Bazel persistent worker.
+ *
+ * <p>Supports multiplex workers: each request is handed to a fixed-size pool as soon as it's read,
+ * and its response is written when it completes, tagged with the request id.
+ */
+final class PersistentWorker {
+
+  /** Handles the arguments of a single work request. */
+  interface WorkHandler {
+    void handle(String[] args) throws Exception;
+  }
+
+  private static final Logger logger = Logger.getLogger(PersistentWorker.class.getName());
+
+  /**
+   * The maximum number of requests handled concurrently. Further requests are queued until a
+   * thread is free.
+   */
+  private static final int MAX_CONCURRENT_REQUESTS = Runtime.getRuntime().availableProcessors();
+
+  static boolean isWorkerMode(String[] args) {
+    return args.length == 1 && args[0].equals("--persistent_worker");
+  }
+
+  /**
+   * Handles work requests until the input stream is closed, then waits for in-flight requests to
+   * complete.
+   *
+   * @param errorMessage the message logged and returned to Bazel when a request fails
+   */
+  static void run(WorkHandler handler, String errorMessage, InputStream in, OutputStream out)
+      throws IOException, InterruptedException {
+    ExecutorService requestExecutor =
+        Executors.newFixedThreadPool(
+            MAX_CONCURRENT_REQUESTS, daemonThreads("PersistentWorker-%d"));
+    try {
+      while (true) {
+        WorkRequest workRequest = WorkRequest.parseDelimitedFrom(in);
+        if (workRequest == null) {
+          // parseDelimitedFrom returns null iff the stream is at EOF, thus we have no more work to
+          // do.
+          return;
+        }
+        requestExecutor.execute(() -> handle(handler, errorMessage, workRequest, out));
+      }
+    } finally {
+      // let in-flight requests finish writing their responses
+      requestExecutor.shutdown();
+      requestExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+    }
+  }
+
+  private static void handle(
+      WorkHandler handler, String errorMessage, WorkRequest workRequest, OutputStream out) {
+    WorkResponse.Builder builder =
+        WorkResponse.newBuilder().setRequestId(workRequest.getRequestId());
+    try {
+      handler.handle(workRequest.getArgumentsList().toArray(new String[0]));
+    } catch (Exception e) {
+      logger.log(Level.SEVERE, errorMessage, e);
+      builder.setOutput(errorMessage + ": " + e);
+      builder.setExitCode(1);
+    }
+    // responses to concurrent requests mustn't be interleaved
+    synchronized (out) {
+      try {
+        builder.build().writeDelimitedTo(out);
+        out.flush();
+      } catch (IOException e) {
+        logger.log(Level.SEVERE, "Error writing work response", e);
+      }
+    }
+  }
+
+  /**
+   * Returns a factory for daemon threads, so that shared thread pools don't prevent the tool from
+   * exiting.
+   */
+  static ThreadFactory daemonThreads(String nameFormat) {
+    return new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build();
+  }
+
+  private PersistentWorker() {}
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.aspect;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import javax.annotation.Nullable;
+
+/**
+ * Writes a zip file whose entries can be copied from other zip files as raw compressed bytes,
+ * without being inflated and deflated again.
+ *
+ * <p>Only the subset of the zip format produced by the JDK and Bazel's jar tools is supported: no
+ * zip64 extensions, no encryption, and only stored or deflated entries. {@link #readEntries}
+ * returns null for any other archive, in which case callers should decompress its entries via
+ * {@link java.util.zip.ZipFile} and add them with {@link #writeEntry}.
+ *
+ * <p>All entries are given the same timestamp, so the output is deterministic.
+ */
+final class RawZipWriter implements Closeable {
+
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+  private static final int LOCAL_HEADER_LENGTH = 30;
+  private static final int CENTRAL_HEADER_LENGTH = 46;
+  private static final int END_OF_CENTRAL_DIRECTORY_LENGTH = 22;
+  private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+  private static final int MAX_ENTRIES = 0xFFFF;
+  private static final long MAX_OFFSET = 0xFFFFFFFFL;
+
+  private static final int FLAG_ENCRYPTED = 1;
+  private static final int FLAG_UTF8 = 1 << 11;
+
+  private static final int VERSION_STORED = 10;
+  private static final int VERSION_DEFLATED = 20;
+
+  /** 1980-01-01 00:00 in MS-DOS format (time in the low half, date in the high half). */
+  private static final int DOS_EPOCH = (1 << 21) | (1 << 16);
+
+  /** An entry of an existing zip file. */
+  static final class Entry {
+    final String name;
+    private final byte[] nameBytes;
+    private final int method;
+    private final int crc;
+    private final long compressedSize;
+    private final long size;
+    private final long localHeaderOffset;
+
+    private Entry(
+        byte[] nameBytes,
+        int method,
+        int crc,
+        long compressedSize,
+        long size,
+        long localHeaderOffset) {
+      this.name = new String(nameBytes, UTF_8);
+      this.nameBytes = nameBytes;
+      this.method = method;
+      this.crc = crc;
+      this.compressedSize = compressedSize;
+      this.size = size;
+      this.localHeaderOffset = localHeaderOffset;
+    }
+  }
+
+  /**
+   * Reads the central directory of a zip file, returning its entries in order, or null if the file
+   * uses features not supported by this class.
+   */
+  @Nullable
+  static List<Entry> readEntries(FileChannel channel) throws IOException {
+    long fileSize = channel.size();
+    int tailLength = (int) Math.min(fileSize, END_OF_CENTRAL_DIRECTORY_LENGTH + MAX_COMMENT_LENGTH);
+    ByteBuffer tail = read(channel, fileSize - tailLength, tailLength);
+    int end = tailLength - END_OF_CENTRAL_DIRECTORY_LENGTH;
+    while (end >= 0 && tail.getInt(end) != END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+      end--;
+    }
+    if (end < 0) {
+      throw new ZipException("End of central directory not found");
+    }
+    int count = unsignedShort(tail, end + 10);
+    long centralDirectorySize = unsignedInt(tail, end + 12);
+    long centralDirectoryOffset = unsignedInt(tail, end + 16);
+    if (count == MAX_ENTRIES
+        || centralDirectorySize == MAX_OFFSET
+        || centralDirectoryOffset == MAX_OFFSET) {
+      // zip64
+      return null;
+    }
+    ByteBuffer centralDirectory =
+        read(channel, centralDirectoryOffset, (int) centralDirectorySize);
+    List<Entry> entries = new ArrayList<>(count);
+    int pos = 0;
+    for (int i = 0; i < count; i++) {
+      if (centralDirectory.getInt(pos) != CENTRAL_HEADER_SIGNATURE) {
+        throw new ZipException("Invalid central directory header");
+      }
+      int flags = unsignedShort(centralDirectory, pos + 8);
+      int method = unsignedShort(centralDirectory, pos + 10);
+      int crc = centralDirectory.getInt(pos + 16);
+      long compressedSize = unsignedInt(centralDirectory, pos + 20);
+      long size = unsignedInt(centralDirectory, pos + 24);
+      int nameLength = unsignedShort(centralDirectory, pos + 28);
+      int extraLength = unsignedShort(centralDirectory, pos + 30);
+      int commentLength = unsignedShort(centralDirectory, pos + 32);
+      long localHeaderOffset = unsignedInt(centralDirectory, pos + 42);
+      if ((flags & FLAG_ENCRYPTED) != 0
+          || (method != ZipEntry.STORED && method != ZipEntry.DEFLATED)
+          || compressedSize == MAX_OFFSET
+          || size == MAX_OFFSET
+          || localHeaderOffset == MAX_OFFSET) {
+        return null;
+      }
+      byte[] nameBytes = new byte[nameLength];
+      for (int j = 0; j < nameLength; j++) {
+        nameBytes[j] = centralDirectory.get(pos + CENTRAL_HEADER_LENGTH + j);
+      }
+      entries.add(new Entry(nameBytes, method, crc, compressedSize, size, localHeaderOffset));
+      pos += CENTRAL_HEADER_LENGTH + nameLength + extraLength + commentLength;
+    }
+    return entries;
+  }
+
+  private final OutputStream out;
+  private final WritableByteChannel outChannel;
+  private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+  private long position;
+  private int entryCount;
+
+  RawZipWriter(OutputStream out) {
+    this.out = out;
+    this.outChannel = Channels.newChannel(out);
+  }
+
+  /** Copies an entry read by {@link #readEntries} from the given zip file, without inflating it. */
+  void copyEntry(FileChannel source, Entry entry) throws IOException {
+    ByteBuffer localHeader = read(source, entry.localHeaderOffset, LOCAL_HEADER_LENGTH);
+    if (localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+      throw new ZipException("Invalid local file header for " + entry.name);
+    }
+    long dataOffset =
+        entry.localHeaderOffset
+            + LOCAL_HEADER_LENGTH
+            + unsignedShort(localHeader, 26)
+            + unsignedShort(localHeader, 28);
+    writeHeaders(entry.nameBytes, entry.method, entry.crc, entry.compressedSize, entry.size);
+    long remaining = entry.compressedSize;
+    while (remaining > 0) {
+      long transferred =
+          source.transferTo(dataOffset + entry.compressedSize - remaining, remaining, outChannel);
+      if (transferred <= 0) {
+        throw new EOFException("Unexpected end of data for " + entry.name);
+      }
+      remaining -= transferred;
+    }
+    position += entry.compressedSize;
+  }
+
+  /** Deflates and writes a new entry with the given contents. */
+  void writeEntry(String name, byte[] contents) throws IOException {
+    CRC32 crc = new CRC32();
+    crc.update(contents);
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, /* nowrap= */ true);
+    try (DeflaterOutputStream deflaterStream = new DeflaterOutputStream(compressed, deflater)) {
+      deflaterStream.write(contents);
+    } finally {
+      deflater.end();
+    }
+    writeHeaders(
+        name.getBytes(UTF_8),
+        ZipEntry.DEFLATED,
+        (int) crc.getValue(),
+        compressed.size(),
+        contents.length);
+    compressed.writeTo(out);
+    position += compressed.size();
+  }
+
+  /**
+   * Writes the local file header of an entry, and adds its central directory header to be written
+   * when the file is closed.
+   */
+  private void writeHeaders(
+      byte[] nameBytes, int method, int crc, long compressedSize, long size) throws IOException {
+    if (entryCount == MAX_ENTRIES - 1 || position + compressedSize > MAX_OFFSET) {
+      throw new ZipException("Output too large for a zip file without zip64 extensions");
+    }
+    int version = method == ZipEntry.STORED ? VERSION_STORED : VERSION_DEFLATED;
+
+    ByteBuffer localHeader = newBuffer(LOCAL_HEADER_LENGTH + nameBytes.length);
+    localHeader
+        .putInt(LOCAL_HEADER_SIGNATURE)
+        .putShort((short) version)
+        .putShort((short) FLAG_UTF8)
+        .putShort((short) method)
+        .putInt(DOS_EPOCH)
+        .putInt(crc)
+        .putInt((int) compressedSize)
+        .putInt((int) size)
+        .putShort((short) nameBytes.length)
+        .putShort((short) 0)
+        .put(nameBytes);
+    out.write(localHeader.array());
+
+    ByteBuffer centralHeader = newBuffer(CENTRAL_HEADER_LENGTH + nameBytes.length);
+    centralHeader
+        .putInt(CENTRAL_HEADER_SIGNATURE)
+        .putShort((short) version) // version made by
+        .putShort((short) version) // version needed to extract
+        .putShort((short) FLAG_UTF8)
+        .putShort((short) method)
+        .putInt(DOS_EPOCH)
+        .putInt(crc)
+        .putInt((int) compressedSize)
+        .putInt((int) size)
+        .putShort((short) nameBytes.length)
+        .putShort((short) 0) // extra field length
+        .putShort((short) 0) // comment length
+        .putShort((short) 0) // disk number
+        .putShort((short) 0) // internal attributes
+        .putInt(0) // external attributes
+        .putInt((int) position)
+        .put(nameBytes);
+    centralDirectory.write(centralHeader.array());
+
+    position += localHeader.capacity();
+    entryCount++;
+  }
+
+  /** Writes the central directory, and closes the underlying stream. */
+  @Override
+  public void close() throws IOException {
+    try {
+      ByteBuffer end = newBuffer(END_OF_CENTRAL_DIRECTORY_LENGTH);
+      end.putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE)
+          .putShort((short) 0) // disk number
+          .putShort((short) 0) // disk with central directory
+          .putShort((short) entryCount)
+          .putShort((short) entryCount)
+          .putInt(centralDirectory.size())
+          .putInt((int) position)
+          .putShort((short) 0); // comment length
+      centralDirectory.writeTo(out);
+      out.write(end.array());
+    } finally {
+      out.close();
+    }
+  }
+
+  private static ByteBuffer newBuffer(int length) {
+    return ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private static ByteBuffer read(FileChannel channel, long offset, int length) throws IOException {
+    ByteBuffer buffer = newBuffer(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, offset + buffer.position()) < 0) {
+        throw new EOFException("Unexpected end of zip file");
+      }
+    }
+    return buffer;
+  }
+
+  private static int unsignedShort(ByteBuffer buffer, int index) {
+    return buffer.getShort(index) & 0xFFFF;
+  }
+
+  private static long unsignedInt(ByteBuffer buffer, int index) {
+    return buffer.getInt(index) & 0xFFFFFFFFL;
+  }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.aspect;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
+import com.google.devtools.intellij.aspect.Common.ArtifactLocation;
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo.PackageManifest;
+import com.google.protobuf.MessageLite;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Benchmarks the {@link PackageParser} persistent worker on a synthetic workload of many package
+ * manifest requests, against handling them the way the worker did before it supported multiplex
+ * requests: one request at a time, each with a new thread pool, matching every line of each
+ * source against a regex.
+ *
+ * <p>Sources are held in memory, so the numbers reflect parsing and scheduling rather than disk
+ * access. Run with {@code bazel run //aspect/tools:PackageParserBenchmark -- [manifests]
+ * [sources_per_manifest]}.
+ */
+public final class PackageParserBenchmark {
+
+  private static final int DEFAULT_MANIFESTS = 2000;
+  private static final int DEFAULT_SOURCES_PER_MANIFEST = 50;
+  private static final int ITERATIONS = 5;
+
+  /** Every nth source has no package declaration, so it's scanned to the end (or the limit). */
+  private static final int NO_PACKAGE_FREQUENCY = 20;
+
+  private static final Pattern PACKAGE_PATTERN = Pattern.compile("^\\s*package\\s+([\\w\\.]+)");
+
+  /** Serves the synthetic sources from memory, and records the manifests written. */
+  private static final class InMemoryIoProvider extends PackageParserIoProvider {
+    private final Map<Path, String> sources = Maps.newHashMap();
+    private final Map<Path, PackageManifest> manifests = new ConcurrentHashMap<>();
+
+    @Override
+    BufferedReader getReader(Path file) throws IOException {
+      String source = sources.get(file);
+      if (source == null) {
+        throw new IOException("No such source: " + file);
+      }
+      return new BufferedReader(new StringReader(source));
+    }
+
+    @Override
+    void writeProto(MessageLite message, Path file) {
+      manifests.put(file, (PackageManifest) message);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    int manifests = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_MANIFESTS;
+    int sourcesPerManifest =
+        args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SOURCES_PER_MANIFEST;
+
+    InMemoryIoProvider ioProvider = new InMemoryIoProvider();
+    List<List<ArtifactLocation>> requests =
+        createWorkload(ioProvider, manifests, sourcesPerManifest);
+    byte[] workRequests = workRequests(requests);
+
+    System.out.printf(
+        "PackageParser: %d manifests of %d sources, mean of %d runs after one warm-up run%n",
+        manifests, sourcesPerManifest, ITERATIONS);
+
+    long serialMillis = 0;
+    int serialPackages = 0;
+    for (int i = 0; i <= ITERATIONS; i++) {
+      Stopwatch stopwatch = Stopwatch.createStarted();
+      serialPackages = runSerially(ioProvider, requests);
+      if (i > 0) {
+        serialMillis += stopwatch.elapsed(TimeUnit.MILLISECONDS);
+      }
+    }
+    System.out.printf(
+        "  serial requests, pool per request, regex: %d ms (%d packages)%n",
+        serialMillis / ITERATIONS, serialPackages);
+
+    PackageParser parser = new PackageParser(ioProvider);
+    long workerMillis = 0;
+    int workerPackages = 0;
+    for (int i = 0; i <= ITERATIONS; i++) {
+      ioProvider.manifests.clear();
+      Stopwatch stopwatch = Stopwatch.createStarted();
+      runWorker(parser, workRequests, requests.size());
+      if (i > 0) {
+        workerMillis += stopwatch.elapsed(TimeUnit.MILLISECONDS);
+      }
+      workerPackages =
+          ioProvider.manifests.values().stream().mapToInt(PackageManifest::getSourcesCount).sum();
+    }
+    System.out.printf(
+        "  multiplex worker, shared pool, scanner:   %d ms (%d packages)%n",
+        workerMillis / ITERATIONS, workerPackages);
+
+    if (workerPackages != serialPackages) {
+      throw new AssertionError(
+          String.format(
+              "Worker found %d packages, expected %d", workerPackages, serialPackages));
+    }
+    System.exit(0);
+  }
+
+  private static List<List<ArtifactLocation>> createWorkload(
+      InMemoryIoProvider ioProvider, int manifests, int sourcesPerManifest) {
+    List<List<ArtifactLocation>> requests = new ArrayList<>();
+    int count = 0;
+    for (int i = 0; i < manifests; i++) {
+      List<ArtifactLocation> sources = new ArrayList<>();
+      for (int j = 0; j < sourcesPerManifest; j++) {
+        String relativePath = String.format("java/com/google/p%d/Source%d.java", i, j);
+        ArtifactLocation source =
+            ArtifactLocation.newBuilder().setRelativePath(relativePath).setIsSource(true).build();
+        boolean hasPackage = count++ % NO_PACKAGE_FREQUENCY != 0;
+        ioProvider.sources.put(
+            Paths.get(relativePath), sourceFile(hasPackage ? "com.google.p" + i : null, j));
+        sources.add(source);
+      }
+      requests.add(sources);
+    }
+    return requests;
+  }
+
+  /** A source of a few hundred lines: a license header, imports, and a class body. */
+  private static String sourceFile(String packageName, int index) {
+    StringBuilder builder = new StringBuilder();
+    builder.append("/*\n");
+    for (int i = 0; i < 14; i++) {
+      builder.append(" * Licensed under the Apache License, Version 2.0 (the \"License\");\n");
+    }
+    builder.append(" */\n");
+    if (packageName != null) {
+      builder.append("package ").append(packageName).append(";\n\n");
+    }
+    for (int i = 0; i < 30; i++) {
+      builder.append("import com.google.common.collect.ImmutableList").append(i).append(";\n");
+    }
+    builder.append("\n/** Synthetic source. */\npublic class Source").append(index).append(" {\n");
+    for (int i = 0; i < 200; i++) {
+      builder.append("  private final int field").append(i).append(" = ").append(i).append(";\n");
+    }
+    builder.append("}\n");
+    return builder.toString();
+  }
+
+  private static byte[] workRequests(List<List<ArtifactLocation>> requests) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int i = 0; i < requests.size(); i++) {
+      WorkRequest.newBuilder()
+          .setRequestId(i + 1)
+          .addArguments("--sources")
+          .addArguments(sourcesArg(requests.get(i)))
+          .addArguments("--output_manifest")
+          .addArguments("manifests/" + i + ".manifest")
+          .build()
+          .writeDelimitedTo(out);
+    }
+    return out.toByteArray();
+  }
+
+  private static String sourcesArg(List<ArtifactLocation> sources) {
+    List<String> encoded = new ArrayList<>();
+    for (ArtifactLocation source : sources) {
+      encoded.add(
+          Joiner.on(',')
+              .join(source.getRootExecutionPathFragment(), source.getRelativePath(), "0"));
+    }
+    return Joiner.on(':').join(encoded);
+  }
+
+  private static void runWorker(PackageParser parser, byte[] workRequests, int requestCount)
+      throws Exception {
+    ByteArrayOutputStream responses = new ByteArrayOutputStream();
+    PackageParser.runPersistentWorker(parser, new ByteArrayInputStream(workRequests), responses);
+    InputStream responseStream = new ByteArrayInputStream(responses.toByteArray());
+    int responseCount = 0;
+    WorkResponse response;
+    while ((response = WorkResponse.parseDelimitedFrom(responseStream)) != null) {
+      if (response.getExitCode() != 0) {
+        throw new AssertionError("Request failed: " + response.getOutput());
+      }
+      responseCount++;
+    }
+    if (responseCount != requestCount) {
+      throw new AssertionError(
+          String.format("Got %d responses to %d requests", responseCount, requestCount));
+    }
+  }
+
+  /**
+   * Handles each request in turn, as the worker used to. The pools are shut down after each
+   * request, rather than leaked as they were, so that repeated runs don't exhaust threads.
+   */
+  private static int runSerially(
+      InMemoryIoProvider ioProvider, List<List<ArtifactLocation>> requests) throws Exception {
+    int packages = 0;
+    for (List<ArtifactLocation> sources : requests) {
+      ExecutorService pool =
+          Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+      ListeningExecutorService executorService = MoreExecutors.listeningDecorator(pool);
+      try {
+        Map<ArtifactLocation, ListenableFuture<String>> futures = Maps.newHashMap();
+        for (ArtifactLocation source : sources) {
+          futures.put(
+              source, executorService.submit(() -> parseWithRegex(ioProvider, source)));
+        }
+        for (Entry<ArtifactLocation, ListenableFuture<String>> entry : futures.entrySet()) {
+          if (entry.getValue().get() != null) {
+            packages++;
+          }
+        }
+      } finally {
+        pool.shutdown();
+      }
+    }
+    return packages;
+  }
+
+  private static String parseWithRegex(InMemoryIoProvider ioProvider, ArtifactLocation source)
+      throws IOException {
+    Path path = Paths.get(source.getRootExecutionPathFragment(), source.getRelativePath());
+    try (BufferedReader reader = ioProvider.getReader(path)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        Matcher matcher = PACKAGE_PATTERN.matcher(line);
+        if (matcher.find()) {
+          return matcher.group(1);
+        }
+      }
+    }
+    return null;
+  }
+
+  private PackageParserBenchmark() {}
+}
@@ -20,12 +20,16 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 import com.google.idea.blaze.aspect.JarFilter.JarFilterOptions;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
@@ -172,4 +176,59 @@ public class JarFilterTest {
             "gen/Gen2.java",
             "gen/Gen3.java");
   }
+
+  @Test
+  public void testKeptEntriesAreCopiedWithoutRecompression() throws Exception {
+    File fooJava = folder.newFile("Foo.java");
+    Files.write("package com.google.foo; class Foo {}".getBytes(UTF_8), fooJava);
+
+    byte[] storedContents = "stored".getBytes(UTF_8);
+    CRC32 crc = new CRC32();
+    crc.update(storedContents);
+    File filterJar = folder.newFile("foo.jar");
+    try (ZipOutputStream zo = new ZipOutputStream(new FileOutputStream(filterJar))) {
+      // compress more than JarFilter would by default, so recompression would be detected
+      zo.setLevel(Deflater.BEST_COMPRESSION);
+      zo.putNextEntry(new ZipEntry("com/google/foo/Foo.class"));
+      for (int i = 0; i < 1000; i++) {
+        zo.write(("Foo" + i).getBytes(UTF_8));
+      }
+      zo.closeEntry();
+      ZipEntry storedEntry = new ZipEntry("com/google/foo/Foo$Inner.class");
+      storedEntry.setMethod(ZipEntry.STORED);
+      storedEntry.setSize(storedContents.length);
+      storedEntry.setCrc(crc.getValue());
+      zo.putNextEntry(storedEntry);
+      zo.write(storedContents);
+      zo.closeEntry();
+    }
+    File filteredJar = folder.newFile("foo-filtered-gen.jar");
+
+    JarFilterOptions options =
+        JarFilter.parseArgs(
+            new String[] {
+              "--keep_java_file",
+              fooJava.getPath(),
+              "--filter_jar",
+              filterJar.getPath(),
+              "--filter_jar",
+              filterJar.getPath(),
+              "--filtered_jar",
+              filteredJar.getPath()
+            });
+    JarFilter.main(options);
+
+    try (ZipFile original = new ZipFile(filterJar);
+        ZipFile filtered = new ZipFile(filteredJar)) {
+      assertThat(filtered.size()).isEqualTo(2);
+      for (ZipEntry entry : Collections.list(original.entries())) {
+        ZipEntry copied = filtered.getEntry(entry.getName());
+        assertThat(copied.getMethod()).isEqualTo(entry.getMethod());
+        assertThat(copied.getCompressedSize()).isEqualTo(entry.getCompressedSize());
+        assertThat(copied.getCrc()).isEqualTo(entry.getCrc());
+        assertThat(ByteStreams.toByteArray(filtered.getInputStream(copied)))
+            .isEqualTo(ByteStreams.toByteArray(original.getInputStream(entry)));
+      }
+    }
+  }
 }
@@ -19,14 +19,18 @@ import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.fail;
 
 import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
 import com.google.devtools.intellij.aspect.Common.ArtifactLocation;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import com.google.protobuf.MessageLite;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -36,6 +40,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import org.junit.Before;
@@ -260,4 +265,74 @@ public class PackageParserTest {
                 .setIsSource(false)
                 .build());
   }
+
+  @Test
+  public void testParsePackageDeclaration() {
+    assertThat(PackageParser.parsePackageDeclaration("package com.google;"))
+        .isEqualTo("com.google");
+    assertThat(PackageParser.parsePackageDeclaration("  \tpackage\tcom.google ;"))
+        .isEqualTo("com.google");
+    assertThat(PackageParser.parsePackageDeclaration("package com.google {"))
+        .isEqualTo("com.google");
+    assertThat(PackageParser.parsePackageDeclaration("packagecom.google;")).isNull();
+    assertThat(PackageParser.parsePackageDeclaration("package ;")).isNull();
+    assertThat(PackageParser.parsePackageDeclaration("// package com.google;")).isNull();
+    assertThat(PackageParser.parsePackageDeclaration("")).isNull();
+  }
+
+  @Test
+  public void testPackageBeyondPrefixIgnored() throws Exception {
+    String comment = "// " + Strings.repeat("x", PackageParser.MAX_PACKAGE_PREFIX_CHARS) + "\n";
+    mockIoProvider.addSource(DUMMY_SOURCE_ARTIFACT, comment + "package com.google;\n");
+    assertThat(parsePackageStrings()).isEmpty();
+  }
+
+  @Test
+  public void testPersistentWorkerRespondsToEachRequest() throws Exception {
+    mockIoProvider
+        .addSource(DUMMY_SOURCE_ARTIFACT, "package com.test;\n public class Foo {}\"")
+        .addSource(DUMMY_DERIVED_ARTIFACT, "package com.other;\n public class Bla {}\"");
+    ByteArrayOutputStream requests = new ByteArrayOutputStream();
+    workRequest(
+            1,
+            "--output_manifest",
+            "/tmp/foo.manifest",
+            "--sources",
+            ",java/com/google/Foo.java,0")
+        .writeDelimitedTo(requests);
+    workRequest(
+            2,
+            "--output_manifest",
+            "/tmp/bla.manifest",
+            "--sources",
+            "bin,java/com/google/Bla.java,0")
+        .writeDelimitedTo(requests);
+    // no output manifest
+    workRequest(3, "--sources", "").writeDelimitedTo(requests);
+
+    ByteArrayOutputStream responses = new ByteArrayOutputStream();
+    PackageParser.runPersistentWorker(
+        parser, new ByteArrayInputStream(requests.toByteArray()), responses);
+
+    Map<Integer, WorkResponse> responsesById = Maps.newHashMap();
+    InputStream responseStream = new ByteArrayInputStream(responses.toByteArray());
+    WorkResponse response;
+    while ((response = WorkResponse.parseDelimitedFrom(responseStream)) != null) {
+      responsesById.put(response.getRequestId(), response);
+    }
+    assertThat(responsesById.keySet()).containsExactly(1, 2, 3);
+    assertThat(responsesById.get(1).getExitCode()).isEqualTo(0);
+    assertThat(responsesById.get(2).getExitCode()).isEqualTo(0);
+    assertThat(responsesById.get(3).getExitCode()).isEqualTo(1);
+    String writtenString = mockIoProvider.writer.toString();
+    assertThat(writtenString).contains("package_string: \"com.test\"");
+    assertThat(writtenString).contains("package_string: \"com.other\"");
+  }
+
+  private static WorkRequest workRequest(int requestId, String... args) {
+    return WorkRequest.newBuilder()
+        .setRequestId(requestId)
+        .addAllArguments(Arrays.asList(args))
+        .build();
+  }
 }
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.android.filecache;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An append-only binary log of the entries tracked by a {@link LocalArtifactCache}.
+ *
+ * <p>Every update to the cache appends one record per added or removed entry, so persisting an
+ * update costs time proportional to the size of the update rather than the size of the cache. Once
+ * the journal holds many more records than there are live entries, it is compacted by rewriting it
+ * with a single record per entry.
+ *
+ * <p>A record left incomplete (e.g. because the IDE was killed while appending) is ignored when
+ * the journal is read, and the journal is flagged for compaction so that later records aren't
+ * appended after it.
+ */
+final class ArtifactCacheJournal {
+  private static final Logger logger = Logger.getInstance(ArtifactCacheJournal.class);
+
+  private static final int MAGIC = 0x41434a4c; // "ACJL"
+  private static final int VERSION = 1;
+
+  private static final byte PUT = 1;
+  private static final byte REMOVE = 2;
+
+  /** Journals with fewer records than this are never compacted. */
+  @VisibleForTesting static final int MIN_RECORDS_TO_COMPACT = 1000;
+
+  private final Path file;
+
+  /** The number of records in {@link #file}, as of the last read or write. */
+  private int recordCount = 0;
+
+  /** Whether {@link #file} ends with a truncated record, and must be rewritten before appending. */
+  private boolean truncated = false;
+
+  ArtifactCacheJournal(Path file) {
+    this.file = file;
+  }
+
+  /**
+   * Replays the journal, returning the live entries keyed by cache key. Returns an empty map if
+   * the journal doesn't exist.
+   *
+   * @throws IOException if the journal can't be read, or isn't a journal at all.
+   */
+  synchronized Map<String, CacheEntry> read() throws IOException {
+    Map<String, CacheEntry> entries = new LinkedHashMap<>();
+    recordCount = 0;
+    truncated = false;
+    if (!Files.exists(file)) {
+      return entries;
+    }
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      try {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+          throw new IOException("Unrecognized cache journal format: " + file);
+        }
+      } catch (EOFException e) {
+        throw new IOException("Cache journal has no header: " + file, e);
+      }
+      int type;
+      while ((type = in.read()) != -1) {
+        try {
+          if (type == PUT) {
+            CacheEntry entry = readEntry(in);
+            entries.put(entry.getCacheKey(), entry);
+          } else if (type == REMOVE) {
+            entries.remove(in.readUTF());
+          } else {
+            throw new IOException(String.format("Unknown record type %d in %s", type, file));
+          }
+        } catch (EOFException e) {
+          logger.warn("Ignoring truncated record at the end of " + file);
+          truncated = true;
+          break;
+        }
+        recordCount++;
+      }
+    }
+    return entries;
+  }
+
+  /** Appends records for the given added or updated entries, and removed cache keys. */
+  synchronized void append(Collection<CacheEntry> added, Collection<String> removedKeys)
+      throws IOException {
+    if (added.isEmpty() && removedKeys.isEmpty()) {
+      return;
+    }
+    if (truncated || !Files.exists(file)) {
+      throw new IOException("Cache journal must be rewritten before appending: " + file);
+    }
+    try (DataOutputStream out =
+        new DataOutputStream(
+            new BufferedOutputStream(
+                Files.newOutputStream(file, StandardOpenOption.APPEND)))) {
+      for (CacheEntry entry : added) {
+        out.writeByte(PUT);
+        writeEntry(out, entry);
+      }
+      for (String key : removedKeys) {
+        out.writeByte(REMOVE);
+        out.writeUTF(key);
+      }
+    }
+    recordCount += added.size() + removedKeys.size();
+  }
+
+  /**
+   * Atomically replaces the journal with one containing a single record per entry. The entries are
+   * iterated while holding this journal's lock, so concurrent {@link #append} calls are ordered
+   * either before or after the rewrite.
+   */
+  synchronized void rewrite(Collection<CacheEntry> entries) throws IOException {
+    Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+    int count = 0;
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      for (CacheEntry entry : entries) {
+        out.writeByte(PUT);
+        writeEntry(out, entry);
+        count++;
+      }
+    }
+    Files.move(
+        tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    recordCount = count;
+    truncated = false;
+  }
+
+  /**
+   * Returns true if the journal should be rewritten, either because it holds many more records
+   * than {@code liveEntries}, or because it ends with a truncated record.
+   */
+  synchronized boolean needsRewrite(int liveEntries) {
+    return truncated
+        || (recordCount >= MIN_RECORDS_TO_COMPACT && recordCount > 2 * liveEntries);
+  }
+
+  @VisibleForTesting
+  synchronized int getRecordCount() {
+    return recordCount;
+  }
+
+  private static void writeEntry(DataOutputStream out, CacheEntry entry) throws IOException {
+    out.writeUTF(entry.getCacheKey());
+    out.writeUTF(entry.getFileName());
+    ImmutableSet<ArtifactMetadata> artifacts = entry.getArtifacts();
+    out.writeInt(artifacts.size());
+    for (ArtifactMetadata artifact : artifacts) {
+      out.writeUTF(artifact.getRelativePath());
+      out.writeUTF(artifact.getIdentifier());
+    }
+  }
+
+  private static CacheEntry readEntry(DataInputStream in) throws IOException {
+    String cacheKey = in.readUTF();
+    String fileName = in.readUTF();
+    int artifactCount = in.readInt();
+    ImmutableSet.Builder<ArtifactMetadata> artifacts = ImmutableSet.builder();
+    for (int i = 0; i < artifactCount; i++) {
+      artifacts.add(new ArtifactMetadata(in.readUTF(), in.readUTF()));
+    }
+    return new CacheEntry(cacheKey, fileName, artifacts.build());
+  }
+}
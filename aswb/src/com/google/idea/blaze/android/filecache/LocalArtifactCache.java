@@ -23,6 +23,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.idea.blaze.base.async.FutureUtil;
 import com.google.idea.blaze.base.command.buildresult.BlazeArtifact;
 import com.google.idea.blaze.base.command.buildresult.OutputArtifactWithoutDigest;
@@ -39,10 +40,8 @@ import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Pair;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
@@ -52,8 +51,13 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 
@@ -79,15 +83,24 @@ import javax.annotation.Nullable;
  * which captures metadata about the artifact including data like timestamp or objfs blobId that
  * allows it to determine when an artifact has been updated.
  *
- * <p>An in memory map of these CacheEntries allows for quick retrieval of the cached objects. But
- * this map is also persisted to the disk after calls to {@link #clearCache} and {@link #putAll} and
- * is expected to be re-initialized from the disk via a call to {@link #initialize}.
+ * <p>An in memory map of these CacheEntries allows for quick retrieval of the cached objects. Each
+ * change to the map made by {@link #clearCache} and {@link #putAll} is also appended to an {@link
+ * ArtifactCacheJournal} on disk, from which the map is re-initialized via a call to {@link
+ * #initialize}.
+ *
+ * <p>{@link #get} never blocks. Calls to {@link #putAll} which only add artifacts may run
+ * concurrently with each other; if two of them add the same artifact, it is only copied once.
+ * Artifacts are copied to a temporary file before being moved into place, so {@link #get} never
+ * returns a partially written file.
  */
 public class LocalArtifactCache implements ArtifactCache {
   private static final Logger logger = Logger.getInstance(LocalArtifactCache.class);
 
   /** Name of file that contains the cache state. */
-  @VisibleForTesting static final String CACHE_DATA_FILENAME = "cache_data.json";
+  @VisibleForTesting static final String CACHE_DATA_FILENAME = "cache_data.journal";
+
+  /** Name of the json file that contained the cache state in earlier versions. */
+  @VisibleForTesting static final String LEGACY_CACHE_DATA_FILENAME = "cache_data.json";
 
   private final Project project;
 
@@ -101,12 +114,24 @@ public class LocalArtifactCache implements ArtifactCache {
    * Maps cache key to CacheEntry. A cache key is a String to uniquely identify a CacheEntry for a
    * specific set of Artifacts. The cache key is the same as what is stored in CacheEntry.
    */
-  private final Map<String, CacheEntry> cacheState = new HashMap<>();
+  private final Map<String, CacheEntry> cacheState = new ConcurrentHashMap<>();
+
+  /** Copies which haven't completed yet, keyed by cache key. */
+  private final Map<String, PendingCopy> pendingCopies = new ConcurrentHashMap<>();
+
+  /**
+   * Held for reading by {@link #putAll} calls which only add entries, and for writing by
+   * operations which remove entries. {@link #get} never takes this lock.
+   */
+  private final ReadWriteLock stateLock = new ReentrantReadWriteLock();
+
+  private final ArtifactCacheJournal journal;
 
   public LocalArtifactCache(Project project, String cacheName, Path cacheDir) {
     this.project = project;
     this.cacheName = cacheName;
     this.cacheDir = cacheDir;
+    this.journal = new ArtifactCacheJournal(cacheDir.resolve(CACHE_DATA_FILENAME));
   }
 
   /**
@@ -116,8 +141,13 @@ public class LocalArtifactCache implements ArtifactCache {
    * constructor.
    */
   @Override
-  public synchronized void initialize() {
-    loadCacheData();
+  public void initialize() {
+    stateLock.writeLock().lock();
+    try {
+      loadCacheData();
+    } finally {
+      stateLock.writeLock().unlock();
+    }
   }
 
   /**
@@ -126,7 +156,16 @@ public class LocalArtifactCache implements ArtifactCache {
    * <p>Any untracked artifacts in {@link #cacheDir} will be removed as well. Blocks until done.
    */
   @Override
-  public synchronized void clearCache() {
+  public void clearCache() {
+    stateLock.writeLock().lock();
+    try {
+      clearCacheLocked();
+    } finally {
+      stateLock.writeLock().unlock();
+    }
+  }
+
+  private void clearCacheLocked() {
     try {
       // List and delete all files in the cache directory
       File[] filesInDir = FileOperationProvider.getInstance().listFiles(cacheDir.toFile());
@@ -144,7 +183,7 @@ public class LocalArtifactCache implements ArtifactCache {
     } finally {
       // write a empty state to disk
       cacheState.clear();
-      writeCacheData();
+      rewriteCacheData();
     }
   }
 
@@ -155,7 +194,21 @@ public class LocalArtifactCache implements ArtifactCache {
    * they have changes in objFS since last copy. Blocks until done.
    */
   @Override
-  public synchronized void putAll(
+  public void putAll(
+      Collection<? extends OutputArtifactWithoutDigest> artifacts,
+      BlazeContext context,
+      boolean removeMissingArtifacts) {
+    // Removing entries can't safely overlap with other updates, but adding them can
+    Lock lock = removeMissingArtifacts ? stateLock.writeLock() : stateLock.readLock();
+    lock.lock();
+    try {
+      putAllLocked(artifacts, context, removeMissingArtifacts);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void putAllLocked(
       Collection<? extends OutputArtifactWithoutDigest> artifacts,
       BlazeContext context,
       boolean removeMissingArtifacts) {
@@ -180,10 +233,7 @@ public class LocalArtifactCache implements ArtifactCache {
     // CacheKey are considered "updated"
     ImmutableList<String> updatedKeys =
         keyToCacheEntry.entrySet().stream()
-            .filter(
-                kv ->
-                    !cacheState.containsKey(kv.getKey())
-                        || !cacheState.get(kv.getKey()).equals(kv.getValue()))
+            .filter(kv -> !kv.getValue().equals(cacheState.get(kv.getKey())))
             .map(Entry::getKey)
             .collect(ImmutableList.toImmutableList());
     ImmutableMap<String, OutputArtifactWithoutDigest> updatedKeyToArtifact =
@@ -200,6 +250,8 @@ public class LocalArtifactCache implements ArtifactCache {
               .collect(ImmutableList.toImmutableList());
     }
 
+    List<ListenableFuture<String>> copyFutures = ImmutableList.of();
+    List<String> deletedKeys = ImmutableList.of();
     try {
       // Prefetch artifacts from ObjFS (if required)
       ListenableFuture<?> downloadArtifactsFuture =
@@ -212,13 +264,12 @@ public class LocalArtifactCache implements ArtifactCache {
           .withProgressMessage(String.format("Fetching Artifacts for %s...", cacheName))
           .run();
 
-      // Copy files to disk and notify
-      List<ListenableFuture<String>> copyFutures =
-          copyLocally(updatedKeyToArtifact, updatedKeyToCacheEntry);
-      List<String> copiedKeys = Futures.allAsList(copyFutures).get();
-      copiedKeys.stream()
-          .filter(k -> !k.isEmpty())
-          .forEach(k -> cacheState.put(k, updatedKeyToCacheEntry.get(k)));
+      // Copy files to disk and notify. The in memory state is updated as each copy completes.
+      copyFutures = copyLocally(updatedKeyToArtifact, updatedKeyToCacheEntry);
+      List<String> copiedKeys =
+          Futures.allAsList(copyFutures).get().stream()
+              .filter(k -> !k.isEmpty())
+              .collect(ImmutableList.toImmutableList());
 
       if (!copiedKeys.isEmpty()) {
         context.output(
@@ -228,7 +279,10 @@ public class LocalArtifactCache implements ArtifactCache {
       // Delete files from disk and notify
       // removedKeys will be empty if removeMissingArtifacts is false
       List<ListenableFuture<String>> removeFutures = deleteCachedFiles(removedKeys);
-      List<String> deletedKeys = Futures.allAsList(removeFutures).get();
+      deletedKeys =
+          Futures.allAsList(removeFutures).get().stream()
+              .filter(k -> !k.isEmpty())
+              .collect(ImmutableList.toImmutableList());
       deletedKeys.forEach(cacheState::remove);
 
       if (!deletedKeys.isEmpty()) {
@@ -246,14 +300,60 @@ public class LocalArtifactCache implements ArtifactCache {
       Thread.currentThread().interrupt();
       context.setCancelled();
     } finally {
-      // Write the cache state upon completion
-      writeCacheData();
+      // Record the changes upon completion. Even if waiting failed, every copy which completed has
+      // already updated cacheState, so it must be journaled too. Copies which are still running
+      // are journaled once they complete; one finishing in between is harmlessly journaled twice.
+      ImmutableList<ListenableFuture<String>> unfinishedCopies =
+          copyFutures.stream().filter(f -> !f.isDone()).collect(ImmutableList.toImmutableList());
+      appendCacheData(getCopiedKeys(copyFutures), deletedKeys);
+      journalWhenCopied(unfinishedCopies);
     }
   }
 
+  /** Returns the cache keys of the completed copies in {@code copyFutures} which succeeded. */
+  private static ImmutableList<String> getCopiedKeys(List<ListenableFuture<String>> copyFutures) {
+    ImmutableList.Builder<String> copiedKeys = ImmutableList.builder();
+    for (ListenableFuture<String> future : copyFutures) {
+      if (!future.isDone() || future.isCancelled()) {
+        continue;
+      }
+      try {
+        String key = Futures.getDone(future);
+        if (!key.isEmpty()) {
+          copiedKeys.add(key);
+        }
+      } catch (ExecutionException e) {
+        // the failure is reported by the caller
+      }
+    }
+    return copiedKeys.build();
+  }
+
+  /**
+   * Journals the given copies once they complete. These are copies {@link #putAll} stopped waiting
+   * for (e.g. because it was interrupted), which still update {@link #cacheState}.
+   */
+  private void journalWhenCopied(ImmutableList<ListenableFuture<String>> unfinishedCopies) {
+    if (unfinishedCopies.isEmpty()) {
+      return;
+    }
+    Futures.successfulAsList(unfinishedCopies)
+        .addListener(
+            () -> {
+              // don't interleave with clearing or removing entries
+              stateLock.readLock().lock();
+              try {
+                appendCacheData(getCopiedKeys(unfinishedCopies), ImmutableList.of());
+              } finally {
+                stateLock.readLock().unlock();
+              }
+            },
+            FetchExecutor.EXECUTOR);
+  }
+
   @Override
   @Nullable
-  public synchronized Path get(OutputArtifactWithoutDigest artifact) {
+  public Path get(OutputArtifactWithoutDigest artifact) {
     CacheEntry queriedEntry;
     try {
       queriedEntry = CacheEntry.forArtifact(artifact);
@@ -270,8 +370,8 @@ public class LocalArtifactCache implements ArtifactCache {
 
   /**
    * Loads cache information from {@link #cacheDir} and ensures the that the serialized cache
-   * information is consistent between serialized json and files on disk. If inconsistent cache
-   * state is found, makes a best effort to fix cache state and make it consistent.
+   * information is consistent between the journal and files on disk. If inconsistent cache state
+   * is found, makes a best effort to fix cache state and make it consistent.
    */
   private void loadCacheData() {
     File cacheDirFile = cacheDir.toFile();
@@ -290,33 +390,62 @@ public class LocalArtifactCache implements ArtifactCache {
       throw new IllegalArgumentException("Could not list files in directory: " + cacheDirFile);
     }
 
-    // All files in cache directory except the serialized cache state json
+    // All files in cache directory except the serialized cache state
     Set<File> cachedFiles =
         stream(allFilesInCacheDir)
             .filter(s -> !s.getName().equals(CACHE_DATA_FILENAME))
+            .filter(s -> !s.getName().equals(LEGACY_CACHE_DATA_FILENAME))
             .collect(toCollection(HashSet::new));
 
     File cacheDataFile = getCacheDataFile();
+    File legacyCacheDataFile = cacheDir.resolve(LEGACY_CACHE_DATA_FILENAME).toFile();
+    boolean hasJournal = FileOperationProvider.getInstance().exists(cacheDataFile);
+    boolean hasLegacyData = FileOperationProvider.getInstance().exists(legacyCacheDataFile);
     // No cache data file, but there are other files present in cache directory
-    if (!FileOperationProvider.getInstance().exists(getCacheDataFile()) && !cachedFiles.isEmpty()) {
+    if (!hasJournal && !hasLegacyData && !cachedFiles.isEmpty()) {
       logger.warn(
           String.format(
               "%s does not exist, but %s contains cached files. Clearing directory for a clean"
                   + " start.",
               cacheDataFile, cacheDirFile));
-      clearCache();
+      clearCacheLocked();
       return;
     }
 
     // Read cache state from disk
-    ArtifactCacheData artifactCacheData = readJsonFromDisk(cacheDataFile);
     cacheState.clear();
-    artifactCacheData.getCacheEntries().forEach(e -> cacheState.put(e.getCacheKey(), e));
+    if (hasJournal) {
+      try {
+        cacheState.putAll(journal.read());
+      } catch (IOException e) {
+        logger.warn(
+            String.format(
+                "Could not read %s. Clearing directory for a clean start.", cacheDataFile),
+            e);
+        clearCacheLocked();
+        return;
+      }
+    } else {
+      readJsonFromDisk(legacyCacheDataFile)
+          .getCacheEntries()
+          .forEach(e -> cacheState.put(e.getCacheKey(), e));
+    }
 
     // Remove any references to files that no longer exists in file system
     removeStaleReferences(cachedFiles);
     // Remove any file in FS that is not referenced by the cache
     removeUntrackedFiles(cachedFiles);
+
+    if (!hasJournal || journal.needsRewrite(cacheState.size())) {
+      rewriteCacheData();
+    }
+    if (hasLegacyData && FileOperationProvider.getInstance().exists(cacheDataFile)) {
+      try {
+        Files.deleteIfExists(legacyCacheDataFile.toPath());
+      } catch (IOException e) {
+        logger.warn("Could not delete " + legacyCacheDataFile, e);
+      }
+    }
   }
 
   /**
@@ -327,33 +456,79 @@ public class LocalArtifactCache implements ArtifactCache {
       Map<String, OutputArtifactWithoutDigest> updatedKeyToArtifact,
       Map<String, CacheEntry> updatedKeyToCacheEntry) {
     return updatedKeyToArtifact.entrySet().stream()
-        .map(
-            kv ->
-                FetchExecutor.EXECUTOR.submit(
-                    () -> {
-                      try {
-                        copyLocally(
-                            kv.getValue(),
-                            getPathToCachedFile(
-                                updatedKeyToCacheEntry.get(kv.getKey()).getFileName()));
-                        // return cache key of successfully copied file
-                        return kv.getKey();
-                      } catch (IOException e) {
-                        logger.warn(
-                            String.format(
-                                "Failed to copy artifact %s to %s", kv.getValue(), cacheDir),
-                            e);
-                      }
-                      // return empty string on failure to copy
-                      return "";
-                    }))
+        .map(kv -> copyLocally(kv.getValue(), updatedKeyToCacheEntry.get(kv.getKey())))
         .collect(ImmutableList.toImmutableList());
   }
 
+  /**
+   * Returns a future copying a single artifact to disk, and updating {@link #cacheState} once it's
+   * done.
+   *
+   * <p>If the same version of the artifact is already being copied, the pending copy is reused.
+   * If a different version is being copied, this copy starts once it completes, so that two
+   * copies never write to the same file at once, and the last copy started determines the final
+   * state.
+   */
+  private ListenableFuture<String> copyLocally(
+      OutputArtifactWithoutDigest artifact, CacheEntry cacheEntry) {
+    String cacheKey = cacheEntry.getCacheKey();
+    PendingCopy pendingCopy =
+        pendingCopies.compute(
+            cacheKey,
+            (k, existing) -> {
+              if (existing != null
+                  && existing.cacheEntry.equals(cacheEntry)
+                  && !existing.future.isDone()) {
+                return existing;
+              }
+              ListenableFuture<String> future =
+                  existing == null
+                      ? FetchExecutor.EXECUTOR.submit(() -> copyAndTrack(artifact, cacheEntry))
+                      : Futures.whenAllComplete(existing.future)
+                          .call(() -> copyAndTrack(artifact, cacheEntry), FetchExecutor.EXECUTOR);
+              return new PendingCopy(cacheEntry, future);
+            });
+    pendingCopy.future.addListener(
+        () -> pendingCopies.remove(cacheKey, pendingCopy), MoreExecutors.directExecutor());
+    return pendingCopy.future;
+  }
+
+  /**
+   * Copies an artifact to disk and starts tracking it, returning the cache key on success or an
+   * empty string on failure.
+   */
+  private String copyAndTrack(OutputArtifactWithoutDigest artifact, CacheEntry cacheEntry) {
+    try {
+      copyLocally(artifact, getPathToCachedFile(cacheEntry.getFileName()));
+    } catch (IOException e) {
+      logger.warn(String.format("Failed to copy artifact %s to %s", artifact, cacheDir), e);
+      // return empty string on failure to copy
+      return "";
+    }
+    cacheState.put(cacheEntry.getCacheKey(), cacheEntry);
+    // return cache key of successfully copied file
+    return cacheEntry.getCacheKey();
+  }
+
+  /**
+   * Copies the artifact to a temporary file alongside {@code destinationPath}, then moves it into
+   * place, so that readers never see a partially written file.
+   */
   private static void copyLocally(OutputArtifactWithoutDigest blazeArtifact, Path destinationPath)
       throws IOException {
-    try (InputStream stream = blazeArtifact.getInputStream()) {
-      Files.copy(stream, destinationPath, StandardCopyOption.REPLACE_EXISTING);
+    Path tempFile =
+        Files.createTempFile(destinationPath.getParent(), destinationPath.getFileName() + ".", "");
+    try {
+      try (InputStream stream = blazeArtifact.getInputStream()) {
+        Files.copy(stream, tempFile, StandardCopyOption.REPLACE_EXISTING);
+      }
+      Files.move(
+          tempFile,
+          destinationPath,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tempFile);
     }
   }
 
@@ -403,7 +578,7 @@ public class LocalArtifactCache implements ArtifactCache {
             "%d invalid references in %s. Removing invalid references.",
             staleFilesToKey.size(), cacheName));
     staleFilesToKey.values().forEach(cacheState::remove);
-    writeCacheData();
+    appendCacheData(ImmutableList.of(), staleFilesToKey.values());
   }
 
   /** Deletes files in {@code cachedFiles} that are not tracked in {@link #cacheState}. */
@@ -449,41 +624,42 @@ public class LocalArtifactCache implements ArtifactCache {
         .collect(ImmutableList.toImmutableList());
   }
 
-  /** Serializes {@link #cacheState} to a file on disk. */
-  private void writeCacheData() {
-    File cacheDataFile = getCacheDataFile();
-    ArtifactCacheData artifactCacheData = new ArtifactCacheData(cacheState.values());
-
+  /**
+   * Appends the current state of the given updated keys, and the given removed keys, to the
+   * journal. Rewrites the journal instead if it has grown too large, or if appending fails.
+   */
+  private void appendCacheData(Collection<String> updatedKeys, Collection<String> removedKeys) {
+    // Record the current state of each key rather than the entry this call copied, as a
+    // concurrent call may have since copied a newer version.
+    ImmutableList<CacheEntry> updatedEntries =
+        updatedKeys.stream()
+            .map(cacheState::get)
+            .filter(Objects::nonNull)
+            .collect(ImmutableList.toImmutableList());
     try {
-      ListenableFuture<?> writeFuture = writeCacheData(cacheDir, cacheDataFile, artifactCacheData);
-      writeFuture.get();
-    } catch (InterruptedException e) {
-      Thread.currentThread().interrupt();
-    } catch (ExecutionException e) {
-      logger.warn(String.format("Failed to write cache state file %s", cacheDataFile));
+      journal.append(updatedEntries, removedKeys);
+    } catch (IOException e) {
+      logger.warn(String.format("Failed to append to cache state file %s", getCacheDataFile()), e);
+      rewriteCacheData();
+      return;
+    }
+    if (journal.needsRewrite(cacheState.size())) {
+      rewriteCacheData();
     }
   }
 
-  private static ListenableFuture<?> writeCacheData(
-      Path cacheDir, File cacheDataFile, ArtifactCacheData artifactCacheData) {
-    // Logger will catch any issues with writing the cache state
-    return FetchExecutor.EXECUTOR.submit(
-        () -> {
-          try {
-            writeJsonToDisk(cacheDataFile, artifactCacheData);
-            logCacheInfo(cacheDir.toFile());
-          } catch (IOException e) {
-            logger.warn(String.format("Failed to write cache state file %s", cacheDataFile));
-          }
-        });
-  }
-
-  @VisibleForTesting
-  public static ArtifactCacheData readJsonFromDisk(File cacheDataFile) {
-    if (!FileOperationProvider.getInstance().exists(cacheDataFile)) {
-      return new ArtifactCacheData(ImmutableList.of());
+  /** Replaces the journal with one containing a single record per entry in {@link #cacheState}. */
+  private void rewriteCacheData() {
+    try {
+      journal.rewrite(cacheState.values());
+      logCacheInfo(cacheDir.toFile(), cacheState.size());
+    } catch (IOException e) {
+      logger.warn(String.format("Failed to write cache state file %s", getCacheDataFile()), e);
     }
+  }
 
+  /** Reads the cache state written by earlier versions, so it can be migrated to the journal. */
+  private static ArtifactCacheData readJsonFromDisk(File cacheDataFile) {
     try (InputStream inputStream = new FileInputStream(cacheDataFile)) {
       return ArtifactCacheData.readJson(inputStream);
     } catch (IOException e) {
@@ -492,22 +668,9 @@ public class LocalArtifactCache implements ArtifactCache {
     return new ArtifactCacheData(ImmutableList.of());
   }
 
-  private static void writeJsonToDisk(File cacheDataFile, ArtifactCacheData artifactCacheData)
-      throws IOException {
-    try (OutputStream stream = new FileOutputStream(cacheDataFile)) {
-      artifactCacheData.writeJson(stream);
-    }
-  }
-
-  private static void logCacheInfo(File cacheDirFile) {
+  private static void logCacheInfo(File cacheDirFile, int numFiles) {
     long cacheDirSize = FileOperationProvider.getInstance().getFileSize(cacheDirFile);
 
-    int numFiles = 0;
-    File[] filesInDir = FileOperationProvider.getInstance().listFiles(cacheDirFile);
-    if (filesInDir != null) {
-      numFiles = filesInDir.length - 1;
-    }
-
     ImmutableMap.Builder<String, String> data = ImmutableMap.builder();
     data.put("CacheDir", cacheDirFile.toString());
     data.put("CacheSize", Long.toString(cacheDirSize));
@@ -524,4 +687,15 @@ public class LocalArtifactCache implements ArtifactCache {
   private Path getPathToCachedFile(String fileName) {
     return cacheDir.resolve(fileName);
   }
+
+  /** A copy which hasn't completed yet, along with the version of the artifact being copied. */
+  private static final class PendingCopy {
+    final CacheEntry cacheEntry;
+    final ListenableFuture<String> future;
+
+    PendingCopy(CacheEntry cacheEntry, ListenableFuture<String> future) {
+      this.cacheEntry = cacheEntry;
+      this.future = future;
+    }
+  }
 }
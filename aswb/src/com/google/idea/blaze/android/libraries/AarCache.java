@@ -20,6 +20,7 @@ import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.ImmutableMap.toImmutableMap;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
 
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -28,6 +29,8 @@ import com.google.idea.blaze.base.prefetch.FetchExecutor;
 import com.intellij.openapi.diagnostic.Logger;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.Collection;
 import javax.annotation.Nullable;
@@ -92,11 +95,15 @@ public class AarCache {
    *     time stamp file will be updated the same as that of the aar file. So that it can be used to
    *     decide if the aar file need to be updated next time. Time stamp file will use creation time
    *     as modified time if null is provided.
+   * @param digest a digest of the aar file and the jars unpacked with it, if known. It is written
+   *     to the stamp file so that an aar with unchanged contents needn't be unpacked again, see
+   *     {@link #readStampDigest}.
    */
-  public File createTimeStampFile(String key, @Nullable File aarFile) throws IOException {
+  public File createTimeStampFile(String key, @Nullable File aarFile, @Nullable String digest)
+      throws IOException {
     FileOperationProvider ops = FileOperationProvider.getInstance();
     File stampFile = new File(aarDirForKey(key), STAMP_FILE_NAME);
-    stampFile.createNewFile();
+    Files.write(stampFile.toPath(), Strings.nullToEmpty(digest).getBytes(StandardCharsets.UTF_8));
     if (aarFile != null) {
       long sourceTime = ops.getFileModifiedTime(aarFile);
       if (!ops.setFileModifiedTime(stampFile, sourceTime)) {
@@ -106,6 +113,21 @@ public class AarCache {
     return stampFile;
   }
 
+  /**
+   * Returns the digest of the aar (and its jars) last unpacked for the given key, as recorded in
+   * its stamp file, or null if there's no stamp file or it doesn't record a digest.
+   */
+  @Nullable
+  public String readStampDigest(String key) {
+    File stampFile = new File(aarDirForKey(key), STAMP_FILE_NAME);
+    try {
+      String digest = new String(Files.readAllBytes(stampFile.toPath()), StandardCharsets.UTF_8);
+      return Strings.emptyToNull(digest.trim());
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
   /**
    * Returns a map of cache keys for the currently-cached files, along with a representative file
    * used for timestamp-based diffing.
@@ -23,6 +23,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.idea.blaze.android.libraries.Unpacker.UnpackStats;
 import com.google.idea.blaze.android.sync.model.AarLibrary;
 import com.google.idea.blaze.base.async.FutureUtil;
 import com.google.idea.blaze.base.command.buildresult.BlazeArtifact;
@@ -195,10 +196,17 @@ public class UnpackedAars {
       }
 
       // update cache files
-      Unpacker.unpack(projectState, updatedKeys, aarCache);
+      UnpackStats stats = Unpacker.unpack(projectState, updatedKeys, aarCache);
 
-      if (!updatedKeys.isEmpty()) {
-        context.output(PrintOutput.log(String.format("Copied %d AARs", updatedKeys.size())));
+      if (stats.unpacked() > 0) {
+        context.output(PrintOutput.log(String.format("Copied %d AARs", stats.unpacked())));
+      }
+      if (stats.unchanged() > 0) {
+        context.output(
+            PrintOutput.log(String.format("Skipped %d unchanged AARs", stats.unchanged())));
+      }
+      if (stats.failed() > 0) {
+        context.output(PrintOutput.log(String.format("Failed to copy %d AARs", stats.failed())));
       }
 
     } catch (InterruptedException e) {
@@ -18,28 +18,37 @@ package com.google.idea.blaze.android.libraries;
 
 import static com.android.SdkConstants.FN_LINT_JAR;
 
+import com.google.auto.value.AutoValue;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.idea.blaze.base.command.buildresult.BlazeArtifact;
 import com.google.idea.blaze.base.command.buildresult.BlazeArtifact.LocalFileArtifact;
+import com.google.idea.blaze.base.command.buildresult.OutputArtifact;
 import com.google.idea.blaze.base.io.FileOperationProvider;
 import com.google.idea.blaze.base.prefetch.FetchExecutor;
 import com.intellij.openapi.diagnostic.Logger;
-import com.intellij.openapi.util.io.FileUtil;
-import com.intellij.util.io.ZipUtil;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import javax.annotation.Nullable;
 
 /**
  * Unzip prefetched aars to local cache directories. AARs are directories with many files. {@see
@@ -66,57 +75,94 @@ public final class Unpacker {
   private static final ImmutableSet<String> EXPECTED_JARS =
       ImmutableSet.of(FN_LINT_JAR, "inspector.jar");
 
-  /** Updated prefetched aars to aar directory. */
-  public static void unpack(
+  /**
+   * The maximum number of aars unpacked concurrently. Unpacking is dominated by disk writes, so
+   * running many more than this just causes contention.
+   */
+  private static final int MAX_CONCURRENT_UNPACKS =
+      Math.max(2, Runtime.getRuntime().availableProcessors());
+
+  /**
+   * Updated prefetched aars to aar directory.
+   *
+   * @return how many aars were unpacked, skipped or failed. Aars whose contents haven't changed
+   *     since they were last unpacked are skipped.
+   */
+  public static UnpackStats unpack(
       ImmutableMap<String, AarLibraryContents> toCache, Set<String> updatedKeys, AarCache aarCache)
       throws ExecutionException, InterruptedException {
-    unpackAarsToDir(toCache, updatedKeys, aarCache);
+    return unpackAarsToDir(toCache, updatedKeys, aarCache);
   }
 
-  private static void unpackAarsToDir(
+  private static UnpackStats unpackAarsToDir(
       ImmutableMap<String, AarLibraryContents> toCache, Set<String> updatedKeys, AarCache aarCache)
       throws ExecutionException, InterruptedException {
     FileOperationProvider ops = FileOperationProvider.getInstance();
+    Queue<String> pending = new ConcurrentLinkedQueue<>(updatedKeys);
+    AtomicInteger unpacked = new AtomicInteger();
+    AtomicInteger unchanged = new AtomicInteger();
+    AtomicInteger failed = new AtomicInteger();
     List<ListenableFuture<?>> futures = new ArrayList<>();
-    updatedKeys.forEach(
-        key ->
-            futures.add(
-                FetchExecutor.EXECUTOR.submit(
-                    () -> unpackAarToDir(ops, toCache.get(key), aarCache))));
+    int workers = Math.min(MAX_CONCURRENT_UNPACKS, updatedKeys.size());
+    for (int i = 0; i < workers; i++) {
+      futures.add(
+          FetchExecutor.EXECUTOR.submit(
+              () -> {
+                String key;
+                while ((key = pending.poll()) != null) {
+                  switch (unpackAarToDir(ops, toCache.get(key), aarCache)) {
+                    case UNPACKED:
+                      unpacked.incrementAndGet();
+                      break;
+                    case UNCHANGED:
+                      unchanged.incrementAndGet();
+                      break;
+                    case FAILED:
+                      failed.incrementAndGet();
+                      break;
+                  }
+                }
+              }));
+    }
     Futures.allAsList(futures).get();
+    return UnpackStats.create(unpacked.get(), unchanged.get(), failed.get());
+  }
+
+  private enum Outcome {
+    UNPACKED,
+    UNCHANGED,
+    FAILED
   }
 
   /**
    * Each .aar file will be unpacked as <key_from_artifact_location>.aar directories in cache
    * directory. A timestamp file will be created to decide if updated is needed when a new .aar file
    * with same name is found next time.
+   *
+   * <p>The timestamp file records a digest of the aar and the jars copied alongside it, so it's
+   * only written once they have all been copied. If any of them fail, the partially unpacked
+   * directory is removed so that the aar is unpacked again on the next sync.
    */
-  private static void unpackAarToDir(
+  private static Outcome unpackAarToDir(
       FileOperationProvider ops, AarLibraryContents aarLibraryContents, AarCache aarCache) {
-    String cacheKey = UnpackedAarUtils.getAarDirName(aarLibraryContents.aar());
-    try {
-      File aarDir = aarCache.recreateAarDir(ops, cacheKey);
-      // TODO(brendandouglas): decompress via ZipInputStream so we don't require a local file
-      File toCopy = getOrCreateLocalFile(aarLibraryContents.aar());
-      ZipUtil.extract(
-          toCopy,
-          aarDir,
-          // Skip jars except EXPECTED_JARS. We will copy jar in AarLibraryContents instead.
-          // That could give us freedom in the future to use an ijar or header jar instead,
-          // which is more lightweight. For EXPECTED_JARS, they are not collected JarLibrary,
-          // so that we are not able to copy them from AarLibraryContents. But we need them for
-          // some functions e.g. lint check, lay out inspection etc. So copy them directly.
-          (dir, name) -> EXPECTED_JARS.contains(name) || !name.endsWith(".jar"));
-
-      BlazeArtifact aar = aarLibraryContents.aar();
-
+    BlazeArtifact aar = aarLibraryContents.aar();
+    String cacheKey = UnpackedAarUtils.getAarDirName(aar);
+    String digest = getCombinedDigest(aarLibraryContents);
+    File aarFile = (aar instanceof LocalFileArtifact) ? ((LocalFileArtifact) aar).getFile() : null;
+    if (digest != null && digest.equals(aarCache.readStampDigest(cacheKey))) {
       try {
-        aarCache.createTimeStampFile(
-            cacheKey,
-            (aar instanceof LocalFileArtifact) ? ((LocalFileArtifact) aar).getFile() : null);
+        aarCache.createTimeStampFile(cacheKey, aarFile, digest);
       } catch (IOException e) {
         logger.warn("Failed to set AAR cache timestamp for " + aar, e);
       }
+      return Outcome.UNCHANGED;
+    }
+    File aarDir = aarCache.aarDirForKey(cacheKey);
+    try {
+      aarDir = aarCache.recreateAarDir(ops, cacheKey);
+      try (ZipInputStream zip = new ZipInputStream(aar.getInputStream())) {
+        extract(zip, aarDir.toPath());
+      }
 
       // copy merged jar
       if (aarLibraryContents.jar() != null) {
@@ -124,8 +170,6 @@ public final class Unpacker {
           Path destination = Paths.get(UnpackedAarUtils.getJarFile(aarDir).getPath());
           ops.mkdirs(destination.getParent().toFile());
           Files.copy(stream, destination, StandardCopyOption.REPLACE_EXISTING);
-        } catch (Exception e) {
-          logger.warn("Failed to copy class jar for " + aar, e);
         }
       }
 
@@ -135,32 +179,114 @@ public final class Unpacker {
           Path destination = aarDir.toPath().resolve(UnpackedAarUtils.getSrcJarName(srcjar));
           ops.mkdirs(destination.getParent().toFile());
           Files.copy(stream, destination, StandardCopyOption.REPLACE_EXISTING);
-        } catch (Exception e) {
-          logger.warn("Failed to copy source jar for " + aar, e);
         }
       }
+
+      aarCache.createTimeStampFile(cacheKey, aarFile, digest);
+      return Outcome.UNPACKED;
     } catch (IOException e) {
-      logger.warn(
-          String.format(
-              "Failed to extract AAR %s to %s",
-              aarLibraryContents.aar(), aarCache.aarDirForKey(cacheKey)),
-          e);
+      logger.warn(String.format("Failed to unpack AAR %s to %s", aar, aarDir), e);
+      try {
+        if (ops.exists(aarDir)) {
+          ops.deleteRecursively(aarDir, true);
+        }
+      } catch (IOException deleteException) {
+        logger.warn("Failed to remove " + aarDir, deleteException);
+      }
+      return Outcome.FAILED;
     }
   }
 
-  /** Returns a locally-accessible file mirroring the contents of this {@link BlazeArtifact}. */
-  private static File getOrCreateLocalFile(BlazeArtifact artifact) throws IOException {
-    if (artifact instanceof LocalFileArtifact) {
-      return ((LocalFileArtifact) artifact).getFile();
+  /**
+   * Extracts the entries the IDE needs from the aar in a single pass over its contents, so remote
+   * aars needn't be copied to a local file first.
+   */
+  private static void extract(ZipInputStream zip, Path aarDir) throws IOException {
+    Path root = aarDir.normalize();
+    ZipEntry entry;
+    while ((entry = zip.getNextEntry()) != null) {
+      if (entry.isDirectory() || !shouldExtract(entry.getName())) {
+        continue;
+      }
+      Path destination = root.resolve(entry.getName()).normalize();
+      if (!destination.startsWith(root)) {
+        throw new IOException("Invalid entry in AAR: " + entry.getName());
+      }
+      Files.createDirectories(destination.getParent());
+      Files.copy(zip, destination, StandardCopyOption.REPLACE_EXISTING);
     }
-    File tmpFile =
-        FileUtil.createTempFile(
-            "local-aar-file",
-            Integer.toHexString(UnpackedAarUtils.getArtifactKey(artifact).hashCode()),
-            /* deleteOnExit= */ true);
-    try (InputStream stream = artifact.getInputStream()) {
-      Files.copy(stream, Paths.get(tmpFile.getPath()), StandardCopyOption.REPLACE_EXISTING);
-      return tmpFile;
+  }
+
+  /**
+   * Skip jars except EXPECTED_JARS. We will copy jar in AarLibraryContents instead. That could give
+   * us freedom in the future to use an ijar or header jar instead, which is more lightweight. For
+   * EXPECTED_JARS, they are not collected JarLibrary, so that we are not able to copy them from
+   * AarLibraryContents. But we need them for some functions e.g. lint check, lay out inspection
+   * etc. So copy them directly.
+   */
+  private static boolean shouldExtract(String entryName) {
+    String name = entryName.substring(entryName.lastIndexOf('/') + 1);
+    return EXPECTED_JARS.contains(name) || !name.endsWith(".jar");
+  }
+
+  /**
+   * Returns a digest of the aar, its merged jar and its source jars, or null if any of them doesn't
+   * have a digest. An unpacked aar is only up to date if none of them has changed.
+   */
+  @Nullable
+  private static String getCombinedDigest(AarLibraryContents aarLibraryContents) {
+    List<String> digests = new ArrayList<>();
+    String aarDigest = getDigest(aarLibraryContents.aar());
+    if (aarDigest == null) {
+      return null;
+    }
+    digests.add("aar:" + aarDigest);
+    if (aarLibraryContents.jar() != null) {
+      String jarDigest = getDigest(aarLibraryContents.jar());
+      if (jarDigest == null) {
+        return null;
+      }
+      digests.add("jar:" + jarDigest);
+    }
+    for (BlazeArtifact srcjar : aarLibraryContents.srcJars()) {
+      String srcjarDigest = getDigest(srcjar);
+      if (srcjarDigest == null) {
+        return null;
+      }
+      // include the name, as that's where it's copied to
+      digests.add("srcjar:" + UnpackedAarUtils.getSrcJarName(srcjar) + ":" + srcjarDigest);
+    }
+    if (digests.size() == 1) {
+      // keep the aar's own digest, so stamps written for aars without jars stay valid
+      return aarDigest;
+    }
+    return Hashing.sha256()
+        .hashString(String.join("\n", digests), StandardCharsets.UTF_8)
+        .toString();
+  }
+
+  @Nullable
+  private static String getDigest(BlazeArtifact artifact) {
+    if (!(artifact instanceof OutputArtifact)) {
+      return null;
+    }
+    return Strings.emptyToNull(((OutputArtifact) artifact).getDigest());
+  }
+
+  /** The outcome of {@link #unpack}. */
+  @AutoValue
+  public abstract static class UnpackStats {
+    /** The number of aars which were unpacked. */
+    public abstract int unpacked();
+
+    /** The number of aars skipped because their contents hadn't changed. */
+    public abstract int unchanged();
+
+    /** The number of aars which couldn't be unpacked, and will be retried on the next sync. */
+    public abstract int failed();
+
+    static UnpackStats create(int unpacked, int unchanged, int failed) {
+      return new AutoValue_Unpacker_UnpackStats(unpacked, unchanged, failed);
     }
   }
 
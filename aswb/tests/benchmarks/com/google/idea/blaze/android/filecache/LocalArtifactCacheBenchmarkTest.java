@@ -0,0 +1,207 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.android.filecache;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.idea.blaze.android.filecache.LocalArtifactCache.CACHE_DATA_FILENAME;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.command.buildresult.LocalFileOutputArtifactWithoutDigest;
+import com.google.idea.blaze.base.command.buildresult.OutputArtifactWithoutDigest;
+import com.google.idea.blaze.base.io.FileOperationProvider;
+import com.google.idea.blaze.base.prefetch.DefaultPrefetcher;
+import com.google.idea.blaze.base.prefetch.RemoteArtifactPrefetcher;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.testing.IntellijRule;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Benchmarks persisting updates to a {@link LocalArtifactCache} of 100k entries, against
+ * rewriting the whole JSON cache state as it did before the state was kept in an {@link
+ * ArtifactCacheJournal}.
+ *
+ * <p>Not part of the default test run. Run with {@code bazel test //aswb:benchmarks}.
+ */
+@RunWith(JUnit4.class)
+public class LocalArtifactCacheBenchmarkTest {
+  private static final int CACHE_SIZE = 100_000;
+  private static final int UPDATE_SIZE = 10;
+  private static final int ITERATIONS = 5;
+
+  @Rule public final IntellijRule intellijRule = new IntellijRule();
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+  @Rule public TemporaryFolder cacheDirectory = new TemporaryFolder();
+
+  @Before
+  public void initTest() {
+    intellijRule.registerApplicationService(
+        FileOperationProvider.class, new FileOperationProvider());
+    intellijRule.registerApplicationService(
+        RemoteArtifactPrefetcher.class, new DefaultPrefetcher());
+  }
+
+  @Test
+  public void persistSmallUpdate_journalAppendVersusJsonRewrite() throws IOException {
+    List<CacheEntry> entries = new ArrayList<>(CACHE_SIZE);
+    for (int i = 0; i < CACHE_SIZE; i++) {
+      entries.add(entry(i, "0"));
+    }
+    Path jsonFile = temporaryFolder.getRoot().toPath().resolve("cache_data.json");
+    Path journalFile = temporaryFolder.getRoot().toPath().resolve(CACHE_DATA_FILENAME);
+    ArtifactCacheJournal journal = new ArtifactCacheJournal(journalFile);
+    journal.rewrite(entries);
+    long journalSizeBefore = Files.size(journalFile);
+
+    Duration jsonRewrite = Duration.ZERO;
+    Duration journalAppend = Duration.ZERO;
+    for (int i = 0; i < ITERATIONS; i++) {
+      List<CacheEntry> updated = new ArrayList<>(UPDATE_SIZE);
+      for (int j = 0; j < UPDATE_SIZE; j++) {
+        int index = i * UPDATE_SIZE + j;
+        CacheEntry entry = entry(index, Integer.toString(i + 1));
+        entries.set(index, entry);
+        updated.add(entry);
+      }
+
+      Stopwatch stopwatch = Stopwatch.createStarted();
+      try (OutputStream out = Files.newOutputStream(jsonFile)) {
+        new ArtifactCacheData(entries).writeJson(out);
+      }
+      jsonRewrite = jsonRewrite.plus(stopwatch.elapsed());
+
+      stopwatch = Stopwatch.createStarted();
+      journal.append(updated, ImmutableList.of());
+      journalAppend = journalAppend.plus(stopwatch.elapsed());
+    }
+    long jsonBytes = Files.size(jsonFile);
+    long appendedBytes = (Files.size(journalFile) - journalSizeBefore) / ITERATIONS;
+
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    ArtifactCacheData jsonData;
+    try (InputStream in = Files.newInputStream(jsonFile)) {
+      jsonData = ArtifactCacheData.readJson(in);
+    }
+    Duration jsonRead = stopwatch.elapsed();
+    stopwatch = Stopwatch.createStarted();
+    int journalEntries = new ArtifactCacheJournal(journalFile).read().size();
+    Duration journalRead = stopwatch.elapsed();
+
+    System.out.printf(
+        "Persisting a %d entry update to a %d entry cache, mean of %d runs:%n"
+            + "  JSON rewrite:   %d ms, %d bytes written%n"
+            + "  journal append: %d us, %d bytes written%n"
+            + "Loading the cache state:%n"
+            + "  JSON:    %d ms%n"
+            + "  journal: %d ms%n",
+        UPDATE_SIZE,
+        CACHE_SIZE,
+        ITERATIONS,
+        jsonRewrite.dividedBy(ITERATIONS).toMillis(),
+        jsonBytes,
+        journalAppend.dividedBy(ITERATIONS).toNanos() / 1000,
+        appendedBytes,
+        jsonRead.toMillis(),
+        journalRead.toMillis());
+
+    assertThat(jsonData.getCacheEntries()).hasSize(CACHE_SIZE);
+    assertThat(journalEntries).isEqualTo(CACHE_SIZE);
+    // an append writes only the update, rather than the whole cache state
+    assertThat(appendedBytes).isLessThan(jsonBytes / 1000);
+  }
+
+  @Test
+  public void putAll_smallUpdateToLargeCache_appendsOnlyTheUpdate() throws IOException {
+    Path cacheDir = cacheDirectory.getRoot().toPath();
+    List<CacheEntry> entries = new ArrayList<>(CACHE_SIZE);
+    for (int i = 0; i < CACHE_SIZE; i++) {
+      CacheEntry entry = entry(i, "0");
+      entries.add(entry);
+      Files.createFile(cacheDir.resolve(entry.getFileName()));
+    }
+    new ArtifactCacheJournal(cacheDir.resolve(CACHE_DATA_FILENAME)).rewrite(entries);
+
+    LocalArtifactCache artifactCache =
+        new LocalArtifactCache(intellijRule.getProject(), "BenchmarkArtifactCache", cacheDir);
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    artifactCache.initialize();
+    Duration initialize = stopwatch.elapsed();
+
+    Duration putAll = Duration.ZERO;
+    List<OutputArtifactWithoutDigest> added = new ArrayList<>();
+    for (int i = 0; i < ITERATIONS; i++) {
+      ImmutableList<OutputArtifactWithoutDigest> update = newArtifacts(i);
+      stopwatch = Stopwatch.createStarted();
+      artifactCache.putAll(update, BlazeContext.create(), false);
+      putAll = putAll.plus(stopwatch.elapsed());
+      added.addAll(update);
+    }
+
+    System.out.printf(
+        "LocalArtifactCache of %d entries:%n"
+            + "  initialize: %d ms%n"
+            + "  putAll of %d new artifacts, mean of %d runs: %d ms%n",
+        CACHE_SIZE,
+        initialize.toMillis(),
+        UPDATE_SIZE,
+        ITERATIONS,
+        putAll.dividedBy(ITERATIONS).toMillis());
+
+    ArtifactCacheJournal journal = new ArtifactCacheJournal(cacheDir.resolve(CACHE_DATA_FILENAME));
+    assertThat(journal.read()).hasSize(CACHE_SIZE + ITERATIONS * UPDATE_SIZE);
+    // nothing was rewritten; each putAll appended a record per new artifact
+    assertThat(journal.getRecordCount()).isEqualTo(CACHE_SIZE + ITERATIONS * UPDATE_SIZE);
+    for (OutputArtifactWithoutDigest artifact : added) {
+      assertThat(artifactCache.get(artifact)).isNotNull();
+    }
+  }
+
+  private ImmutableList<OutputArtifactWithoutDigest> newArtifacts(int iteration)
+      throws IOException {
+    ImmutableList.Builder<OutputArtifactWithoutDigest> artifacts = ImmutableList.builder();
+    for (int i = 0; i < UPDATE_SIZE; i++) {
+      String relativePath = String.format("k8-opt/update_%d/artifact_%d.jar", iteration, i);
+      File file = new File(temporaryFolder.getRoot(), "blaze-out/" + relativePath);
+      assertThat(file.getParentFile().mkdirs() || file.getParentFile().isDirectory()).isTrue();
+      Files.write(file.toPath(), new byte[1024]);
+      artifacts.add(new LocalFileOutputArtifactWithoutDigest(file, relativePath, "k8-opt"));
+    }
+    return artifacts.build();
+  }
+
+  private static CacheEntry entry(int index, String identifier) {
+    String name = "artifact_" + index;
+    return new CacheEntry(
+        name + "_key",
+        name + ".jar",
+        ImmutableSet.of(new ArtifactMetadata("path/to/" + name + ".jar", identifier)));
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.android.filecache;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.testing.IntellijRule;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link ArtifactCacheJournal} */
+@RunWith(JUnit4.class)
+public class ArtifactCacheJournalTest {
+  @Rule public final IntellijRule intellijRule = new IntellijRule();
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private Path journalFile;
+
+  @Before
+  public void initTest() {
+    journalFile = temporaryFolder.getRoot().toPath().resolve("cache_data.journal");
+  }
+
+  private static CacheEntry entry(String name, String identifier) {
+    return new CacheEntry(
+        name + "_key",
+        name + ".jar",
+        ImmutableSet.of(new ArtifactMetadata("path/to/" + name + ".jar", identifier)));
+  }
+
+  @Test
+  public void read_missingJournal_returnsNoEntries() throws IOException {
+    assertThat(new ArtifactCacheJournal(journalFile).read()).isEmpty();
+  }
+
+  @Test
+  public void read_replaysAppendedRecords() throws IOException {
+    ArtifactCacheJournal journal = new ArtifactCacheJournal(journalFile);
+    journal.rewrite(ImmutableList.of(entry("a", "1"), entry("b", "1")));
+    journal.append(ImmutableList.of(entry("c", "1"), entry("a", "2")), ImmutableList.of());
+    journal.append(ImmutableList.of(), ImmutableList.of("b_key"));
+
+    Map<String, CacheEntry> entries = new ArtifactCacheJournal(journalFile).read();
+
+    assertThat(entries).containsExactly("a_key", entry("a", "2"), "c_key", entry("c", "1"));
+  }
+
+  @Test
+  public void append_beforeRewrite_fails() {
+    ArtifactCacheJournal journal = new ArtifactCacheJournal(journalFile);
+    assertThrows(
+        IOException.class,
+        () -> journal.append(ImmutableList.of(entry("a", "1")), ImmutableList.of()));
+  }
+
+  @Test
+  public void read_invalidHeader_fails() throws IOException {
+    Files.write(journalFile, new byte[] {'{', '}'});
+    assertThrows(IOException.class, () -> new ArtifactCacheJournal(journalFile).read());
+  }
+
+  @Test
+  public void read_truncatedRecord_ignoredAndRequiresRewrite() throws IOException {
+    ArtifactCacheJournal journal = new ArtifactCacheJournal(journalFile);
+    journal.rewrite(ImmutableList.of(entry("a", "1")));
+    journal.append(ImmutableList.of(entry("b", "1")), ImmutableList.of());
+    try (RandomAccessFile file = new RandomAccessFile(journalFile.toFile(), "rw")) {
+      file.setLength(file.length() - 3);
+    }
+
+    ArtifactCacheJournal reloaded = new ArtifactCacheJournal(journalFile);
+    Map<String, CacheEntry> entries = reloaded.read();
+
+    assertThat(entries).containsExactly("a_key", entry("a", "1"));
+    assertThat(reloaded.needsRewrite(entries.size())).isTrue();
+    assertThrows(
+        IOException.class,
+        () -> reloaded.append(ImmutableList.of(entry("c", "1")), ImmutableList.of()));
+    reloaded.rewrite(entries.values());
+    assertThat(reloaded.needsRewrite(entries.size())).isFalse();
+  }
+
+  @Test
+  public void needsRewrite_onlyOnceRecordsOutnumberEntries() throws IOException {
+    ArtifactCacheJournal journal = new ArtifactCacheJournal(journalFile);
+    journal.rewrite(ImmutableList.of(entry("a", "0")));
+    for (int i = 1; i < ArtifactCacheJournal.MIN_RECORDS_TO_COMPACT; i++) {
+      journal.append(ImmutableList.of(entry("a", Integer.toString(i))), ImmutableList.of());
+    }
+    assertThat(journal.needsRewrite(1)).isTrue();
+    assertThat(journal.needsRewrite(ArtifactCacheJournal.MIN_RECORDS_TO_COMPACT)).isFalse();
+
+    journal.rewrite(ImmutableList.of(entry("a", "last")));
+
+    assertThat(journal.getRecordCount()).isEqualTo(1);
+    assertThat(journal.needsRewrite(1)).isFalse();
+    assertThat(new ArtifactCacheJournal(journalFile).read())
+        .containsExactly("a_key", entry("a", "last"));
+  }
+
+  /**
+   * Persisting a small update to a large cache should only write the update, rather than the
+   * whole cache state.
+   */
+  @Test
+  public void append_largeCache_writesOnlyTheUpdate() throws IOException {
+    int cacheSize = 100_000;
+    List<CacheEntry> entries = new ArrayList<>(cacheSize);
+    for (int i = 0; i < cacheSize; i++) {
+      entries.add(entry("artifact_" + i, Integer.toString(i)));
+    }
+    ArtifactCacheJournal journal = new ArtifactCacheJournal(journalFile);
+    journal.rewrite(entries);
+    long sizeBeforeAppend = Files.size(journalFile);
+
+    CacheEntry updated = entry("artifact_42", "updated");
+    journal.append(ImmutableList.of(updated), ImmutableList.of("artifact_7_key"));
+    long appendedBytes = Files.size(journalFile) - sizeBeforeAppend;
+
+    // the same update appended to an empty journal writes the same number of bytes
+    Path emptyJournalFile = temporaryFolder.getRoot().toPath().resolve("empty.journal");
+    ArtifactCacheJournal emptyJournal = new ArtifactCacheJournal(emptyJournalFile);
+    emptyJournal.rewrite(ImmutableList.of());
+    long emptySize = Files.size(emptyJournalFile);
+    emptyJournal.append(ImmutableList.of(updated), ImmutableList.of("artifact_7_key"));
+    assertThat(appendedBytes).isEqualTo(Files.size(emptyJournalFile) - emptySize);
+
+    Map<String, CacheEntry> replayed = new ArtifactCacheJournal(journalFile).read();
+    assertThat(replayed).hasSize(cacheSize - 1);
+    assertThat(replayed).containsEntry("artifact_42_key", updated);
+    assertThat(replayed).doesNotContainKey("artifact_7_key");
+  }
+}
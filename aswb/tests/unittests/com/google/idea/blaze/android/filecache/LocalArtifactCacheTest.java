@@ -17,6 +17,7 @@ package com.google.idea.blaze.android.filecache;
 
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.idea.blaze.android.filecache.LocalArtifactCache.CACHE_DATA_FILENAME;
+import static com.google.idea.blaze.android.filecache.LocalArtifactCache.LEGACY_CACHE_DATA_FILENAME;
 
 import com.google.common.collect.ImmutableList;
 import com.google.idea.blaze.base.command.buildresult.LocalFileOutputArtifactWithoutDigest;
@@ -33,12 +34,24 @@ import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
 import com.google.idea.blaze.base.sync.workspace.MockArtifactLocationDecoder;
 import com.google.idea.testing.IntellijRule;
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Stream;
 import org.junit.Before;
 import org.junit.Rule;
@@ -101,10 +114,10 @@ public class LocalArtifactCacheTest {
     File expectedCacheStateFile = new File(cacheDirectory.getRoot(), CACHE_DATA_FILENAME);
     assertThat(cacheDirectory.getRoot().listFiles()).asList().contains(expectedCacheStateFile);
 
-    ArtifactCacheData artifactCacheData =
-        LocalArtifactCache.readJsonFromDisk(expectedCacheStateFile);
+    Map<String, CacheEntry> cacheEntries =
+        new ArtifactCacheJournal(expectedCacheStateFile.toPath()).read();
     // check that all files referenced in the serialized cache data exists
-    artifactCacheData.getCacheEntries().stream()
+    cacheEntries.values().stream()
         .map(CacheEntry::getFileName)
         .map(f -> new File(cacheDirectory.getRoot(), f))
         .forEach(f -> assertThat(f.exists()).isTrue());
@@ -186,4 +199,172 @@ public class LocalArtifactCacheTest {
     assertThat(Collections.singleton(returnedPath)).doesNotContain(null);
     assertThat(returnedPath.toFile()).isEqualTo(expectedFile);
   }
+
+  @Test
+  public void putAll_removeMissingArtifacts_persistsAcrossInitialization() throws IOException {
+    ImmutableList<OutputArtifactWithoutDigest> outputArtifacts =
+        ImmutableList.of(
+            newLocalOutputArtifact("relative/path_1/artifact_1.jar"),
+            newLocalOutputArtifact("relative/path_2/artifact_2.jar"),
+            newLocalOutputArtifact("relative/path_3/artifact_3.jar"));
+    createArtifactFiles(outputArtifacts);
+
+    artifactCache.initialize();
+    artifactCache.putAll(outputArtifacts, blazeContext, false);
+    artifactCache.putAll(outputArtifacts.subList(0, 1), blazeContext, true);
+
+    LocalArtifactCache reloadedCache =
+        new LocalArtifactCache(
+            intellijRule.getProject(), "TestArtifactCache", cacheDirectory.getRoot().toPath());
+    reloadedCache.initialize();
+
+    assertThat(reloadedCache.get(outputArtifacts.get(0))).isNotNull();
+    assertThat(reloadedCache.get(outputArtifacts.get(1))).isNull();
+    assertThat(reloadedCache.get(outputArtifacts.get(2))).isNull();
+  }
+
+  @Test
+  public void putAll_failedCopy_journalsCompletedCopies() throws Exception {
+    OutputArtifactWithoutDigest copied = newLocalOutputArtifact("relative/path_1/artifact_1.jar");
+    String execRoot = workspaceRoot.directory().getAbsolutePath();
+    OutputArtifactWithoutDigest failing =
+        new LocalFileOutputArtifactWithoutDigest(
+            new File(execRoot + "/blaze-outk8-opt/relative/path_2/artifact_2.jar"),
+            "k8-opt/relative/path_2/artifact_2.jar",
+            "k8-opt") {
+          @Override
+          public BufferedInputStream getInputStream() {
+            // only fail once the other copy has updated the cache state
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (artifactCache.get(copied) == null && System.nanoTime() < deadline) {
+              Thread.yield();
+            }
+            throw new IllegalStateException("copy failed");
+          }
+        };
+    createArtifactFiles(ImmutableList.of(copied, failing));
+
+    artifactCache.initialize();
+    artifactCache.putAll(ImmutableList.of(copied, failing), blazeContext, false);
+    assertThat(artifactCache.get(copied)).isNotNull();
+
+    // the completed copy is journaled even though putAll didn't complete
+    String copiedKey = CacheEntry.forArtifact(copied).getCacheKey();
+    ArtifactCacheJournal journal =
+        new ArtifactCacheJournal(cacheDirectory.getRoot().toPath().resolve(CACHE_DATA_FILENAME));
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!journal.read().containsKey(copiedKey) && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    LocalArtifactCache reloadedCache =
+        new LocalArtifactCache(
+            intellijRule.getProject(), "TestArtifactCache", cacheDirectory.getRoot().toPath());
+    reloadedCache.initialize();
+
+    assertThat(reloadedCache.get(copied)).isEqualTo(artifactCache.get(copied));
+    assertThat(reloadedCache.get(failing)).isNull();
+  }
+
+  @Test
+  public void initialize_legacyJsonStateFile_migratesToJournal() throws IOException {
+    OutputArtifactWithoutDigest artifact =
+        newLocalOutputArtifact("relative/path_1/artifact_1.jar");
+    createArtifactFiles(ImmutableList.of(artifact));
+    CacheEntry cacheEntry = CacheEntry.forArtifact(artifact);
+    cacheDirectory.newFile(cacheEntry.getFileName());
+    try (OutputStream out =
+        new FileOutputStream(new File(cacheDirectory.getRoot(), LEGACY_CACHE_DATA_FILENAME))) {
+      new ArtifactCacheData(ImmutableList.of(cacheEntry)).writeJson(out);
+    }
+
+    artifactCache.initialize();
+
+    assertThat(artifactCache.get(artifact))
+        .isEqualTo(cacheDirectory.getRoot().toPath().resolve(cacheEntry.getFileName()));
+    assertThat(new File(cacheDirectory.getRoot(), LEGACY_CACHE_DATA_FILENAME).exists()).isFalse();
+    assertThat(
+            new ArtifactCacheJournal(
+                    cacheDirectory.getRoot().toPath().resolve(CACHE_DATA_FILENAME))
+                .read())
+        .containsExactly(cacheEntry.getCacheKey(), cacheEntry);
+  }
+
+  @Test
+  public void concurrentGetAndPutAll_neverReturnsIncompleteFiles() throws Exception {
+    int artifactCount = 64;
+    int contentSize = 64 * 1024;
+    ImmutableList.Builder<OutputArtifactWithoutDigest> builder = ImmutableList.builder();
+    for (int i = 0; i < artifactCount; i++) {
+      builder.add(newLocalOutputArtifact(String.format("relative/path_%d/artifact_%d.jar", i, i)));
+    }
+    ImmutableList<OutputArtifactWithoutDigest> outputArtifacts = builder.build();
+    createArtifactFiles(outputArtifacts);
+    for (OutputArtifactWithoutDigest a : outputArtifacts) {
+      Files.write(
+          ((LocalFileOutputArtifactWithoutDigest) a).getFile().toPath(), new byte[contentSize]);
+    }
+    artifactCache.initialize();
+
+    int writers = 4;
+    int readers = 4;
+    ExecutorService executor = Executors.newFixedThreadPool(writers + readers);
+    AtomicBoolean writing = new AtomicBoolean(true);
+    List<Future<?>> futures = new ArrayList<>();
+    try {
+      List<Future<?>> writerFutures = new ArrayList<>();
+      for (int w = 0; w < writers; w++) {
+        // overlapping halves of the artifacts, so writers race on the same entries
+        int from = w * artifactCount / (2 * writers);
+        List<OutputArtifactWithoutDigest> subset =
+            outputArtifacts.subList(from, from + artifactCount / 2);
+        writerFutures.add(
+            executor.submit(() -> artifactCache.putAll(subset, BlazeContext.create(), false)));
+      }
+      for (int r = 0; r < readers; r++) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  while (writing.get()) {
+                    for (OutputArtifactWithoutDigest a : outputArtifacts) {
+                      Path path = artifactCache.get(a);
+                      if (path != null) {
+                        assertThat(Files.size(path)).isEqualTo(contentSize);
+                      }
+                    }
+                  }
+                  return null;
+                }));
+      }
+      for (Future<?> future : writerFutures) {
+        future.get(1, TimeUnit.MINUTES);
+      }
+      writing.set(false);
+      for (Future<?> future : futures) {
+        future.get(1, TimeUnit.MINUTES);
+      }
+    } finally {
+      writing.set(false);
+      executor.shutdownNow();
+    }
+
+    int expectedCached = artifactCount / 2 + (writers - 1) * artifactCount / (2 * writers);
+    int cached = 0;
+    for (OutputArtifactWithoutDigest a : outputArtifacts) {
+      if (artifactCache.get(a) != null) {
+        cached++;
+      }
+    }
+    assertThat(cached).isEqualTo(expectedCached);
+    // only the cached artifacts and the journal remain; no temporary files are left behind
+    assertThat(cacheDirectory.getRoot().listFiles()).hasLength(expectedCached + 1);
+  }
+
+  private static void createArtifactFiles(List<OutputArtifactWithoutDigest> artifacts)
+      throws IOException {
+    for (OutputArtifactWithoutDigest a : artifacts) {
+      File file = ((LocalFileOutputArtifactWithoutDigest) a).getFile();
+      assertThat(Paths.get(file.getParent()).toFile().mkdirs()).isTrue();
+      assertThat(file.createNewFile()).isTrue();
+    }
+  }
 }
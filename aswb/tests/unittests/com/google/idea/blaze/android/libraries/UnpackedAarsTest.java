@@ -535,6 +535,179 @@ public class UnpackedAarsTest extends BlazeTestCase {
     assertThat(messages).contains("Removed 1 AARs");
   }
 
+  @Test
+  public void refresh_remoteArtifact_unchangedDigest_isNotUnpackedAgain() throws IOException {
+    UnpackedAars unpackedAars = UnpackedAars.getInstance(project);
+    String stringsXmlRelativePath = "res/values/strings.xml";
+    String resourceAar = "resource.aar";
+    LibraryFileBuilder.aar(workspaceRoot, resourceAar)
+        .addContent(stringsXmlRelativePath, ImmutableList.of(STRINGS_XML_CONTENT))
+        .build();
+    ArtifactLocation resourceAarArtifactLocation = generateArtifactLocation(resourceAar);
+    AarLibrary resourceAarLibrary = new AarLibrary(resourceAarArtifactLocation, null);
+
+    BlazeAndroidImportResult importResult =
+        new BlazeAndroidImportResult(
+            ImmutableList.of(),
+            ImmutableMap.of(
+                LibraryKey.libraryNameFromArtifactLocation(resourceAarArtifactLocation),
+                resourceAarLibrary),
+            ImmutableList.of(),
+            ImmutableList.of());
+    BlazeAndroidSyncData syncData =
+        new BlazeAndroidSyncData(importResult, new AndroidSdkPlatform("stable", 15));
+    BlazeProjectData blazeProjectData =
+        MockBlazeProjectDataBuilder.builder(workspaceRoot)
+            .setWorkspaceLanguageSettings(
+                new WorkspaceLanguageSettings(WorkspaceType.ANDROID, ImmutableSet.of()))
+            .setSyncState(new SyncState.Builder().put(syncData).build())
+            .setArtifactLocationDecoder(remoteArtifactLocationDecoder)
+            .build();
+    ProjectViewSet projectViewSet =
+        ProjectViewSet.builder().add(ProjectView.builder().build()).build();
+
+    unpackedAars.onSync(context, projectViewSet, blazeProjectData, null, SyncMode.INCREMENTAL);
+    assertThat(writingOutputSink.getMessages()).contains("Copied 1 AARs");
+
+    // a file which would be removed if the aar was unpacked again
+    File aarDir = unpackedAars.getAarDir(remoteArtifactLocationDecoder, resourceAarLibrary);
+    File marker = new File(aarDir, "marker");
+    assertThat(marker.createNewFile()).isTrue();
+
+    unpackedAars.onSync(context, projectViewSet, blazeProjectData, null, SyncMode.INCREMENTAL);
+    assertThat(writingOutputSink.getMessages()).contains("Skipped 1 unchanged AARs");
+    assertThat(marker.exists()).isTrue();
+    assertThat(
+            new String(
+                Files.readAllBytes(new File(aarDir, stringsXmlRelativePath).toPath()), UTF_8))
+        .isEqualTo(STRINGS_XML_CONTENT);
+  }
+
+  @Test
+  public void refresh_remoteArtifact_unchangedAarWithNewSrcJar_isUnpackedAgain()
+      throws IOException {
+    UnpackedAars unpackedAars = UnpackedAars.getInstance(project);
+    String resourceAar = "resource.aar";
+    String resourceAarJar = "resource.jar";
+    String resourceAarSrcJar = "resource-src.jar";
+    LibraryFileBuilder.aar(workspaceRoot, resourceAar)
+        .addContent("res/values/strings.xml", ImmutableList.of(STRINGS_XML_CONTENT))
+        .build();
+    for (String jarName : ImmutableList.of(resourceAarJar, resourceAarSrcJar)) {
+      File jar = workspaceRoot.fileForPath(new WorkspacePath(jarName));
+      try (ZipOutputStream zo = new ZipOutputStream(new FileOutputStream(jar))) {
+        zo.putNextEntry(new ZipEntry("com/google/foo/gen/Gen.class"));
+        zo.write("package gen; class Gen {}".getBytes(UTF_8));
+        zo.closeEntry();
+      }
+    }
+    ArtifactLocation resourceAarArtifactLocation = generateArtifactLocation(resourceAar);
+    LibraryArtifact withoutSrcJar =
+        LibraryArtifact.builder().setInterfaceJar(generateArtifactLocation(resourceAarJar)).build();
+    LibraryArtifact withSrcJar =
+        LibraryArtifact.builder()
+            .setInterfaceJar(generateArtifactLocation(resourceAarJar))
+            .addSourceJar(generateArtifactLocation(resourceAarSrcJar))
+            .build();
+    ProjectViewSet projectViewSet =
+        ProjectViewSet.builder().add(ProjectView.builder().build()).build();
+
+    AarLibrary aarLibrary = new AarLibrary(withoutSrcJar, resourceAarArtifactLocation, null);
+    unpackedAars.onSync(
+        context,
+        projectViewSet,
+        remoteProjectData(resourceAarArtifactLocation, aarLibrary),
+        null,
+        SyncMode.INCREMENTAL);
+    assertThat(writingOutputSink.getMessages()).contains("Copied 1 AARs");
+
+    // the aar's digest is unchanged, but it now has a source jar to copy alongside it
+    aarLibrary = new AarLibrary(withSrcJar, resourceAarArtifactLocation, null);
+    unpackedAars.onSync(
+        context,
+        projectViewSet,
+        remoteProjectData(resourceAarArtifactLocation, aarLibrary),
+        null,
+        SyncMode.INCREMENTAL);
+    assertThat(writingOutputSink.getMessages()).doesNotContain("Skipped 1 unchanged AARs");
+    ImmutableList<File> cachedSrcJars =
+        unpackedAars.getCachedSrcJars(remoteArtifactLocationDecoder, aarLibrary);
+    assertThat(cachedSrcJars).hasSize(1);
+    assertThat(cachedSrcJars.get(0).exists()).isTrue();
+  }
+
+  private BlazeProjectData remoteProjectData(
+      ArtifactLocation aarArtifactLocation, AarLibrary aarLibrary) {
+    BlazeAndroidImportResult importResult =
+        new BlazeAndroidImportResult(
+            ImmutableList.of(),
+            ImmutableMap.of(
+                LibraryKey.libraryNameFromArtifactLocation(aarArtifactLocation), aarLibrary),
+            ImmutableList.of(),
+            ImmutableList.of());
+    BlazeAndroidSyncData syncData =
+        new BlazeAndroidSyncData(importResult, new AndroidSdkPlatform("stable", 15));
+    return MockBlazeProjectDataBuilder.builder(workspaceRoot)
+        .setWorkspaceLanguageSettings(
+            new WorkspaceLanguageSettings(WorkspaceType.ANDROID, ImmutableSet.of()))
+        .setSyncState(new SyncState.Builder().put(syncData).build())
+        .setArtifactLocationDecoder(remoteArtifactLocationDecoder)
+        .build();
+  }
+
+  @Test
+  public void refresh_remoteArtifact_failedJarCopy_isRetried() throws IOException {
+    UnpackedAars unpackedAars = UnpackedAars.getInstance(project);
+    String stringsXmlRelativePath = "res/values/strings.xml";
+    String resourceAar = "resource.aar";
+    String resourceAarJar = "resource.jar";
+    LibraryFileBuilder.aar(workspaceRoot, resourceAar)
+        .addContent(stringsXmlRelativePath, ImmutableList.of(STRINGS_XML_CONTENT))
+        .build();
+    ArtifactLocation resourceAarArtifactLocation = generateArtifactLocation(resourceAar);
+    LibraryArtifact libraryArtifact =
+        LibraryArtifact.builder().setInterfaceJar(generateArtifactLocation(resourceAarJar)).build();
+    AarLibrary resourceAarLibrary =
+        new AarLibrary(libraryArtifact, resourceAarArtifactLocation, null);
+
+    BlazeAndroidImportResult importResult =
+        new BlazeAndroidImportResult(
+            ImmutableList.of(),
+            ImmutableMap.of(
+                LibraryKey.libraryNameFromArtifactLocation(resourceAarArtifactLocation),
+                resourceAarLibrary),
+            ImmutableList.of(),
+            ImmutableList.of());
+    BlazeAndroidSyncData syncData =
+        new BlazeAndroidSyncData(importResult, new AndroidSdkPlatform("stable", 15));
+    BlazeProjectData blazeProjectData =
+        MockBlazeProjectDataBuilder.builder(workspaceRoot)
+            .setWorkspaceLanguageSettings(
+                new WorkspaceLanguageSettings(WorkspaceType.ANDROID, ImmutableSet.of()))
+            .setSyncState(new SyncState.Builder().put(syncData).build())
+            .setArtifactLocationDecoder(remoteArtifactLocationDecoder)
+            .build();
+    ProjectViewSet projectViewSet =
+        ProjectViewSet.builder().add(ProjectView.builder().build()).build();
+
+    // the class jar doesn't exist yet, so can't be copied
+    unpackedAars.onSync(context, projectViewSet, blazeProjectData, null, SyncMode.INCREMENTAL);
+    assertThat(writingOutputSink.getMessages()).contains("Failed to copy 1 AARs");
+    File aarDir = unpackedAars.getAarDir(remoteArtifactLocationDecoder, resourceAarLibrary);
+    assertThat(aarDir.exists()).isFalse();
+
+    File jar = workspaceRoot.fileForPath(new WorkspacePath(resourceAarJar));
+    try (ZipOutputStream zo = new ZipOutputStream(new FileOutputStream(jar))) {
+      zo.putNextEntry(new ZipEntry("com/google/foo/gen/Gen.class"));
+      zo.write("package gen; class Gen {}".getBytes(UTF_8));
+      zo.closeEntry();
+    }
+    unpackedAars.onSync(context, projectViewSet, blazeProjectData, null, SyncMode.INCREMENTAL);
+    assertThat(writingOutputSink.getMessages()).contains("Copied 1 AARs");
+    assertThat(Files.readAllBytes(UnpackedAarUtils.getJarFile(aarDir).toPath()))
+        .isEqualTo(Files.readAllBytes(jar.toPath()));
+  }
+
   @Test
   public void getLintRuleJar_localArtifact_lintFileIsReturn() throws IOException {
     testGetLintRuleJarLintFileIsReturn(localArtifactLocationDecoder);
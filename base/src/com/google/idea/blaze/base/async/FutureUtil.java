@@ -23,6 +23,7 @@ import com.google.idea.blaze.base.scope.output.StatusOutput;
 import com.google.idea.blaze.base.scope.scopes.TimingScope;
 import com.google.idea.blaze.base.scope.scopes.TimingScope.EventType;
 import com.intellij.openapi.diagnostic.Logger;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import javax.annotation.Nullable;
@@ -70,6 +71,7 @@ public class FutureUtil {
     private EventType eventType;
     private String errorMessage;
     private String progressMessage;
+    private boolean allowCancellation;
 
     Builder(BlazeContext context, Future<T> future) {
       this.context = context;
@@ -95,6 +97,16 @@ public class FutureUtil {
       return this;
     }
 
+    /**
+     * Treats the future being cancelled (e.g. because its work was superseded) as an unsuccessful
+     * result rather than an error. Otherwise the {@link CancellationException} is rethrown.
+     */
+    @CanIgnoreReturnValue
+    public Builder<T> allowCancellation() {
+      this.allowCancellation = true;
+      return this;
+    }
+
     public FutureResult<T> run() {
       return Scope.push(
           context,
@@ -111,6 +123,11 @@ public class FutureUtil {
               Thread.currentThread().interrupt();
               context.setCancelled();
               return new FutureResult<>(e);
+            } catch (CancellationException e) {
+              if (!allowCancellation) {
+                throw e;
+              }
+              return new FutureResult<>(e);
             } catch (ExecutionException e) {
               logger.error(e);
               if (errorMessage != null) {
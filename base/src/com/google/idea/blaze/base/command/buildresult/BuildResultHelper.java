@@ -24,6 +24,7 @@ import com.google.idea.blaze.exception.BuildException;
 import java.io.InputStream;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 
@@ -86,6 +87,18 @@ public interface BuildResultHelper extends AutoCloseable {
    */
   ParsedBepOutput getBuildOutput(Optional<String> completedBuildId) throws GetArtifactsException;
 
+  /**
+   * Opens the BEP output for reading while the build is still running, or returns empty if build
+   * events are only available once the build is complete.
+   *
+   * <p>Reads from the returned stream block until more events are written, or until {@code
+   * buildComplete} returns true. This doesn't count towards the single call allowed to {@link
+   * #getBuildOutput}.
+   */
+  default Optional<InputStream> openLiveBuildEvents(BooleanSupplier buildComplete) {
+    return Optional.empty();
+  }
+
   /**
    * Retrieves test results, parses them and returns the corresponding {@link BlazeTestResults}. May
    * only be called once, after the build is complete.
@@ -27,6 +27,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.BooleanSupplier;
 import org.jetbrains.annotations.VisibleForTesting;
 
 /**
@@ -65,6 +66,11 @@ public class BuildResultHelperBep implements BuildResultHelper {
     }
   }
 
+  @Override
+  public Optional<InputStream> openLiveBuildEvents(BooleanSupplier buildComplete) {
+    return Optional.of(new BufferedInputStream(new TailingInputStream(outputFile, buildComplete)));
+  }
+
   @Override
   public BlazeTestResults getTestResults(Optional<String> completedBuildId) {
     try (InputStream inputStream =
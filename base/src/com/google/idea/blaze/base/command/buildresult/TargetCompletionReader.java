@@ -0,0 +1,148 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.command.buildresult;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.SetMultimap;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEvent;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId.NamedSetOfFilesId;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.File;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.NamedSetOfFiles;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.OutputGroup;
+import com.google.idea.blaze.exception.BuildException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Reads a stream of build events, reporting the output artifacts of each target as soon as it
+ * completes.
+ *
+ * <p>Unlike {@link ParsedBepOutput}, this doesn't need the whole stream up front, so can be used
+ * to process outputs while the build is still running. Each artifact is reported once only, for
+ * the first completed target that outputs it.
+ */
+public final class TargetCompletionReader {
+
+  /** Receives the outputs of targets as they complete. */
+  public interface Listener {
+    /**
+     * Called when a target (or an aspect applied to it) completes.
+     *
+     * @param label the label of the completed target.
+     * @param outputs the artifacts output by the target which haven't been reported for an earlier
+     *     target, keyed by output group name.
+     */
+    void targetCompleted(String label, ImmutableListMultimap<String, OutputArtifact> outputs)
+        throws BuildException;
+  }
+
+  private final Predicate<String> outputGroupFilter;
+  private final Listener listener;
+  private final Map<String, String> configIdToMnemonic = new HashMap<>();
+  private final Map<String, NamedSetOfFiles> fileSets = new HashMap<>();
+  /** File set IDs which have already been reported, per output group. */
+  private final SetMultimap<String, String> reportedFileSets = HashMultimap.create();
+
+  private long startTimeMillis = 0L;
+
+  private TargetCompletionReader(Predicate<String> outputGroupFilter, Listener listener) {
+    this.outputGroupFilter = outputGroupFilter;
+    this.listener = listener;
+  }
+
+  /**
+   * Reads events from {@code stream} until it ends, calling {@code listener} for each completed
+   * target with outputs in the output groups accepted by {@code outputGroupFilter}.
+   */
+  public static void read(
+      BuildEventStreamProvider stream, Predicate<String> outputGroupFilter, Listener listener)
+      throws BuildException {
+    TargetCompletionReader reader = new TargetCompletionReader(outputGroupFilter, listener);
+    BuildEvent event;
+    while ((event = stream.getNext()) != null) {
+      reader.accept(event);
+      if (event.getLastMessage()) {
+        return;
+      }
+    }
+  }
+
+  private void accept(BuildEvent event) throws BuildException {
+    switch (event.getId().getIdCase()) {
+      case STARTED:
+        startTimeMillis = event.getStarted().getStartTimeMillis();
+        return;
+      case CONFIGURATION:
+        configIdToMnemonic.put(
+            event.getId().getConfiguration().getId(), event.getConfiguration().getMnemonic());
+        return;
+      case NAMED_SET:
+        fileSets.put(event.getId().getNamedSet().getId(), event.getNamedSetOfFiles());
+        return;
+      case TARGET_COMPLETED:
+        String mnemonic =
+            configIdToMnemonic.get(event.getId().getTargetCompleted().getConfiguration().getId());
+        if (mnemonic == null) {
+          // outputs without a known configuration are dropped by ParsedBepOutput too
+          return;
+        }
+        ImmutableListMultimap<String, OutputArtifact> outputs =
+            getNewOutputs(event.getCompleted().getOutputGroupList(), mnemonic);
+        if (!outputs.isEmpty()) {
+          listener.targetCompleted(event.getId().getTargetCompleted().getLabel(), outputs);
+        }
+        return;
+      default: // continue
+    }
+  }
+
+  private ImmutableListMultimap<String, OutputArtifact> getNewOutputs(
+      Iterable<OutputGroup> outputGroups, String mnemonic) {
+    ImmutableListMultimap.Builder<String, OutputArtifact> outputs = ImmutableListMultimap.builder();
+    for (OutputGroup group : outputGroups) {
+      if (!outputGroupFilter.test(group.getName())) {
+        continue;
+      }
+      Set<String> seenPaths = new HashSet<>();
+      Deque<String> toVisit = new ArrayDeque<>();
+      group.getFileSetsList().stream().map(NamedSetOfFilesId::getId).forEach(toVisit::add);
+      while (!toVisit.isEmpty()) {
+        String id = toVisit.remove();
+        NamedSetOfFiles fileSet = fileSets.get(id);
+        // file sets are always posted before the events which refer to them, but if one is
+        // missing, leave it to be picked up when the build output is parsed in full
+        if (fileSet == null || !reportedFileSets.put(group.getName(), id)) {
+          continue;
+        }
+        for (File file : fileSet.getFilesList()) {
+          OutputArtifact artifact =
+              OutputArtifactParser.parseArtifact(file, mnemonic, startTimeMillis);
+          if (artifact != null && seenPaths.add(artifact.getRelativePath())) {
+            outputs.put(group.getName(), artifact);
+          }
+        }
+        fileSet.getFileSetsList().stream().map(NamedSetOfFilesId::getId).forEach(toVisit::add);
+      }
+    }
+    return outputs.build();
+  }
+}
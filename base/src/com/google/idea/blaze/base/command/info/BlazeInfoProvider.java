@@ -15,10 +15,20 @@
  */
 package com.google.idea.blaze.base.command.info;
 
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build;
 import com.google.idea.blaze.base.async.executor.BlazeExecutor;
-import com.google.idea.blaze.base.bazel.BuildSystem;
+import com.google.idea.blaze.base.bazel.BuildSystem.BuildInvoker;
+import com.google.idea.blaze.base.lang.buildfile.language.semantics.BuildLanguageSpec;
+import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
 import com.google.idea.blaze.base.scope.BlazeContext;
 import com.google.idea.blaze.base.settings.Blaze;
 import com.google.idea.blaze.base.settings.BlazeImportSettings;
@@ -26,102 +36,391 @@ import com.google.idea.blaze.base.settings.BlazeImportSettingsManager;
 import com.google.idea.blaze.base.sync.SyncListener;
 import com.google.idea.blaze.base.sync.SyncMode;
 import com.google.idea.blaze.base.sync.SyncResult;
+import com.google.idea.blaze.base.sync.data.BlazeDataStorage;
 import com.google.idea.common.experiments.BoolExperiment;
+import com.google.protobuf.ExtensionRegistry;
+import com.google.protobuf.InvalidProtocolBufferException;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
-import org.jetbrains.annotations.Nullable;
-
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 /**
- * <p> Providing a {@link com.google.idea.blaze.base.command.info.BlazeInfo}, the result will be cached and invalidated on any sync failure. </p>
+ * Runs {@code blaze info} on behalf of the whole project, so that a sync starts as few blaze
+ * processes as possible.
+ *
+ * <ul>
+ *   <li>Concurrent requests with the same {@link Fingerprint} share a single invocation. The
+ *       shared invocation runs in a context of its own, which forwards its output to every
+ *       caller's context (see {@link SharedInvocation}). Each caller gets a future which can be
+ *       cancelled without affecting the others, and the invocation is cancelled once all of them
+ *       have been.
+ *   <li>Results are kept until the next sync (including a query sync) starts. If {@link
+ *       #isEnabled()}, they're kept across syncs instead, until a sync fails or a full sync is
+ *       requested.
+ *   <li>The build language spec is also keyed by the blaze release and output base, and is
+ *       persisted to the project data directory so that it survives restarts.
+ * </ul>
  *
  * @see BlazeInfoRunner
  */
 public class BlazeInfoProvider {
-    private static final Logger logger = Logger.getInstance(BlazeInfoProvider.class);
-    private static final BoolExperiment enabled =
-            new BoolExperiment("blaze.info.provider.enabled", false);
+  private static final Logger logger = Logger.getInstance(BlazeInfoProvider.class);
+  private static final BoolExperiment enabled =
+      new BoolExperiment("blaze.info.provider.enabled", false);
+
+  private static final String BUILD_LANGUAGE_FILE = "build_language.gz";
+  private static final ImmutableList<String> WORKSPACE_FILES =
+      ImmutableList.of(".bazelrc", ".blazerc", ".bazelversion");
+  private static final ImmutableList<String> USER_RC_FILES =
+      ImmutableList.of(".bazelrc", ".blazerc");
+
+  private final Project project;
+  private final ConcurrentMap<Fingerprint, SharedInvocation<BlazeInfo>> blazeInfo =
+      new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, SharedInvocation<BuildLanguageSpec>> buildLanguageSpecs =
+      new ConcurrentHashMap<>();
+
+  /** The modification stamps of the rc files when {@link #rcFilesHash} was calculated. */
+  @GuardedBy("this")
+  @Nullable
+  private ImmutableList<Long> rcFilesStamps;
+
+  @GuardedBy("this")
+  @Nullable
+  private String rcFilesHash;
+
+  public BlazeInfoProvider(Project project) {
+    this.project = project;
+  }
+
+  public static BlazeInfoProvider getInstance(Project project) {
+    return project.getService(BlazeInfoProvider.class);
+  }
+
+  /** Whether blaze info results are reused across syncs. */
+  public static Boolean isEnabled() {
+    return enabled.getValue();
+  }
+
+  /** Returns the output of {@code blaze info}, using the project's default invoker. */
+  public ListenableFuture<BlazeInfo> getBlazeInfo(BlazeContext context, List<String> blazeFlags) {
+    BuildInvoker invoker =
+        Blaze.getBuildSystemProvider(project).getBuildSystem().getDefaultInvoker(project, context);
+    return getBlazeInfo(invoker, context, blazeFlags);
+  }
+
+  /**
+   * Returns the output of {@code blaze info} with the given flags, reusing a cached or in-flight
+   * invocation if there is one.
+   */
+  public ListenableFuture<BlazeInfo> getBlazeInfo(
+      BuildInvoker invoker, BlazeContext context, List<String> blazeFlags) {
+    Fingerprint fingerprint = Fingerprint.create(invoker, blazeFlags, getRcFilesHash());
+    return getShared(
+        blazeInfo,
+        fingerprint,
+        context,
+        sharedContext ->
+            BlazeInfoRunner.getInstance()
+                .runBlazeInfo(
+                    project,
+                    invoker,
+                    sharedContext,
+                    invoker.getBuildSystem().getName(),
+                    blazeFlags));
+  }
 
-    private final Project project;
-    private volatile BlazeInfo blazeInfo;
+  /**
+   * Returns the build language spec, from memory or disk if it was previously fetched for the same
+   * blaze release, output base and flags. Otherwise runs {@code blaze info build-language}.
+   */
+  public ListenableFuture<BuildLanguageSpec> getBuildLanguageSpec(
+      BuildInvoker invoker, BlazeContext context, List<String> blazeFlags) {
+    String rcFilesHash = getRcFilesHash();
+    return Futures.transformAsync(
+        getBlazeInfo(invoker, context, blazeFlags),
+        info -> {
+          String key = getBuildLanguageKey(invoker, blazeFlags, rcFilesHash, info);
+          return getShared(
+              buildLanguageSpecs,
+              key,
+              context,
+              sharedContext -> loadBuildLanguageSpec(invoker, sharedContext, blazeFlags, key));
+        },
+        BlazeExecutor.getInstance().getExecutor());
+  }
 
-    public BlazeInfoProvider(Project project) {
-        this.project = project;
+  private ListenableFuture<BuildLanguageSpec> loadBuildLanguageSpec(
+      BuildInvoker invoker, BlazeContext context, List<String> blazeFlags, String key) {
+    Path file = getBuildLanguageFile();
+    ListenableFuture<byte[]> persisted =
+        BlazeExecutor.getInstance()
+            .submit(() -> file != null ? readBuildLanguage(file, key) : null);
+    return Futures.transformAsync(
+        persisted,
+        bytes -> {
+          if (bytes != null) {
+            try {
+              return Futures.immediateFuture(parseBuildLanguage(bytes));
+            } catch (InvalidProtocolBufferException e) {
+              logger.warn("Ignoring corrupt build language spec in " + file, e);
+            }
+          }
+          return Futures.transformAsync(
+              BlazeInfoRunner.getInstance()
+                  .runBlazeInfoGetBytes(
+                      project, invoker, context, blazeFlags, BlazeInfo.BUILD_LANGUAGE),
+              fetched -> {
+                BuildLanguageSpec spec = parseBuildLanguage(fetched);
+                if (file != null) {
+                  writeBuildLanguage(file, key, fetched);
+                }
+                return Futures.immediateFuture(spec);
+              },
+              BlazeExecutor.getInstance().getExecutor());
+        },
+        BlazeExecutor.getInstance().getExecutor());
+  }
+
+  /**
+   * Waits on the shared invocation for {@code key} from {@code context}, starting it if there's no
+   * cached or in-flight invocation which hasn't been cancelled.
+   */
+  private static <K, T> ListenableFuture<T> getShared(
+      ConcurrentMap<K, SharedInvocation<T>> invocations,
+      K key,
+      BlazeContext context,
+      Function<BlazeContext, ListenableFuture<T>> invocation) {
+    while (true) {
+      SharedInvocation<T> shared =
+          invocations.computeIfAbsent(key, k -> new SharedInvocation<>(invocation));
+      // don't cache failures, so that the next caller retries
+      shared
+          .future()
+          .addListener(
+              () -> {
+                if (!succeeded(shared.future())) {
+                  invocations.remove(key, shared);
+                }
+              },
+              MoreExecutors.directExecutor());
+      ListenableFuture<T> result = shared.attach(context);
+      if (result != null) {
+        return result;
+      }
+      invocations.remove(key, shared);
     }
+  }
+
+  @VisibleForTesting
+  static BuildLanguageSpec parseBuildLanguage(byte[] bytes)
+      throws InvalidProtocolBufferException {
+    ExtensionRegistry registry = ExtensionRegistry.newInstance();
+    Build.registerAllExtensions(registry);
+    return BuildLanguageSpec.fromProto(Build.BuildLanguage.parseFrom(bytes, registry));
+  }
 
-    public static BlazeInfoProvider getInstance(Project project) {
-        return project.getService(BlazeInfoProvider.class);
+  /** Drops cached results at the start of a sync, unless they're reused across syncs. */
+  public void onSyncStart(SyncMode syncMode) {
+    if (!isEnabled() || syncMode == SyncMode.FULL) {
+      invalidate();
     }
+  }
 
-    public static Boolean isEnabled() {
-        return enabled.getValue();
+  /** Drops all cached blaze info results. */
+  public void invalidate() {
+    logger.debug("invalidating");
+    blazeInfo.clear();
+  }
+
+  private static boolean succeeded(ListenableFuture<?> future) {
+    if (!future.isDone() || future.isCancelled()) {
+      return false;
+    }
+    try {
+      Futures.getDone(future);
+      return true;
+    } catch (ExecutionException | RuntimeException e) {
+      return false;
     }
+  }
 
-    public ListenableFuture<BlazeInfo> getBlazeInfo(
-            BlazeContext context,
-            List<String> blazeFlags) {
-        return BlazeExecutor.getInstance().submit(() -> {
-            BlazeInfo info = getCachedBlazeInfo(context,
-                    blazeFlags);
-            if (info == null) {
-                throw new BlazeInfoException("Unable to get blaze info");
-            }
-            return info;
-        });
+  /**
+   * Returns a hash of the workspace and user rc files, and the workspace's pinned blaze version.
+   * These can change the output of blaze info without any change to the flags we pass.
+   *
+   * <p>The files are only read again when their modification time or size changes.
+   */
+  private synchronized String getRcFilesHash() {
+    ImmutableList<Path> files = getRcFiles();
+    ImmutableList.Builder<Long> stamps = ImmutableList.builder();
+    for (Path file : files) {
+      addModificationStamp(stamps, file);
     }
+    ImmutableList<Long> currentStamps = stamps.build();
+    if (rcFilesHash == null || !currentStamps.equals(rcFilesStamps)) {
+      rcFilesHash = hashFiles(files);
+      rcFilesStamps = currentStamps;
+    }
+    return rcFilesHash;
+  }
 
-    private @Nullable BlazeInfo getCachedBlazeInfo(
-            BlazeContext context,
-            List<String> blazeFlags) {
-        if (blazeInfo != null) {
-            logger.debug("Returning cached BlazeInfo");
-            return blazeInfo;
-        }
-        try {
-            BlazeImportSettings importSettings = BlazeImportSettingsManager.getInstance(project).getImportSettings();
-            if (importSettings == null) {
-                return null;
-            }
-            BuildSystem.BuildInvoker buildInvoker = Blaze.getBuildSystemProvider(project)
-                    .getBuildSystem()
-                    .getDefaultInvoker(project, context);
-            logger.debug("Running bazel info");
-            blazeInfo = BlazeInfoRunner.getInstance().runBlazeInfo(
-                    project,
-                    buildInvoker,
-                    BlazeContext.create(),
-                    importSettings.getBuildSystem(),
-                    blazeFlags
-            ).get();
-            return blazeInfo;
-        } catch (InterruptedException | ExecutionException e) {
-            logger.warn("Unable to run blaze info", e);
-            return null;
-        }
+  private ImmutableList<Path> getRcFiles() {
+    ImmutableList.Builder<Path> files = ImmutableList.builder();
+    WorkspaceRoot workspaceRoot = WorkspaceRoot.fromProjectSafe(project);
+    if (workspaceRoot != null) {
+      WORKSPACE_FILES.forEach(name -> files.add(workspaceRoot.path().resolve(name)));
     }
+    String userHome = System.getProperty("user.home");
+    if (userHome != null) {
+      USER_RC_FILES.forEach(name -> files.add(Paths.get(userHome, name)));
+    }
+    return files.build();
+  }
 
-    public void invalidate() {
-        logger.debug("invalidating");
-        blazeInfo = null;
+  private static void addModificationStamp(ImmutableList.Builder<Long> stamps, Path file) {
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+      stamps.add(attributes.lastModifiedTime().toMillis()).add(attributes.size());
+    } catch (IOException e) {
+      // the file doesn't exist, or can't be read
+      stamps.add(-1L).add(-1L);
     }
+  }
 
-    public static final class Invalidator implements SyncListener {
-        @Override
-        public void afterSync(
-                Project project,
-                BlazeContext context,
-                SyncMode syncMode,
-                SyncResult syncResult,
-                ImmutableSet<Integer> buildIds) {
-            if(!isEnabled()) {
-                return;
-            }
-            BlazeInfoProvider provider = BlazeInfoProvider.getInstance(project);
-            if(provider != null) {
-                provider.invalidate();
-            }
+  private static String hashFiles(List<Path> files) {
+    Hasher hasher = Hashing.sha256().newHasher();
+    for (Path path : files) {
+      hasher.putString(path.toString(), StandardCharsets.UTF_8);
+      try {
+        if (Files.exists(path)) {
+          hasher.putBytes(Files.readAllBytes(path));
         }
+      } catch (IOException e) {
+        logger.warn("Could not read " + path, e);
+      }
+    }
+    return hasher.hash().toString();
+  }
+
+  private static String getBuildLanguageKey(
+      BuildInvoker invoker, List<String> blazeFlags, String rcFilesHash, BlazeInfo info) {
+    Hasher hasher = Hashing.sha256().newHasher();
+    hasher.putString(invoker.getBinaryPath(), StandardCharsets.UTF_8);
+    for (String flag : blazeFlags) {
+      hasher.putString(flag, StandardCharsets.UTF_8).putByte((byte) 0);
+    }
+    hasher.putString(rcFilesHash, StandardCharsets.UTF_8);
+    hasher.putString(String.valueOf(info.get(BlazeInfo.RELEASE)), StandardCharsets.UTF_8);
+    hasher.putString(info.getOutputBase().getPath(), StandardCharsets.UTF_8);
+    return hasher.hash().toString();
+  }
+
+  @Nullable
+  private Path getBuildLanguageFile() {
+    BlazeImportSettings importSettings =
+        BlazeImportSettingsManager.getInstance(project).getImportSettings();
+    if (importSettings == null) {
+      return null;
+    }
+    return BlazeDataStorage.getProjectDataDir(importSettings).toPath().resolve(BUILD_LANGUAGE_FILE);
+  }
+
+  /** Reads the build language proto, if it was written with the same key. */
+  @VisibleForTesting
+  @Nullable
+  static byte[] readBuildLanguage(Path file, String key) {
+    if (!Files.exists(file)) {
+      return null;
+    }
+    try (DataInputStream in =
+        new DataInputStream(
+            new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+      if (!in.readUTF().equals(key)) {
+        return null;
+      }
+      return in.readAllBytes();
+    } catch (IOException e) {
+      logger.warn("Failed to read build language spec from " + file, e);
+      return null;
+    }
+  }
+
+  @VisibleForTesting
+  static void writeBuildLanguage(Path file, String key, byte[] bytes) {
+    try {
+      Files.createDirectories(file.getParent());
+      Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+      try (DataOutputStream out =
+          new DataOutputStream(
+              new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmp))))) {
+        out.writeUTF(key);
+        out.write(bytes);
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      logger.warn("Failed to write build language spec to " + file, e);
+    }
+  }
+
+  /** The inputs which determine the output of a {@code blaze info} invocation. */
+  @AutoValue
+  abstract static class Fingerprint {
+    abstract String binaryPath();
+
+    abstract ImmutableList<String> blazeFlags();
+
+    abstract String rcFilesHash();
+
+    static Fingerprint create(BuildInvoker invoker, List<String> blazeFlags, String rcFilesHash) {
+      return new AutoValue_BlazeInfoProvider_Fingerprint(
+          invoker.getBinaryPath(), ImmutableList.copyOf(blazeFlags), rcFilesHash);
+    }
+  }
+
+  /** Drops cached blaze info results when they may no longer be valid. */
+  public static final class Invalidator implements SyncListener {
+    @Override
+    public void onSyncStart(Project project, BlazeContext context, SyncMode syncMode) {
+      BlazeInfoProvider.getInstance(project).onSyncStart(syncMode);
+    }
+
+    @Override
+    public void afterSync(
+        Project project,
+        BlazeContext context,
+        SyncMode syncMode,
+        SyncResult syncResult,
+        ImmutableSet<Integer> buildIds) {
+      if (!syncResult.successful()) {
+        BlazeInfoProvider.getInstance(project).invalidate();
+      }
+    }
+
+    @Override
+    public void afterQuerySync(Project project, BlazeContext context) {
+      if (context.hasErrors() || context.isCancelled()) {
+        BlazeInfoProvider.getInstance(project).invalidate();
+      }
     }
+  }
 }
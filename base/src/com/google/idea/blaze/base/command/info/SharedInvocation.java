@@ -0,0 +1,130 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.command.info;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.scope.OutputSink.Propagation;
+import com.google.idea.blaze.base.scope.output.IssueOutput;
+import com.google.idea.blaze.base.scope.output.IssueOutput.Category;
+import com.google.idea.blaze.base.scope.output.StatusOutput;
+import com.google.idea.blaze.common.Output;
+import com.google.idea.blaze.common.PrintOutput;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * A blaze invocation shared by several callers, each waiting on it with a context of its own.
+ *
+ * <p>The invocation runs in a separate context. Its output and issues are forwarded to every
+ * waiting caller, including those which start waiting after the output was produced. Cancelling one
+ * caller doesn't affect the others; the invocation itself is only cancelled once every caller has
+ * cancelled.
+ */
+final class SharedInvocation<T> {
+
+  private final BlazeContext context = BlazeContext.create();
+  private final ListenableFuture<T> future;
+
+  @GuardedBy("this")
+  private final Set<BlazeContext> waiters = new LinkedHashSet<>();
+
+  @GuardedBy("this")
+  private final List<Output> outputs = new ArrayList<>();
+
+  @GuardedBy("this")
+  private boolean cancelled;
+
+  SharedInvocation(Function<BlazeContext, ListenableFuture<T>> invocation) {
+    context.addOutputSink(PrintOutput.class, this::forward);
+    context.addOutputSink(StatusOutput.class, this::forward);
+    context.addOutputSink(IssueOutput.class, this::forward);
+    ListenableFuture<T> future;
+    try {
+      future = invocation.apply(context);
+    } catch (RuntimeException e) {
+      future = Futures.immediateFailedFuture(e);
+    }
+    this.future = future;
+    future.addListener(context::close, MoreExecutors.directExecutor());
+  }
+
+  /** The result of the invocation, for the callers of which this is shared. */
+  ListenableFuture<T> future() {
+    return future;
+  }
+
+  /**
+   * Registers a caller waiting for the result, returning a future which is cancelled when either
+   * it or {@code waiter} is cancelled. Returns null if the invocation has already been cancelled by
+   * all of its previous callers, in which case a new invocation must be started.
+   */
+  @Nullable
+  ListenableFuture<T> attach(BlazeContext waiter) {
+    ListenableFuture<T> result = Futures.nonCancellationPropagating(future);
+    synchronized (this) {
+      if (cancelled) {
+        return null;
+      }
+      waiters.add(waiter);
+      for (Output output : outputs) {
+        forwardTo(waiter, output);
+      }
+    }
+    waiter.addCancellationHandler(() -> result.cancel(true));
+    result.addListener(() -> detach(waiter, result.isCancelled()), MoreExecutors.directExecutor());
+    return result;
+  }
+
+  private void detach(BlazeContext waiter, boolean waiterCancelled) {
+    synchronized (this) {
+      waiters.remove(waiter);
+      if (!waiterCancelled || !waiters.isEmpty() || future.isDone()) {
+        return;
+      }
+      cancelled = true;
+    }
+    context.setCancelled();
+    future.cancel(true);
+  }
+
+  private Propagation forward(Output output) {
+    List<BlazeContext> current;
+    synchronized (this) {
+      outputs.add(output);
+      current = new ArrayList<>(waiters);
+    }
+    for (BlazeContext waiter : current) {
+      forwardTo(waiter, output);
+    }
+    return Propagation.Stop;
+  }
+
+  private static void forwardTo(BlazeContext waiter, Output output) {
+    waiter.output(output);
+    if (output instanceof IssueOutput
+        && ((IssueOutput) output).getCategory() == Category.ERROR) {
+      waiter.setHasError();
+    }
+  }
+}
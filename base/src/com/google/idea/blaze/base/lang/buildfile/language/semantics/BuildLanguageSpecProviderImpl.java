@@ -15,17 +15,13 @@
  */
 package com.google.idea.blaze.base.lang.buildfile.language.semantics;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
-
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.devtools.build.lib.query2.proto.proto2api.Build;
 import com.google.idea.blaze.base.async.executor.BlazeExecutor;
 import com.google.idea.blaze.base.bazel.BuildSystem.BuildInvoker;
-import com.google.idea.blaze.base.command.info.BlazeInfo;
-import com.google.idea.blaze.base.command.info.BlazeInfoRunner;
+import com.google.idea.blaze.base.command.info.BlazeInfoProvider;
 import com.google.idea.blaze.base.lang.buildfile.sync.LanguageSpecResult;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.qsync.QuerySync;
@@ -34,7 +30,6 @@ import com.google.idea.blaze.base.scope.output.IssueOutput;
 import com.google.idea.blaze.base.settings.Blaze;
 import com.google.idea.blaze.base.sync.SyncListener;
 import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
-import com.google.protobuf.ExtensionRegistry;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProgressIndicator;
@@ -53,8 +48,6 @@ public class BuildLanguageSpecProviderImpl implements BuildLanguageSpecProvider
 
   private final Project project;
 
-  private String blazeRelease;
-
   // Instantiated by IntelliJ
   public BuildLanguageSpecProviderImpl(Project project) {
     this.project = project;
@@ -78,9 +71,8 @@ public class BuildLanguageSpecProviderImpl implements BuildLanguageSpecProvider
     return spec.getSpec();
   }
 
-  private synchronized void setLanguageSpec(BuildLanguageSpec languageSpec, String blazeRelease) {
+  private synchronized void setLanguageSpec(BuildLanguageSpec languageSpec) {
     this.languageSpec = languageSpec;
-    this.blazeRelease = blazeRelease;
   }
 
   @Nullable
@@ -88,96 +80,39 @@ public class BuildLanguageSpecProviderImpl implements BuildLanguageSpecProvider
     return languageSpec;
   }
 
-  @Nullable
-  private synchronized String getBlazeRelease() {
-    return blazeRelease;
-  }
-
   private void fetchLanguageSpecIfNeeded(BlazeContext context) {
     // Invocations are run in a separate context as the info commands are not crucial or useful for
     // the core sync query.
     BlazeContext fetchContext = BlazeContext.create();
-    ListenableFuture<String> releaseFuture = fetchBlazeRelease(fetchContext);
-
+    BuildInvoker invoker =
+        Blaze.getBuildSystemProvider(project)
+            .getBuildSystem()
+            .getDefaultInvoker(project, fetchContext);
+    // the spec is only fetched again if the blaze release, output base or flags have changed
+    ListenableFuture<BuildLanguageSpec> specFuture =
+        BlazeInfoProvider.getInstance(project)
+            .getBuildLanguageSpec(invoker, fetchContext, ImmutableList.of());
     Futures.addCallback(
-        releaseFuture,
-        new FutureCallback<String>() {
+        specFuture,
+        new FutureCallback<BuildLanguageSpec>() {
           @Override
-          public void onSuccess(String releaseResult) {
-            String previousBlazeRelease = getBlazeRelease();
-            if (previousBlazeRelease == null || !previousBlazeRelease.equals(releaseResult)) {
-              ListenableFuture<BuildLanguageSpec> specFuture = fetchBuildLanguageSpec(fetchContext);
-              Futures.addCallback(
-                  specFuture,
-                  new FutureCallback<BuildLanguageSpec>() {
-                    @Override
-                    public void onSuccess(BuildLanguageSpec buildLanguageSpec) {
-                      setLanguageSpec(buildLanguageSpec, releaseResult);
-                    }
-
-                    @Override
-                    public void onFailure(Throwable throwable) {
-                      logger.error("Failed to fetch build language spec", throwable);
-                      context.output(
-                          IssueOutput.error(
-                                  "Failed to obtain Build language spec. Build language support may"
-                                      + " be limited.")
-                              .build());
-                    }
-                  },
-                  BlazeExecutor.getInstance().getExecutor());
-            }
+          public void onSuccess(BuildLanguageSpec buildLanguageSpec) {
+            setLanguageSpec(buildLanguageSpec);
           }
 
           @Override
           public void onFailure(Throwable throwable) {
-            logger.error("Could not fetch blaze version", throwable);
+            logger.error("Failed to fetch build language spec", throwable);
             context.output(
                 IssueOutput.error(
-                        String.format(
-                            "Failed to obtain %s version. Build language support may be limited.",
-                            Blaze.buildSystemName(project)))
+                        "Failed to obtain Build language spec. Build language support may"
+                            + " be limited.")
                     .build());
           }
         },
         BlazeExecutor.getInstance().getExecutor());
   }
 
-  private ListenableFuture<BuildLanguageSpec> fetchBuildLanguageSpec(BlazeContext context) {
-    BuildInvoker invoker =
-        Blaze.getBuildSystemProvider(project).getBuildSystem().getDefaultInvoker(project, context);
-    ListenableFuture<byte[]> future =
-        BlazeInfoRunner.getInstance()
-            .runBlazeInfoGetBytes(
-                project, invoker, context, ImmutableList.of(), BlazeInfo.BUILD_LANGUAGE);
-
-    /**
-     * TransformAsync allows the checked {@link InvalidProtocolBufferException} to propagate to
-     * caller
-     */
-    return Futures.transformAsync(
-        future,
-        bytes -> {
-          ExtensionRegistry registry = ExtensionRegistry.newInstance();
-          Build.registerAllExtensions(registry);
-          return Futures.immediateFuture(
-              BuildLanguageSpec.fromProto(Build.BuildLanguage.parseFrom(bytes, registry)));
-        },
-        BlazeExecutor.getInstance().getExecutor());
-  }
-
-  private ListenableFuture<String> fetchBlazeRelease(BlazeContext context) {
-    BuildInvoker invoker =
-        Blaze.getBuildSystemProvider(project).getBuildSystem().getDefaultInvoker(project, context);
-    ListenableFuture<byte[]> future =
-        BlazeInfoRunner.getInstance()
-            .runBlazeInfoGetBytes(project, invoker, context, ImmutableList.of(), BlazeInfo.RELEASE);
-    return Futures.transform(
-        future,
-        bytes -> new String(bytes, UTF_8).trim(),
-        BlazeExecutor.getInstance().getExecutor());
-  }
-
   /** {@link SyncListener} for fetching BUILD language specs after sync, if needed */
   public static class Listener implements SyncListener {
 
@@ -23,6 +23,9 @@ import com.google.idea.blaze.base.lang.buildfile.lexer.TokenKind;
 import com.google.idea.blaze.base.lang.buildfile.psi.BuildElementType;
 import com.google.idea.blaze.base.lang.buildfile.psi.BuildElementTypes;
 import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
+import com.google.idea.blaze.base.lang.buildfile.psi.FuncallExpression;
+import com.google.idea.blaze.base.lang.buildfile.psi.FunctionStatement;
+import com.google.idea.blaze.base.lang.buildfile.psi.LoadStatement;
 import com.google.idea.common.experiments.DeveloperFlag;
 import com.intellij.extapi.psi.ASTWrapperPsiElement;
 import com.intellij.lang.ASTNode;
@@ -80,6 +83,15 @@ public class BuildParserDefinition implements ParserDefinition {
     if (type instanceof BuildElementType) {
       return ((BuildElementType) type).createElement(node);
     }
+    if (type == BuildElementTypes.FUNCALL_EXPRESSION) {
+      return new FuncallExpression(node);
+    }
+    if (type == BuildElementTypes.FUNCTION_STATEMENT) {
+      return new FunctionStatement(node);
+    }
+    if (type == BuildElementTypes.LOAD_STATEMENT) {
+      return new LoadStatement(node);
+    }
     return new ASTWrapperPsiElement(node);
   }
 
@@ -21,12 +21,9 @@ import com.intellij.lang.ASTNode;
 import com.intellij.navigation.ItemPresentation;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiElementVisitor;
-import com.intellij.psi.PsiFile;
-import com.intellij.psi.PsiReference;
 import com.intellij.psi.tree.IElementType;
 import com.intellij.psi.tree.TokenSet;
 import javax.annotation.Nullable;
-import javax.swing.Icon;
 
 /** Base PSI class for the BUILD language */
 public abstract class BuildElementImpl extends ASTWrapperPsiElement implements BuildElement {
@@ -37,10 +34,7 @@ public abstract class BuildElementImpl extends ASTWrapperPsiElement implements B
 
   @Nullable
   public <P extends PsiElement> P getPsiChild(IElementType type, Class<P> psiClass) {
-    ASTNode childNode = getNode().findChildByType(type);
-    return childNode != null && psiClass.isInstance(childNode.getPsi())
-        ? psiClass.cast(childNode.getPsi())
-        : null;
+    return BuildElementHelper.getPsiChild(this, type, psiClass);
   }
 
   @Override
@@ -71,8 +65,7 @@ public abstract class BuildElementImpl extends ASTWrapperPsiElement implements B
   }
 
   public String nonNullName() {
-    String name = getName();
-    return name != null ? name : "<unnamed>";
+    return BuildElementHelper.nonNullName(getName());
   }
 
   @Override
@@ -99,42 +92,18 @@ public abstract class BuildElementImpl extends ASTWrapperPsiElement implements B
   @Nullable
   @Override
   public PsiElement getReferencedElement() {
-    PsiReference[] refs = getReferences();
-    for (PsiReference ref : refs) {
-      PsiElement element = ref.resolve();
-      if (element != null) {
-        return element;
-      }
-    }
-    return null;
+    return BuildElementHelper.getReferencedElement(this);
   }
 
   @Override
   public ItemPresentation getPresentation() {
-    final BuildElement element = this;
-    return new ItemPresentation() {
-      @Override
-      public String getPresentableText() {
-        return element.getPresentableText();
-      }
-
-      @Override
-      public String getLocationString() {
-        return element.getLocationString();
-      }
-
-      @Override
-      public Icon getIcon(boolean unused) {
-        return element.getIcon(0);
-      }
-    };
+    return BuildElementHelper.getPresentation(this);
   }
 
   @Nullable
   @Override
   public BlazePackage getBlazePackage() {
-    PsiFile file = getContainingFile();
-    return file != null ? BlazePackage.getContainingPackage(file) : null;
+    return BuildElementHelper.getBlazePackage(getContainingFile());
   }
 
   @Nullable
@@ -18,6 +18,8 @@ package com.google.idea.blaze.base.lang.buildfile.psi;
 import com.google.idea.blaze.base.lang.buildfile.language.BuildFileType;
 import com.google.idea.blaze.base.lang.buildfile.references.QuoteType;
 import com.google.idea.blaze.base.lang.buildfile.search.BlazePackage;
+import com.google.idea.blaze.base.lang.buildfile.stubs.FuncallStub;
+import com.google.idea.blaze.base.lang.buildfile.stubs.FunctionStatementStub;
 import com.google.idea.blaze.base.model.primitives.Label;
 import com.google.idea.blaze.base.sync.workspace.WorkspaceHelper;
 import com.intellij.extapi.psi.PsiFileBase;
@@ -27,10 +29,13 @@ import com.intellij.openapi.project.Project;
 import com.intellij.psi.FileViewProvider;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiNamedElement;
+import com.intellij.psi.stubs.StubElement;
 import com.intellij.util.PathUtil;
 import com.intellij.util.Processor;
 import icons.BlazeIcons;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import javax.annotation.Nullable;
 import javax.swing.Icon;
 
@@ -131,6 +136,15 @@ public class BuildFile extends PsiFileBase implements BuildElement, DocStringOwn
   /** Finds a top-level rule with a "name" keyword argument with the given value. */
   @Nullable
   public FuncallExpression findRule(String name) {
+    List<FuncallStub> stubs = getTopLevelStubs(FuncallStub.class);
+    if (stubs != null) {
+      for (FuncallStub stub : stubs) {
+        if (name.equals(stub.getName())) {
+          return stub.getPsi();
+        }
+      }
+      return null;
+    }
     for (FuncallExpression expr : findChildrenByClass(FuncallExpression.class)) {
       String ruleName = expr.getNameArgumentValue();
       if (name.equals(ruleName)) {
@@ -142,6 +156,15 @@ public class BuildFile extends PsiFileBase implements BuildElement, DocStringOwn
 
   @Nullable
   public FunctionStatement findDeclaredFunction(String name) {
+    List<FunctionStatementStub> stubs = getTopLevelStubs(FunctionStatementStub.class);
+    if (stubs != null) {
+      for (FunctionStatementStub stub : stubs) {
+        if (name.equals(stub.getName())) {
+          return stub.getPsi();
+        }
+      }
+      return null;
+    }
     for (FunctionStatement fn : getFunctionDeclarations()) {
       if (name.equals(fn.getName())) {
         return fn;
@@ -229,10 +252,43 @@ public class BuildFile extends PsiFileBase implements BuildElement, DocStringOwn
     return findLoadedFunction(name);
   }
 
+  /** The top-level function calls in this file, most of which are rules in a BUILD package. */
+  public FuncallExpression[] getTopLevelFuncalls() {
+    List<FuncallStub> stubs = getTopLevelStubs(FuncallStub.class);
+    if (stubs != null) {
+      return stubs.stream().map(FuncallStub::getPsi).toArray(FuncallExpression[]::new);
+    }
+    return findChildrenByClass(FuncallExpression.class);
+  }
+
   public FunctionStatement[] getFunctionDeclarations() {
+    List<FunctionStatementStub> stubs = getTopLevelStubs(FunctionStatementStub.class);
+    if (stubs != null) {
+      return stubs.stream().map(FunctionStatementStub::getPsi).toArray(FunctionStatement[]::new);
+    }
     return findChildrenByClass(FunctionStatement.class);
   }
 
+  /**
+   * Returns the stubs of the given type among the top-level elements of this file, or null if the
+   * stub tree isn't available (e.g. because the file has already been parsed). This allows
+   * top-level rules and functions to be found without parsing the file.
+   */
+  @Nullable
+  private <S extends StubElement<?>> List<S> getTopLevelStubs(Class<S> stubClass) {
+    StubElement<?> fileStub = getStub();
+    if (fileStub == null) {
+      return null;
+    }
+    List<S> stubs = new ArrayList<>();
+    for (StubElement<?> child : fileStub.getChildrenStubs()) {
+      if (stubClass.isInstance(child)) {
+        stubs.add(stubClass.cast(child));
+      }
+    }
+    return stubs;
+  }
+
   @Override
   public Icon getIcon(int flags) {
     return BlazeIcons.BuildFile;
@@ -15,21 +15,64 @@
  */
 package com.google.idea.blaze.base.lang.buildfile.psi;
 
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import com.google.idea.blaze.base.lang.buildfile.references.QuoteType;
+import com.google.idea.blaze.base.lang.buildfile.stubs.FunctionStatementStub;
 import com.intellij.lang.ASTNode;
 import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiNameIdentifierOwner;
+import com.intellij.psi.stubs.IStubElementType;
 import com.intellij.util.PlatformIcons;
 import javax.annotation.Nullable;
 import javax.swing.Icon;
 
 /** PSI element for a function definition statement. */
-public class FunctionStatement extends NamedBuildElement
-    implements Statement, StatementListContainer, DocStringOwner {
+public class FunctionStatement extends StubBasedBuildElementImpl<FunctionStatementStub>
+    implements Statement, StatementListContainer, DocStringOwner, PsiNameIdentifierOwner {
 
   public FunctionStatement(ASTNode astNode) {
     super(astNode);
   }
 
+  public FunctionStatement(FunctionStatementStub stub, IStubElementType<?, ?> nodeType) {
+    super(stub, nodeType);
+  }
+
+  @Nullable
+  public ASTNode getNameNode() {
+    return BuildElementHelper.getNameNode(this);
+  }
+
+  @Override
+  @Nullable
+  public String getName() {
+    FunctionStatementStub stub = getStub();
+    if (stub != null) {
+      return stub.getName();
+    }
+    ASTNode node = getNameNode();
+    return node != null ? node.getText() : null;
+  }
+
+  @Override
+  @Nullable
+  public PsiElement getNameIdentifier() {
+    return BuildElementHelper.getNameIdentifier(this);
+  }
+
+  @CanIgnoreReturnValue
+  @Override
+  public PsiElement setName(String name) {
+    BuildElementHelper.setName(this, name);
+    return this;
+  }
+
+  @Override
+  public int getTextOffset() {
+    int offset = BuildElementHelper.getNameOffset(this);
+    return offset >= 0 ? offset : super.getTextOffset();
+  }
+
   @Override
   protected void acceptVisitor(BuildElementVisitor visitor) {
     visitor.visitFunctionStatement(this);
@@ -74,4 +117,9 @@ public class FunctionStatement extends NamedBuildElement
     }
     return null;
   }
+
+  @Override
+  public String toString() {
+    return super.toString() + "('" + getName() + "')";
+  }
 }
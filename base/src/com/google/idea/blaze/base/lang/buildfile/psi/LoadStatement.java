@@ -16,19 +16,26 @@
 package com.google.idea.blaze.base.lang.buildfile.psi;
 
 import com.google.idea.blaze.base.lang.buildfile.references.LabelUtils;
+import com.google.idea.blaze.base.lang.buildfile.stubs.LoadStatementStub;
 import com.intellij.lang.ASTNode;
+import com.intellij.psi.stubs.IStubElementType;
 import com.intellij.util.PlatformIcons;
 import java.util.Arrays;
 import javax.annotation.Nullable;
 import javax.swing.Icon;
 
 /** PSI element for a load statement. */
-public class LoadStatement extends BuildElementImpl implements Statement {
+public class LoadStatement extends StubBasedBuildElementImpl<LoadStatementStub>
+    implements Statement {
 
   public LoadStatement(ASTNode astNode) {
     super(astNode);
   }
 
+  public LoadStatement(LoadStatementStub stub, IStubElementType<?, ?> nodeType) {
+    super(stub, nodeType);
+  }
+
   @Override
   protected void acceptVisitor(BuildElementVisitor visitor) {
     visitor.visitLoadStatement(this);
@@ -46,6 +53,10 @@ public class LoadStatement extends BuildElementImpl implements Statement {
 
   @Nullable
   public String getImportedPath() {
+    LoadStatementStub stub = getStub();
+    if (stub != null) {
+      return stub.getImportedPath();
+    }
     ASTNode firstString = getImportNode();
     return firstString != null ? StringLiteral.stripQuotes(firstString.getText()) : null;
   }
@@ -16,8 +16,6 @@
 package com.google.idea.blaze.base.lang.buildfile.psi;
 
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
-import com.google.idea.blaze.base.lang.buildfile.lexer.BuildToken;
-import com.google.idea.blaze.base.lang.buildfile.psi.util.PsiUtils;
 import com.intellij.lang.ASTNode;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiNameIdentifierOwner;
@@ -32,7 +30,7 @@ public abstract class NamedBuildElement extends BuildElementImpl implements PsiN
 
   @Nullable
   public ASTNode getNameNode() {
-    return getNode().findChildByType(BuildToken.IDENTIFIER);
+    return BuildElementHelper.getNameNode(this);
   }
 
   @Override
@@ -45,25 +43,20 @@ public abstract class NamedBuildElement extends BuildElementImpl implements PsiN
   @Override
   @Nullable
   public PsiElement getNameIdentifier() {
-    final ASTNode nameNode = getNameNode();
-    return nameNode != null ? nameNode.getPsi() : null;
+    return BuildElementHelper.getNameIdentifier(this);
   }
 
   @CanIgnoreReturnValue
   @Override
   public PsiElement setName(String name) {
-    final ASTNode nameElement = PsiUtils.createNewName(getProject(), name);
-    final ASTNode nameNode = getNameNode();
-    if (nameNode != null) {
-      getNode().replaceChild(nameNode, nameElement);
-    }
+    BuildElementHelper.setName(this, name);
     return this;
   }
 
   @Override
   public int getTextOffset() {
-    final ASTNode name = getNameNode();
-    return name != null ? name.getStartOffset() : super.getTextOffset();
+    int offset = BuildElementHelper.getNameOffset(this);
+    return offset >= 0 ? offset : super.getTextOffset();
   }
 
   @Override
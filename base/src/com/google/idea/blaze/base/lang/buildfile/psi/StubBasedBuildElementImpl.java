@@ -0,0 +1,107 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.psi;
+
+import com.google.idea.blaze.base.lang.buildfile.search.BlazePackage;
+import com.intellij.extapi.psi.StubBasedPsiElementBase;
+import com.intellij.lang.ASTNode;
+import com.intellij.navigation.ItemPresentation;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiElementVisitor;
+import com.intellij.psi.stubs.IStubElementType;
+import com.intellij.psi.stubs.StubElement;
+import com.intellij.psi.tree.IElementType;
+import javax.annotation.Nullable;
+
+/**
+ * Base class for BUILD file PSI elements which can be backed by a stub, so that they can be
+ * looked up without parsing the containing file. Otherwise equivalent to {@link BuildElementImpl}.
+ */
+public abstract class StubBasedBuildElementImpl<S extends StubElement<?>>
+    extends StubBasedPsiElementBase<S> implements BuildElement {
+
+  public StubBasedBuildElementImpl(ASTNode astNode) {
+    super(astNode);
+  }
+
+  public StubBasedBuildElementImpl(S stub, IStubElementType<?, ?> nodeType) {
+    super(stub, nodeType);
+  }
+
+  @Nullable
+  public <P extends PsiElement> P getPsiChild(IElementType type, Class<P> psiClass) {
+    return BuildElementHelper.getPsiChild(this, type, psiClass);
+  }
+
+  @Override
+  public <P extends PsiElement> P[] childrenOfClass(Class<P> psiClass) {
+    return findChildrenByClass(psiClass);
+  }
+
+  @Nullable
+  @Override
+  public <P extends PsiElement> P firstChildOfClass(Class<P> psiClass) {
+    return findChildByClass(psiClass);
+  }
+
+  public String nonNullName() {
+    return BuildElementHelper.nonNullName(getName());
+  }
+
+  @Override
+  public String getPresentableText() {
+    return nonNullName();
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "(" + getElementType() + "): " + getPresentableText();
+  }
+
+  @Override
+  public void accept(PsiElementVisitor visitor) {
+    if (visitor instanceof BuildElementVisitor) {
+      acceptVisitor(((BuildElementVisitor) visitor));
+    } else {
+      super.accept(visitor);
+    }
+  }
+
+  protected abstract void acceptVisitor(BuildElementVisitor visitor);
+
+  @Nullable
+  @Override
+  public PsiElement getReferencedElement() {
+    return BuildElementHelper.getReferencedElement(this);
+  }
+
+  @Override
+  public ItemPresentation getPresentation() {
+    return BuildElementHelper.getPresentation(this);
+  }
+
+  @Nullable
+  @Override
+  public BlazePackage getBlazePackage() {
+    return BuildElementHelper.getBlazePackage(getContainingFile());
+  }
+
+  @Nullable
+  @Override
+  public BuildFile getContainingFile() {
+    return (BuildFile) super.getContainingFile();
+  }
+}
@@ -20,11 +20,18 @@ import com.google.idea.blaze.base.lang.buildfile.language.BuildFileType;
 import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
 import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile.BlazeFileType;
 import com.google.idea.blaze.base.lang.buildfile.psi.FuncallExpression;
+import com.google.idea.blaze.base.lang.buildfile.psi.FunctionStatement;
+import com.google.idea.blaze.base.lang.buildfile.psi.LoadStatement;
 import com.google.idea.blaze.base.lang.buildfile.psi.NamedBuildElement;
 import com.google.idea.blaze.base.lang.buildfile.psi.util.PsiUtils;
 import com.google.idea.blaze.base.lang.buildfile.references.LabelUtils;
+import com.google.idea.blaze.base.lang.buildfile.stubs.BuildLabelStringIndex;
+import com.google.idea.blaze.base.lang.buildfile.stubs.BuildLoadedSymbolIndex;
 import com.google.idea.blaze.base.model.primitives.Label;
 import com.intellij.openapi.application.QueryExecutorBase;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiDirectory;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
@@ -34,8 +41,12 @@ import com.intellij.psi.search.LocalSearchScope;
 import com.intellij.psi.search.SearchScope;
 import com.intellij.psi.search.UsageSearchContext;
 import com.intellij.psi.search.searches.ReferencesSearch.SearchParameters;
+import com.intellij.psi.stubs.StubIndex;
 import com.intellij.util.Processor;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import javax.annotation.Nullable;
 
 /** String search for references in BUILD files */
@@ -48,6 +59,13 @@ public class BuildReferenceSearcher extends QueryExecutorBase<PsiReference, Sear
   @Override
   public void processQuery(SearchParameters params, Processor<? super PsiReference> consumer) {
     PsiElement element = params.getElementToSearch();
+    if (element instanceof FunctionStatement) {
+      String fnName = ((FunctionStatement) element).getName();
+      if (fnName != null) {
+        searchForFunction(params, (FunctionStatement) element, fnName);
+      }
+      return;
+    }
     if (element instanceof NamedBuildElement) {
       String fnName = ((NamedBuildElement) element).getName();
       if (fnName != null) {
@@ -164,13 +182,74 @@ public class BuildReferenceSearcher extends QueryExecutorBase<PsiReference, Sear
   private static void searchForString(
       SearchParameters params, SearchScope scope, PsiElement element, String string) {
     if (scope instanceof GlobalSearchScope) {
-      scope =
+      GlobalSearchScope globalScope =
           GlobalSearchScope.getScopeRestrictedByFileTypes(
               (GlobalSearchScope) scope, BuildFileType.INSTANCE);
+      if (LabelUtils.isAbsolute(string)) {
+        globalScope = restrictToFilesContainingLabel(element.getProject(), globalScope, string);
+        if (globalScope == null) {
+          return;
+        }
+      }
+      scope = globalScope;
     }
     params.getOptimizer().searchWord(string, scope, UsageSearchContext.IN_STRINGS, true, element);
   }
 
+  /**
+   * Restricts the scope to those files containing the given absolute label string, using the stub
+   * index where possible, so that only the relevant files need be searched.
+   *
+   * <p>Returns null if no files in scope contain the label.
+   */
+  @Nullable
+  private static GlobalSearchScope restrictToFilesContainingLabel(
+      Project project, GlobalSearchScope scope, String label) {
+    if (DumbService.isDumb(project)) {
+      return scope;
+    }
+    Collection<BuildFile> files =
+        StubIndex.getElements(BuildLabelStringIndex.KEY, label, project, scope, BuildFile.class);
+    if (files.isEmpty()) {
+      return null;
+    }
+    return GlobalSearchScope.filesScope(project, getVirtualFiles(files));
+  }
+
+  /**
+   * Functions can only be referenced from the file declaring them, or from files which load them,
+   * so where the stub index is available the search is limited to those files.
+   */
+  private static void searchForFunction(
+      SearchParameters params, FunctionStatement function, String name) {
+    SearchScope scope = params.getScopeDeterminedByUser();
+    Project project = function.getProject();
+    if (scope instanceof GlobalSearchScope && !DumbService.isDumb(project)) {
+      GlobalSearchScope globalScope = (GlobalSearchScope) scope;
+      List<PsiFile> files = Lists.newArrayList();
+      files.add(function.getContainingFile());
+      for (LoadStatement load :
+          StubIndex.getElements(
+              BuildLoadedSymbolIndex.KEY, name, project, globalScope, LoadStatement.class)) {
+        files.add(load.getContainingFile());
+      }
+      scope =
+          globalScope.intersectWith(GlobalSearchScope.filesScope(project, getVirtualFiles(files)));
+    }
+    searchForString(params, scope, function, name);
+  }
+
+  private static Set<VirtualFile> getVirtualFiles(Collection<? extends PsiFile> files) {
+    Set<VirtualFile> virtualFiles = new HashSet<>();
+    for (PsiFile file : files) {
+      VirtualFile virtualFile = file != null ? file.getVirtualFile() : null;
+      if (virtualFile != null) {
+        virtualFiles.add(virtualFile);
+      }
+    }
+    return virtualFiles;
+  }
+
   private static void searchForExternalWorkspace(
       SearchParameters params, PsiFile file, FuncallExpression funcall) {
     if (!isBlazeWorkspaceFile(file)) {
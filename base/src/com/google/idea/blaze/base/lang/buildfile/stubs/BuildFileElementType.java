@@ -0,0 +1,113 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.stubs;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.lang.buildfile.language.BuildFileLanguage;
+import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
+import com.google.idea.blaze.base.lang.buildfile.psi.StringLiteral;
+import com.google.idea.blaze.base.lang.buildfile.references.LabelUtils;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.StubBuilder;
+import com.intellij.psi.stubs.DefaultStubBuilder;
+import com.intellij.psi.stubs.IndexSink;
+import com.intellij.psi.stubs.StubElement;
+import com.intellij.psi.stubs.StubInputStream;
+import com.intellij.psi.stubs.StubOutputStream;
+import com.intellij.psi.tree.IStubFileElementType;
+import com.intellij.psi.util.PsiTreeUtil;
+import java.io.IOException;
+
+/**
+ * The file element type for BUILD and Skylark files.
+ *
+ * <p>Top-level rules and function declarations, and load statements are stored in the stub tree,
+ * along with the absolute label strings referenced anywhere in the file.
+ */
+public class BuildFileElementType extends IStubFileElementType<BuildFileStub> {
+
+  public static final BuildFileElementType INSTANCE = new BuildFileElementType();
+
+  /** Must be incremented whenever the stub tree format, or what is indexed, changes. */
+  private static final int STUB_VERSION = 1;
+
+  private BuildFileElementType() {
+    super("BUILD_FILE", BuildFileLanguage.INSTANCE);
+  }
+
+  @Override
+  public int getStubVersion() {
+    return STUB_VERSION;
+  }
+
+  @Override
+  public String getExternalId() {
+    return "BUILD.FILE";
+  }
+
+  @Override
+  public StubBuilder getBuilder() {
+    return new DefaultStubBuilder() {
+      @Override
+      protected StubElement createStubForFile(PsiFile file) {
+        if (file instanceof BuildFile) {
+          return new BuildFileStub((BuildFile) file, collectLabelStrings(file));
+        }
+        return super.createStubForFile(file);
+      }
+    };
+  }
+
+  private static ImmutableList<String> collectLabelStrings(PsiFile file) {
+    ImmutableSet.Builder<String> labels = ImmutableSet.builder();
+    for (StringLiteral literal : PsiTreeUtil.findChildrenOfType(file, StringLiteral.class)) {
+      String contents = literal.getStringContents();
+      if (LabelUtils.isAbsolute(contents)) {
+        labels.add(contents);
+      }
+    }
+    return labels.build().asList();
+  }
+
+  @Override
+  public void serialize(BuildFileStub stub, StubOutputStream dataStream) throws IOException {
+    dataStream.writeVarInt(stub.getLabelStrings().size());
+    for (String label : stub.getLabelStrings()) {
+      dataStream.writeName(label);
+    }
+  }
+
+  @Override
+  public BuildFileStub deserialize(StubInputStream dataStream, StubElement parentStub)
+      throws IOException {
+    int count = dataStream.readVarInt();
+    ImmutableList.Builder<String> labels = ImmutableList.builderWithExpectedSize(count);
+    for (int i = 0; i < count; i++) {
+      labels.add(dataStream.readNameString());
+    }
+    return new BuildFileStub(null, labels.build());
+  }
+
+  @Override
+  public void indexStub(BuildFileStub stub, IndexSink sink) {
+    for (String label : stub.getLabelStrings()) {
+      for (String key : BuildLabelStringIndex.getKeys(label)) {
+        sink.occurrence(BuildLabelStringIndex.KEY, key);
+      }
+    }
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.stubs;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
+import com.intellij.psi.stubs.PsiFileStubImpl;
+import javax.annotation.Nullable;
+
+/** The root of a BUILD file's stub tree. */
+public class BuildFileStub extends PsiFileStubImpl<BuildFile> {
+
+  private final ImmutableList<String> labelStrings;
+
+  BuildFileStub(@Nullable BuildFile file, ImmutableList<String> labelStrings) {
+    super(file);
+    this.labelStrings = labelStrings;
+  }
+
+  /** The distinct absolute label strings appearing in string literals in this file. */
+  public ImmutableList<String> getLabelStrings() {
+    return labelStrings;
+  }
+
+  @Override
+  public BuildFileElementType getType() {
+    return BuildFileElementType.INSTANCE;
+  }
+}
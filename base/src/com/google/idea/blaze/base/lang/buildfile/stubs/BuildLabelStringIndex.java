@@ -0,0 +1,55 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.stubs;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
+import com.google.idea.blaze.base.lang.buildfile.references.LabelUtils;
+import com.intellij.psi.stubs.StringStubIndexExtension;
+import com.intellij.psi.stubs.StubIndexKey;
+
+/**
+ * Index of BUILD and Skylark files, keyed by the absolute label strings they contain.
+ *
+ * <p>Each label is also indexed under its package ('[@ext]//package/path') and external workspace
+ * ('@ext') components, as references to a package or workspace can appear as a prefix of a longer
+ * label.
+ */
+public class BuildLabelStringIndex extends StringStubIndexExtension<BuildFile> {
+
+  public static final StubIndexKey<String, BuildFile> KEY =
+      StubIndexKey.createIndexKey("Blaze.BuildLabelString");
+
+  @Override
+  public StubIndexKey<String, BuildFile> getKey() {
+    return KEY;
+  }
+
+  /** The keys under which a file containing the given absolute label string is indexed. */
+  static ImmutableSet<String> getKeys(String labelString) {
+    ImmutableSet.Builder<String> keys = ImmutableSet.builder();
+    keys.add(labelString);
+    int colonIndex = labelString.indexOf(':');
+    if (colonIndex != -1) {
+      keys.add(labelString.substring(0, colonIndex));
+    }
+    String workspace = LabelUtils.getExternalWorkspaceComponent(labelString);
+    if (workspace != null) {
+      keys.add("@" + workspace);
+    }
+    return keys.build();
+  }
+}
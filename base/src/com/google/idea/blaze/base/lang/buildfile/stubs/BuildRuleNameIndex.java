@@ -0,0 +1,32 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.stubs;
+
+import com.google.idea.blaze.base.lang.buildfile.psi.FuncallExpression;
+import com.intellij.psi.stubs.StringStubIndexExtension;
+import com.intellij.psi.stubs.StubIndexKey;
+
+/** Index of top-level function calls, keyed by the value of their "name" argument. */
+public class BuildRuleNameIndex extends StringStubIndexExtension<FuncallExpression> {
+
+  public static final StubIndexKey<String, FuncallExpression> KEY =
+      StubIndexKey.createIndexKey("Blaze.BuildRuleName");
+
+  @Override
+  public StubIndexKey<String, FuncallExpression> getKey() {
+    return KEY;
+  }
+}
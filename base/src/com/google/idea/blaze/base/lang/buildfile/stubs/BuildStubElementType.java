@@ -0,0 +1,43 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.stubs;
+
+import com.google.idea.blaze.base.lang.buildfile.language.BuildFileLanguage;
+import com.google.idea.blaze.base.lang.buildfile.psi.BuildElementTypes;
+import com.intellij.lang.ASTNode;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.stubs.IStubElementType;
+import com.intellij.psi.stubs.StubElement;
+
+/** Base class for BUILD file element types which are stored in the stub tree. */
+public abstract class BuildStubElementType<S extends StubElement<?>, P extends PsiElement>
+    extends IStubElementType<S, P> {
+
+  BuildStubElementType(String debugName) {
+    super(debugName, BuildFileLanguage.INSTANCE);
+  }
+
+  @Override
+  public String getExternalId() {
+    return "BUILD." + super.toString();
+  }
+
+  /** Whether the node is a direct child of the file, rather than nested in another element. */
+  static boolean isTopLevel(ASTNode node) {
+    ASTNode parent = node.getTreeParent();
+    return parent != null && parent.getElementType() == BuildElementTypes.BUILD_FILE;
+  }
+}
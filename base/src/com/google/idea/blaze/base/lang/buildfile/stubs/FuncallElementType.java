@@ -0,0 +1,69 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.stubs;
+
+import com.google.idea.blaze.base.lang.buildfile.psi.FuncallExpression;
+import com.intellij.lang.ASTNode;
+import com.intellij.psi.stubs.IndexSink;
+import com.intellij.psi.stubs.StubElement;
+import com.intellij.psi.stubs.StubInputStream;
+import com.intellij.psi.stubs.StubOutputStream;
+import java.io.IOException;
+
+/** Element type for function calls. Only top-level calls are stored in the stub tree. */
+public class FuncallElementType extends BuildStubElementType<FuncallStub, FuncallExpression> {
+
+  public FuncallElementType() {
+    super("function_call");
+  }
+
+  @Override
+  public FuncallExpression createPsi(FuncallStub stub) {
+    return new FuncallExpression(stub, this);
+  }
+
+  @Override
+  public FuncallStub createStub(FuncallExpression psi, StubElement parentStub) {
+    return new FuncallStub(parentStub, this, psi.getNameArgumentValue(), psi.getFunctionName());
+  }
+
+  @Override
+  public boolean shouldCreateStub(ASTNode node) {
+    return isTopLevel(node);
+  }
+
+  @Override
+  public void serialize(FuncallStub stub, StubOutputStream dataStream) throws IOException {
+    dataStream.writeName(stub.getName());
+    dataStream.writeName(stub.getFunctionName());
+  }
+
+  @Override
+  public FuncallStub deserialize(StubInputStream dataStream, StubElement parentStub)
+      throws IOException {
+    String name = dataStream.readNameString();
+    String functionName = dataStream.readNameString();
+    return new FuncallStub(parentStub, this, name, functionName);
+  }
+
+  @Override
+  public void indexStub(FuncallStub stub, IndexSink sink) {
+    String name = stub.getName();
+    if (name != null) {
+      sink.occurrence(BuildRuleNameIndex.KEY, name);
+    }
+  }
+}
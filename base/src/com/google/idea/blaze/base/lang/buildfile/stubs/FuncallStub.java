@@ -0,0 +1,50 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.stubs;
+
+import com.google.idea.blaze.base.lang.buildfile.psi.FuncallExpression;
+import com.intellij.psi.stubs.IStubElementType;
+import com.intellij.psi.stubs.StubBase;
+import com.intellij.psi.stubs.StubElement;
+import javax.annotation.Nullable;
+
+/** Stub for a top-level function call, which is almost always a BUILD rule. */
+public class FuncallStub extends StubBase<FuncallExpression> {
+
+  @Nullable private final String name;
+  @Nullable private final String functionName;
+
+  FuncallStub(
+      StubElement<?> parent,
+      IStubElementType<?, ?> elementType,
+      @Nullable String name,
+      @Nullable String functionName) {
+    super(parent, elementType);
+    this.name = name;
+    this.functionName = functionName;
+  }
+
+  /** The value of the "name" keyword argument, if present. */
+  @Nullable
+  public String getName() {
+    return name;
+  }
+
+  @Nullable
+  public String getFunctionName() {
+    return functionName;
+  }
+}
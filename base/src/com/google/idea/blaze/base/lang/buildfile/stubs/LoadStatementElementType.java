@@ -0,0 +1,81 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.stubs;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.lang.buildfile.psi.LoadStatement;
+import com.google.idea.blaze.base.lang.buildfile.psi.StringLiteral;
+import com.intellij.psi.stubs.IndexSink;
+import com.intellij.psi.stubs.StubElement;
+import com.intellij.psi.stubs.StubInputStream;
+import com.intellij.psi.stubs.StubOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Objects;
+
+/** Element type for load statements. */
+public class LoadStatementElementType
+    extends BuildStubElementType<LoadStatementStub, LoadStatement> {
+
+  public LoadStatementElementType() {
+    super("load");
+  }
+
+  @Override
+  public LoadStatement createPsi(LoadStatementStub stub) {
+    return new LoadStatement(stub, this);
+  }
+
+  @Override
+  public LoadStatementStub createStub(LoadStatement psi, StubElement parentStub) {
+    ImmutableList<String> symbols =
+        Arrays.stream(psi.getLoadedSymbols())
+            .filter(Objects::nonNull)
+            .map(StringLiteral::getStringContents)
+            .collect(toImmutableList());
+    return new LoadStatementStub(parentStub, this, psi.getImportedPath(), symbols);
+  }
+
+  @Override
+  public void serialize(LoadStatementStub stub, StubOutputStream dataStream) throws IOException {
+    dataStream.writeName(stub.getImportedPath());
+    dataStream.writeVarInt(stub.getLoadedSymbols().size());
+    for (String symbol : stub.getLoadedSymbols()) {
+      dataStream.writeName(symbol);
+    }
+  }
+
+  @Override
+  public LoadStatementStub deserialize(StubInputStream dataStream, StubElement parentStub)
+      throws IOException {
+    String importedPath = dataStream.readNameString();
+    int count = dataStream.readVarInt();
+    ImmutableList.Builder<String> symbols = ImmutableList.builderWithExpectedSize(count);
+    for (int i = 0; i < count; i++) {
+      symbols.add(dataStream.readNameString());
+    }
+    return new LoadStatementStub(parentStub, this, importedPath, symbols.build());
+  }
+
+  @Override
+  public void indexStub(LoadStatementStub stub, IndexSink sink) {
+    for (String symbol : stub.getLoadedSymbols()) {
+      sink.occurrence(BuildLoadedSymbolIndex.KEY, symbol);
+    }
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.stubs;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.lang.buildfile.psi.LoadStatement;
+import com.intellij.psi.stubs.IStubElementType;
+import com.intellij.psi.stubs.StubBase;
+import com.intellij.psi.stubs.StubElement;
+import javax.annotation.Nullable;
+
+/** Stub for a load statement. */
+public class LoadStatementStub extends StubBase<LoadStatement> {
+
+  @Nullable private final String importedPath;
+  private final ImmutableList<String> loadedSymbols;
+
+  LoadStatementStub(
+      StubElement<?> parent,
+      IStubElementType<?, ?> elementType,
+      @Nullable String importedPath,
+      ImmutableList<String> loadedSymbols) {
+    super(parent, elementType);
+    this.importedPath = importedPath;
+    this.loadedSymbols = loadedSymbols;
+  }
+
+  @Nullable
+  public String getImportedPath() {
+    return importedPath;
+  }
+
+  /** The symbols as they appear in the loaded extension (i.e. ignoring aliases). */
+  public ImmutableList<String> getLoadedSymbols() {
+    return loadedSymbols;
+  }
+}
@@ -16,13 +16,11 @@
 package com.google.idea.blaze.base.lang.buildfile.sync;
 
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.devtools.build.lib.query2.proto.proto2api.Build;
 import com.google.idea.blaze.base.bazel.BuildSystem.BuildInvoker;
 import com.google.idea.blaze.base.command.BlazeCommandName;
 import com.google.idea.blaze.base.command.BlazeFlags;
 import com.google.idea.blaze.base.command.BlazeInvocationContext;
-import com.google.idea.blaze.base.command.info.BlazeInfo;
-import com.google.idea.blaze.base.command.info.BlazeInfoRunner;
+import com.google.idea.blaze.base.command.info.BlazeInfoProvider;
 import com.google.idea.blaze.base.ideinfo.TargetMap;
 import com.google.idea.blaze.base.lang.buildfile.language.semantics.BuildLanguageSpec;
 import com.google.idea.blaze.base.model.BlazeVersionData;
@@ -39,7 +37,6 @@ import com.google.idea.blaze.base.sync.SyncMode;
 import com.google.idea.blaze.base.sync.projectview.WorkspaceLanguageSettings;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
 import com.google.idea.blaze.base.sync.workspace.WorkingSet;
-import com.google.protobuf.InvalidProtocolBufferException;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
@@ -108,10 +105,9 @@ public class BuildLangSyncPlugin implements BlazeSyncPlugin {
     BuildInvoker invoker =
         Blaze.getBuildSystemProvider(project).getBuildSystem().getDefaultInvoker(project, context);
     try {
-      ListenableFuture<byte[]> future =
-          BlazeInfoRunner.getInstance()
-              .runBlazeInfoGetBytes(
-                  project,
+      ListenableFuture<BuildLanguageSpec> future =
+          BlazeInfoProvider.getInstance(project)
+              .getBuildLanguageSpec(
                   invoker,
                   context,
                   BlazeFlags.blazeFlags(
@@ -119,15 +115,13 @@ public class BuildLangSyncPlugin implements BlazeSyncPlugin {
                       projectViewSet,
                       BlazeCommandName.INFO,
                       context,
-                      BlazeInvocationContext.SYNC_CONTEXT),
-                  BlazeInfo.BUILD_LANGUAGE);
-
-      return BuildLanguageSpec.fromProto(Build.BuildLanguage.parseFrom(future.get()));
+                      BlazeInvocationContext.SYNC_CONTEXT));
+      return future.get();
 
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
       return null;
-    } catch (ExecutionException | InvalidProtocolBufferException | NullPointerException e) {
+    } catch (ExecutionException | NullPointerException e) {
       if (!ApplicationManager.getApplication().isUnitTestMode()) {
         logger.error(e);
       }
@@ -22,6 +22,7 @@ import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import com.google.idea.blaze.base.model.primitives.LanguageClass;
 import com.google.idea.blaze.base.model.primitives.WorkspacePath;
 import com.google.idea.blaze.base.model.primitives.WorkspaceType;
+import com.google.idea.blaze.base.prefetch.FetchExecutor.QueueStats;
 import com.google.idea.blaze.base.scope.scopes.TimingScopeListener.TimedEvent;
 import com.google.idea.blaze.base.settings.BuildBinaryType;
 import com.google.idea.blaze.base.sync.SyncMode;
@@ -49,6 +50,9 @@ public abstract class SyncStats {
 
   public abstract ImmutableMap<String, Long> networkUsage();
 
+  /** The approximate in-memory size, in bytes, of each kind of sync data. */
+  public abstract ImmutableMap<String, Long> syncDataSizes();
+
   public abstract Instant startTime();
 
   public abstract Duration totalClockTime();
@@ -63,6 +67,9 @@ public abstract class SyncStats {
 
   public abstract ImmutableList<BuildPhaseSyncStats> buildPhaseStats();
 
+  /** Queue depth and latency for each fetch priority class, as of the end of the sync. */
+  public abstract ImmutableList<QueueStats> fetchQueueStats();
+
   public abstract int targetMapSize();
 
   public abstract int libraryCount();
@@ -111,6 +118,14 @@ public abstract class SyncStats {
       return this;
     }
 
+    abstract ImmutableMap.Builder<String, Long> syncDataSizesBuilder();
+
+    @CanIgnoreReturnValue
+    public Builder addSyncDataSizes(Map<String, Long> sizes) {
+      syncDataSizesBuilder().putAll(sizes);
+      return this;
+    }
+
     public abstract Builder setStartTime(Instant instant);
 
     public abstract Builder setTotalClockTime(Duration totalTime);
@@ -139,6 +154,14 @@ public abstract class SyncStats {
       return this;
     }
 
+    abstract ImmutableList.Builder<QueueStats> fetchQueueStatsBuilder();
+
+    @CanIgnoreReturnValue
+    public Builder addFetchQueueStats(QueueStats fetchQueueStats) {
+      fetchQueueStatsBuilder().add(fetchQueueStats);
+      return this;
+    }
+
     public abstract Builder setLibraryCount(int librariesCount);
 
     public abstract SyncStats build();
@@ -47,6 +47,9 @@ public abstract class SyncQueryStats implements QuerySyncOperationStats {
 
   public abstract SyncMode syncMode();
 
+  /** Time spent holding the write lock while applying the new project structure. */
+  public abstract Optional<Duration> projectUpdateWriteActionTime();
+
   @Override
   public abstract Optional<Duration> totalClockTime();
 
@@ -68,6 +71,8 @@ public abstract class SyncQueryStats implements QuerySyncOperationStats {
 
     public abstract Builder setSyncMode(SyncMode value);
 
+    public abstract Builder setProjectUpdateWriteActionTime(@Nullable Duration value);
+
     public abstract Builder setTotalClockTime(@Nullable Duration value);
 
     public abstract SyncQueryStats build();
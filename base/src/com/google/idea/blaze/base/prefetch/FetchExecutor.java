@@ -15,14 +15,200 @@
  */
 package com.google.idea.blaze.base.prefetch;
 
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
-import com.intellij.util.concurrency.AppExecutorUtil;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
 
-/** Shared executors for any prefetch/copy operations. */
+/**
+ * Shared executors for any prefetch/copy operations.
+ *
+ * <p>Work is split into {@link Priority} classes, each with its own concurrency limit, so that
+ * background prefetching can never starve the copies that sync is blocked on.
+ */
 public class FetchExecutor {
-  private static final int MAX_THREADS = 128;
-  public static final ListeningExecutorService EXECUTOR =
-      MoreExecutors.listeningDecorator(
-          AppExecutorUtil.createBoundedApplicationPoolExecutor("FetchExecutor", MAX_THREADS));
+
+  /** Priority classes for fetch work, in decreasing order of urgency. */
+  public enum Priority {
+    /** Work which a sync (or another user-visible operation) is blocked on. */
+    SYNC_BLOCKING(128),
+    /** Work needed to display files the user is opening, e.g. the source jar of a class file. */
+    EDITOR_VISIBLE(32),
+    /** Speculative work, e.g. warming the file system cache for project sources. */
+    BACKGROUND_PREFETCH(32);
+
+    private final int maxThreads;
+
+    Priority(int maxThreads) {
+      this.maxThreads = maxThreads;
+    }
+  }
+
+  private static final Map<Priority, PriorityExecutor> executors =
+      Maps.newEnumMap(Priority.class);
+
+  static {
+    ThreadFactory virtualThreadFactory = createVirtualThreadFactory();
+    for (Priority priority : Priority.values()) {
+      executors.put(priority, new PriorityExecutor(priority, virtualThreadFactory));
+    }
+  }
+
+  /** The executor for sync-blocking work. */
+  public static final ListeningExecutorService EXECUTOR = forPriority(Priority.SYNC_BLOCKING);
+
+  /** Returns the shared executor for the given priority class. */
+  public static ListeningExecutorService forPriority(Priority priority) {
+    return executors.get(priority).listeningExecutor;
+  }
+
+  /** Returns a snapshot of the queue metrics for the given priority class. */
+  public static QueueStats getStats(Priority priority) {
+    return executors.get(priority).stats();
+  }
+
+  /** Queue depth and latency metrics for a single priority class. */
+  @AutoValue
+  public abstract static class QueueStats {
+    public abstract Priority priority();
+
+    /** The number of submitted tasks which haven't started yet. */
+    public abstract int queueDepth();
+
+    /** The number of tasks currently running. */
+    public abstract int activeTasks();
+
+    /** The number of tasks which have started running since the IDE started. */
+    public abstract long startedTasks();
+
+    /** The mean time a started task spent waiting in the queue. */
+    public abstract long meanQueueLatencyMillis();
+
+    /** The longest time a started task spent waiting in the queue. */
+    public abstract long maxQueueLatencyMillis();
+
+    static QueueStats create(
+        Priority priority,
+        int queueDepth,
+        int activeTasks,
+        long startedTasks,
+        long meanQueueLatencyMillis,
+        long maxQueueLatencyMillis) {
+      return new AutoValue_FetchExecutor_QueueStats(
+          priority,
+          queueDepth,
+          activeTasks,
+          startedTasks,
+          meanQueueLatencyMillis,
+          maxQueueLatencyMillis);
+    }
+  }
+
+  /**
+   * Returns a factory creating virtual threads, or null if the runtime doesn't support them. Uses
+   * reflection, as the plugin is still compiled against older language levels.
+   */
+  @Nullable
+  private static ThreadFactory createVirtualThreadFactory() {
+    try {
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      builder =
+          builderClass.getMethod("name", String.class, long.class).invoke(builder, "Fetch-", 0L);
+      return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // virtual threads aren't available in this runtime
+      return null;
+    }
+  }
+
+  /**
+   * A bounded executor for a single priority class, which records how long tasks wait before
+   * they're run.
+   */
+  @VisibleForTesting
+  static final class PriorityExecutor extends ThreadPoolExecutor {
+    private final Priority priority;
+    final ListeningExecutorService listeningExecutor;
+    private final AtomicLong startedTasks = new AtomicLong();
+    private final AtomicLong totalQueueLatencyNanos = new AtomicLong();
+    private final AtomicLong maxQueueLatencyNanos = new AtomicLong();
+
+    PriorityExecutor(Priority priority, @Nullable ThreadFactory virtualThreadFactory) {
+      this(priority, priority.maxThreads, virtualThreadFactory);
+    }
+
+    @VisibleForTesting
+    PriorityExecutor(
+        Priority priority, int maxThreads, @Nullable ThreadFactory virtualThreadFactory) {
+      super(
+          maxThreads,
+          maxThreads,
+          60,
+          TimeUnit.SECONDS,
+          new LinkedBlockingQueue<>(),
+          virtualThreadFactory != null
+              ? virtualThreadFactory
+              : new ThreadFactoryBuilder()
+                  .setNameFormat("FetchExecutor-" + priority.name() + "-%d")
+                  .setDaemon(true)
+                  .build());
+      this.priority = priority;
+      allowCoreThreadTimeOut(true);
+      listeningExecutor = MoreExecutors.listeningDecorator(this);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      super.execute(new TimedRunnable(command));
+    }
+
+    @Override
+    protected void beforeExecute(Thread thread, Runnable runnable) {
+      super.beforeExecute(thread, runnable);
+      if (runnable instanceof TimedRunnable) {
+        long latency = System.nanoTime() - ((TimedRunnable) runnable).enqueueTimeNanos;
+        startedTasks.incrementAndGet();
+        totalQueueLatencyNanos.addAndGet(latency);
+        maxQueueLatencyNanos.accumulateAndGet(latency, Math::max);
+      }
+    }
+
+    QueueStats stats() {
+      long started = startedTasks.get();
+      long meanLatencyNanos = started == 0 ? 0 : totalQueueLatencyNanos.get() / started;
+      return QueueStats.create(
+          priority,
+          getQueue().size(),
+          getActiveCount(),
+          started,
+          TimeUnit.NANOSECONDS.toMillis(meanLatencyNanos),
+          TimeUnit.NANOSECONDS.toMillis(maxQueueLatencyNanos.get()));
+    }
+  }
+
+  private static final class TimedRunnable implements Runnable {
+    private final Runnable delegate;
+    private final long enqueueTimeNanos = System.nanoTime();
+
+    TimedRunnable(Runnable delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void run() {
+      delegate.run();
+    }
+  }
+
+  private FetchExecutor() {}
 }
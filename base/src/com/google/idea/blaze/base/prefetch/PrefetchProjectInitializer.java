@@ -75,7 +75,7 @@ public class PrefetchProjectInitializer implements StartupActivity.DumbAware {
                 return Futures.immediateFuture(null);
               }
               return PrefetchService.getInstance()
-                  .prefetchProjectFiles(project, viewSet, projectData);
+                  .prefetchProjectFilesInBackground(project, viewSet, projectData);
             },
             PooledThreadExecutor.INSTANCE),
         "Initial Prefetching");
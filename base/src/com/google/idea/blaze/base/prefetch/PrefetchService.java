@@ -43,9 +43,35 @@ public interface PrefetchService {
   ListenableFuture<PrefetchStats> prefetchFiles(
       Collection<File> files, boolean refetchCachedFiles, boolean fetchFileTypes);
 
+  /**
+   * Instructs all prefetchers to prefetch these files, scheduling the work in the given priority
+   * class rather than as sync-blocking work.
+   */
+  @CanIgnoreReturnValue
+  default ListenableFuture<PrefetchStats> prefetchFiles(
+      Collection<File> files,
+      boolean refetchCachedFiles,
+      boolean fetchFileTypes,
+      FetchExecutor.Priority priority) {
+    return prefetchFiles(files, refetchCachedFiles, fetchFileTypes);
+  }
+
+  /**
+   * Prefetches the project's files, for a sync which blocks on the result. This supersedes any
+   * earlier project prefetch of the same project, which is cancelled if it's still running.
+   */
   ListenableFuture<PrefetchStats> prefetchProjectFiles(
       Project project, ProjectViewSet projectViewSet, @Nullable BlazeProjectData blazeProjectData);
 
+  /**
+   * Prefetches the project's files at background priority. This supersedes any earlier background
+   * prefetch of the same project, which is cancelled if it's still running.
+   */
+  default ListenableFuture<PrefetchStats> prefetchProjectFilesInBackground(
+      Project project, ProjectViewSet projectViewSet, @Nullable BlazeProjectData blazeProjectData) {
+    return prefetchProjectFiles(project, projectViewSet, blazeProjectData);
+  }
+
   /**
    * If this prefetch service ignores recently-prefetched files, this instructs it to clear that
    * 'time since last prefetch' cache.
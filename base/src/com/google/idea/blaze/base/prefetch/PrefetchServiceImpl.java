@@ -20,6 +20,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.idea.blaze.base.io.AbsolutePathPatcher.AbsolutePathPatcherUtil;
 import com.google.idea.blaze.base.io.FileOperationProvider;
@@ -42,6 +43,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
@@ -54,6 +56,14 @@ public class PrefetchServiceImpl implements PrefetchService {
   private static final long REFETCH_PERIOD_MILLIS = TimeUnit.HOURS.toMillis(6);
   private final Map<Integer, Long> fileToLastFetchTimeMillis = Maps.newConcurrentMap();
 
+  /** The sync-blocking project prefetch still running for each project, if any. */
+  private final Map<Project, ListenableFuture<PrefetchStats>> syncProjectPrefetches =
+      new ConcurrentHashMap<>();
+
+  /** The background project prefetch still running for each project, if any. */
+  private final Map<Project, ListenableFuture<PrefetchStats>> backgroundProjectPrefetches =
+      new ConcurrentHashMap<>();
+
   private PrefetchServiceImpl() {
     LowMemoryWatcher.register(
         fileToLastFetchTimeMillis::clear, ApplicationManager.getApplication());
@@ -67,14 +77,29 @@ public class PrefetchServiceImpl implements PrefetchService {
   @Override
   public ListenableFuture<PrefetchStats> prefetchFiles(
       Collection<File> files, boolean refetchCachedFiles, boolean fetchFileTypes) {
-    return prefetchFiles(ImmutableSet.of(), files, refetchCachedFiles, fetchFileTypes);
+    return prefetchFiles(
+        ImmutableSet.of(),
+        files,
+        refetchCachedFiles,
+        fetchFileTypes,
+        FetchExecutor.Priority.SYNC_BLOCKING);
+  }
+
+  @Override
+  public ListenableFuture<PrefetchStats> prefetchFiles(
+      Collection<File> files,
+      boolean refetchCachedFiles,
+      boolean fetchFileTypes,
+      FetchExecutor.Priority priority) {
+    return prefetchFiles(ImmutableSet.of(), files, refetchCachedFiles, fetchFileTypes, priority);
   }
 
   private ListenableFuture<PrefetchStats> prefetchFiles(
       Set<File> excludeDirectories,
       Collection<File> files,
       boolean refetchCachedFiles,
-      boolean fetchFileTypes) {
+      boolean fetchFileTypes,
+      FetchExecutor.Priority priority) {
     if (files.isEmpty()) {
       return Futures.immediateFuture(PrefetchStats.NONE);
     }
@@ -87,26 +112,40 @@ public class PrefetchServiceImpl implements PrefetchService {
               .filter(file -> shouldPrefetch(file, startTime))
               .collect(Collectors.toList());
     }
+    Collection<File> filesToFetch = files;
     FileOperationProvider provider = FileOperationProvider.getInstance();
+    ListeningExecutorService executor = FetchExecutor.forPriority(priority);
     List<ListenableFuture<File>> canonicalFiles =
-        files
-            .stream()
-            .map(file -> FetchExecutor.EXECUTOR.submit(() -> toCanonicalFile(provider, file)))
+        filesToFetch.stream()
+            .map(file -> executor.submit(() -> toCanonicalFile(provider, file)))
             .collect(Collectors.toList());
     List<ListenableFuture<PrefetchStats>> futures = Lists.newArrayList();
     for (Prefetcher prefetcher : Prefetcher.EP_NAME.getExtensions()) {
       futures.add(
-          prefetcher.prefetchFiles(
-              excludeDirectories, canonicalFiles, FetchExecutor.EXECUTOR, fetchFileTypes));
+          prefetcher.prefetchFiles(excludeDirectories, canonicalFiles, executor, fetchFileTypes));
     }
-    return Futures.transform(
-        Futures.allAsList(futures),
-        stats ->
-            stats.stream()
-                .filter(Objects::nonNull)
-                .reduce(PrefetchStats::combine)
-                .orElse(PrefetchStats.NONE),
-        FetchExecutor.EXECUTOR);
+    ListenableFuture<PrefetchStats> result =
+        Futures.transform(
+            Futures.allAsList(futures),
+            stats ->
+                stats.stream()
+                    .filter(Objects::nonNull)
+                    .reduce(PrefetchStats::combine)
+                    .orElse(PrefetchStats.NONE),
+            MoreExecutors.directExecutor());
+    // cancellation is propagated to the prefetchers, but not to the lookups feeding them
+    result.addListener(
+        () -> {
+          if (result.isCancelled()) {
+            canonicalFiles.forEach(future -> future.cancel(false));
+            if (!refetchCachedFiles) {
+              // the files may not have been fetched, so don't skip them next time
+              filesToFetch.forEach(file -> fileToLastFetchTimeMillis.remove(file.hashCode()));
+            }
+          }
+        },
+        MoreExecutors.directExecutor());
+    return result;
   }
 
   @Nullable
@@ -136,6 +175,52 @@ public class PrefetchServiceImpl implements PrefetchService {
   @Override
   public ListenableFuture<PrefetchStats> prefetchProjectFiles(
       Project project, ProjectViewSet projectViewSet, @Nullable BlazeProjectData blazeProjectData) {
+    // a new sync supersedes the project prefetch of any earlier sync, and any background prefetch.
+    // They're cancelled first, so that the files they haven't fetched aren't skipped.
+    cancel(syncProjectPrefetches.remove(project));
+    cancel(backgroundProjectPrefetches.remove(project));
+    return track(
+        syncProjectPrefetches,
+        project,
+        prefetchProjectFiles(
+            project, projectViewSet, blazeProjectData, FetchExecutor.Priority.SYNC_BLOCKING));
+  }
+
+  @Override
+  public ListenableFuture<PrefetchStats> prefetchProjectFilesInBackground(
+      Project project, ProjectViewSet projectViewSet, @Nullable BlazeProjectData blazeProjectData) {
+    // a new background prefetch supersedes the previous one for this project. Sync-blocking
+    // prefetches are only superseded by a later sync.
+    cancel(backgroundProjectPrefetches.remove(project));
+    return track(
+        backgroundProjectPrefetches,
+        project,
+        prefetchProjectFiles(
+            project, projectViewSet, blazeProjectData, FetchExecutor.Priority.BACKGROUND_PREFETCH));
+  }
+
+  private static void cancel(@Nullable ListenableFuture<PrefetchStats> prefetch) {
+    if (prefetch != null) {
+      prefetch.cancel(false);
+    }
+  }
+
+  /** Records the prefetch as the one running for the project, until it completes. */
+  private static ListenableFuture<PrefetchStats> track(
+      Map<Project, ListenableFuture<PrefetchStats>> prefetches,
+      Project project,
+      ListenableFuture<PrefetchStats> prefetch) {
+    prefetches.put(project, prefetch);
+    prefetch.addListener(
+        () -> prefetches.remove(project, prefetch), MoreExecutors.directExecutor());
+    return prefetch;
+  }
+
+  private ListenableFuture<PrefetchStats> prefetchProjectFiles(
+      Project project,
+      ProjectViewSet projectViewSet,
+      @Nullable BlazeProjectData blazeProjectData,
+      FetchExecutor.Priority priority) {
     BlazeImportSettings importSettings =
         BlazeImportSettingsManager.getInstance(project).getImportSettings();
     if (importSettings == null) {
@@ -164,7 +249,8 @@ public class PrefetchServiceImpl implements PrefetchService {
             sourceDirectories,
             /* refetchCachedFiles= */ false,
             // PushedFilePropertiesUpdaterImpl will eventually want the file types of module roots.
-            /* fetchFileTypes= */ true);
+            /* fetchFileTypes= */ true,
+            priority);
     Set<File> externalFiles = new HashSet<>();
     if (blazeProjectData != null) {
       for (PrefetchFileSource fileSource : PrefetchFileSource.EP_NAME.getExtensions()) {
@@ -173,14 +259,24 @@ public class PrefetchServiceImpl implements PrefetchService {
       }
     }
     ListenableFuture<PrefetchStats> externalFilesFuture =
-        prefetchFiles(externalFiles, false, false);
-    return Futures.transform(
-        Futures.allAsList(sourceFilesFuture, externalFilesFuture),
-        list ->
-            list.stream()
-                .filter(Objects::nonNull)
-                .reduce(PrefetchStats::combine)
-                .orElse(PrefetchStats.NONE),
+        prefetchFiles(
+            ImmutableSet.of(),
+            externalFiles,
+            /* refetchCachedFiles= */ false,
+            /* fetchFileTypes= */ false,
+            priority);
+    ListenableFuture<PrefetchStats> result =
+        Futures.transform(
+            Futures.allAsList(sourceFilesFuture, externalFilesFuture),
+            list ->
+                list.stream()
+                    .filter(Objects::nonNull)
+                    .reduce(PrefetchStats::combine)
+                    .orElse(PrefetchStats.NONE),
+            MoreExecutors.directExecutor());
+    result.addListener(
+        () -> logger.info("Project prefetch finished: " + FetchExecutor.getStats(priority)),
         MoreExecutors.directExecutor());
+    return result;
   }
 }
@@ -43,7 +43,8 @@ class PrefetchVcsSyncListener implements VcsSyncListener {
     PrefetchService.getInstance().clearPrefetchCache();
     PrefetchIndexingTask.submitPrefetchingTask(
         project,
-        PrefetchService.getInstance().prefetchProjectFiles(project, projectViewSet, projectData),
+        PrefetchService.getInstance()
+            .prefetchProjectFilesInBackground(project, projectViewSet, projectData),
         "Prefetching on VCS state change");
   }
 }
@@ -38,6 +38,15 @@ public interface ArtifactTracker {
   UpdateResult update(Set<Label> targets, OutputInfo outputInfo, BlazeContext context)
       throws BuildException;
 
+  /**
+   * Fetches and caches artifacts output while a build is still running, without updating the set of
+   * tracked targets.
+   *
+   * <p>{@link #update(Set, OutputInfo, BlazeContext)} must still be called with the complete
+   * output once the build is done, but won't fetch the artifacts cached here again.
+   */
+  UpdateResult cacheArtifacts(OutputInfo outputInfo, BlazeContext context) throws BuildException;
+
   /** Fetches, caches and sets up new render jar artifacts. */
   UpdateResult update(Set<Label> targets, RenderJarInfo renderJarInfo, BlazeContext context)
       throws BuildException;
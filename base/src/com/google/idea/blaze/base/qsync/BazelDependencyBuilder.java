@@ -22,10 +22,17 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.stream.Collectors.joining;
 
 import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.devtools.intellij.qsync.ArtifactTrackerData.BuildArtifacts;
+import com.google.idea.blaze.base.bazel.BazelExitCode;
 import com.google.idea.blaze.base.bazel.BazelExitCodeException;
 import com.google.idea.blaze.base.bazel.BazelExitCodeException.ThrowOption;
 import com.google.idea.blaze.base.bazel.BuildSystem;
@@ -35,8 +42,10 @@ import com.google.idea.blaze.base.command.BlazeCommandName;
 import com.google.idea.blaze.base.command.BlazeFlags;
 import com.google.idea.blaze.base.command.BlazeInvocationContext;
 import com.google.idea.blaze.base.command.buildresult.BlazeArtifact;
+import com.google.idea.blaze.base.command.buildresult.BuildEventStreamProvider;
 import com.google.idea.blaze.base.command.buildresult.BuildResultHelper;
 import com.google.idea.blaze.base.command.buildresult.OutputArtifact;
+import com.google.idea.blaze.base.command.buildresult.TargetCompletionReader;
 import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
 import com.google.idea.blaze.base.projectview.ProjectViewManager;
 import com.google.idea.blaze.base.projectview.ProjectViewSet;
@@ -49,8 +58,10 @@ import com.google.idea.blaze.qsync.project.ProjectDefinition;
 import com.google.idea.blaze.qsync.project.ProjectDefinition.LanguageClass;
 import com.google.protobuf.TextFormat;
 import com.intellij.ide.plugins.PluginManager;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.extensions.PluginDescriptor;
 import com.intellij.openapi.project.Project;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -60,11 +71,21 @@ import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /** An object that knows how to build dependencies for given targets */
 public class BazelDependencyBuilder implements DependencyBuilder {
 
+  private static final Logger logger = Logger.getInstance(BazelDependencyBuilder.class);
+
+  /** Reads build events while builds are running, so mostly waits for bazel to write them. */
+  private static final ListeningExecutorService BUILD_EVENT_EXECUTOR =
+      MoreExecutors.listeningDecorator(
+          AppExecutorUtil.createBoundedApplicationPoolExecutor("DependencyBuildEvents", 4));
+
   protected final Project project;
   protected final BuildSystem buildSystem;
   protected final ProjectDefinition projectDefinition;
@@ -98,6 +119,16 @@ public class BazelDependencyBuilder implements DependencyBuilder {
   public OutputInfo build(
       BlazeContext context, Set<Label> buildTargets, Set<LanguageClass> languages)
       throws IOException, BuildException {
+    return build(context, buildTargets, languages, (target, outputs) -> {});
+  }
+
+  @Override
+  public OutputInfo build(
+      BlazeContext context,
+      Set<Label> buildTargets,
+      Set<LanguageClass> languages,
+      TargetBuiltListener listener)
+      throws IOException, BuildException {
     BuildInvoker invoker = buildSystem.getDefaultInvoker(project, context);
     try (BuildResultHelper buildResultHelper = invoker.createBuildResultHelper()) {
       String includes =
@@ -150,8 +181,17 @@ public class BazelDependencyBuilder implements DependencyBuilder {
           .map(g -> "--output_groups=" + g.outputGroupName())
           .forEach(builder::addBlazeFlags);
 
-      BlazeBuildOutputs outputs =
-          invoker.getCommandRunner().run(project, builder, buildResultHelper, context);
+      AtomicBoolean buildComplete = new AtomicBoolean();
+      ListenableFuture<?> targetOutputs =
+          streamTargetOutputs(context, buildResultHelper, buildComplete, outputGroups, listener);
+      BlazeBuildOutputs outputs;
+      try {
+        outputs = invoker.getCommandRunner().run(project, builder, buildResultHelper, context);
+      } finally {
+        buildComplete.set(true);
+        // the listener must have seen every target it's going to before we return
+        awaitTargetOutputs(targetOutputs);
+      }
       BazelExitCodeException.throwIfFailed(
           builder,
           outputs.buildResult,
@@ -162,6 +202,51 @@ public class BazelDependencyBuilder implements DependencyBuilder {
     }
   }
 
+  /**
+   * Reads build events while the build is running, passing the outputs of each target to {@code
+   * listener} as soon as the target completes.
+   *
+   * <p>This is best effort: all outputs are still returned from {@link #build} once the build
+   * completes, so any failure here is only logged.
+   */
+  private ListenableFuture<?> streamTargetOutputs(
+      BlazeContext context,
+      BuildResultHelper buildResultHelper,
+      AtomicBoolean buildComplete,
+      ImmutableSet<OutputGroup> outputGroups,
+      TargetBuiltListener listener) {
+    Optional<InputStream> events = buildResultHelper.openLiveBuildEvents(buildComplete::get);
+    if (events.isEmpty()) {
+      return Futures.immediateVoidFuture();
+    }
+    ImmutableSet<String> outputGroupNames =
+        outputGroups.stream().map(OutputGroup::outputGroupName).collect(toImmutableSet());
+    return BUILD_EVENT_EXECUTOR.submit(
+        () -> {
+          try (InputStream stream = events.get()) {
+            TargetCompletionReader.read(
+                BuildEventStreamProvider.fromInputStream(stream),
+                outputGroupNames::contains,
+                (label, artifacts) -> {
+                  if (!context.isCancelled()) {
+                    listener.targetBuilt(
+                        Label.of(label), createTargetOutputInfo(artifacts, outputGroups));
+                  }
+                });
+          } catch (IOException | BuildException e) {
+            logger.warn("Failed to read build events while building dependencies", e);
+          }
+        });
+  }
+
+  private static void awaitTargetOutputs(ListenableFuture<?> targetOutputs) {
+    try {
+      Uninterruptibles.getUninterruptibly(targetOutputs);
+    } catch (ExecutionException e) {
+      logger.warn("Failed to process outputs while building dependencies", e.getCause());
+    }
+  }
+
   protected Path getBundledAspectPath() {
     PluginDescriptor plugin = checkNotNull(PluginManager.getPluginByClass(getClass()));
     return Paths.get(plugin.getPluginPath().toString(), "aspect", "build_dependencies.bzl");
@@ -201,6 +286,21 @@ public class BazelDependencyBuilder implements DependencyBuilder {
         blazeBuildOutputs.buildResult.exitCode);
   }
 
+  private OutputInfo createTargetOutputInfo(
+      ImmutableListMultimap<String, OutputArtifact> artifacts, Set<OutputGroup> outputGroups)
+      throws BuildException {
+    GroupedOutputArtifacts targetArtifacts = GroupedOutputArtifacts.create(artifacts, outputGroups);
+    ImmutableSet.Builder<BuildArtifacts> artifactInfoFilesBuilder = ImmutableSet.builder();
+    for (OutputArtifact artifactInfoFile : targetArtifacts.get(OutputGroup.ARTIFACT_INFO_FILE)) {
+      artifactInfoFilesBuilder.add(readArtifactInfoFile(artifactInfoFile));
+    }
+    return OutputInfo.create(
+        targetArtifacts,
+        artifactInfoFilesBuilder.build(),
+        ImmutableSet.of(),
+        BazelExitCode.SUCCESS);
+  }
+
   private BuildArtifacts readArtifactInfoFile(BlazeArtifact file) throws BuildException {
     try (InputStream inputStream = file.getInputStream()) {
       BuildArtifacts.Builder builder = BuildArtifacts.newBuilder();
@@ -30,11 +30,14 @@ public interface BlazeQuerySyncPlugin {
   ExtensionPointName<BlazeQuerySyncPlugin> EP_NAME =
       ExtensionPointName.create("com.google.idea.blaze.QuerySyncPlugin");
 
-  /** Updates the sdk and language settings for the project */
+  /** Updates the sdk and language settings for the project. Called on each update. */
   default void updateProjectSettingsForQuerySync(
       Project project, Context<?> context, ProjectViewSet projectViewSet) {}
 
-  /** Modifies the IDE project structure */
+  /**
+   * Modifies the IDE project structure. Called for every module on each update, including those
+   * whose content entries and libraries are unchanged since the last update.
+   */
   default void updateProjectStructureForQuerySync(
       Project project,
       Context<?> context,
@@ -27,4 +27,30 @@ public interface DependencyBuilder {
 
   OutputInfo build(BlazeContext context, Set<Label> buildTargets, Set<LanguageClass> languages)
       throws IOException, BuildException;
+
+  /**
+   * Builds dependencies as {@link #build(BlazeContext, Set, Set)} does, additionally passing the
+   * outputs of each target to {@code listener} as soon as that target is built. The returned
+   * {@link OutputInfo} still contains all outputs of the build.
+   *
+   * <p>Implementations which can only retrieve outputs once the build is complete need not call
+   * the listener at all.
+   */
+  default OutputInfo build(
+      BlazeContext context,
+      Set<Label> buildTargets,
+      Set<LanguageClass> languages,
+      TargetBuiltListener listener)
+      throws IOException, BuildException {
+    return build(context, buildTargets, languages);
+  }
+
+  /** Receives the outputs of individual targets while a build is still running. */
+  interface TargetBuiltListener {
+    /**
+     * Called from a background thread when a target is built. {@code outputs} only contains those
+     * outputs which haven't already been passed to the listener for an earlier target.
+     */
+    void targetBuilt(Label target, OutputInfo outputs);
+  }
 }
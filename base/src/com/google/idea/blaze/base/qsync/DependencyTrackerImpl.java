@@ -55,11 +55,15 @@ import com.intellij.openapi.vfs.newvfs.RefreshQueue;
 import com.intellij.openapi.vfs.newvfs.RefreshSession;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 /**
  * A file that tracks what files in the project can be analyzed and what is the status of their
@@ -75,6 +79,9 @@ public class DependencyTrackerImpl implements DependencyTracker {
 
   private static final Logger logger = Logger.getInstance(DependencyTrackerImpl.class);
 
+  /** The minimum time between VFS refreshes of the outputs cached while a build is running. */
+  private static final Duration STREAMED_OUTPUTS_REFRESH_INTERVAL = Duration.ofSeconds(5);
+
   public DependencyTrackerImpl(
       Project project,
       BlazeProject blazeProject,
@@ -181,16 +188,24 @@ public class DependencyTrackerImpl implements DependencyTracker {
       throws IOException, BuildException {
     BuildDepsStatsScope.fromContext(context)
         .ifPresent(stats -> stats.setBuildTargets(requestedTargets.buildTargets));
+    TargetOutputsCacher outputsCacher =
+        new TargetOutputsCacher(context, requestedTargets.buildTargets.size());
     OutputInfo outputInfo =
         builder.build(
             context,
             requestedTargets.buildTargets,
-            getTargetLanguages(snapshot, requestedTargets.buildTargets));
+            getTargetLanguages(snapshot, requestedTargets.buildTargets),
+            outputsCacher);
     reportErrorsAndWarnings(context, snapshot, outputInfo);
 
     ImmutableSet<Path> updatedFiles =
         updateCaches(context, requestedTargets.expectedDependencyTargets, outputInfo);
-    refreshFiles(context, updatedFiles);
+    refreshFiles(
+        context,
+        ImmutableSet.<Path>builder()
+            .addAll(updatedFiles)
+            .addAll(outputsCacher.takeUnrefreshedFiles())
+            .build());
   }
 
   private static ImmutableSet<LanguageClass> getTargetLanguages(
@@ -336,13 +351,27 @@ public class DependencyTrackerImpl implements DependencyTracker {
   }
 
   private void refreshFiles(BlazeContext context, ImmutableSet<Path> updatedFiles) {
-    ApplicationEx applicationEx = ApplicationManagerEx.getApplicationEx();
-    //noinspection UnstableApiUsage
-    applicationEx.assertIsNonDispatchThread();
     context.output(
         new PrintOutput(
             String.format("Refreshing virtual file system... (%d files)", updatedFiles.size())));
-    markExistingFilesDirty(context, updatedFiles);
+    int markedAsDirty = markExistingFilesDirty(updatedFiles);
+    context.output(
+        new PrintOutput(String.format("%d existing files require refreshing...", markedAsDirty)));
+    refreshParentDirectories(context, updatedFiles);
+    context.output(
+        new PrintOutput(
+            String.format(
+                "Done refreshing virtual file system... (%d files)", updatedFiles.size())));
+  }
+
+  /**
+   * Brings the given files into the virtual file system by refreshing their parent directories.
+   * Existing files must already have been marked dirty.
+   */
+  private void refreshParentDirectories(BlazeContext context, ImmutableSet<Path> updatedFiles) {
+    ApplicationEx applicationEx = ApplicationManagerEx.getApplicationEx();
+    //noinspection UnstableApiUsage
+    applicationEx.assertIsNonDispatchThread();
     ImmutableList.Builder<VirtualFile> virtualFiles = ImmutableList.builder();
     applicationEx.invokeAndWait(
         () -> {
@@ -378,10 +407,6 @@ public class DependencyTrackerImpl implements DependencyTracker {
                   });
         });
     refreshFilesRecursively(virtualFiles.build());
-    context.output(
-        new PrintOutput(
-            String.format(
-                "Done refreshing virtual file system... (%d files)", updatedFiles.size())));
   }
 
   private static void refreshFilesRecursively(ImmutableList<VirtualFile> virtualFiles) {
@@ -435,9 +460,10 @@ public class DependencyTrackerImpl implements DependencyTracker {
    * know that existing artifact files have changed. This method marks any existing files from
    * {@code updatedFiles} to make sure that later refreshing of the virtual file system rescans
    * existing files.
+   *
+   * @return the number of files marked as dirty
    */
-  private static void markExistingFilesDirty(
-      BlazeContext context, ImmutableSet<Path> updatedFiles) {
+  private static int markExistingFilesDirty(ImmutableSet<Path> updatedFiles) {
     int markedAsDirty = 0;
     for (final Path path : updatedFiles) {
       VirtualFile virtualFile = getFileByIoFileIfInVfs(path);
@@ -453,8 +479,68 @@ public class DependencyTrackerImpl implements DependencyTracker {
         }
       }
     }
-    context.output(
-        new PrintOutput(String.format("%d existing files require refreshing...", markedAsDirty)));
+    return markedAsDirty;
+  }
+
+  /**
+   * Caches the outputs of each target while the dependency build is still running, so that they're
+   * available to the IDE without waiting for the whole build to finish.
+   *
+   * <p>The cached files are refreshed in the VFS in batches, at most once per {@link
+   * #STREAMED_OUTPUTS_REFRESH_INTERVAL}. Files not yet refreshed when the build completes are
+   * returned by {@link #takeUnrefreshedFiles}.
+   */
+  private class TargetOutputsCacher implements DependencyBuilder.TargetBuiltListener {
+    private final BlazeContext context;
+    private final int targetCount;
+    private final Set<Label> builtTargets = ConcurrentHashMap.newKeySet();
+
+    /** Files cached since the VFS was last refreshed. */
+    @GuardedBy("this")
+    private final Set<Path> unrefreshedFiles = new HashSet<>();
+
+    @GuardedBy("this")
+    private final Stopwatch sinceLastRefresh = Stopwatch.createStarted();
+
+    TargetOutputsCacher(BlazeContext context, int targetCount) {
+      this.context = context;
+      this.targetCount = targetCount;
+    }
+
+    @Override
+    public void targetBuilt(Label target, OutputInfo outputs) {
+      builtTargets.add(target);
+      try {
+        ImmutableSet<Path> updatedFiles =
+            artifactTracker.cacheArtifacts(outputs, context).updatedFiles();
+        ImmutableSet<Path> filesToRefresh = ImmutableSet.of();
+        synchronized (this) {
+          unrefreshedFiles.addAll(updatedFiles);
+          if (sinceLastRefresh.elapsed().compareTo(STREAMED_OUTPUTS_REFRESH_INTERVAL) >= 0) {
+            filesToRefresh = takeUnrefreshedFiles();
+          }
+        }
+        if (!filesToRefresh.isEmpty()) {
+          markExistingFilesDirty(filesToRefresh);
+          refreshParentDirectories(context, filesToRefresh);
+        }
+        context.output(
+            PrintOutput.output(
+                "Built %s (%d of %d targets), updated %d files",
+                target, builtTargets.size(), targetCount, updatedFiles.size()));
+      } catch (BuildException e) {
+        // Not fatal, as all outputs are cached again once the build completes.
+        logger.warn("Failed to cache outputs of " + target, e);
+      }
+    }
+
+    /** Returns the files cached since the VFS was last refreshed, and resets the batch. */
+    synchronized ImmutableSet<Path> takeUnrefreshedFiles() {
+      ImmutableSet<Path> files = ImmutableSet.copyOf(unrefreshedFiles);
+      unrefreshedFiles.clear();
+      sinceLastRefresh.reset().start();
+      return files;
+    }
   }
 
   /**
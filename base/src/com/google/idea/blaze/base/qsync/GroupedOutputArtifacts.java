@@ -18,12 +18,14 @@ package com.google.idea.blaze.base.qsync;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ListMultimap;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import com.google.idea.blaze.base.command.buildresult.LocalFileOutputArtifact;
 import com.google.idea.blaze.base.command.buildresult.OutputArtifact;
 import com.google.idea.blaze.base.command.buildresult.RemoteOutputArtifact;
 import com.google.idea.blaze.base.sync.aspects.BlazeBuildOutputs;
 import java.io.File;
+import java.util.List;
 import java.util.Set;
 
 /** Output artifacts from the build per {@link OutputGroup}. */
@@ -50,6 +52,21 @@ public class GroupedOutputArtifacts {
     outputArtifacts = builder.build();
   }
 
+  /**
+   * Groups the given artifacts, which are keyed by output group name. Artifacts in output groups
+   * other than {@code outputGroups} are dropped.
+   */
+  public static GroupedOutputArtifacts create(
+      ListMultimap<String, OutputArtifact> artifactsByGroupName, Set<OutputGroup> outputGroups) {
+    ImmutableListMultimap.Builder<OutputGroup, OutputArtifact> builder =
+        ImmutableListMultimap.builder();
+    for (OutputGroup group : outputGroups) {
+      builder.putAll(
+          group, translateOutputArtifacts(artifactsByGroupName.get(group.outputGroupName())));
+    }
+    return new GroupedOutputArtifacts(builder.build());
+  }
+
   @VisibleForTesting
   public static Builder builder() {
     return new Builder();
@@ -64,7 +81,7 @@ public class GroupedOutputArtifacts {
   }
 
   private static ImmutableList<OutputArtifact> translateOutputArtifacts(
-      ImmutableList<OutputArtifact> artifacts) {
+      List<OutputArtifact> artifacts) {
     return artifacts.stream()
         .map(GroupedOutputArtifacts::translateOutputArtifact)
         .collect(ImmutableList.toImmutableList());
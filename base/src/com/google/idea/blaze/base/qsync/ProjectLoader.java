@@ -52,6 +52,8 @@ import com.google.idea.blaze.qsync.ProjectRefresher;
 import com.google.idea.blaze.qsync.VcsStateDiffer;
 import com.google.idea.blaze.qsync.project.ProjectDefinition;
 import com.google.idea.blaze.qsync.project.ProjectPath;
+import com.intellij.ide.plugins.PluginManager;
+import com.intellij.openapi.extensions.PluginDescriptor;
 import com.intellij.openapi.project.Project;
 import java.io.IOException;
 import java.nio.file.Path;
@@ -161,7 +163,8 @@ public class ProjectLoader {
             createWorkspaceRelativePackageReader(),
             workspaceRoot.path(),
             handledRules,
-            QuerySync.CC_SUPPORT_ENABLED::getValue);
+            QuerySync.CC_SUPPORT_ENABLED::getValue,
+            getPluginVersion());
     QueryRunner queryRunner = createQueryRunner(buildSystem);
     ProjectQuerier projectQuerier = createProjectQuerier(projectRefresher, queryRunner, vcsHandler);
     ProjectUpdater projectUpdater =
@@ -223,6 +226,15 @@ public class ProjectLoader {
     return BlazeDataStorage.getProjectDataDir(importSettings).toPath().resolve("qsyncdata.gz");
   }
 
+  /**
+   * Returns the version of this plugin, so that project structure persisted by other versions is
+   * not reused.
+   */
+  private String getPluginVersion() {
+    PluginDescriptor plugin = PluginManager.getPluginByClass(getClass());
+    return plugin != null ? plugin.getVersion() : "";
+  }
+
   private ArtifactFetcher<OutputArtifact> createArtifactFetcher() {
     return new DynamicallyDispatchingArtifactFetcher(
         ImmutableList.copyOf(ArtifactFetcher.EP_NAME.getExtensions()));
@@ -64,6 +64,7 @@ public class ProjectQuerierImpl implements ProjectQuerier {
   public PostQuerySyncData fullQuery(ProjectDefinition projectDef, BlazeContext context)
       throws IOException, BuildException {
 
+    vcsHandler.ifPresent(BlazeVcsHandler::invalidateWorkingSet);
     Optional<VcsState> vcsState = getVcsState(context);
     SyncQueryStatsScope.fromContext(context)
         .ifPresent(stats -> stats.setSyncMode(SyncQueryStats.SyncMode.FULL));
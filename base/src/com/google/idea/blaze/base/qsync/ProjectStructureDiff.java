@@ -0,0 +1,237 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.qsync;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.idea.blaze.qsync.project.ProjectProto;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+/**
+ * The changes needed to bring an IDE project model created from one {@link ProjectProto.Project}
+ * up to date with another.
+ *
+ * <p>This is calculated before taking the write lock, so that the write action only has to apply
+ * the changes rather than rebuild the whole project model.
+ */
+final class ProjectStructureDiff {
+
+  /**
+   * True if there is no previously applied project to compare against, so the whole project model
+   * must be rebuilt.
+   */
+  final boolean fullUpdate;
+
+  /** Libraries which are new, or whose contents have changed. All libraries for a full update. */
+  final ImmutableList<ProjectProto.Library> updatedLibraries;
+
+  /** Names of the libraries which are no longer part of the project. */
+  final ImmutableSet<String> removedLibraries;
+
+  /** Modules which are new, or which have changed. All modules for a full update. */
+  final ImmutableList<ModuleDiff> updatedModules;
+
+  private ProjectStructureDiff(
+      boolean fullUpdate,
+      ImmutableList<ProjectProto.Library> updatedLibraries,
+      ImmutableSet<String> removedLibraries,
+      ImmutableList<ModuleDiff> updatedModules) {
+    this.fullUpdate = fullUpdate;
+    this.updatedLibraries = updatedLibraries;
+    this.removedLibraries = removedLibraries;
+    this.updatedModules = updatedModules;
+  }
+
+  /**
+   * Calculates the changes from {@code previous} to {@code next}.
+   *
+   * @param previous the project last applied to the project model, or null if the project model
+   *     may not have been created from a known project.
+   */
+  static ProjectStructureDiff create(
+      @Nullable ProjectProto.Project previous, ProjectProto.Project next) {
+    if (previous == null) {
+      return new ProjectStructureDiff(
+          true,
+          ImmutableList.copyOf(next.getLibraryList()),
+          ImmutableSet.of(),
+          next.getModulesList().stream().map(ModuleDiff::create).collect(toImmutableList()));
+    }
+    Map<String, ProjectProto.Library> previousLibraries =
+        index(previous.getLibraryList(), ProjectProto.Library::getName);
+    Map<String, ProjectProto.Library> nextLibraries =
+        index(next.getLibraryList(), ProjectProto.Library::getName);
+    ImmutableList<ProjectProto.Library> updatedLibraries =
+        nextLibraries.values().stream()
+            .filter(lib -> !lib.equals(previousLibraries.get(lib.getName())))
+            .collect(toImmutableList());
+
+    Map<String, ProjectProto.Module> previousModules =
+        index(previous.getModulesList(), ProjectProto.Module::getName);
+    ImmutableList.Builder<ModuleDiff> updatedModules = ImmutableList.builder();
+    for (ProjectProto.Module module : next.getModulesList()) {
+      ProjectProto.Module previousModule = previousModules.get(module.getName());
+      if (previousModule == null) {
+        updatedModules.add(ModuleDiff.create(module));
+      } else if (!previousModule.equals(module)) {
+        updatedModules.add(ModuleDiff.create(previousModule, module));
+      }
+    }
+    return new ProjectStructureDiff(
+        false,
+        updatedLibraries,
+        ImmutableSet.copyOf(Sets.difference(previousLibraries.keySet(), nextLibraries.keySet())),
+        updatedModules.build());
+  }
+
+  /** Returns true if the project model is already up to date. */
+  boolean isEmpty() {
+    return !fullUpdate
+        && updatedLibraries.isEmpty()
+        && removedLibraries.isEmpty()
+        && updatedModules.isEmpty();
+  }
+
+  /** The changes to a single module. */
+  static final class ModuleDiff {
+    final ProjectProto.Module spec;
+
+    /** True if all content entries must be removed from the module and added again. */
+    final boolean rebuildContentEntries;
+
+    /** True if the module's library order entries must be replaced. */
+    final boolean librariesChanged;
+
+    final ImmutableList<ProjectProto.ContentEntry> removedContentEntries;
+    final ImmutableList<ProjectProto.ContentEntry> addedContentEntries;
+    final ImmutableList<ContentEntryDiff> updatedContentEntries;
+
+    private ModuleDiff(
+        ProjectProto.Module spec,
+        boolean rebuildContentEntries,
+        boolean librariesChanged,
+        ImmutableList<ProjectProto.ContentEntry> removedContentEntries,
+        ImmutableList<ProjectProto.ContentEntry> addedContentEntries,
+        ImmutableList<ContentEntryDiff> updatedContentEntries) {
+      this.spec = spec;
+      this.rebuildContentEntries = rebuildContentEntries;
+      this.librariesChanged = librariesChanged;
+      this.removedContentEntries = removedContentEntries;
+      this.addedContentEntries = addedContentEntries;
+      this.updatedContentEntries = updatedContentEntries;
+    }
+
+    /** A module whose existing contents, if any, are unknown. */
+    static ModuleDiff create(ProjectProto.Module spec) {
+      return new ModuleDiff(
+          spec,
+          true,
+          true,
+          ImmutableList.of(),
+          ImmutableList.copyOf(spec.getContentEntriesList()),
+          ImmutableList.of());
+    }
+
+    static ModuleDiff create(ProjectProto.Module previous, ProjectProto.Module next) {
+      Map<ProjectProto.ContentRoot, ProjectProto.ContentEntry> previousEntries =
+          index(previous.getContentEntriesList(), ProjectProto.ContentEntry::getRoot);
+      Map<ProjectProto.ContentRoot, ProjectProto.ContentEntry> nextEntries =
+          index(next.getContentEntriesList(), ProjectProto.ContentEntry::getRoot);
+      ImmutableList.Builder<ProjectProto.ContentEntry> added = ImmutableList.builder();
+      ImmutableList.Builder<ContentEntryDiff> updated = ImmutableList.builder();
+      for (ProjectProto.ContentEntry entry : nextEntries.values()) {
+        ProjectProto.ContentEntry previousEntry = previousEntries.get(entry.getRoot());
+        if (previousEntry == null) {
+          added.add(entry);
+        } else if (!previousEntry.equals(entry)) {
+          updated.add(ContentEntryDiff.create(previousEntry, entry));
+        }
+      }
+      return new ModuleDiff(
+          next,
+          false,
+          !previous.getLibraryNameList().equals(next.getLibraryNameList()),
+          previousEntries.values().stream()
+              .filter(entry -> !nextEntries.containsKey(entry.getRoot()))
+              .collect(toImmutableList()),
+          added.build(),
+          updated.build());
+    }
+  }
+
+  /** The changes to a single content entry, whose root is unchanged. */
+  static final class ContentEntryDiff {
+    final ProjectProto.ContentEntry spec;
+
+    /** Source folders to remove, including those whose properties have changed. */
+    final ImmutableList<ProjectProto.SourceFolder> removedSourceFolders;
+
+    /** Source folders to add, including those whose properties have changed. */
+    final ImmutableList<ProjectProto.SourceFolder> addedSourceFolders;
+
+    final ImmutableSet<String> removedExcludes;
+    final ImmutableSet<String> addedExcludes;
+
+    private ContentEntryDiff(
+        ProjectProto.ContentEntry spec,
+        ImmutableList<ProjectProto.SourceFolder> removedSourceFolders,
+        ImmutableList<ProjectProto.SourceFolder> addedSourceFolders,
+        ImmutableSet<String> removedExcludes,
+        ImmutableSet<String> addedExcludes) {
+      this.spec = spec;
+      this.removedSourceFolders = removedSourceFolders;
+      this.addedSourceFolders = addedSourceFolders;
+      this.removedExcludes = removedExcludes;
+      this.addedExcludes = addedExcludes;
+    }
+
+    static ContentEntryDiff create(
+        ProjectProto.ContentEntry previous, ProjectProto.ContentEntry next) {
+      Map<String, ProjectProto.SourceFolder> previousFolders =
+          index(previous.getSourcesList(), ProjectProto.SourceFolder::getPath);
+      Map<String, ProjectProto.SourceFolder> nextFolders =
+          index(next.getSourcesList(), ProjectProto.SourceFolder::getPath);
+      ImmutableSet<String> previousExcludes = ImmutableSet.copyOf(previous.getExcludesList());
+      ImmutableSet<String> nextExcludes = ImmutableSet.copyOf(next.getExcludesList());
+      return new ContentEntryDiff(
+          next,
+          previousFolders.values().stream()
+              .filter(folder -> !folder.equals(nextFolders.get(folder.getPath())))
+              .collect(toImmutableList()),
+          nextFolders.values().stream()
+              .filter(folder -> !folder.equals(previousFolders.get(folder.getPath())))
+              .collect(toImmutableList()),
+          ImmutableSet.copyOf(Sets.difference(previousExcludes, nextExcludes)),
+          ImmutableSet.copyOf(Sets.difference(nextExcludes, previousExcludes)));
+    }
+  }
+
+  /** Indexes the given values by key, in order. Later values replace earlier ones. */
+  private static <K, V> Map<K, V> index(List<V> values, Function<V, K> key) {
+    Map<K, V> map = new LinkedHashMap<>();
+    for (V value : values) {
+      map.put(key.apply(value), value);
+    }
+    return map;
+  }
+}
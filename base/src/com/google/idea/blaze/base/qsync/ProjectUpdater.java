@@ -16,15 +16,21 @@
 package com.google.idea.blaze.base.qsync;
 
 import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static java.util.Arrays.stream;
 
+import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
+import com.google.idea.blaze.base.logging.utils.querysync.SyncQueryStatsScope;
 import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
 import com.google.idea.blaze.base.projectview.ProjectViewSet;
+import com.google.idea.blaze.base.qsync.ProjectStructureDiff.ContentEntryDiff;
+import com.google.idea.blaze.base.qsync.ProjectStructureDiff.ModuleDiff;
+import com.google.idea.blaze.base.scope.BlazeContext;
 import com.google.idea.blaze.base.settings.BlazeImportSettings;
 import com.google.idea.blaze.base.sync.data.BlazeDataStorage;
 import com.google.idea.blaze.base.sync.projectview.LanguageSupport;
@@ -46,6 +52,7 @@ import com.intellij.openapi.module.ModuleTypeManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.roots.ContentEntry;
 import com.intellij.openapi.roots.DependencyScope;
+import com.intellij.openapi.roots.ExcludeFolder;
 import com.intellij.openapi.roots.LibraryOrderEntry;
 import com.intellij.openapi.roots.ModifiableRootModel;
 import com.intellij.openapi.roots.OrderEntry;
@@ -58,9 +65,14 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
+import javax.annotation.Nullable;
 import org.jetbrains.jps.model.java.JavaSourceRootProperties;
 import org.jetbrains.jps.model.java.JavaSourceRootType;
 import org.jetbrains.jps.model.java.JpsJavaExtensionService;
@@ -74,6 +86,9 @@ public class ProjectUpdater implements BlazeProjectListener {
   private final WorkspaceRoot workspaceRoot;
   private final ProjectPath.Resolver projectPathResolver;
 
+  /** The project structure most recently applied to the project model by this instance. */
+  @Nullable private volatile ProjectProto.Project lastAppliedSpec;
+
   public ProjectUpdater(
       Project project,
       BlazeImportSettings importSettings,
@@ -103,111 +118,220 @@ public class ProjectUpdater implements BlazeProjectListener {
   }
 
   private void updateProjectModel(ProjectProto.Project spec, Context context) {
+    ProjectProto.Project base = lastAppliedSpec;
+    ProjectStructureDiff diff = ProjectStructureDiff.create(base, spec);
     File imlDirectory = new File(BlazeDataStorage.getProjectDataDir(importSettings), "modules");
+    AtomicReference<ProjectStructureDiff> appliedDiff = new AtomicReference<>();
+    AtomicReference<Duration> writeActionTime = new AtomicReference<>();
     Transactions.submitWriteActionTransactionAndWait(
         () -> {
-          IdeModifiableModelsProvider models =
-              ProjectDataManager.getInstance().createModifiableModelsProvider(project);
+          Stopwatch stopwatch = Stopwatch.createStarted();
+          // another update may have been applied since the diff was calculated
+          ProjectStructureDiff currentDiff =
+              lastAppliedSpec == base
+                  ? diff
+                  : ProjectStructureDiff.create(lastAppliedSpec, spec);
+          applyDiff(spec, currentDiff, imlDirectory, context);
+          lastAppliedSpec = spec;
+          appliedDiff.set(currentDiff);
+          writeActionTime.set(stopwatch.elapsed());
+        });
+    Duration elapsed = writeActionTime.get();
+    ProjectStructureDiff applied = appliedDiff.get();
+    context.output(
+        PrintOutput.log(
+            applied.isEmpty()
+                ? String.format(
+                    "Project structure is up to date (%d ms write action)", elapsed.toMillis())
+                : String.format(
+                    "Updated project structure (%d modules, %d libraries changed) in a %d ms"
+                        + " write action",
+                    applied.updatedModules.size(),
+                    applied.updatedLibraries.size(),
+                    elapsed.toMillis())));
+    if (context instanceof BlazeContext) {
+      SyncQueryStatsScope.fromContext((BlazeContext) context)
+          .ifPresent(stats -> stats.setProjectUpdateWriteActionTime(elapsed));
+    }
+  }
 
-          for (BlazeQuerySyncPlugin syncPlugin : BlazeQuerySyncPlugin.EP_NAME.getExtensions()) {
-            syncPlugin.updateProjectSettingsForQuerySync(project, context, projectViewSet);
-          }
-          int removedLibCount = removeUnusedLibraries(models, spec.getLibraryList());
-          if (removedLibCount > 0) {
-            context.output(PrintOutput.output("Removed " + removedLibCount + " libs"));
-          }
-          ImmutableMap.Builder<String, Library> libMapBuilder = ImmutableMap.builder();
-          for (ProjectProto.Library libSpec : spec.getLibraryList()) {
-            Library library = getOrCreateLibrary(models, libSpec);
-            libMapBuilder.put(libSpec.getName(), library);
-          }
-          ImmutableMap<String, Library> libMap = libMapBuilder.buildOrThrow();
+  /**
+   * Applies {@code diff} to the project model. The {@link BlazeQuerySyncPlugin} hooks still run for
+   * every module in {@code spec} on each update, whether or not that module changed.
+   */
+  private void applyDiff(
+      ProjectProto.Project spec, ProjectStructureDiff diff, File imlDirectory, Context context) {
+    IdeModifiableModelsProvider models =
+        ProjectDataManager.getInstance().createModifiableModelsProvider(project);
 
-          for (ProjectProto.Module moduleSpec : spec.getModulesList()) {
-            Module module =
-                models.newModule(
-                    imlDirectory.toPath().resolve(moduleSpec.getName() + ".iml").toString(),
-                    mapModuleType(moduleSpec.getType()).getId());
+    for (BlazeQuerySyncPlugin syncPlugin : BlazeQuerySyncPlugin.EP_NAME.getExtensions()) {
+      syncPlugin.updateProjectSettingsForQuerySync(project, context, projectViewSet);
+    }
+    int removedLibCount =
+        diff.fullUpdate
+            ? removeUnusedLibraries(models, diff.updatedLibraries)
+            : removeLibraries(models, diff.removedLibraries);
+    if (removedLibCount > 0) {
+      context.output(PrintOutput.output("Removed " + removedLibCount + " libs"));
+    }
+    Map<String, Library> libMap = new HashMap<>();
+    for (ProjectProto.Library libSpec : diff.updatedLibraries) {
+      Library library = getOrCreateLibrary(models, libSpec);
+      libMap.put(libSpec.getName(), library);
+    }
 
-            ModifiableRootModel roots = models.getModifiableRootModel(module);
-            ImmutableList<OrderEntry> existingLibraryOrderEntries =
-                stream(roots.getOrderEntries())
-                    .filter(it -> it instanceof LibraryOrderEntry)
-                    .collect(toImmutableList());
-            for (OrderEntry entry : existingLibraryOrderEntries) {
-              roots.removeOrderEntry(entry);
-            }
-            // TODO: should this be encapsulated in ProjectProto.Module?
-            roots.inheritSdk();
+    WorkspaceLanguageSettings workspaceLanguageSettings =
+        LanguageSupport.createWorkspaceLanguageSettings(projectViewSet);
+    ImmutableMap<String, ModuleDiff> moduleDiffs =
+        diff.updatedModules.stream().collect(toImmutableMap(d -> d.spec.getName(), d -> d));
+    for (ProjectProto.Module moduleSpec : spec.getModulesList()) {
+      Module module =
+          models.newModule(
+              imlDirectory.toPath().resolve(moduleSpec.getName() + ".iml").toString(),
+              mapModuleType(moduleSpec.getType()).getId());
 
-            // TODO instead of removing all content entries and re-adding, we should calculate the
-            //  diff.
-            for (ContentEntry entry : roots.getContentEntries()) {
-              roots.removeContentEntry(entry);
-            }
-            for (ProjectProto.ContentEntry ceSpec : moduleSpec.getContentEntriesList()) {
-              ProjectPath projectPath = ProjectPath.create(ceSpec.getRoot());
+      ModifiableRootModel roots = models.getModifiableRootModel(module);
+      // TODO: should this be encapsulated in ProjectProto.Module?
+      roots.inheritSdk();
 
-              ContentEntry contentEntry =
-                  roots.addContentEntry(
-                      UrlUtil.pathToIdeaDirectoryUrl(projectPathResolver.resolve(projectPath)));
-              for (ProjectProto.SourceFolder sfSpec : ceSpec.getSourcesList()) {
-                Path sourceFolderPath =
-                    projectPathResolver.resolve(
-                        ProjectPath.create(projectPath.rootType(), Path.of(sfSpec.getPath())));
+      ModuleDiff moduleDiff = moduleDiffs.get(moduleSpec.getName());
+      if (moduleDiff != null) {
+        updateContentEntries(roots, moduleDiff);
+      }
 
-                JavaSourceRootProperties properties =
-                    JpsJavaExtensionService.getInstance()
-                        .createSourceRootProperties(
-                            sfSpec.getPackagePrefix(), sfSpec.getIsGenerated());
-                JavaSourceRootType rootType =
-                    sfSpec.getIsTest() ? JavaSourceRootType.TEST_SOURCE : JavaSourceRootType.SOURCE;
-                SourceFolder unused =
-                    contentEntry.addSourceFolder(
-                        UrlUtil.pathToIdeaDirectoryUrl(sourceFolderPath), rootType, properties);
-              }
-              for (String exclude : ceSpec.getExcludesList()) {
-                contentEntry.addExcludeFolder(
-                    UrlUtil.pathToIdeaDirectoryUrl(workspaceRoot.absolutePathFor(exclude)));
-              }
-            }
+      if (moduleDiff != null && moduleDiff.librariesChanged) {
+        ImmutableList<OrderEntry> existingLibraryOrderEntries =
+            stream(roots.getOrderEntries())
+                .filter(it -> it instanceof LibraryOrderEntry)
+                .collect(toImmutableList());
+        for (OrderEntry entry : existingLibraryOrderEntries) {
+          roots.removeOrderEntry(entry);
+        }
+        for (String lib : moduleSpec.getLibraryNameList()) {
+          Library library = libMap.computeIfAbsent(lib, models::getLibraryByName);
+          if (library == null) {
+            throw new IllegalStateException(
+                "Module refers to library " + lib + " not present in the project spec");
+          }
+          LibraryOrderEntry entry = roots.addLibraryEntry(library);
+          // TODO should this stuff be specified by the Module proto too?
+          entry.setScope(DependencyScope.COMPILE);
+          entry.setExported(false);
+        }
+      }
 
-            for (String lib : moduleSpec.getLibraryNameList()) {
-              Library library = libMap.get(lib);
-              if (library == null) {
-                throw new IllegalStateException(
-                    "Module refers to library " + lib + " not present in the project spec");
-              }
-              LibraryOrderEntry entry = roots.addLibraryEntry(library);
-              // TODO should this stuff be specified by the Module proto too?
-              entry.setScope(DependencyScope.COMPILE);
-              entry.setExported(false);
-            }
+      for (BlazeQuerySyncPlugin syncPlugin : BlazeQuerySyncPlugin.EP_NAME.getExtensions()) {
+        // TODO update ProjectProto.Module and updateProjectStructure() to allow a more
+        // suitable
+        //   data type to be passed in here instead of androidResourceDirectories and
+        //   androidSourcePackages
+        syncPlugin.updateProjectStructureForQuerySync(
+            project,
+            context,
+            models,
+            workspaceRoot,
+            module,
+            ImmutableSet.copyOf(moduleSpec.getAndroidResourceDirectoriesList()),
+            ImmutableSet.<String>builder()
+                .addAll(moduleSpec.getAndroidSourcePackagesList())
+                .addAll(moduleSpec.getAndroidCustomPackagesList())
+                .build(),
+            workspaceLanguageSettings);
+      }
+    }
+    models.commit();
+  }
 
-            WorkspaceLanguageSettings workspaceLanguageSettings =
-                LanguageSupport.createWorkspaceLanguageSettings(projectViewSet);
+  /**
+   * Applies the content entry changes to a module. Entries whose roots are unchanged are updated in
+   * place, so only the source folders and excludes which have changed are touched.
+   */
+  private void updateContentEntries(ModifiableRootModel roots, ModuleDiff moduleDiff) {
+    if (moduleDiff.rebuildContentEntries) {
+      for (ContentEntry entry : roots.getContentEntries()) {
+        roots.removeContentEntry(entry);
+      }
+    }
+    Map<String, ContentEntry> existingEntries = new HashMap<>();
+    for (ContentEntry entry : roots.getContentEntries()) {
+      existingEntries.put(entry.getUrl(), entry);
+    }
+    for (ProjectProto.ContentEntry ceSpec : moduleDiff.removedContentEntries) {
+      ContentEntry entry = existingEntries.get(getContentEntryUrl(ceSpec));
+      if (entry != null) {
+        roots.removeContentEntry(entry);
+      }
+    }
+    for (ProjectProto.ContentEntry ceSpec : moduleDiff.addedContentEntries) {
+      addContentEntry(roots, ceSpec);
+    }
+    for (ContentEntryDiff ceDiff : moduleDiff.updatedContentEntries) {
+      ContentEntry contentEntry = existingEntries.get(getContentEntryUrl(ceDiff.spec));
+      if (contentEntry == null) {
+        addContentEntry(roots, ceDiff.spec);
+        continue;
+      }
+      ProjectPath projectPath = ProjectPath.create(ceDiff.spec.getRoot());
+      ImmutableSet<String> removedFolderUrls =
+          ceDiff.removedSourceFolders.stream()
+              .map(sfSpec -> getSourceFolderUrl(projectPath, sfSpec))
+              .collect(toImmutableSet());
+      for (SourceFolder sourceFolder : contentEntry.getSourceFolders()) {
+        if (removedFolderUrls.contains(sourceFolder.getUrl())) {
+          contentEntry.removeSourceFolder(sourceFolder);
+        }
+      }
+      for (ProjectProto.SourceFolder sfSpec : ceDiff.addedSourceFolders) {
+        addSourceFolder(contentEntry, projectPath, sfSpec);
+      }
+      ImmutableSet<String> removedExcludeUrls =
+          ceDiff.removedExcludes.stream().map(this::getExcludeUrl).collect(toImmutableSet());
+      for (ExcludeFolder excludeFolder : contentEntry.getExcludeFolders()) {
+        if (removedExcludeUrls.contains(excludeFolder.getUrl())) {
+          contentEntry.removeExcludeFolder(excludeFolder);
+        }
+      }
+      for (String exclude : ceDiff.addedExcludes) {
+        contentEntry.addExcludeFolder(getExcludeUrl(exclude));
+      }
+    }
+  }
 
-            for (BlazeQuerySyncPlugin syncPlugin : BlazeQuerySyncPlugin.EP_NAME.getExtensions()) {
-              // TODO update ProjectProto.Module and updateProjectStructure() to allow a more
-              // suitable
-              //   data type to be passed in here instead of androidResourceDirectories and
-              //   androidSourcePackages
-              syncPlugin.updateProjectStructureForQuerySync(
-                  project,
-                  context,
-                  models,
-                  workspaceRoot,
-                  module,
-                  ImmutableSet.copyOf(moduleSpec.getAndroidResourceDirectoriesList()),
-                  ImmutableSet.<String>builder()
-                      .addAll(moduleSpec.getAndroidSourcePackagesList())
-                      .addAll(moduleSpec.getAndroidCustomPackagesList())
-                      .build(),
-                  workspaceLanguageSettings);
-            }
-            models.commit();
-          }
-        });
+  private void addContentEntry(ModifiableRootModel roots, ProjectProto.ContentEntry ceSpec) {
+    ProjectPath projectPath = ProjectPath.create(ceSpec.getRoot());
+    ContentEntry contentEntry = roots.addContentEntry(getContentEntryUrl(ceSpec));
+    for (ProjectProto.SourceFolder sfSpec : ceSpec.getSourcesList()) {
+      addSourceFolder(contentEntry, projectPath, sfSpec);
+    }
+    for (String exclude : ceSpec.getExcludesList()) {
+      contentEntry.addExcludeFolder(getExcludeUrl(exclude));
+    }
+  }
+
+  private void addSourceFolder(
+      ContentEntry contentEntry, ProjectPath contentRoot, ProjectProto.SourceFolder sfSpec) {
+    JavaSourceRootProperties properties =
+        JpsJavaExtensionService.getInstance()
+            .createSourceRootProperties(sfSpec.getPackagePrefix(), sfSpec.getIsGenerated());
+    JavaSourceRootType rootType =
+        sfSpec.getIsTest() ? JavaSourceRootType.TEST_SOURCE : JavaSourceRootType.SOURCE;
+    SourceFolder unused =
+        contentEntry.addSourceFolder(getSourceFolderUrl(contentRoot, sfSpec), rootType, properties);
+  }
+
+  private String getContentEntryUrl(ProjectProto.ContentEntry ceSpec) {
+    return UrlUtil.pathToIdeaDirectoryUrl(
+        projectPathResolver.resolve(ProjectPath.create(ceSpec.getRoot())));
+  }
+
+  private String getSourceFolderUrl(ProjectPath contentRoot, ProjectProto.SourceFolder sfSpec) {
+    return UrlUtil.pathToIdeaDirectoryUrl(
+        projectPathResolver.resolve(
+            ProjectPath.create(contentRoot.rootType(), Path.of(sfSpec.getPath()))));
+  }
+
+  private String getExcludeUrl(String exclude) {
+    return UrlUtil.pathToIdeaDirectoryUrl(workspaceRoot.absolutePathFor(exclude));
   }
 
   private Library getOrCreateLibrary(
@@ -267,6 +391,19 @@ public class ProjectUpdater implements BlazeProjectListener {
     return library;
   }
 
+  /** Removes the named libraries from the project, returning the number removed. */
+  private int removeLibraries(IdeModifiableModelsProvider models, Set<String> names) {
+    int removedLibCount = 0;
+    for (String name : names) {
+      Library library = models.getLibraryByName(name);
+      if (library != null) {
+        removedLibCount++;
+        models.removeLibrary(library);
+      }
+    }
+    return removedLibCount;
+  }
+
   /**
    * Removes any existing library that should not be used by this project e.g. inherit from old
    * project.
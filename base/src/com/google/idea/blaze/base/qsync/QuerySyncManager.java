@@ -126,7 +126,11 @@ public class QuerySyncManager {
       QuerySyncProject newProject = loader.loadProject(context);
       if (!context.hasErrors()) {
         loadedProject = Preconditions.checkNotNull(newProject);
-        loadedProject.sync(context, loadedProject.readSnapshotFromDisk(context));
+        Optional<PostQuerySyncData> lastQuery = loadedProject.readSnapshotFromDisk(context);
+        if (lastQuery.isPresent()) {
+          loadedProject.restoreSnapshot(context, lastQuery.get());
+        }
+        loadedProject.sync(context, lastQuery);
       }
     } catch (Exception e) {
       context.handleException("Failed to load project", e);
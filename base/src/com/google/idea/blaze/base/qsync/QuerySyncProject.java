@@ -21,6 +21,7 @@ import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.idea.blaze.base.bazel.BuildSystem;
+import com.google.idea.blaze.base.command.info.BlazeInfoProvider;
 import com.google.idea.blaze.base.logging.utils.querysync.BuildDepsStatsScope;
 import com.google.idea.blaze.base.logging.utils.querysync.SyncQueryStatsScope;
 import com.google.idea.blaze.base.model.primitives.WorkspacePath;
@@ -47,9 +48,11 @@ import com.google.idea.blaze.exception.BuildException;
 import com.google.idea.blaze.qsync.BlazeProject;
 import com.google.idea.blaze.qsync.BlazeProjectSnapshotBuilder;
 import com.google.idea.blaze.qsync.project.BlazeProjectSnapshot;
+import com.google.idea.blaze.qsync.project.DerivedSnapshot;
 import com.google.idea.blaze.qsync.project.PostQuerySyncData;
 import com.google.idea.blaze.qsync.project.ProjectDefinition;
 import com.google.idea.blaze.qsync.project.SnapshotDeserializer;
+import com.google.idea.blaze.qsync.project.SnapshotProto;
 import com.google.idea.blaze.qsync.project.SnapshotSerializer;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
@@ -67,6 +70,7 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
+import javax.annotation.Nullable;
 
 /**
  * Encapsulates a loaded querysync project and it's dependencies.
@@ -76,6 +80,9 @@ import java.util.zip.GZIPOutputStream;
  */
 public class QuerySyncProject {
 
+  /** The file the derived project structure is persisted to, alongside the snapshot file. */
+  private static final String DERIVED_SNAPSHOT_FILE_NAME = "qsyncdata.derived.gz";
+
   private final Path snapshotFilePath;
   private final Project project;
   private final BlazeProject snapshotHolder;
@@ -97,6 +104,9 @@ public class QuerySyncProject {
 
   private volatile QuerySyncProjectData projectData;
 
+  /** The input hash of the derived project structure last written to disk. */
+  @Nullable private volatile String persistedDerivedInputHash;
+
   public QuerySyncProject(
       Project project,
       Path snapshotFilePath,
@@ -189,6 +199,8 @@ public class QuerySyncProject {
       context.push(new SyncQueryStatsScope());
       try {
         SaveUtil.saveAllFiles();
+        BlazeInfoProvider.getInstance(project)
+            .onSyncStart(lastQuery.isEmpty() ? SyncMode.FULL : SyncMode.INCREMENTAL);
         PostQuerySyncData postQuerySyncData =
             lastQuery.isEmpty()
                 ? projectQuerier.fullQuery(projectDefinition, context)
@@ -347,6 +359,64 @@ public class QuerySyncProject {
     }
   }
 
+  /**
+   * Restores the project structure persisted by a previous sync, provided that it was derived from
+   * {@code lastQuery} by this version of the plugin. This makes the project usable as soon as it's
+   * loaded; a subsequent {@link #sync} validates it against the current state of the workspace.
+   *
+   * @return true if the project structure was restored.
+   */
+  public boolean restoreSnapshot(BlazeContext context, PostQuerySyncData lastQuery)
+      throws BuildException {
+    Optional<DerivedSnapshot> derived = readDerivedSnapshotFromDisk(context);
+    if (derived.isEmpty()) {
+      return false;
+    }
+    blazeProjectSnapshotBuilder.setDerivedSnapshot(derived.get());
+    if (!blazeProjectSnapshotBuilder.hasDerivedSnapshotFor(lastQuery)) {
+      context.output(PrintOutput.log("Persisted project structure is out of date"));
+      return false;
+    }
+    persistedDerivedInputHash = derived.get().inputHash();
+    BlazeProjectSnapshot snapshot =
+        blazeProjectSnapshotBuilder.createBlazeProjectSnapshot(
+            context, lastQuery, artifactTracker::updateProjectProto);
+    snapshotHolder.setCurrent(context, snapshot);
+    projectData = projectData.withSnapshot(snapshot);
+    context.output(PrintOutput.log("Restored project structure from previous sync"));
+    return true;
+  }
+
+  private Optional<DerivedSnapshot> readDerivedSnapshotFromDisk(BlazeContext context) {
+    File f = getDerivedSnapshotFilePath().toFile();
+    if (!f.exists()) {
+      return Optional.empty();
+    }
+    try (InputStream in = new GZIPInputStream(new FileInputStream(f))) {
+      return DerivedSnapshot.fromProto(SnapshotProto.DerivedSnapshot.parseFrom(in));
+    } catch (IOException e) {
+      // it's only a cache, so the project structure can be derived again instead
+      context.output(PrintOutput.log("Failed to read persisted project structure: " + e));
+      return Optional.empty();
+    }
+  }
+
+  private void writeDerivedSnapshotToDisk() throws IOException {
+    Optional<DerivedSnapshot> derived = blazeProjectSnapshotBuilder.getDerivedSnapshot();
+    if (derived.isEmpty() || derived.get().inputHash().equals(persistedDerivedInputHash)) {
+      return;
+    }
+    try (OutputStream o =
+        new GZIPOutputStream(new FileOutputStream(getDerivedSnapshotFilePath().toFile()))) {
+      derived.get().toProto().writeTo(o);
+    }
+    persistedDerivedInputHash = derived.get().inputHash();
+  }
+
+  private Path getDerivedSnapshotFilePath() {
+    return snapshotFilePath.resolveSibling(DERIVED_SNAPSHOT_FILE_NAME);
+  }
+
   private void writeToDisk(BlazeProjectSnapshot snapshot) throws IOException {
     File f = snapshotFilePath.toFile();
     if (!f.getParentFile().exists()) {
@@ -364,5 +434,6 @@ public class QuerySyncProject {
     snapshotHolder.setCurrent(context, newSnapshot);
     projectData = projectData.withSnapshot(newSnapshot);
     writeToDisk(newSnapshot);
+    writeDerivedSnapshotToDisk();
   }
 }
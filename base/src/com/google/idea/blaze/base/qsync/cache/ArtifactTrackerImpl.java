@@ -86,6 +86,7 @@ import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -113,7 +114,10 @@ public class ArtifactTrackerImpl implements ArtifactTracker {
   private final Map<Label, ArtifactInfo> artifacts = new HashMap<>();
   // Information about the origin of files in the cache. For each file in the cache, stores the
   // artifact key that the file was derived from.
-  private final Map<Path, Path> cachePathToArtifactKeyMap = new HashMap<>();
+  // Artifacts may be cached while a build is running, so this is updated concurrently with reads.
+  private final Map<Path, Path> cachePathToArtifactKeyMap = new ConcurrentHashMap<>();
+  // Cache files updated by cacheArtifacts since the last update, counted in that update's stats.
+  private final Set<Path> filesCachedDuringBuild = ConcurrentHashMap.newKeySet();
 
   private final ArtifactFetcher<OutputArtifact> artifactFetcher;
   private final ProjectPath.Resolver projectPathResolver;
@@ -198,6 +202,7 @@ public class ArtifactTrackerImpl implements ArtifactTracker {
   @Override
   public void clear() throws IOException {
     artifacts.clear();
+    filesCachedDuringBuild.clear();
     cacheDirectoryManager.clear();
     saveState();
   }
@@ -415,6 +420,42 @@ public class ArtifactTrackerImpl implements ArtifactTracker {
   public UpdateResult update(Set<Label> targets, OutputInfo outputInfo, BlazeContext outerContext)
       throws BuildException {
     try (BlazeContext context = BlazeContext.create(outerContext)) {
+      ImmutableMap<Path, Path> cachePathToArtifactKeyMap = fetchAndCache(outputInfo, context);
+
+      for (BuildArtifacts artifacts : outputInfo.getArtifactInfo()) {
+        updateMaps(targets, artifacts);
+      }
+      saveState();
+      int updatedFilesCount =
+          Sets.union(cachePathToArtifactKeyMap.keySet(), filesCachedDuringBuild).size();
+      filesCachedDuringBuild.clear();
+      BuildDepsStatsScope.fromContext(context)
+          .ifPresent(stats -> stats.setUpdatedFilesCount(updatedFilesCount));
+      return UpdateResult.create(cachePathToArtifactKeyMap.keySet(), ImmutableSet.of());
+    } catch (IOException e) {
+      throw new BuildException(e);
+    }
+  }
+
+  @Override
+  public UpdateResult cacheArtifacts(OutputInfo outputInfo, BlazeContext outerContext)
+      throws BuildException {
+    try (BlazeContext context = BlazeContext.create(outerContext)) {
+      ImmutableSet<Path> cachedFiles = fetchAndCache(outputInfo, context).keySet();
+      filesCachedDuringBuild.addAll(cachedFiles);
+      return UpdateResult.create(cachedFiles, ImmutableSet.of());
+    }
+  }
+
+  /**
+   * Fetches the jars, aars and generated sources in {@code outputInfo} which have changed since
+   * they were last cached, and records the origin of each resulting cache file.
+   *
+   * @return A map of the updated cache files to the key of the artifact each was derived from.
+   */
+  private ImmutableMap<Path, Path> fetchAndCache(OutputInfo outputInfo, BlazeContext context)
+      throws BuildException {
+    try {
       DownloadTrackingScope downloads = new DownloadTrackingScope();
       context.push(downloads);
 
@@ -448,14 +489,7 @@ public class ArtifactTrackerImpl implements ArtifactTracker {
           getUninterruptibly(cachePathToArtifactKeyMapFuture);
 
       this.cachePathToArtifactKeyMap.putAll(cachePathToArtifactKeyMap);
-
-      for (BuildArtifacts artifacts : outputInfo.getArtifactInfo()) {
-        updateMaps(targets, artifacts);
-      }
-      saveState();
-      BuildDepsStatsScope.fromContext(context)
-          .ifPresent(stats -> stats.setUpdatedFilesCount(cachePathToArtifactKeyMap.size()));
-      return UpdateResult.create(cachePathToArtifactKeyMap.keySet(), ImmutableSet.of());
+      return cachePathToArtifactKeyMap;
     } catch (ExecutionException | IOException e) {
       throw new BuildException(e);
     }
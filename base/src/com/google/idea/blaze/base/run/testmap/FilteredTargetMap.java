@@ -15,95 +15,406 @@
  */
 package com.google.idea.blaze.base.run.testmap;
 
-import com.google.common.collect.ArrayListMultimap;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Queues;
-import com.google.common.collect.Sets;
+import com.google.common.collect.Maps;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.Dependency;
 import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.ideinfo.TargetMap;
-import com.google.idea.blaze.base.model.BlazeProjectData;
-import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
-import com.google.idea.blaze.base.targetmaps.ReverseDependencyMap;
-import com.intellij.openapi.project.Project;
 import java.io.File;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Map;
 import java.util.Objects;
-import java.util.Queue;
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
+import java.util.stream.IntStream;
 
-/** Filters a {@link TargetMap} according to a given filter. */
+/**
+ * Filters a {@link TargetMap} according to a given filter.
+ *
+ * <p>The filtered targets reachable from each target via reverse dependencies are precomputed
+ * when the map is created, so that looking up the targets for a source file doesn't usually
+ * require a walk of the reverse dependency graph. Targets are referred to by int ids, and the
+ * reachable targets of a target with a single reverse dependency share the array of that
+ * dependency, to keep the index compact.
+ *
+ * <p>The index holds at most {@link #DEFAULT_MAX_INDEXED_ENTRIES} entries. Targets which reach
+ * more matching targets than fit (typically low level libraries when the filter matches most
+ * targets) aren't indexed, and are looked up by walking the reverse dependency graph instead.
+ */
 public class FilteredTargetMap {
 
-  private final Project project;
-  private final Multimap<File, TargetKey> rootsMap;
-  private final TargetMap targetMap;
-  private final Predicate<TargetIdeInfo> filter;
+  private static final long DEFAULT_MAX_INDEXED_ENTRIES = 2_000_000;
+
+  /** All targets in the target map, indexed by id. */
+  private final TargetIdeInfo[] targets;
+  /** The ids of the targets directly including each source file. */
+  private final ImmutableMap<File, int[]> sourceOwners;
+
+  private final boolean[] matchesFilter;
+  /** Reverse dependency edges, in compressed sparse row form. */
+  private final int[] rdepsStart;
+  private final int[] rdeps;
+  /**
+   * The filtered targets reachable from each target, in breadth-first order, or null if the target
+   * isn't indexed.
+   */
+  private final Reachable[] reachable;
+  /**
+   * The distance from each target to the start of its (possibly shared) {@link Reachable} list.
+   */
+  private final int[] reachableOffsets;
 
   public FilteredTargetMap(
-      Project project,
+      ArtifactLocationDecoder decoder, TargetMap targetMap, Predicate<TargetIdeInfo> filter) {
+    this(decoder, targetMap, filter, DEFAULT_MAX_INDEXED_ENTRIES);
+  }
+
+  @VisibleForTesting
+  FilteredTargetMap(
       ArtifactLocationDecoder decoder,
       TargetMap targetMap,
-      Predicate<TargetIdeInfo> filter) {
-    this.project = project;
-    this.rootsMap = createRootsMap(decoder, targetMap.targets());
-    this.targetMap = targetMap;
-    this.filter = filter;
+      Predicate<TargetIdeInfo> filter,
+      long maxIndexedEntries) {
+    this.targets = targetMap.targets().toArray(new TargetIdeInfo[0]);
+    int count = targets.length;
+    Map<TargetKey, Integer> ids = Maps.newHashMapWithExpectedSize(count);
+    for (int i = 0; i < count; i++) {
+      ids.put(targets[i].getKey(), i);
+    }
+    this.sourceOwners = createSourceOwners(decoder, targets);
+    this.matchesFilter = new boolean[count];
+    int[] depsStart = new int[count + 1];
+    this.rdepsStart = new int[count + 1];
+    int[][] targetDeps = new int[count][];
+    for (int i = 0; i < count; i++) {
+      matchesFilter[i] = filter.test(targets[i]);
+      targetDeps[i] =
+          targets[i].getDependencies().stream()
+              .map(Dependency::getTargetKey)
+              .map(ids::get)
+              .filter(Objects::nonNull)
+              .mapToInt(Integer::intValue)
+              .toArray();
+      depsStart[i + 1] = depsStart[i] + targetDeps[i].length;
+      for (int dep : targetDeps[i]) {
+        rdepsStart[dep + 1]++;
+      }
+    }
+    for (int i = 0; i < count; i++) {
+      rdepsStart[i + 1] += rdepsStart[i];
+    }
+    int[] deps = new int[depsStart[count]];
+    this.rdeps = new int[rdepsStart[count]];
+    int[] rdepsEnd = Arrays.copyOf(rdepsStart, count);
+    for (int i = 0; i < count; i++) {
+      System.arraycopy(targetDeps[i], 0, deps, depsStart[i], targetDeps[i].length);
+      for (int dep : targetDeps[i]) {
+        rdeps[rdepsEnd[dep]++] = i;
+      }
+    }
+    this.reachable = new Reachable[count];
+    this.reachableOffsets = new int[count];
+    new ReachabilityCalculator(depsStart, deps, maxIndexedEntries).calculate();
   }
 
   public ImmutableSet<TargetIdeInfo> targetsForSourceFile(File sourceFile) {
     return targetsForSourceFiles(ImmutableList.of(sourceFile));
   }
 
+  /**
+   * Returns the filtered targets reachable from the given source files, ordered by their distance
+   * from a target directly including one of the source files.
+   */
   public ImmutableSet<TargetIdeInfo> targetsForSourceFiles(Collection<File> sourceFiles) {
-    BlazeProjectData blazeProjectData =
-        BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
-    if (blazeProjectData != null) {
-      return targetsForSourceFilesImpl(ReverseDependencyMap.get(project), sourceFiles);
+    ImmutableList.Builder<Integer> roots = ImmutableList.builder();
+    for (File sourceFile : sourceFiles) {
+      int[] owners = sourceOwners.get(sourceFile);
+      if (owners != null) {
+        for (int owner : owners) {
+          roots.add(owner);
+        }
+      }
+    }
+    int[] result = reachableFrom(roots.build().stream().mapToInt(Integer::intValue).toArray());
+    ImmutableSet.Builder<TargetIdeInfo> targets = ImmutableSet.builder();
+    for (int id : result) {
+      targets.add(this.targets[id]);
+    }
+    return targets.build();
+  }
+
+  /** Returns true if the given target's reachable targets are precomputed. */
+  @VisibleForTesting
+  boolean isIndexed(TargetKey key) {
+    for (int i = 0; i < targets.length; i++) {
+      if (targets[i].getKey().equals(key)) {
+        return reachable[i] != null;
+      }
+    }
+    return false;
+  }
+
+  private int[] reachableFrom(int[] roots) {
+    if (roots.length == 1 && reachable[roots[0]] != null) {
+      return reachable[roots[0]].ids;
+    }
+    Reachable[] lists = new Reachable[roots.length];
+    int[] offsets = new int[roots.length];
+    for (int i = 0; i < roots.length; i++) {
+      lists[i] = reachable[roots[i]];
+      if (lists[i] == null) {
+        return walkReverseDeps(roots);
+      }
+      offsets[i] = reachableOffsets[roots[i]];
+    }
+    return Reachable.merge(lists, offsets, new SeenIds(targets.length)).ids;
+  }
+
+  /** Walks the reverse dependency graph breadth first, for targets which aren't indexed. */
+  private int[] walkReverseDeps(int[] roots) {
+    SeenIds seen = new SeenIds(targets.length);
+    int[] queue = new int[16];
+    int head = 0;
+    int tail = 0;
+    for (int root : roots) {
+      if (seen.add(root)) {
+        if (tail == queue.length) {
+          queue = Arrays.copyOf(queue, tail * 2);
+        }
+        queue[tail++] = root;
+      }
+    }
+    int[] found = new int[16];
+    int foundCount = 0;
+    while (head < tail) {
+      int current = queue[head++];
+      if (matchesFilter[current]) {
+        if (foundCount == found.length) {
+          found = Arrays.copyOf(found, foundCount * 2);
+        }
+        found[foundCount++] = current;
+      }
+      for (int i = rdepsStart[current]; i < rdepsStart[current + 1]; i++) {
+        int rdep = rdeps[i];
+        if (seen.add(rdep)) {
+          if (tail == queue.length) {
+            queue = Arrays.copyOf(queue, tail * 2);
+          }
+          queue[tail++] = rdep;
+        }
+      }
     }
-    return ImmutableSet.of();
+    return Arrays.copyOf(found, foundCount);
   }
 
-  private ImmutableSet<TargetIdeInfo> targetsForSourceFilesImpl(
-      ImmutableMultimap<TargetKey, TargetKey> rdepsMap, Collection<File> sourceFiles) {
-    ImmutableSet.Builder<TargetIdeInfo> result = ImmutableSet.builder();
-    Set<TargetKey> roots =
-        sourceFiles.stream()
-            .flatMap(f -> rootsMap.get(f).stream())
-            .collect(ImmutableSet.toImmutableSet());
+  private static ImmutableMap<File, int[]> createSourceOwners(
+      ArtifactLocationDecoder decoder, TargetIdeInfo[] targets) {
+    Map<File, int[]> result = Maps.newHashMap();
+    for (int i = 0; i < targets.length; i++) {
+      for (ArtifactLocation source : targets[i].getSources()) {
+        File file = decoder.resolveSource(source);
+        if (file == null) {
+          continue;
+        }
+        int[] owners = result.get(file);
+        if (owners == null) {
+          result.put(file, new int[] {i});
+        } else if (owners[owners.length - 1] != i) {
+          int[] newOwners = Arrays.copyOf(owners, owners.length + 1);
+          newOwners[owners.length] = i;
+          result.put(file, newOwners);
+        }
+      }
+    }
+    return ImmutableMap.copyOf(result);
+  }
+
+  /**
+   * Calculates the reachable filtered targets of each target, from the top of the dependency
+   * graph down. Targets whose reverse dependencies have all been processed are handled in
+   * parallel.
+   *
+   * <p>A target is left unindexed if indexing it would exceed the entry budget, or if any of its
+   * reverse dependencies is unindexed. Targets in dependency cycles (and everything they depend
+   * on) are never reached, so are also left unindexed.
+   */
+  private class ReachabilityCalculator {
+    private final int[] depsStart;
+    private final int[] deps;
+    private final AtomicLong remainingEntries;
+    private final ThreadLocal<SeenIds> seenIds;
 
-    Queue<TargetKey> todo = Queues.newArrayDeque();
-    todo.addAll(roots);
-    Set<TargetKey> seen = Sets.newHashSet();
-    while (!todo.isEmpty()) {
-      TargetKey targetKey = todo.remove();
-      if (!seen.add(targetKey)) {
-        continue;
+    ReachabilityCalculator(int[] depsStart, int[] deps, long maxIndexedEntries) {
+      this.depsStart = depsStart;
+      this.deps = deps;
+      this.remainingEntries = new AtomicLong(maxIndexedEntries);
+      this.seenIds = ThreadLocal.withInitial(() -> new SeenIds(targets.length));
+    }
+
+    void calculate() {
+      int count = targets.length;
+      int[] pendingRdeps = new int[count];
+      for (int i = 0; i < count; i++) {
+        pendingRdeps[i] = rdepsStart[i + 1] - rdepsStart[i];
       }
+      int[] level = IntStream.range(0, count).filter(i -> pendingRdeps[i] == 0).toArray();
+      while (level.length > 0) {
+        IntStream.of(level).parallel().forEach(this::calculate);
+        int[] nextLevel = new int[0];
+        int nextCount = 0;
+        for (int target : level) {
+          for (int i = depsStart[target]; i < depsStart[target + 1]; i++) {
+            int dep = deps[i];
+            if (--pendingRdeps[dep] == 0) {
+              if (nextCount == nextLevel.length) {
+                nextLevel = Arrays.copyOf(nextLevel, Math.max(16, nextCount * 2));
+              }
+              nextLevel[nextCount++] = dep;
+            }
+          }
+        }
+        level = Arrays.copyOf(nextLevel, nextCount);
+      }
+    }
 
-      TargetIdeInfo target = targetMap.get(targetKey);
-      if (filter.test(target)) {
-        result.add(target);
+    /** Requires all reverse dependencies of the target to have been processed. */
+    private void calculate(int target) {
+      int start = rdepsStart[target];
+      int end = rdepsStart[target + 1];
+      for (int i = start; i < end; i++) {
+        if (reachable[rdeps[i]] == null) {
+          return;
+        }
       }
-      todo.addAll(rdepsMap.get(targetKey));
+      if (end - start == 1 && !matchesFilter[target]) {
+        // share the list of the single reverse dependency
+        reachable[target] = reachable[rdeps[start]];
+        reachableOffsets[target] = reachableOffsets[rdeps[start]] + 1;
+        return;
+      }
+      int listCount = end - start + (matchesFilter[target] ? 1 : 0);
+      Reachable[] lists = new Reachable[listCount];
+      int[] offsets = new int[listCount];
+      int position = 0;
+      long maxEntries = 0;
+      if (matchesFilter[target]) {
+        lists[position++] = new Reachable(new int[] {target}, new int[] {0});
+        maxEntries++;
+      }
+      for (int i = start; i < end; i++) {
+        lists[position] = reachable[rdeps[i]];
+        offsets[position++] = reachableOffsets[rdeps[i]] + 1;
+        maxEntries += reachable[rdeps[i]].ids.length;
+      }
+      if (remainingEntries.addAndGet(-maxEntries) < 0) {
+        remainingEntries.addAndGet(maxEntries);
+        return;
+      }
+      SeenIds seen = seenIds.get();
+      seen.clear();
+      reachable[target] = Reachable.merge(lists, offsets, seen);
+      remainingEntries.addAndGet(maxEntries - reachable[target].ids.length);
     }
-    return result.build();
   }
 
-  private static Multimap<File, TargetKey> createRootsMap(
-      ArtifactLocationDecoder decoder, Collection<TargetIdeInfo> targets) {
-    Multimap<File, TargetKey> result = ArrayListMultimap.create();
-    for (TargetIdeInfo target : targets) {
-      target.getSources().stream()
-          .map(decoder::resolveSource)
-          .filter(Objects::nonNull)
-          .forEach(f -> result.put(f, target.getKey()));
+  /** A set of target ids, which can be cleared in constant time. */
+  private static final class SeenIds {
+    private final int[] generations;
+    private int generation = 1;
+
+    SeenIds(int size) {
+      generations = new int[size];
+    }
+
+    void clear() {
+      generation++;
+    }
+
+    /** Returns false if the id is already present. */
+    boolean add(int id) {
+      if (generations[id] == generation) {
+        return false;
+      }
+      generations[id] = generation;
+      return true;
+    }
+  }
+
+  /** A list of target ids, in order of increasing distance from some starting target. */
+  private static final class Reachable {
+    static final Reachable EMPTY = new Reachable(new int[0], new int[0]);
+
+    final int[] ids;
+    final int[] distances;
+
+    Reachable(int[] ids, int[] distances) {
+      this.ids = ids;
+      this.distances = distances;
+    }
+
+    /**
+     * Merges the given lists, keeping the shortest distance for each target. Ties are broken by
+     * the order of the lists, then by the order within each list.
+     *
+     * <p>Each list is already ordered by distance, so the entries are bucketed by distance rather
+     * than sorted, making the merge linear in the total length of the lists.
+     *
+     * @param offsets the distance to add to the entries of the corresponding list
+     * @param seen an empty set, used to drop duplicate targets
+     */
+    static Reachable merge(Reachable[] lists, int[] offsets, SeenIds seen) {
+      int total = 0;
+      int maxDistance = -1;
+      for (int i = 0; i < lists.length; i++) {
+        int length = lists[i].ids.length;
+        if (length > 0) {
+          total += length;
+          maxDistance = Math.max(maxDistance, lists[i].distances[length - 1] + offsets[i]);
+        }
+      }
+      if (total == 0) {
+        return EMPTY;
+      }
+      int[] bucketStart = new int[maxDistance + 2];
+      for (int i = 0; i < lists.length; i++) {
+        for (int distance : lists[i].distances) {
+          bucketStart[distance + offsets[i] + 1]++;
+        }
+      }
+      for (int i = 0; i <= maxDistance; i++) {
+        bucketStart[i + 1] += bucketStart[i];
+      }
+      int[] sorted = new int[total];
+      for (int i = 0; i < lists.length; i++) {
+        Reachable list = lists[i];
+        for (int j = 0; j < list.ids.length; j++) {
+          sorted[bucketStart[list.distances[j] + offsets[i]]++] = list.ids[j];
+        }
+      }
+      // bucketStart[d] is now the end of bucket d
+      int[] ids = new int[total];
+      int[] distances = new int[total];
+      int count = 0;
+      int distance = 0;
+      for (int i = 0; i < total; i++) {
+        while (i >= bucketStart[distance]) {
+          distance++;
+        }
+        if (seen.add(sorted[i])) {
+          ids[count] = sorted[i];
+          distances[count++] = distance;
+        }
+      }
+      return count == total
+          ? new Reachable(ids, distances)
+          : new Reachable(Arrays.copyOf(ids, count), Arrays.copyOf(distances, count));
     }
-    return result;
   }
 }
@@ -22,16 +22,19 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.Futures;
 import com.google.idea.blaze.base.dependencies.TargetInfo;
 import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
-import com.google.idea.blaze.base.ideinfo.TargetMap;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.model.primitives.Kind;
 import com.google.idea.blaze.base.model.primitives.RuleType;
 import com.google.idea.blaze.base.qsync.QuerySync;
 import com.google.idea.blaze.base.qsync.QuerySyncProjectData;
 import com.google.idea.blaze.base.run.SourceToTargetFinder;
+import com.google.idea.blaze.base.scope.BlazeContext;
 import com.google.idea.blaze.base.sync.SyncCache;
+import com.google.idea.blaze.base.sync.SyncListener;
+import com.google.idea.blaze.base.sync.SyncMode;
+import com.google.idea.blaze.base.sync.SyncResult;
 import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
-import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.project.Project;
 import java.io.File;
 import java.util.Collection;
@@ -39,6 +42,7 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.Future;
+import javax.annotation.Nullable;
 
 /**
  * Used to locate tests from source files for things like right-clicks.
@@ -76,27 +80,59 @@ public class ProjectSourceToTargetFinder implements SourceToTargetFinder {
               .collect(toImmutableSet());
       return Futures.immediateFuture(targets);
     }
-    FilteredTargetMap targetMap =
-        SyncCache.getInstance(project)
-            .get(ProjectSourceToTargetFinder.class, ProjectSourceToTargetFinder::computeTargetMap);
+    FilteredTargetMap targetMap = getTargetMap(project, ruleType);
     if (targetMap == null) {
       return Futures.immediateFuture(ImmutableList.of());
     }
     ImmutableSet<TargetInfo> targets =
         targetMap.targetsForSourceFiles(sourceFiles).stream()
             .map(TargetIdeInfo::toTargetInfo)
-            .filter(target -> !ruleType.isPresent() || target.getRuleType().equals(ruleType.get()))
             .collect(toImmutableSet());
     return Futures.immediateFuture(targets);
   }
 
-  private static FilteredTargetMap computeTargetMap(Project project, BlazeProjectData projectData) {
-    return computeTargetMap(
-        project, projectData.getArtifactLocationDecoder(), projectData.getTargetMap());
+  /**
+   * Returns a map filtered to the given rule type, so that the index only holds the targets we
+   * look up.
+   */
+  @Nullable
+  private static FilteredTargetMap getTargetMap(Project project, Optional<RuleType> ruleType) {
+    return SyncCache.getInstance(project)
+        .get(
+            ImmutableList.of(ProjectSourceToTargetFinder.class, ruleType),
+            (p, projectData) -> computeTargetMap(projectData, ruleType));
   }
 
   private static FilteredTargetMap computeTargetMap(
-      Project project, ArtifactLocationDecoder decoder, TargetMap targetMap) {
-    return new FilteredTargetMap(project, decoder, targetMap, t -> true);
+      BlazeProjectData projectData, Optional<RuleType> ruleType) {
+    return new FilteredTargetMap(
+        projectData.getArtifactLocationDecoder(),
+        projectData.getTargetMap(),
+        t -> ruleType.isEmpty() || t.toTargetInfo().getRuleType().equals(ruleType.get()));
+  }
+
+  /**
+   * Builds the test target map in the background once sync completes, rather than on the first
+   * lookup (typically from a gutter icon or run configuration producer, inside a read action).
+   */
+  static class PrecomputeTargetMap implements SyncListener {
+    @Override
+    public void afterSync(
+        Project project,
+        BlazeContext context,
+        SyncMode syncMode,
+        SyncResult syncResult,
+        ImmutableSet<Integer> buildIds) {
+      if (!syncResult.successful() || QuerySync.isEnabled()) {
+        return;
+      }
+      ApplicationManager.getApplication()
+          .executeOnPooledThread(
+              () -> {
+                if (!project.isDisposed()) {
+                  getTargetMap(project, Optional.of(RuleType.TEST));
+                }
+              });
+    }
   }
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.scope.scopes;
+
+import com.google.common.util.concurrent.AtomicLongMap;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.scope.BlazeScope;
+import com.google.idea.blaze.base.scope.OutputSink.Propagation;
+import com.google.idea.blaze.common.Output;
+import java.util.Map;
+
+/** Scope used to collect the approximate in-memory size of sync data. */
+public class SyncDataSizeTrackingScope implements BlazeScope {
+
+  /**
+   * Output class used to report the size of some sync data.
+   *
+   * <p>This information is summarised in {@link #getSyncDataSizes()}.
+   */
+  public static class SyncDataSizeOutput implements Output {
+    private final String name;
+    private final long sizeBytes;
+
+    public SyncDataSizeOutput(String name, long sizeBytes) {
+      this.name = name;
+      this.sizeBytes = sizeBytes;
+    }
+  }
+
+  private final AtomicLongMap<String> syncDataSizes = AtomicLongMap.create();
+
+  @Override
+  public void onScopeBegin(BlazeContext context) {
+    context.addOutputSink(
+        SyncDataSizeOutput.class,
+        o -> {
+          syncDataSizes.put(o.name, o.sizeBytes);
+          return Propagation.Stop;
+        });
+  }
+
+  /**
+   * Returns the most recently reported size, in bytes, of each kind of sync data notified via
+   * {@link SyncDataSizeOutput}.
+   */
+  public Map<String, Long> getSyncDataSizes() {
+    return syncDataSizes.asMap();
+  }
+}
@@ -27,7 +27,6 @@ import com.google.idea.blaze.base.command.BlazeFlags;
 import com.google.idea.blaze.base.command.BlazeInvocationContext;
 import com.google.idea.blaze.base.command.info.BlazeInfo;
 import com.google.idea.blaze.base.command.info.BlazeInfoProvider;
-import com.google.idea.blaze.base.command.info.BlazeInfoRunner;
 import com.google.idea.blaze.base.io.FileOperationProvider;
 import com.google.idea.blaze.base.model.BlazeVersionData;
 import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
@@ -115,11 +114,13 @@ final class ProjectStateSyncTask {
             context,
             BlazeInvocationContext.SYNC_CONTEXT);
 
-    ListenableFuture<BlazeInfo> blazeInfoFuture =
-            createBazelInfoFuture(context, syncFlags, params.syncMode());
+    ListenableFuture<BlazeInfo> blazeInfoFuture = createBazelInfoFuture(context, syncFlags);
 
     ListenableFuture<WorkingSet> workingSetFuture;
     if(params.addWorkingSet() || params.syncMode() == SyncMode.FULL) {
+      if (params.syncMode() == SyncMode.FULL) {
+        vcsHandler.invalidateWorkingSet();
+      }
       workingSetFuture = vcsHandler.getWorkingSet(context, executor);
     } else {
       workingSetFuture = Futures.immediateFuture(null);
@@ -183,26 +184,14 @@ final class ProjectStateSyncTask {
   }
 
   private ListenableFuture<BlazeInfo> createBazelInfoFuture(
-          BlazeContext context,
-          List<String> syncFlags,
-          SyncMode syncMode) {
-    boolean useBazelInfoRunner = !BlazeInfoProvider.isEnabled() || syncMode == SyncMode.FULL;
-    if (useBazelInfoRunner) {
-      return BlazeInfoRunner.getInstance()
-              .runBlazeInfo(
-                      project,
-                      Blaze.getBuildSystemProvider(project)
-                              .getBuildSystem()
-                              .getDefaultInvoker(project,
-                                      context),
-                      context,
-                      importSettings.getBuildSystem(),
-                      syncFlags);
-    }
+      BlazeContext context, List<String> syncFlags) {
     return BlazeInfoProvider.getInstance(project)
-            .getBlazeInfo(
-                    context,
-                    syncFlags);
+        .getBlazeInfo(
+            Blaze.getBuildSystemProvider(project)
+                .getBuildSystem()
+                .getDefaultInvoker(project, context),
+            context,
+            syncFlags);
   }
 
   private static class WorkspacePathResolverAndProjectView {
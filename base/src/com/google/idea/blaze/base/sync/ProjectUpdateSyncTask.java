@@ -54,6 +54,7 @@ import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
 import com.google.idea.blaze.base.sync.libraries.BlazeLibraryCollector;
 import com.google.idea.blaze.base.sync.libraries.LibraryEditor;
 import com.google.idea.blaze.base.sync.projectstructure.ContentEntryEditor;
+import com.google.idea.blaze.base.sync.projectstructure.ContentEntryLayout;
 import com.google.idea.blaze.base.sync.projectstructure.DirectoryStructure;
 import com.google.idea.blaze.base.sync.projectstructure.ModuleEditorImpl;
 import com.google.idea.blaze.base.sync.projectstructure.ModuleEditorProvider;
@@ -236,11 +237,14 @@ final class ProjectUpdateSyncTask {
     ListenableFuture<PrefetchStats> prefetch =
         PrefetchService.getInstance()
             .prefetchProjectFiles(project, projectState.getProjectViewSet(), newProjectData);
+    context.addCancellationHandler(() -> prefetch.cancel(false));
+    // the prefetch is cancelled if this sync is, or if a later sync supersedes it
     FutureResult<PrefetchStats> result =
         FutureUtil.waitForFuture(context, prefetch)
             .withProgressMessage("Prefetching files...")
             .timed("PrefetchFiles", EventType.Prefetching)
             .onError("Prefetch failed")
+            .allowCancellation()
             .run();
     if (result.success()) {
       long prefetched = result.result().bytesPrefetched();
@@ -265,13 +269,16 @@ final class ProjectUpdateSyncTask {
     if (directoryStructure == null) {
       throw new SyncFailedException();
     }
+    ContentEntryLayout contentEntryLayout =
+        ContentEntryLayout.create(
+            project, workspaceRoot, projectState.getProjectViewSet(), directoryStructure);
 
     boolean success =
         updateProject(
             context,
             projectState.getProjectViewSet(),
             projectState.getBlazeVersionData(),
-            directoryStructure,
+            contentEntryLayout,
             oldProjectData,
             newProjectData);
     if (!success) {
@@ -311,7 +318,7 @@ final class ProjectUpdateSyncTask {
       BlazeContext parentContext,
       ProjectViewSet projectViewSet,
       BlazeVersionData blazeVersionData,
-      DirectoryStructure directoryStructure,
+      ContentEntryLayout contentEntryLayout,
       @Nullable BlazeProjectData oldBlazeProjectData,
       BlazeProjectData newBlazeProjectData) {
     return Scope.push(
@@ -333,7 +340,7 @@ final class ProjectUpdateSyncTask {
                                   importSettings,
                                   projectViewSet,
                                   blazeVersionData,
-                                  directoryStructure,
+                                  contentEntryLayout,
                                   newBlazeProjectData,
                                   oldBlazeProjectData);
                             }));
@@ -357,7 +364,7 @@ final class ProjectUpdateSyncTask {
       BlazeImportSettings importSettings,
       ProjectViewSet projectViewSet,
       BlazeVersionData blazeVersionData,
-      DirectoryStructure directoryStructure,
+      ContentEntryLayout contentEntryLayout,
       BlazeProjectData newBlazeProjectData,
       @Nullable BlazeProjectData oldBlazeProjectData) {
 
@@ -387,12 +394,7 @@ final class ProjectUpdateSyncTask {
     ModifiableRootModel workspaceModifiableModel = moduleEditor.editModule(workspaceModule);
 
     ContentEntryEditor.createContentEntries(
-        project,
-        workspaceRoot,
-        projectViewSet,
-        newBlazeProjectData,
-        directoryStructure,
-        workspaceModifiableModel);
+        workspaceRoot, newBlazeProjectData, contentEntryLayout, workspaceModifiableModel);
 
     List<BlazeLibrary> libraries =
         BlazeLibraryCollector.getLibraries(projectViewSet, newBlazeProjectData);
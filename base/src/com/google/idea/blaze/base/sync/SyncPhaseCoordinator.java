@@ -39,6 +39,7 @@ import com.google.idea.blaze.base.model.AspectSyncProjectData;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.model.ProjectTargetData;
 import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.google.idea.blaze.base.prefetch.FetchExecutor;
 import com.google.idea.blaze.base.projectview.ProjectViewManager;
 import com.google.idea.blaze.base.projectview.ProjectViewSet;
 import com.google.idea.blaze.base.projectview.section.sections.ImportSection;
@@ -56,6 +57,7 @@ import com.google.idea.blaze.base.scope.scopes.PerformanceWarningScope;
 import com.google.idea.blaze.base.scope.scopes.ProblemsViewScope;
 import com.google.idea.blaze.base.scope.scopes.ProgressIndicatorScope;
 import com.google.idea.blaze.base.scope.scopes.SharedStringPoolScope;
+import com.google.idea.blaze.base.scope.scopes.SyncDataSizeTrackingScope;
 import com.google.idea.blaze.base.scope.scopes.TimingScope;
 import com.google.idea.blaze.base.scope.scopes.TimingScope.EventType;
 import com.google.idea.blaze.base.scope.scopes.TimingScopeListener.TimedEvent;
@@ -643,6 +645,13 @@ final class SyncPhaseCoordinator {
       if (networkTraffic != null) {
         stats.addNetworkUsage(networkTraffic.getNetworkUsage());
       }
+      SyncDataSizeTrackingScope syncDataSizes = context.getScope(SyncDataSizeTrackingScope.class);
+      if (syncDataSizes != null) {
+        stats.addSyncDataSizes(syncDataSizes.getSyncDataSizes());
+      }
+      for (FetchExecutor.Priority priority : FetchExecutor.Priority.values()) {
+        stats.addFetchQueueStats(FetchExecutor.getStats(priority));
+      }
       stats
           .setSyncMode(syncParams.syncMode())
           .setSyncTitle(syncParams.title())
@@ -678,6 +687,7 @@ final class SyncPhaseCoordinator {
     }
     context.push(new ProgressIndicatorScope(indicator));
     context.push(new NetworkTrafficTrackingScope());
+    context.push(new SyncDataSizeTrackingScope());
     context.push(new SharedStringPoolScope());
 
     BlazeUserSettings userSettings = BlazeUserSettings.getInstance();
@@ -15,155 +15,115 @@
  */
 package com.google.idea.blaze.base.sync.projectstructure;
 
-import com.google.common.collect.ArrayListMultimap;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Multimap;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.model.primitives.WorkspacePath;
 import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
-import com.google.idea.blaze.base.projectview.ProjectViewSet;
-import com.google.idea.blaze.base.settings.Blaze;
 import com.google.idea.blaze.base.sync.SourceFolderProvider;
-import com.google.idea.blaze.base.sync.data.BlazeDataStorage;
-import com.google.idea.blaze.base.sync.projectview.ImportRoots;
-import com.google.idea.blaze.base.sync.projectview.SourceTestConfig;
-import com.google.idea.blaze.base.sync.projectview.WorkspaceFileFinder;
 import com.google.idea.blaze.base.util.UrlUtil;
-import com.intellij.openapi.project.Project;
 import com.intellij.openapi.roots.ContentEntry;
 import com.intellij.openapi.roots.ModifiableRootModel;
 import com.intellij.openapi.roots.SourceFolder;
 import java.io.File;
-import java.io.FilenameFilter;
-import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeSet;
 import javax.annotation.Nullable;
 
 /** Modifies content entries based on project data. */
 public class ContentEntryEditor {
 
   public static void createContentEntries(
-      Project project,
       WorkspaceRoot workspaceRoot,
-      ProjectViewSet projectViewSet,
       BlazeProjectData blazeProjectData,
-      DirectoryStructure rootDirectoryStructure,
+      ContentEntryLayout layout,
       ModifiableRootModel modifiableRootModel) {
-    ImportRoots importRoots =
-        ImportRoots.builder(workspaceRoot, Blaze.getBuildSystemName(project))
-            .add(projectViewSet)
-            .build();
-    Collection<WorkspacePath> rootDirectories = importRoots.rootDirectories();
-    Collection<WorkspacePath> excludeDirectories = importRoots.excludeDirectories();
-    Multimap<WorkspacePath, WorkspacePath> excludesByRootDirectory =
-        sortExcludesByRootDirectory(rootDirectories, excludeDirectories);
-
-    SourceTestConfig testConfig = new SourceTestConfig(projectViewSet);
     SourceFolderProvider provider = SourceFolderProvider.getSourceFolderProvider(blazeProjectData);
-    WorkspaceFileFinder finder = WorkspaceFileFinder.Provider.getInstance(project).getWorkspaceFileFinder();
 
-    for (WorkspacePath rootDirectory : rootDirectories) {
-      File rootFile = workspaceRoot.fileForPath(rootDirectory);
+    for (ContentEntryLayout.Entry entry : layout.entries) {
+      File rootFile = workspaceRoot.fileForPath(entry.rootDirectory);
       ContentEntry contentEntry =
           modifiableRootModel.addContentEntry(UrlUtil.pathToUrl(rootFile.getPath()));
 
-      for (WorkspacePath exclude : excludesByRootDirectory.get(rootDirectory)) {
-        File excludeFolder = workspaceRoot.fileForPath(exclude);
+      for (File excludeFolder : entry.excludeFolders) {
         contentEntry.addExcludeFolder(UrlUtil.fileToIdeaUrl(excludeFolder));
       }
 
-      File directory = new File(workspaceRoot.toString());
-      File[] files = directory
-              .listFiles((dir, name) ->
-                      finder != null && finder.isInProject(dir) && BlazeDataStorage.ALL_PROJECT_SUBDIRECTORIES.containsValue(name));
-      if (files != null) {
-        for (File file : files) {
-          contentEntry.addExcludeFolder(UrlUtil.fileToIdeaUrl(file));
-        }
-      }
-
       ImmutableMap<File, SourceFolder> sourceFolders =
           provider.initializeSourceFolders(contentEntry);
-      SourceFolder rootSource = sourceFolders.get(rootFile);
-      walkFileSystem(
-          workspaceRoot,
-          testConfig,
-          excludesByRootDirectory.get(rootDirectory),
-          contentEntry,
-          provider,
-          sourceFolders,
-          rootSource,
-          rootDirectory,
-          rootDirectoryStructure.directories.get(rootDirectory));
+      updateSourceFolders(workspaceRoot, entry, contentEntry, provider, sourceFolders);
     }
   }
 
-  private static void walkFileSystem(
+  /**
+   * Updates the source folders of a content entry to match the test classification of each
+   * directory.
+   *
+   * <p>The source folder in effect can only change at a directory whose test classification
+   * differs from its parent's, or at one of the initial source folders, so only those directories
+   * are visited, parents first.
+   */
+  @VisibleForTesting
+  static void updateSourceFolders(
       WorkspaceRoot workspaceRoot,
-      SourceTestConfig testConfig,
-      Collection<WorkspacePath> excludedDirectories,
+      ContentEntryLayout.Entry entry,
       ContentEntry contentEntry,
       SourceFolderProvider provider,
-      ImmutableMap<File, SourceFolder> sourceFolders,
-      @Nullable SourceFolder parent,
-      WorkspacePath workspacePath,
-      DirectoryStructure directoryStructure) {
-    if (excludedDirectories.contains(workspacePath)) {
+      ImmutableMap<File, SourceFolder> sourceFolders) {
+    WorkspacePath rootDirectory = entry.rootDirectory;
+    if (!entry.contains(rootDirectory)) {
       return;
     }
-    File file = workspaceRoot.fileForPath(workspacePath);
-    boolean isTest = testConfig.isTestSource(workspacePath.relativePath());
-    SourceFolder current = sourceFolders.get(new File(file.getPath()));
-    SourceFolder next;
-    if (current == null) {
-      if (parent != null && isTest != parent.isTestSource()) {
-        next = provider.setSourceFolderForLocation(contentEntry, parent, file, isTest);
-      } else {
-        next = parent;
-      }
-    } else {
-      if (isTest == current.isTestSource()) {
-        next = current;
-      } else {
-        next = provider.setSourceFolderForLocation(contentEntry, current, file, isTest);
-        contentEntry.removeSourceFolder(current);
+    // a parent's relative path is a prefix of its children's, so sorts before them
+    TreeSet<WorkspacePath> directories =
+        new TreeSet<>(Comparator.comparing(WorkspacePath::relativePath));
+    directories.addAll(entry.testClassificationChanges.keySet());
+    for (File sourceFolderFile : sourceFolders.keySet()) {
+      WorkspacePath workspacePath = workspaceRoot.workspacePathForSafe(sourceFolderFile);
+      if (workspacePath != null && entry.contains(workspacePath)) {
+        directories.add(workspacePath);
       }
     }
-    for (Map.Entry<WorkspacePath, DirectoryStructure> child :
-        directoryStructure.directories.entrySet()) {
-      walkFileSystem(
-          workspaceRoot,
-          testConfig,
-          excludedDirectories,
-          contentEntry,
-          provider,
-          sourceFolders,
-          next,
-          child.getKey(),
-          child.getValue());
-    }
-  }
-
-  private static Multimap<WorkspacePath, WorkspacePath> sortExcludesByRootDirectory(
-      Collection<WorkspacePath> rootDirectories, Collection<WorkspacePath> excludedDirectories) {
 
-    Multimap<WorkspacePath, WorkspacePath> result = ArrayListMultimap.create();
-    for (WorkspacePath exclude : excludedDirectories) {
-      rootDirectories.stream()
-          .filter(rootDirectory -> isUnderRootDirectory(rootDirectory, exclude.relativePath()))
-          .findFirst()
-          .ifPresent(foundWorkspacePath -> result.put(foundWorkspacePath, exclude));
+    Map<WorkspacePath, SourceFolder> effectiveSourceFolders = new HashMap<>();
+    for (WorkspacePath workspacePath : directories) {
+      SourceFolder parent =
+          workspacePath.equals(rootDirectory)
+              ? sourceFolders.get(workspaceRoot.fileForPath(rootDirectory))
+              : findEffectiveSourceFolder(effectiveSourceFolders, workspacePath.getParent());
+      File file = workspaceRoot.fileForPath(workspacePath);
+      boolean isTest = entry.isTestSource(workspacePath);
+      SourceFolder current = sourceFolders.get(file);
+      SourceFolder next;
+      if (current == null) {
+        if (parent != null && isTest != parent.isTestSource()) {
+          next = provider.setSourceFolderForLocation(contentEntry, parent, file, isTest);
+        } else {
+          next = parent;
+        }
+      } else {
+        if (isTest == current.isTestSource()) {
+          next = current;
+        } else {
+          next = provider.setSourceFolderForLocation(contentEntry, current, file, isTest);
+          contentEntry.removeSourceFolder(current);
+        }
+      }
+      effectiveSourceFolders.put(workspacePath, next);
     }
-    return result;
   }
 
-  private static boolean isUnderRootDirectory(WorkspacePath rootDirectory, String relativePath) {
-    if (rootDirectory.isWorkspaceRoot()) {
-      return true;
+  /** Returns the source folder in effect at the nearest visited directory at or above this one. */
+  @Nullable
+  private static SourceFolder findEffectiveSourceFolder(
+      Map<WorkspacePath, SourceFolder> effectiveSourceFolders, WorkspacePath directory) {
+    for (WorkspacePath dir = directory; dir != null; dir = dir.getParent()) {
+      if (effectiveSourceFolders.containsKey(dir)) {
+        return effectiveSourceFolders.get(dir);
+      }
     }
-    String rootDirectoryString = rootDirectory.toString();
-    return relativePath.startsWith(rootDirectoryString)
-        && (relativePath.length() == rootDirectoryString.length()
-            || (relativePath.charAt(rootDirectoryString.length()) == '/'));
+    return null;
   }
 }
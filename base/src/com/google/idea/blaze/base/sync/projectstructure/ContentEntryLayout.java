@@ -0,0 +1,234 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.projectstructure;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.google.idea.blaze.base.projectview.ProjectViewSet;
+import com.google.idea.blaze.base.settings.Blaze;
+import com.google.idea.blaze.base.sync.data.BlazeDataStorage;
+import com.google.idea.blaze.base.sync.projectview.ImportRoots;
+import com.google.idea.blaze.base.sync.projectview.SourceTestConfig;
+import com.google.idea.blaze.base.sync.projectview.SourceTestConfig.Classification;
+import com.google.idea.blaze.base.sync.projectview.WorkspaceFileFinder;
+import com.intellij.openapi.project.Project;
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * The content entries of the workspace module, as applied by {@link ContentEntryEditor}.
+ *
+ * <p>This is calculated from the {@link DirectoryStructure} before the project structure commit
+ * step, so that matching directories against the test source globs doesn't happen while the UI is
+ * locked. Only the directories at which the test classification changes are stored.
+ */
+public final class ContentEntryLayout {
+
+  final ImmutableList<Entry> entries;
+
+  private ContentEntryLayout(ImmutableList<Entry> entries) {
+    this.entries = entries;
+  }
+
+  /** The layout of a single content entry, rooted at one of the project's root directories. */
+  static final class Entry {
+    final WorkspacePath rootDirectory;
+    final ImmutableList<File> excludeFolders;
+    private final ImmutableSet<WorkspacePath> excludedDirectories;
+    @Nullable private final DirectoryStructure directoryStructure;
+
+    /**
+     * The root directory's test classification, along with each directory whose classification
+     * differs from its parent's. Empty if the root directory is itself excluded.
+     */
+    final ImmutableMap<WorkspacePath, Boolean> testClassificationChanges;
+
+    Entry(
+        WorkspacePath rootDirectory,
+        ImmutableList<File> excludeFolders,
+        ImmutableSet<WorkspacePath> excludedDirectories,
+        @Nullable DirectoryStructure directoryStructure,
+        ImmutableMap<WorkspacePath, Boolean> testClassificationChanges) {
+      this.rootDirectory = rootDirectory;
+      this.excludeFolders = excludeFolders;
+      this.excludedDirectories = excludedDirectories;
+      this.directoryStructure = directoryStructure;
+      this.testClassificationChanges = testClassificationChanges;
+    }
+
+    /**
+     * Returns true if the given directory is part of this entry's directory structure, and neither
+     * it nor any of its parents is excluded.
+     */
+    boolean contains(WorkspacePath directory) {
+      if (testClassificationChanges.isEmpty()) {
+        return false;
+      }
+      List<WorkspacePath> path = Lists.newArrayList();
+      for (WorkspacePath dir = directory; !dir.equals(rootDirectory); dir = dir.getParent()) {
+        if (dir.isWorkspaceRoot()) {
+          return false;
+        }
+        path.add(dir);
+      }
+      DirectoryStructure structure = directoryStructure;
+      for (WorkspacePath dir : Lists.reverse(path)) {
+        if (structure == null || excludedDirectories.contains(dir)) {
+          return false;
+        }
+        structure = structure.directories.get(dir);
+      }
+      return structure != null || path.isEmpty();
+    }
+
+    /** Returns the test classification of a directory within this entry. */
+    boolean isTestSource(WorkspacePath directory) {
+      for (WorkspacePath dir = directory; dir != null; dir = dir.getParent()) {
+        Boolean isTest = testClassificationChanges.get(dir);
+        if (isTest != null) {
+          return isTest;
+        }
+      }
+      throw new IllegalArgumentException(
+          String.format("%s is not under root directory %s", directory, rootDirectory));
+    }
+  }
+
+  public static ContentEntryLayout create(
+      Project project,
+      WorkspaceRoot workspaceRoot,
+      ProjectViewSet projectViewSet,
+      DirectoryStructure rootDirectoryStructure) {
+    ImportRoots importRoots =
+        ImportRoots.builder(workspaceRoot, Blaze.getBuildSystemName(project))
+            .add(projectViewSet)
+            .build();
+    WorkspaceFileFinder finder =
+        WorkspaceFileFinder.Provider.getInstance(project).getWorkspaceFileFinder();
+    File directory = new File(workspaceRoot.toString());
+    File[] projectDataDirectories =
+        directory.listFiles(
+            (dir, name) ->
+                finder != null
+                    && finder.isInProject(dir)
+                    && BlazeDataStorage.ALL_PROJECT_SUBDIRECTORIES.containsValue(name));
+    return create(
+        workspaceRoot,
+        importRoots.rootDirectories(),
+        importRoots.excludeDirectories(),
+        projectDataDirectories != null
+            ? ImmutableList.copyOf(projectDataDirectories)
+            : ImmutableList.of(),
+        new SourceTestConfig(projectViewSet),
+        rootDirectoryStructure);
+  }
+
+  @VisibleForTesting
+  static ContentEntryLayout create(
+      WorkspaceRoot workspaceRoot,
+      Collection<WorkspacePath> rootDirectories,
+      Collection<WorkspacePath> excludeDirectories,
+      ImmutableList<File> projectDataDirectories,
+      SourceTestConfig testConfig,
+      DirectoryStructure rootDirectoryStructure) {
+    Multimap<WorkspacePath, WorkspacePath> excludesByRootDirectory =
+        sortExcludesByRootDirectory(rootDirectories, excludeDirectories);
+    ImmutableList.Builder<Entry> entries = ImmutableList.builder();
+    for (WorkspacePath rootDirectory : rootDirectories) {
+      ImmutableSet<WorkspacePath> excludes =
+          ImmutableSet.copyOf(excludesByRootDirectory.get(rootDirectory));
+      ImmutableList<File> excludeFolders =
+          ImmutableList.<File>builder()
+              .addAll(excludes.stream().map(workspaceRoot::fileForPath).iterator())
+              .addAll(projectDataDirectories)
+              .build();
+      DirectoryStructure directoryStructure =
+          rootDirectoryStructure.directories.get(rootDirectory);
+      ImmutableMap.Builder<WorkspacePath, Boolean> changes = ImmutableMap.builder();
+      classifyDirectories(testConfig, excludes, rootDirectory, directoryStructure, null, changes);
+      entries.add(
+          new Entry(
+              rootDirectory, excludeFolders, excludes, directoryStructure, changes.build()));
+    }
+    return new ContentEntryLayout(entries.build());
+  }
+
+  /**
+   * Records the test classification of each directory which differs from its parent's. Subtrees
+   * whose classification can no longer change aren't visited.
+   */
+  private static void classifyDirectories(
+      SourceTestConfig testConfig,
+      ImmutableSet<WorkspacePath> excludedDirectories,
+      WorkspacePath workspacePath,
+      @Nullable DirectoryStructure directoryStructure,
+      @Nullable Boolean parentIsTest,
+      ImmutableMap.Builder<WorkspacePath, Boolean> changes) {
+    if (excludedDirectories.contains(workspacePath)) {
+      return;
+    }
+    Classification classification = testConfig.classifyDirectory(workspacePath.relativePath());
+    if (parentIsTest == null || parentIsTest != classification.isTest()) {
+      changes.put(workspacePath, classification.isTest());
+    }
+    if (classification.appliesToSubtree() || directoryStructure == null) {
+      return;
+    }
+    for (Map.Entry<WorkspacePath, DirectoryStructure> child :
+        directoryStructure.directories.entrySet()) {
+      classifyDirectories(
+          testConfig,
+          excludedDirectories,
+          child.getKey(),
+          child.getValue(),
+          classification.isTest(),
+          changes);
+    }
+  }
+
+  private static Multimap<WorkspacePath, WorkspacePath> sortExcludesByRootDirectory(
+      Collection<WorkspacePath> rootDirectories, Collection<WorkspacePath> excludedDirectories) {
+
+    Multimap<WorkspacePath, WorkspacePath> result = ArrayListMultimap.create();
+    for (WorkspacePath exclude : excludedDirectories) {
+      rootDirectories.stream()
+          .filter(rootDirectory -> isUnderRootDirectory(rootDirectory, exclude.relativePath()))
+          .findFirst()
+          .ifPresent(foundWorkspacePath -> result.put(foundWorkspacePath, exclude));
+    }
+    return result;
+  }
+
+  private static boolean isUnderRootDirectory(WorkspacePath rootDirectory, String relativePath) {
+    if (rootDirectory.isWorkspaceRoot()) {
+      return true;
+    }
+    String rootDirectoryString = rootDirectory.toString();
+    return relativePath.startsWith(rootDirectoryString)
+        && (relativePath.length() == rootDirectoryString.length()
+            || (relativePath.charAt(rootDirectoryString.length()) == '/'));
+  }
+}
@@ -15,6 +15,7 @@
  */
 package com.google.idea.blaze.base.sync.projectstructure;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMap.Builder;
@@ -48,7 +49,8 @@ public class DirectoryStructure {
 
   final ImmutableMap<WorkspacePath, DirectoryStructure> directories;
 
-  private DirectoryStructure(ImmutableMap<WorkspacePath, DirectoryStructure> directories) {
+  @VisibleForTesting
+  DirectoryStructure(ImmutableMap<WorkspacePath, DirectoryStructure> directories) {
     this.directories = directories;
   }
 
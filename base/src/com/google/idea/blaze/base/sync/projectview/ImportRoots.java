@@ -39,7 +39,7 @@ import com.google.idea.blaze.base.sync.data.BlazeDataStorage;
 import com.google.idea.blaze.base.util.WorkspacePathUtil;
 import com.google.idea.common.experiments.BoolExperiment;
 import com.intellij.openapi.project.Project;
-import java.nio.file.FileSystems;
+import com.intellij.openapi.util.Key;
 import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Set;
@@ -51,7 +51,15 @@ public final class ImportRoots {
   private final BoolExperiment treatProjectTargetsAsSource =
       new BoolExperiment("blaze.treat.project.targets.as.source", true);
 
-  /** Returns the ImportRoots for the project, or null if it's not a blaze project. */
+  private static final Key<CachedImportRoots> CACHED_IMPORT_ROOTS =
+      Key.create("blaze.import.roots");
+
+  /**
+   * Returns the ImportRoots for the project, or null if it's not a blaze project.
+   *
+   * <p>The result is shared by all callers until the project view is next reloaded (i.e. once per
+   * sync), so the project view is only compiled once.
+   */
   @Nullable
   public static ImportRoots forProjectSafe(Project project) {
     WorkspaceRoot root = WorkspaceRoot.fromProjectSafe(project);
@@ -59,7 +67,46 @@ public final class ImportRoots {
     if (root == null || projectViewSet == null) {
       return null;
     }
-    return ImportRoots.builder(root, Blaze.getBuildSystemName(project)).add(projectViewSet).build();
+    BuildSystemName buildSystemName = Blaze.getBuildSystemName(project);
+    CachedImportRoots cached = project.getUserData(CACHED_IMPORT_ROOTS);
+    if (cached != null && cached.isFor(projectViewSet, root, buildSystemName)) {
+      return cached.importRoots;
+    }
+    ImportRoots importRoots =
+        ImportRoots.builder(root, buildSystemName).add(projectViewSet).build();
+    project.putUserData(
+        CACHED_IMPORT_ROOTS,
+        new CachedImportRoots(projectViewSet, root, buildSystemName, importRoots));
+    return importRoots;
+  }
+
+  /** The import roots derived from a particular {@link ProjectViewSet} instance. */
+  private static final class CachedImportRoots {
+    private final ProjectViewSet projectViewSet;
+    private final WorkspaceRoot workspaceRoot;
+    private final BuildSystemName buildSystemName;
+    private final ImportRoots importRoots;
+
+    CachedImportRoots(
+        ProjectViewSet projectViewSet,
+        WorkspaceRoot workspaceRoot,
+        BuildSystemName buildSystemName,
+        ImportRoots importRoots) {
+      this.projectViewSet = projectViewSet;
+      this.workspaceRoot = workspaceRoot;
+      this.buildSystemName = buildSystemName;
+      this.importRoots = importRoots;
+    }
+
+    boolean isFor(
+        ProjectViewSet projectViewSet,
+        WorkspaceRoot workspaceRoot,
+        BuildSystemName buildSystemName) {
+      // the project view set is replaced whenever it's reloaded, so compare by identity
+      return this.projectViewSet == projectViewSet
+          && this.workspaceRoot.equals(workspaceRoot)
+          && this.buildSystemName == buildSystemName;
+    }
   }
 
   /** Builder for import roots */
@@ -214,36 +261,61 @@ public final class ImportRoots {
     return projectDirectories.containsWorkspacePath(workspacePath);
   }
 
+  /**
+   * Answers whether a directory is included in the project. The directories are compiled into a
+   * {@link PathSegmentTrie}, so lookups take time proportional to the depth of the queried path.
+   */
   static class ProjectDirectoriesHelper {
     private final ImmutableSet<WorkspacePath> rootDirectories;
     private final ImmutableSet<WorkspacePath> excludeDirectories;
+    /** True for included directories, false for excluded ones. */
+    private final PathSegmentTrie<Boolean> directories;
 
     @VisibleForTesting
     ProjectDirectoriesHelper(
         Collection<WorkspacePath> rootDirectories, Collection<WorkspacePath> excludeDirectories) {
       this.rootDirectories = ImmutableSet.copyOf(rootDirectories);
       this.excludeDirectories = ImmutableSet.copyOf(excludeDirectories);
+      PathSegmentTrie.Builder<Boolean> directories = PathSegmentTrie.builder();
+      for (WorkspacePath rootDirectory : this.rootDirectories) {
+        directories.put(rootDirectory.relativePath(), true, Boolean::logicalAnd);
+      }
+      // exclusions win over inclusions of the same directory
+      for (WorkspacePath excludeDirectory : this.excludeDirectories) {
+        directories.put(excludeDirectory.relativePath(), false, Boolean::logicalAnd);
+      }
+      this.directories = directories.build();
     }
 
     boolean containsWorkspacePath(WorkspacePath workspacePath) {
-      boolean included = false;
-      boolean excluded = false;
-      for (WorkspacePath rootDirectory : rootDirectories) {
-        included = included || isSubdirectory(rootDirectory, workspacePath);
-      }
-      for (WorkspacePath excludeDirectory : excludeDirectories) {
-        excluded = excluded || isSubdirectory(excludeDirectory, workspacePath);
-      }
-      return included && !excluded;
+      String path = workspacePath.relativePath();
+      return containsPath(path, 0, path.length());
     }
 
-    private static boolean isSubdirectory(WorkspacePath ancestor, WorkspacePath descendant) {
-      if (ancestor.isWorkspaceRoot()) {
-        return true;
+    /**
+     * Returns true if the workspace relative directory {@code path[start, end)} is under a root
+     * directory, and not under an excluded directory.
+     */
+    boolean containsPath(String path, int start, int end) {
+      boolean included = false;
+      PathSegmentTrie.Node<Boolean> node = directories.root();
+      while (true) {
+        if (node.value != null) {
+          if (!node.value) {
+            return false;
+          }
+          included = true;
+        }
+        if (start >= end) {
+          return included;
+        }
+        int segmentEnd = PathSegmentTrie.segmentEnd(path, start, end);
+        node = node.child(path, start, segmentEnd);
+        if (node == null) {
+          return included;
+        }
+        start = segmentEnd + 1;
       }
-      Path ancestorPath = FileSystems.getDefault().getPath(ancestor.relativePath());
-      Path descendantPath = FileSystems.getDefault().getPath(descendant.relativePath());
-      return descendantPath.startsWith(ancestorPath);
     }
   }
 }
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.projectview;
+
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BinaryOperator;
+import javax.annotation.Nullable;
+
+/**
+ * An immutable trie of workspace relative paths, keyed by path segment.
+ *
+ * <p>Children are looked up by comparing a region of the queried path in place, so walking a path
+ * from the root takes time proportional to its depth and doesn't allocate.
+ */
+final class PathSegmentTrie<T> {
+
+  /** A node in the trie, corresponding to a single directory. */
+  static final class Node<T> {
+    /** The value stored at this path, or null if it's only an ancestor of stored paths. */
+    @Nullable final T value;
+    /** Child path segments, sorted in {@link String} order. */
+    private final String[] segments;
+
+    private final Node<T>[] children;
+
+    private Node(@Nullable T value, String[] segments, Node<T>[] children) {
+      this.value = value;
+      this.segments = segments;
+      this.children = children;
+    }
+
+    /** Returns the child for the path segment {@code path[start, end)}, or null if none exists. */
+    @Nullable
+    Node<T> child(String path, int start, int end) {
+      int low = 0;
+      int high = segments.length - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int cmp = compare(segments[mid], path, start, end);
+        if (cmp < 0) {
+          low = mid + 1;
+        } else if (cmp > 0) {
+          high = mid - 1;
+        } else {
+          return children[mid];
+        }
+      }
+      return null;
+    }
+  }
+
+  private final Node<T> root;
+
+  private PathSegmentTrie(Node<T> root) {
+    this.root = root;
+  }
+
+  /** The node for the workspace root. */
+  Node<T> root() {
+    return root;
+  }
+
+  /**
+   * Returns the end of the path segment starting at {@code start}, i.e. the index of the next
+   * {@code '/'} before {@code end}, or {@code end} if there is none.
+   */
+  static int segmentEnd(String path, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (path.charAt(i) == '/') {
+        return i;
+      }
+    }
+    return end;
+  }
+
+  /** Compares a segment to {@code path[start, end)}, consistently with {@link String#compareTo}. */
+  private static int compare(String segment, String path, int start, int end) {
+    int length = end - start;
+    int limit = Math.min(segment.length(), length);
+    for (int i = 0; i < limit; i++) {
+      char a = segment.charAt(i);
+      char b = path.charAt(start + i);
+      if (a != b) {
+        return a - b;
+      }
+    }
+    return segment.length() - length;
+  }
+
+  static <T> Builder<T> builder() {
+    return new Builder<>();
+  }
+
+  /** Builder for {@link PathSegmentTrie}. */
+  static final class Builder<T> {
+    private final MutableNode<T> root = new MutableNode<>();
+
+    /**
+     * Stores a value for the given workspace relative path, merging it with any value already
+     * stored there.
+     */
+    @CanIgnoreReturnValue
+    Builder<T> put(String relativePath, T value, BinaryOperator<T> merge) {
+      MutableNode<T> node = root;
+      int start = 0;
+      int length = relativePath.length();
+      while (start < length) {
+        int end = segmentEnd(relativePath, start, length);
+        node =
+            node.children.computeIfAbsent(
+                relativePath.substring(start, end), k -> new MutableNode<>());
+        start = end + 1;
+      }
+      node.value = node.value == null ? value : merge.apply(node.value, value);
+      return this;
+    }
+
+    PathSegmentTrie<T> build() {
+      return new PathSegmentTrie<>(root.freeze());
+    }
+  }
+
+  private static final class MutableNode<T> {
+    @Nullable T value;
+    // TreeMap iterates in String order, as required by Node#child
+    final TreeMap<String, MutableNode<T>> children = new TreeMap<>();
+
+    Node<T> freeze() {
+      String[] segments = new String[children.size()];
+      @SuppressWarnings("unchecked")
+      Node<T>[] frozen = (Node<T>[]) new Node<?>[children.size()];
+      int i = 0;
+      for (Map.Entry<String, MutableNode<T>> entry : children.entrySet()) {
+        segments[i] = entry.getKey();
+        frozen[i] = entry.getValue().freeze();
+        i++;
+      }
+      return new Node<>(value, segments, frozen);
+    }
+  }
+}
@@ -16,25 +16,80 @@
 package com.google.idea.blaze.base.sync.projectview;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.idea.blaze.base.projectview.ProjectViewSet;
 import com.google.idea.blaze.base.projectview.section.Glob;
 import com.google.idea.blaze.base.projectview.section.sections.TestSourceSection;
 import com.intellij.openapi.util.text.StringUtil;
 import java.io.File;
-import java.util.stream.Collectors;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.function.BiPredicate;
 
 /** Affects the way sources are imported. */
 public class SourceTestConfig {
-  private final Glob.GlobSet testSources;
+
+  /** The test classification of a directory, and whether it also holds for all its children. */
+  public enum Classification {
+    /** A test source, as is everything below it. */
+    TEST_SUBTREE(true, true),
+    /** A test source, though directories below it may not be. */
+    TEST(true, false),
+    /** Not a test source, though directories below it may be. */
+    NON_TEST(false, false),
+    /** Neither this nor anything below it is a test source. */
+    NON_TEST_SUBTREE(false, true);
+
+    private final boolean isTest;
+    private final boolean appliesToSubtree;
+
+    Classification(boolean isTest, boolean appliesToSubtree) {
+      this.isTest = isTest;
+      this.appliesToSubtree = appliesToSubtree;
+    }
+
+    public boolean isTest() {
+      return isTest;
+    }
+
+    /** Whether every directory below this one has the same classification. */
+    public boolean appliesToSubtree() {
+      return appliesToSubtree;
+    }
+  }
+
+  private final ImmutableList<Glob> testSources;
+  private final BiPredicate<Glob, String> globMatcher;
+
+  /**
+   * The literal prefix of each glob (the text before its first wildcard), lower-cased so that
+   * pruning is safe regardless of the case sensitivity of the underlying matcher.
+   */
+  private final ImmutableList<String> literalPrefixes;
+
+  private final ImmutableSortedSet<String> sortedLiteralPrefixes;
+  private final ImmutableSet<Integer> literalPrefixLengths;
 
   public SourceTestConfig(ProjectViewSet projectViewSet) {
+    this(projectViewSet.listItems(TestSourceSection.KEY), Glob::matches);
+  }
+
+  @VisibleForTesting
+  public SourceTestConfig(Collection<Glob> testSources, BiPredicate<Glob, String> globMatcher) {
     this.testSources =
-        new Glob.GlobSet(
-            projectViewSet
-                .listItems(TestSourceSection.KEY)
-                .stream()
-                .map(SourceTestConfig::modifyGlob)
-                .collect(Collectors.toList()));
+        testSources.stream()
+            .map(SourceTestConfig::modifyGlob)
+            .collect(ImmutableList.toImmutableList());
+    this.globMatcher = globMatcher;
+    this.literalPrefixes =
+        this.testSources.stream()
+            .map(glob -> literalPrefix(glob.toString()))
+            .collect(ImmutableList.toImmutableList());
+    this.sortedLiteralPrefixes = ImmutableSortedSet.copyOf(literalPrefixes);
+    this.literalPrefixLengths =
+        literalPrefixes.stream().map(String::length).collect(ImmutableSet.toImmutableSet());
   }
 
   private static Glob modifyGlob(Glob glob) {
@@ -57,8 +112,69 @@ public class SourceTestConfig {
     return pattern + "*";
   }
 
+  private static String literalPrefix(String pattern) {
+    int end = 0;
+    while (end < pattern.length() && pattern.charAt(end) != '*' && pattern.charAt(end) != '?') {
+      end++;
+    }
+    return pattern.substring(0, end).toLowerCase(Locale.ROOT);
+  }
+
   /** Returns true if this artifact is a test artifact. */
   public boolean isTestSource(String relativePath) {
-    return testSources.matches(relativePath);
+    for (Glob glob : testSources) {
+      if (globMatcher.test(glob, relativePath)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Classifies a directory, noting when no directory below it can be classified differently.
+   *
+   * <p>{@link Classification#isTest()} always agrees with {@link #isTestSource}, but only globs
+   * which could match the directory are tried. Every glob ends in a wildcard, which matches any
+   * suffix of the path, so a matching directory has a matching subtree. Conversely, a directory
+   * whose path isn't compatible with the literal prefix of any glob has no matching descendants.
+   */
+  public Classification classifyDirectory(String relativePath) {
+    String lowerCasePath = relativePath.toLowerCase(Locale.ROOT);
+    if (!mayMatchAtOrBelow(lowerCasePath)) {
+      return Classification.NON_TEST_SUBTREE;
+    }
+    for (int i = 0; i < testSources.size(); i++) {
+      String prefix = literalPrefixes.get(i);
+      if (!isCompatible(prefix, lowerCasePath)) {
+        continue;
+      }
+      Glob glob = testSources.get(i);
+      if (globMatcher.test(glob, relativePath)) {
+        return glob.toString().endsWith("*") ? Classification.TEST_SUBTREE : Classification.TEST;
+      }
+    }
+    return Classification.NON_TEST;
+  }
+
+  /**
+   * Returns true if some glob's literal prefix either starts with the path, or is itself a prefix
+   * of it. Otherwise, no glob can match the path or anything below it.
+   */
+  private boolean mayMatchAtOrBelow(String lowerCasePath) {
+    String ceiling = sortedLiteralPrefixes.ceiling(lowerCasePath);
+    if (ceiling != null && ceiling.startsWith(lowerCasePath)) {
+      return true;
+    }
+    for (int length : literalPrefixLengths) {
+      if (length <= lowerCasePath.length()
+          && sortedLiteralPrefixes.contains(lowerCasePath.substring(0, length))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isCompatible(String prefix, String lowerCasePath) {
+    return prefix.startsWith(lowerCasePath) || lowerCasePath.startsWith(prefix);
   }
 }
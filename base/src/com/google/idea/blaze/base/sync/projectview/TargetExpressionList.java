@@ -18,13 +18,17 @@ package com.google.idea.blaze.base.sync.projectview;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.idea.blaze.base.model.primitives.Label;
 import com.google.idea.blaze.base.model.primitives.TargetExpression;
 import com.google.idea.blaze.base.model.primitives.WildcardTargetPattern;
 import com.google.idea.blaze.base.model.primitives.WorkspacePath;
 import com.google.idea.blaze.base.sync.projectview.ImportRoots.ProjectDirectoriesHelper;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import javax.annotation.Nullable;
 
 /**
@@ -34,6 +38,9 @@ import javax.annotation.Nullable;
  */
 public final class TargetExpressionList {
 
+  /** Index used when no target expression matches. */
+  private static final int NONE = Integer.MAX_VALUE;
+
   public static TargetExpressionList create(List<TargetExpression> targets) {
     return new TargetExpressionList(
         targets.stream().map(TargetData::new).collect(toImmutableList()), null);
@@ -54,6 +61,18 @@ public final class TargetExpressionList {
   /** Non-null if we're auto-including targets derived from the project directories. */
   @Nullable private final ProjectDirectoriesHelper directories;
 
+  /**
+   * The wildcard target patterns, keyed by base package. Each node holds the index into {@link
+   * #reversedTargets} of the first pattern covering that package.
+   */
+  private final PathSegmentTrie<PackageCoverage> packageCoverage;
+
+  /** The index into {@link #reversedTargets} of the first occurrence of each target expression. */
+  private final ImmutableMap<String, Integer> expressionIndices;
+
+  /** Packages containing an individual target which isn't excluded. */
+  private final ImmutableSet<WorkspacePath> packagesWithIncludedTargets;
+
   private TargetExpressionList(
       ImmutableList<TargetData> projectTargets, @Nullable ProjectDirectoriesHelper directories) {
     // reverse list, removing trivially-excluded targets
@@ -72,6 +91,27 @@ public final class TargetExpressionList {
     }
     this.reversedTargets = builder.build();
     this.directories = directories;
+
+    PathSegmentTrie.Builder<PackageCoverage> packageCoverage = PathSegmentTrie.builder();
+    Map<String, Integer> expressionIndices = new HashMap<>();
+    ImmutableSet.Builder<WorkspacePath> packagesWithIncludedTargets = ImmutableSet.builder();
+    for (int i = 0; i < reversedTargets.size(); i++) {
+      TargetData target = reversedTargets.get(i);
+      if (target.unexcludedExpression != null) {
+        expressionIndices.putIfAbsent(target.unexcludedExpression.toString(), i);
+      }
+      if (target.wildcardPattern != null) {
+        packageCoverage.put(
+            target.wildcardPattern.getBasePackage().relativePath(),
+            PackageCoverage.create(i, target.wildcardPattern.isRecursive()),
+            PackageCoverage::merge);
+      } else if (!target.isExcluded() && target.unexcludedExpression instanceof Label) {
+        packagesWithIncludedTargets.add(((Label) target.unexcludedExpression).blazePackage());
+      }
+    }
+    this.packageCoverage = packageCoverage.build();
+    this.expressionIndices = ImmutableMap.copyOf(expressionIndices);
+    this.packagesWithIncludedTargets = packagesWithIncludedTargets.build();
   }
 
   /** Returns the original list of targets with trivially-excluded targets removed. */
@@ -83,11 +123,11 @@ public final class TargetExpressionList {
 
   /** Returns true if the entire package is covered by the target expressions. */
   public boolean includesPackage(WorkspacePath packagePath) {
-    // the last target expression to cover this label overrides all previous expressions
-    for (TargetData target : reversedTargets) {
-      if (target.coversPackage(packagePath)) {
-        return !target.isExcluded();
-      }
+    String path = packagePath.relativePath();
+    // the last target expression to cover this package overrides all previous expressions
+    int index = firstCoveringPattern(path, 0, path.length());
+    if (index != NONE) {
+      return !reversedTargets.get(index).isExcluded();
     }
     return directories != null && directories.containsWorkspacePath(packagePath);
   }
@@ -95,32 +135,80 @@ public final class TargetExpressionList {
   /** Returns true if any target in the package is covered by these target expressions. */
   public boolean includesAnyTargetInPackage(WorkspacePath packagePath) {
     // first check if the entire package is included/excluded
-    for (TargetData target : reversedTargets) {
-      if (target.coversPackage(packagePath)) {
-        return !target.isExcluded();
-      }
+    String path = packagePath.relativePath();
+    int index = firstCoveringPattern(path, 0, path.length());
+    if (index != NONE) {
+      return !reversedTargets.get(index).isExcluded();
     }
     if (directories != null && directories.containsWorkspacePath(packagePath)) {
       return true;
     }
     // fall back to looking for any unexcluded expression including a target in this package
-    for (TargetData target : reversedTargets) {
-      if (!target.isExcluded() && target.inPackage(packagePath)) {
-        return true;
-      }
-    }
-    return false;
+    return packagesWithIncludedTargets.contains(packagePath);
   }
 
   /** Returns true if the individual target is covered by this list. */
   public boolean includesTarget(Label label) {
+    // parse the package from the label string in place, rather than allocating a WorkspacePath
+    String labelString = label.toString();
+    int packageStart = labelString.indexOf("//") + "//".length();
+    int packageEnd = labelString.lastIndexOf(':');
     // the last target expression to cover this label overrides all previous expressions
-    for (TargetData target : reversedTargets) {
-      if (target.coversTarget(label)) {
-        return !target.isExcluded();
+    int index = firstCoveringPattern(labelString, packageStart, packageEnd);
+    Integer expressionIndex = expressionIndices.get(labelString);
+    if (expressionIndex != null && expressionIndex < index) {
+      index = expressionIndex;
+    }
+    if (index != NONE) {
+      return !reversedTargets.get(index).isExcluded();
+    }
+    return directories != null && directories.containsPath(labelString, packageStart, packageEnd);
+  }
+
+  /**
+   * Returns the index into {@link #reversedTargets} of the first wildcard pattern covering the
+   * package {@code path[start, end)}, or {@link #NONE} if there is none.
+   */
+  private int firstCoveringPattern(String path, int start, int end) {
+    int first = NONE;
+    PathSegmentTrie.Node<PackageCoverage> node = packageCoverage.root();
+    while (true) {
+      if (node.value != null) {
+        first = Math.min(first, node.value.recursiveIndex);
+      }
+      if (start >= end) {
+        // only non-recursive patterns for this exact package apply
+        return node.value != null ? Math.min(first, node.value.packageIndex) : first;
       }
+      int segmentEnd = PathSegmentTrie.segmentEnd(path, start, end);
+      node = node.child(path, start, segmentEnd);
+      if (node == null) {
+        return first;
+      }
+      start = segmentEnd + 1;
+    }
+  }
+
+  /** The first wildcard patterns with a particular base package. */
+  private static final class PackageCoverage {
+    /** The index of the first recursive pattern, covering the package and all below it. */
+    final int recursiveIndex;
+    /** The index of the first non-recursive pattern, covering only the package itself. */
+    final int packageIndex;
+
+    private PackageCoverage(int recursiveIndex, int packageIndex) {
+      this.recursiveIndex = recursiveIndex;
+      this.packageIndex = packageIndex;
+    }
+
+    static PackageCoverage create(int index, boolean recursive) {
+      return recursive ? new PackageCoverage(index, NONE) : new PackageCoverage(NONE, index);
+    }
+
+    static PackageCoverage merge(PackageCoverage a, PackageCoverage b) {
+      return new PackageCoverage(
+          Math.min(a.recursiveIndex, b.recursiveIndex), Math.min(a.packageIndex, b.packageIndex));
     }
-    return directories != null && directories.containsWorkspacePath(label.blazePackage());
   }
 
   /** A single {@link TargetExpression} and associated information. */
@@ -164,13 +252,5 @@ public final class TargetExpressionList {
               && wildcardPattern.coversPackage(data.wildcardPattern.getBasePackage())
           : wildcardPattern.coversPackage(data.wildcardPattern.getBasePackage());
     }
-
-    boolean inPackage(WorkspacePath path) {
-      if (coversPackage(path)) {
-        return true;
-      }
-      return unexcludedExpression instanceof Label
-          && ((Label) unexcludedExpression).blazePackage().equals(path);
-    }
   }
 }
@@ -183,13 +183,13 @@ public class BlazeBuildTargetSharder {
       ProjectViewSet projectViewSet,
       WorkspacePathResolver pathResolver,
       List<TargetExpression> targets) {
-    List<WildcardTargetPattern> includes = getWildcardPatterns(targets);
-    if (includes.isEmpty()) {
+    List<WildcardTargetPattern> wildcardPatterns = getWildcardPatterns(targets);
+    if (wildcardPatterns.stream().allMatch(WildcardTargetPattern::isExcluded)) {
       return new ExpandedTargetsResult(targets, BuildResult.SUCCESS);
     }
     Map<TargetExpression, List<TargetExpression>> expandedTargets =
         WildcardTargetExpander.expandToNonRecursiveWildcardTargets(
-            project, context, pathResolver, includes);
+            project, context, pathResolver, wildcardPatterns);
     if (expandedTargets == null) {
       return new ExpandedTargetsResult(ImmutableList.of(), BuildResult.FATAL_ERROR);
     }
@@ -282,10 +282,12 @@ public class BlazeBuildTargetSharder {
     return TargetExpressionList.create(targets).getTargets();
   }
 
-  /** Returns the wildcard target patterns, ignoring exclude patterns (those starting with '-') */
+  /**
+   * Returns the wildcard target patterns, in their original order, including exclude patterns
+   * (those starting with '-')
+   */
   private static List<WildcardTargetPattern> getWildcardPatterns(List<TargetExpression> targets) {
     return targets.stream()
-        .filter(t -> !t.isExcluded())
         .map(WildcardTargetPattern::fromExpression)
         .filter(Objects::nonNull)
         .collect(Collectors.toList());
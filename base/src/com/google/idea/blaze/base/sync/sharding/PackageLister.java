@@ -15,11 +15,18 @@
  */
 package com.google.idea.blaze.base.sync.sharding;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableListMultimap.toImmutableListMultimap;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.idea.blaze.base.async.FutureUtil;
 import com.google.idea.blaze.base.async.FutureUtil.FutureResult;
 import com.google.idea.blaze.base.bazel.BuildSystemProvider;
@@ -35,13 +42,17 @@ import com.google.idea.blaze.base.util.WorkspacePathUtil;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import javax.annotation.Nullable;
 
 /**
@@ -75,37 +86,31 @@ class PackageLister {
    * Expands all-in-package-recursive wildcard targets into all-in-single-package targets by
    * traversing the file system, looking for child blaze packages.
    *
-   * <p>Returns null if directory traversal failed or was cancelled.
+   * <p>All recursive patterns are expanded by a single walk over the union of their base
+   * directories, so nested or overlapping patterns don't list the same directories more than once.
+   * The walk doesn't descend into ignored paths, or into subtrees which every pattern covering
+   * them excludes via a later exclude pattern.
+   *
+   * @param wildcardPatterns all wildcard target patterns, in their original order, including
+   *     excluded patterns. These are not expanded, but are used to prune the walk.
+   * @param ignoredPaths directories which blaze itself ignores (e.g. those in .bazelignore).
+   * @return null if directory traversal failed or was cancelled.
    */
   @Nullable
   static Map<TargetExpression, List<TargetExpression>> expandPackageTargets(
       BuildSystemProvider provider,
       BlazeContext context,
       WorkspacePathResolver pathResolver,
-      Collection<WildcardTargetPattern> wildcardPatterns) {
-    List<ListenableFuture<Entry<TargetExpression, List<TargetExpression>>>> futures =
-        Lists.newArrayList();
-    for (WildcardTargetPattern pattern : wildcardPatterns) {
-      if (!pattern.isRecursive() || pattern.toString().startsWith("-")) {
-        continue;
-      }
-      File dir = pathResolver.resolveToFile(pattern.getBasePackage());
-      if (!FileOperationProvider.getInstance().isDirectory(dir)) {
-        continue;
-      }
-      futures.add(
-          FetchExecutor.EXECUTOR.submit(
-              () -> {
-                List<TargetExpression> expandedTargets = new ArrayList<>();
-                traversePackageRecursively(provider, pathResolver, dir, expandedTargets);
-                return Maps.immutableEntry(pattern.originalPattern, expandedTargets);
-              }));
-    }
-    if (futures.isEmpty()) {
+      List<WildcardTargetPattern> wildcardPatterns,
+      Collection<WorkspacePath> ignoredPaths) {
+    PackageTreeWalk walk =
+        PackageTreeWalk.create(
+            provider, pathResolver, wildcardPatterns, ignoredPaths, FetchExecutor.EXECUTOR);
+    if (walk.isEmpty()) {
       return ImmutableMap.of();
     }
-    FutureResult<List<Entry<TargetExpression, List<TargetExpression>>>> result =
-        FutureUtil.waitForFuture(context, Futures.allAsList(futures))
+    FutureResult<Map<TargetExpression, List<TargetExpression>>> result =
+        FutureUtil.waitForFuture(context, walk.run())
             .withProgressMessage("Expanding wildcard target patterns...")
             .timed("ExpandWildcardTargets", EventType.Other)
             .onError("Expanding wildcard target patterns failed")
@@ -113,33 +118,226 @@ class PackageLister {
     if (!result.success()) {
       return null;
     }
-    return result
-        .result()
-        .stream()
-        .collect(Collectors.toMap(Entry::getKey, Entry::getValue, (x, y) -> x));
+    return result.result();
   }
 
-  private static void traversePackageRecursively(
-      BuildSystemProvider provider,
-      WorkspacePathResolver pathResolver,
-      File dir,
-      List<TargetExpression> output) {
-    WorkspacePath path = pathResolver.getWorkspacePath(dir);
-    if (path == null) {
-      return;
+  /** A single walk of the directories under a set of recursive wildcard target patterns. */
+  @VisibleForTesting
+  static final class PackageTreeWalk {
+    private final BuildSystemProvider provider;
+    private final WorkspacePathResolver pathResolver;
+    private final ListeningExecutorService executor;
+    private final ImmutableSet<WorkspacePath> ignoredPaths;
+
+    /** The walked patterns, by base package. Each pattern appears once. */
+    private final ImmutableListMultimap<WorkspacePath, WalkedPattern> patternsByBasePackage;
+
+    /** The base package of each walked pattern, along with all of their parent directories. */
+    private final ImmutableSet<WorkspacePath> pathsToBasePackages;
+
+    /** The minimal set of directories from which every walked pattern can be reached. */
+    private final ImmutableSet<WorkspacePath> roots;
+
+    private PackageTreeWalk(
+        BuildSystemProvider provider,
+        WorkspacePathResolver pathResolver,
+        ListeningExecutorService executor,
+        ImmutableSet<WorkspacePath> ignoredPaths,
+        ImmutableListMultimap<WorkspacePath, WalkedPattern> patternsByBasePackage) {
+      this.provider = provider;
+      this.pathResolver = pathResolver;
+      this.executor = executor;
+      this.ignoredPaths = ignoredPaths;
+      this.patternsByBasePackage = patternsByBasePackage;
+      Set<WorkspacePath> pathsToBasePackages = new HashSet<>();
+      for (WorkspacePath basePackage : patternsByBasePackage.keySet()) {
+        WorkspacePath path = basePackage;
+        while (path != null && pathsToBasePackages.add(path)) {
+          path = path.getParent();
+        }
+      }
+      this.pathsToBasePackages = ImmutableSet.copyOf(pathsToBasePackages);
+      this.roots =
+          WorkspacePathUtil.calculateMinimalWorkspacePaths(patternsByBasePackage.keySet());
     }
-    if (provider.findBuildFileInDirectory(dir) != null) {
-      output.add(TargetExpression.allFromPackageNonRecursive(path));
+
+    @VisibleForTesting
+    static PackageTreeWalk create(
+        BuildSystemProvider provider,
+        WorkspacePathResolver pathResolver,
+        List<WildcardTargetPattern> wildcardPatterns,
+        Collection<WorkspacePath> ignoredPaths,
+        ListeningExecutorService executor) {
+      // Identical patterns share a single expansion, so keep the last occurrence of each. It's
+      // followed by the fewest excludes, so its expansion is correct for every occurrence.
+      Map<TargetExpression, WalkedPattern> patterns = new LinkedHashMap<>();
+      for (int i = 0; i < wildcardPatterns.size(); i++) {
+        WildcardTargetPattern pattern = wildcardPatterns.get(i);
+        if (!pattern.isRecursive() || pattern.isExcluded()) {
+          continue;
+        }
+        File dir = pathResolver.resolveToFile(pattern.getBasePackage());
+        if (!FileOperationProvider.getInstance().isDirectory(dir)) {
+          continue;
+        }
+        ImmutableList<WildcardTargetPattern> laterExcludes =
+            wildcardPatterns.subList(i + 1, wildcardPatterns.size()).stream()
+                .filter(WildcardTargetPattern::isExcluded)
+                .collect(toImmutableList());
+        patterns.remove(pattern.originalPattern);
+        patterns.put(pattern.originalPattern, new WalkedPattern(pattern, laterExcludes));
+      }
+      return new PackageTreeWalk(
+          provider,
+          pathResolver,
+          executor,
+          ImmutableSet.copyOf(ignoredPaths),
+          patterns.values().stream()
+              .collect(toImmutableListMultimap(p -> p.pattern.getBasePackage(), p -> p)));
     }
-    FileOperationProvider fileOperationProvider = FileOperationProvider.getInstance();
-    File[] children = fileOperationProvider.listFiles(dir);
-    if (children == null) {
-      return;
+
+    boolean isEmpty() {
+      return patternsByBasePackage.isEmpty();
     }
-    for (File child : children) {
-      if (fileOperationProvider.isDirectory(child)) {
-        traversePackageRecursively(provider, pathResolver, child, output);
+
+    /**
+     * Walks the directory tree, returning a future which completes with the packages found for
+     * each pattern, in sorted order.
+     */
+    ListenableFuture<Map<TargetExpression, List<TargetExpression>>> run() {
+      List<ListenableFuture<?>> rootFutures = new ArrayList<>();
+      for (WorkspacePath root : roots) {
+        if (WorkspacePathUtil.isUnderAnyWorkspacePath(ignoredPaths, root)) {
+          continue;
+        }
+        File dir = pathResolver.resolveToFile(root);
+        rootFutures.add(walk(dir, root, ImmutableList.of()));
       }
+      return Futures.whenAllSucceed(rootFutures)
+          .call(this::collectResults, MoreExecutors.directExecutor());
+    }
+
+    private Map<TargetExpression, List<TargetExpression>> collectResults() {
+      ImmutableMap.Builder<TargetExpression, List<TargetExpression>> results =
+          ImmutableMap.builder();
+      for (WalkedPattern pattern : patternsByBasePackage.values()) {
+        results.put(
+            pattern.pattern.originalPattern,
+            pattern.packages.stream()
+                .sorted(Comparator.comparing(WorkspacePath::relativePath))
+                .map(TargetExpression::allFromPackageNonRecursive)
+                .collect(toImmutableList()));
+      }
+      return results.buildOrThrow();
+    }
+
+    /**
+     * Returns a future which completes once the subtree rooted at {@code dir} has been walked.
+     * Each child directory is walked in its own task, so that work is split by subtree across
+     * threads.
+     */
+    private ListenableFuture<?> walk(
+        File dir, WorkspacePath path, ImmutableList<WalkedPattern> inheritedPatterns) {
+      return Futures.submitAsync(
+          () ->
+              Futures.whenAllSucceed(visit(dir, path, inheritedPatterns))
+                  .call(() -> null, MoreExecutors.directExecutor()),
+          executor);
+    }
+
+    /**
+     * Records {@code dir} as a package of each pattern covering it, and starts walking each of its
+     * child directories which still need to be walked.
+     */
+    private List<ListenableFuture<?>> visit(
+        File dir, WorkspacePath path, ImmutableList<WalkedPattern> inheritedPatterns) {
+      if (ignoredPaths.contains(path)) {
+        return ImmutableList.of();
+      }
+      ImmutableList<WalkedPattern> patterns = activePatterns(path, inheritedPatterns);
+      if (patterns.isEmpty() && !pathsToBasePackages.contains(path)) {
+        return ImmutableList.of();
+      }
+      FileOperationProvider fileOperationProvider = FileOperationProvider.getInstance();
+      File[] children = fileOperationProvider.listFiles(dir);
+      if (children == null) {
+        return ImmutableList.of();
+      }
+      boolean isPackage = false;
+      List<File> childDirs = new ArrayList<>();
+      for (File child : children) {
+        // the directory listing already tells us whether there's a BUILD file, so only check
+        // children with a BUILD file name are regular files
+        if (provider.isBuildFile(child.getName()) && fileOperationProvider.isFile(child)) {
+          isPackage = true;
+        } else if (fileOperationProvider.isDirectory(child)) {
+          childDirs.add(child);
+        }
+      }
+      if (isPackage) {
+        for (WalkedPattern pattern : patterns) {
+          if (!pattern.excludesPackage(path)) {
+            pattern.packages.add(path);
+          }
+        }
+      }
+      List<ListenableFuture<?>> childFutures = new ArrayList<>(childDirs.size());
+      for (File child : childDirs) {
+        WorkspacePath childPath = pathResolver.getWorkspacePath(child);
+        if (childPath != null) {
+          childFutures.add(walk(child, childPath, patterns));
+        }
+      }
+      return childFutures;
+    }
+
+    /**
+     * Returns the patterns which cover the given directory: those inherited from its parent or
+     * based here, other than those which exclude the entire subtree.
+     */
+    private ImmutableList<WalkedPattern> activePatterns(
+        WorkspacePath path, ImmutableList<WalkedPattern> inheritedPatterns) {
+      ImmutableList<WalkedPattern> basedHere = patternsByBasePackage.get(path);
+      if (basedHere.isEmpty()
+          && inheritedPatterns.stream().noneMatch(p -> p.excludesSubtree(path))) {
+        return inheritedPatterns;
+      }
+      return Stream.concat(inheritedPatterns.stream(), basedHere.stream())
+          .filter(p -> !p.excludesSubtree(path))
+          .collect(toImmutableList());
+    }
+  }
+
+  /** A recursive wildcard pattern being expanded, along with the excludes which follow it. */
+  private static final class WalkedPattern {
+    final WildcardTargetPattern pattern;
+    /** Exclude patterns which appear after this pattern, and so take precedence over it. */
+    final ImmutableList<WildcardTargetPattern> laterExcludes;
+    final Queue<WorkspacePath> packages = new ConcurrentLinkedQueue<>();
+
+    WalkedPattern(
+        WildcardTargetPattern pattern, ImmutableList<WildcardTargetPattern> laterExcludes) {
+      this.pattern = pattern;
+      this.laterExcludes = laterExcludes;
+    }
+
+    /** Whether every package at or below {@code dir} is excluded from this pattern. */
+    boolean excludesSubtree(WorkspacePath dir) {
+      return laterExcludes.stream()
+          .anyMatch(e -> e.isRecursive() && excludesAllTargets(e) && e.coversPackage(dir));
+    }
+
+    boolean excludesPackage(WorkspacePath dir) {
+      return laterExcludes.stream().anyMatch(e -> excludesAllTargets(e) && e.coversPackage(dir));
+    }
+
+    /**
+     * Whether {@code exclude} removes every target this pattern includes from the packages it
+     * covers. A rules-only exclude (e.g. '-//x/...') leaves the file targets of a '//x/...:*'
+     * include behind, so those packages must still be listed.
+     */
+    private boolean excludesAllTargets(WildcardTargetPattern exclude) {
+      return !exclude.rulesOnly() || pattern.rulesOnly();
     }
   }
 }
@@ -30,6 +30,7 @@ import com.google.idea.blaze.base.command.buildresult.BuildResultHelper;
 import com.google.idea.blaze.base.model.primitives.TargetExpression;
 import com.google.idea.blaze.base.model.primitives.WildcardTargetPattern;
 import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
 import com.google.idea.blaze.base.prefetch.PrefetchService;
 import com.google.idea.blaze.base.projectview.ProjectViewSet;
 import com.google.idea.blaze.base.query.BlazeQueryLabelKindParser;
@@ -43,6 +44,7 @@ import com.google.idea.blaze.base.settings.Blaze;
 import com.google.idea.blaze.base.sync.SyncProjectTargetsHelper;
 import com.google.idea.blaze.base.sync.aspects.BuildResult;
 import com.google.idea.blaze.base.sync.aspects.BuildResult.Status;
+import com.google.idea.blaze.base.sync.projectview.BazelIgnoreParser;
 import com.google.idea.blaze.base.sync.projectview.LanguageSupport;
 import com.google.idea.blaze.base.sync.workspace.WorkspacePathResolver;
 import com.google.idea.blaze.exception.BuildException;
@@ -93,7 +95,8 @@ public class WildcardTargetExpander {
    * Expand recursive wildcard blaze target patterns into single-package wildcard patterns, via a
    * file system traversal.
    *
-   * <p>Exclude target patterns (beginning with '-') are not expanded.
+   * <p>Exclude target patterns (beginning with '-') are not expanded, but packages they exclude
+   * aren't traversed when expanding the patterns preceding them.
    *
    * <p>Returns null if operation failed or was cancelled.
    */
@@ -131,7 +134,12 @@ public class WildcardTargetExpander {
     }
 
     return PackageLister.expandPackageTargets(
-        Blaze.getBuildSystemProvider(project), context, pathResolver, includes);
+        Blaze.getBuildSystemProvider(project),
+        context,
+        pathResolver,
+        wildcardPatterns,
+        new BazelIgnoreParser(new WorkspaceRoot(pathResolver.findPackageRoot("")))
+            .getIgnoredPaths());
   }
 
   /** Runs a sharded blaze query to expand wildcard targets to individual blaze targets */
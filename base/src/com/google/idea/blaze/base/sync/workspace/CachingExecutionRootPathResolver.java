@@ -0,0 +1,136 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.workspace;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.bazel.BuildSystemProvider;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.primitives.ExecutionRootPath;
+import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.common.PrintOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An {@link ExecutionRootPathResolver} which memoizes include directory resolution.
+ *
+ * <p>The same include roots appear in the transitive include directories of thousands of targets,
+ * so resolving each of them once per sync avoids repeated file system and target map lookups.
+ * The cache is safe for concurrent use, so callers can fan resolution out across threads (as
+ * {@code HeaderRootTrimmer} does). Instances should not outlive a single sync, as the file system
+ * may change between syncs.
+ */
+public class CachingExecutionRootPathResolver extends ExecutionRootPathResolver {
+
+  private final Map<ExecutionRootPath, ImmutableList<File>> includeDirectories =
+      new ConcurrentHashMap<>();
+  private final Map<File, File> realPaths = new ConcurrentHashMap<>();
+  private final AtomicLong lookups = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  public CachingExecutionRootPathResolver(
+      BuildSystemProvider buildSystemProvider,
+      WorkspaceRoot workspaceRoot,
+      File executionRoot,
+      File outputBase,
+      WorkspacePathResolver workspacePathResolver,
+      TargetMap targetMap) {
+    super(
+        buildSystemProvider,
+        workspaceRoot,
+        executionRoot,
+        outputBase,
+        workspacePathResolver,
+        targetMap);
+  }
+
+  public static CachingExecutionRootPathResolver create(
+      BuildSystemProvider buildSystemProvider,
+      WorkspaceRoot workspaceRoot,
+      BlazeProjectData blazeProjectData) {
+    return new CachingExecutionRootPathResolver(
+        buildSystemProvider,
+        workspaceRoot,
+        blazeProjectData.getBlazeInfo().getExecutionRoot(),
+        blazeProjectData.getBlazeInfo().getOutputBase(),
+        blazeProjectData.getWorkspacePathResolver(),
+        blazeProjectData.getTargetMap());
+  }
+
+  @Override
+  public ImmutableList<File> resolveToIncludeDirectories(ExecutionRootPath path) {
+    lookups.incrementAndGet();
+    ImmutableList<File> cached = includeDirectories.get(path);
+    if (cached != null) {
+      return cached;
+    }
+    misses.incrementAndGet();
+    ImmutableList<File> resolved = super.resolveToIncludeDirectories(path);
+    includeDirectories.put(path, resolved);
+    return resolved;
+  }
+
+  /**
+   * Resolves symbolic links one directory at a time, memoizing each directory's real path. Paths
+   * sharing ancestor directories therefore need a single stat call each, rather than a full real
+   * path resolution.
+   */
+  @Override
+  protected File toRealPath(File file) throws IOException {
+    File cached = realPaths.get(file);
+    if (cached != null) {
+      return cached;
+    }
+    File parent = file.getParentFile();
+    String name = file.getName();
+    File realPath;
+    if (parent == null || name.equals(".") || name.equals("..")) {
+      realPath = super.toRealPath(file);
+    } else {
+      // throws NoSuchFileException if the file doesn't exist, as Path#toRealPath does
+      BasicFileAttributes attributes =
+          Files.readAttributes(file.toPath(), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+      realPath =
+          attributes.isSymbolicLink()
+              ? super.toRealPath(file)
+              : new File(toRealPath(parent), name);
+    }
+    realPaths.put(file, realPath);
+    return realPath;
+  }
+
+  /** Logs the cache hit rate to the sync log. */
+  public void logStats(BlazeContext context) {
+    context.output(PrintOutput.log(getStatsSummary()));
+  }
+
+  /** Returns a one-line summary of the cache hit rate. */
+  public String getStatsSummary() {
+    long lookups = this.lookups.get();
+    long hits = lookups - misses.get();
+    return String.format(
+        "Include directory resolution: %d lookups, %d cache hits (%.1f%%), %d real paths resolved",
+        lookups, hits, lookups == 0 ? 0.0 : 100.0 * hits / lookups, realPaths.size());
+  }
+}
@@ -159,7 +159,7 @@ public class ExecutionRootPathResolver {
     File fileInExecutionRoot = path.getFileRootedAt(outputBase);
 
     try {
-      File realPath = fileInExecutionRoot.toPath().toRealPath().toFile();
+      File realPath = toRealPath(fileInExecutionRoot);
       if (workspacePathResolver.getWorkspacePath(realPath) != null) {
         return ImmutableList.of(realPath);
       }
@@ -170,6 +170,11 @@ public class ExecutionRootPathResolver {
     return ImmutableList.of(fileInExecutionRoot);
   }
 
+  /** Returns the canonical path of the given file, resolving any symbolic links. */
+  protected File toRealPath(File file) throws IOException {
+    return file.toPath().toRealPath().toFile();
+  }
+
   public File getExecutionRoot() {
     return executionRoot;
   }
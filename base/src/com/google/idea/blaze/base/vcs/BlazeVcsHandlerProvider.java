@@ -82,6 +82,12 @@ public interface BlazeVcsHandlerProvider {
     ListenableFuture<WorkingSet> getWorkingSet(
         BlazeContext context, ListeningExecutorService executor);
 
+    /**
+     * Discards any state kept between working set calculations, so that the next call to {@link
+     * #getWorkingSet} checks the whole workspace. Called at the start of a full sync.
+     */
+    default void invalidateWorkingSet() {}
+
     /** Returns the original file content of a file path from "upstream". */
     ListenableFuture<String> getUpstreamContent(
         BlazeContext context, WorkspacePath path, ListeningExecutorService executor);
@@ -31,9 +31,16 @@ import com.google.idea.blaze.common.vcs.VcsState;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import javax.annotation.Nullable;
 
@@ -62,9 +69,15 @@ public class GitBlazeVcsHandlerProvider implements BlazeVcsHandlerProvider {
   static class GitBlazeVcsHandler implements BlazeVcsHandler {
 
     private final WorkspaceRoot workspaceRoot;
+    private final GitWorkingSetCache workingSetCache;
 
     GitBlazeVcsHandler(Project project) {
       this.workspaceRoot = WorkspaceRoot.fromProject(project);
+      this.workingSetCache = new GitWorkingSetCache(workspaceRoot);
+      project
+          .getMessageBus()
+          .connect()
+          .subscribe(VirtualFileManager.VFS_CHANGES, new ChangedPathsListener(workingSetCache));
     }
 
     @Override
@@ -76,10 +89,15 @@ public class GitBlazeVcsHandlerProvider implements BlazeVcsHandlerProvider {
             if (upstreamSha == null) {
               return null;
             }
-            return GitWorkingSetProvider.calculateWorkingSet(workspaceRoot, upstreamSha, context);
+            return workingSetCache.getWorkingSet(upstreamSha, context);
           });
     }
 
+    @Override
+    public void invalidateWorkingSet() {
+      workingSetCache.invalidate();
+    }
+
     @Nullable
     @Override
     public BlazeVcsSyncHandler createSyncHandler() {
@@ -104,6 +122,31 @@ public class GitBlazeVcsHandlerProvider implements BlazeVcsHandlerProvider {
     }
   }
 
+  /** Reports changed files and directories to the working set cache. */
+  private static class ChangedPathsListener implements BulkFileListener {
+    private final GitWorkingSetCache workingSetCache;
+
+    ChangedPathsListener(GitWorkingSetCache workingSetCache) {
+      this.workingSetCache = workingSetCache;
+    }
+
+    @Override
+    public void after(List<? extends VFileEvent> events) {
+      List<String> paths = new ArrayList<>();
+      for (VFileEvent event : events) {
+        paths.add(event.getPath());
+        // the old location of moved and renamed files has changed too
+        if (event instanceof VFileMoveEvent) {
+          paths.add(((VFileMoveEvent) event).getOldPath());
+        } else if (event instanceof VFilePropertyChangeEvent
+            && ((VFilePropertyChangeEvent) event).isRename()) {
+          paths.add(((VFilePropertyChangeEvent) event).getOldPath());
+        }
+      }
+      workingSetCache.pathsChanged(paths);
+    }
+  }
+
   private static String getGitUpstreamContent(WorkspaceRoot workspaceRoot, WorkspacePath path) {
     String upstreamSha = getUpstreamSha(workspaceRoot, false);
     ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.vcs.git;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.sync.workspace.WorkingSet;
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
+
+/**
+ * Caches the git working set between calculations, so that only the paths which have changed
+ * since the previous calculation are checked again.
+ *
+ * <p>Changed paths are reported by VFS events. The whole workspace is checked again if the
+ * upstream commit, HEAD, the git index or the repository's exclude file change, as these can
+ * affect the status of any path. Repositories whose git directory isn't a plain {@code .git}
+ * directory in the repository root (e.g. worktrees and submodules) are always checked in full.
+ *
+ * <p>VFS events aren't sent for directories IntelliJ hasn't loaded, or for external changes it
+ * hasn't refreshed yet, so such changes are only picked up once the cache is {@link #invalidate()
+ * invalidated}, which happens on every full sync.
+ */
+final class GitWorkingSetCache {
+
+  private static final Logger logger = Logger.getInstance(GitWorkingSetCache.class);
+
+  /** Above this many changed paths, checking the whole workspace is cheaper. */
+  @VisibleForTesting static final int MAX_CHANGED_PATHS = 1000;
+
+  private static final String GIT_IGNORE = ".gitignore";
+
+  private final WorkspaceRoot workspaceRoot;
+  private final Set<WorkspacePath> changedPaths = ConcurrentHashMap.newKeySet();
+  private final AtomicBoolean checkAllPaths = new AtomicBoolean();
+
+  @Nullable private volatile String gitRoot;
+  @Nullable private CachedWorkingSet cached;
+
+  GitWorkingSetCache(WorkspaceRoot workspaceRoot) {
+    this.workspaceRoot = workspaceRoot;
+  }
+
+  /** Records that the files or directories at the given absolute paths have changed. */
+  void pathsChanged(Collection<String> absolutePaths) {
+    for (String absolutePath : absolutePaths) {
+      File file = new File(absolutePath);
+      WorkspacePath path = workspaceRoot.workspacePathForSafe(file);
+      if (path == null || isInGitDirectory(path)) {
+        continue;
+      }
+      if (file.getName().equals(GIT_IGNORE)) {
+        // ignore rules apply to the whole directory
+        path = path.getParent();
+      }
+      if (path == null || path.isWorkspaceRoot()) {
+        checkAllPaths.set(true);
+        continue;
+      }
+      changedPaths.add(path);
+    }
+    if (changedPaths.size() > MAX_CHANGED_PATHS) {
+      checkAllPaths.set(true);
+      changedPaths.clear();
+    }
+  }
+
+  /** Makes the next calculation check the whole workspace. */
+  void invalidate() {
+    checkAllPaths.set(true);
+  }
+
+  /**
+   * Returns the changes between the working tree and the given upstream commit, or null if an
+   * error occurred.
+   */
+  @Nullable
+  synchronized WorkingSet getWorkingSet(String upstreamSha, BlazeContext context) {
+    if (gitRoot == null) {
+      gitRoot = GitWorkingSetProvider.getGitRoot(workspaceRoot);
+      if (gitRoot == null) {
+        return null;
+      }
+    }
+    // paths changed from here on are checked by the next calculation
+    boolean checkAll = checkAllPaths.getAndSet(false);
+    ImmutableSet<WorkspacePath> paths = ImmutableSet.copyOf(changedPaths);
+    changedPaths.removeAll(paths);
+
+    String repositoryState = readRepositoryState(new File(gitRoot));
+    if (checkAll
+        || cached == null
+        || repositoryState == null
+        || !cached.upstreamSha.equals(upstreamSha)
+        || !cached.repositoryState.equals(repositoryState)) {
+      WorkingSet workingSet =
+          GitWorkingSetProvider.calculateWorkingSet(
+              workspaceRoot, gitRoot, upstreamSha, ImmutableList.of(), context);
+      cached =
+          workingSet != null && repositoryState != null
+              ? new CachedWorkingSet(upstreamSha, repositoryState, workingSet)
+              : null;
+      return workingSet;
+    }
+    if (paths.isEmpty()) {
+      return cached.workingSet;
+    }
+    WorkingSet changes =
+        GitWorkingSetProvider.calculateWorkingSet(
+            workspaceRoot, gitRoot, upstreamSha, paths, context);
+    if (changes == null) {
+      cached = null;
+      return null;
+    }
+    logger.info(String.format("Updated git working set for %d changed paths", paths.size()));
+    WorkingSet workingSet = merge(cached.workingSet, paths, changes);
+    cached = new CachedWorkingSet(upstreamSha, repositoryState, workingSet);
+    return workingSet;
+  }
+
+  /**
+   * Replaces the entries of a previous working set which are within the given paths with those of
+   * a new working set, calculated for only those paths.
+   */
+  @VisibleForTesting
+  static WorkingSet merge(
+      WorkingSet previous, Collection<WorkspacePath> paths, WorkingSet changes) {
+    return new WorkingSet(
+        merge(previous.addedFiles, paths, changes.addedFiles),
+        merge(previous.modifiedFiles, paths, changes.modifiedFiles),
+        merge(previous.deletedFiles, paths, changes.deletedFiles));
+  }
+
+  private static ImmutableList<WorkspacePath> merge(
+      ImmutableList<WorkspacePath> previous,
+      Collection<WorkspacePath> paths,
+      ImmutableList<WorkspacePath> changes) {
+    return ImmutableList.<WorkspacePath>builder()
+        .addAll(previous.stream().filter(p -> !isWithin(p, paths)).collect(toImmutableList()))
+        .addAll(changes)
+        .build();
+  }
+
+  private static boolean isWithin(WorkspacePath path, Collection<WorkspacePath> paths) {
+    String relativePath = path.relativePath();
+    for (WorkspacePath ancestor : paths) {
+      String ancestorPath = ancestor.relativePath();
+      if (relativePath.equals(ancestorPath)
+          || (relativePath.startsWith(ancestorPath)
+              && relativePath.charAt(ancestorPath.length()) == '/')) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean isInGitDirectory(WorkspacePath path) {
+    String gitRoot = this.gitRoot;
+    File gitDirectory =
+        new File(gitRoot != null ? new File(gitRoot) : workspaceRoot.directory(), ".git");
+    return workspaceRoot.fileForPath(path).toPath().startsWith(gitDirectory.toPath());
+  }
+
+  /**
+   * Returns a summary of the git metadata which can affect the status of any path, or null if the
+   * repository layout isn't understood.
+   */
+  @Nullable
+  @VisibleForTesting
+  static String readRepositoryState(File gitRoot) {
+    File gitDirectory = new File(gitRoot, ".git");
+    if (!gitDirectory.isDirectory()) {
+      // worktrees and submodules use a .git file pointing elsewhere
+      return null;
+    }
+    String head;
+    try {
+      head = new String(Files.readAllBytes(new File(gitDirectory, "HEAD").toPath()), UTF_8).trim();
+    } catch (IOException e) {
+      return null;
+    }
+    StringBuilder state = new StringBuilder(head);
+    for (String name : ImmutableList.of("index", "packed-refs", "info/exclude")) {
+      appendFileState(state, new File(gitDirectory, name));
+    }
+    if (head.startsWith("ref: ")) {
+      appendFileState(state, new File(gitDirectory, head.substring("ref: ".length())));
+    }
+    return state.toString();
+  }
+
+  private static void appendFileState(StringBuilder state, File file) {
+    state.append(';').append(file.lastModified()).append(':').append(file.length());
+  }
+
+  private static final class CachedWorkingSet {
+    final String upstreamSha;
+    final String repositoryState;
+    final WorkingSet workingSet;
+
+    CachedWorkingSet(String upstreamSha, String repositoryState, WorkingSet workingSet) {
+      this.upstreamSha = Objects.requireNonNull(upstreamSha);
+      this.repositoryState = repositoryState;
+      this.workingSet = workingSet;
+    }
+  }
+}
@@ -15,6 +15,8 @@
  */
 package com.google.idea.blaze.base.vcs.git;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.idea.blaze.base.async.process.ExternalTask;
@@ -28,9 +30,9 @@ import com.google.idea.blaze.base.sync.workspace.WorkingSet;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.text.StringUtil;
 import java.io.ByteArrayOutputStream;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
-import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 
 /** Vcs diff provider for git. */
@@ -45,18 +47,35 @@ public class GitWorkingSetProvider {
   @Nullable
   public static WorkingSet calculateWorkingSet(
       WorkspaceRoot workspaceRoot, String upstreamSha, BlazeContext context) {
-
-    String gitRoot = getConsoleOutput(workspaceRoot, "git", "rev-parse", "--show-toplevel");
+    String gitRoot = getGitRoot(workspaceRoot);
     if (gitRoot == null) {
       return null;
     }
+    return calculateWorkingSet(workspaceRoot, gitRoot, upstreamSha, ImmutableList.of(), context);
+  }
+
+  /**
+   * Finds changes between the working tree and the git commit specified by the provided SHA,
+   * limited to the given workspace paths (files or directories). If no paths are given, the whole
+   * workspace is checked.<br>
+   * Returns null if an error occurred.
+   */
+  @Nullable
+  static WorkingSet calculateWorkingSet(
+      WorkspaceRoot workspaceRoot,
+      String gitRoot,
+      String upstreamSha,
+      Collection<WorkspacePath> paths,
+      BlazeContext context) {
     GitStatusLineProcessor processor = new GitStatusLineProcessor(workspaceRoot, gitRoot);
     ByteArrayOutputStream stderr = new ByteArrayOutputStream();
 
     // Do a git diff to find all modified files we know about
     int retVal =
         ExternalTask.builder(workspaceRoot)
-            .args("git", "diff", "--name-status", "--no-renames", upstreamSha)
+            .args("git", "--literal-pathspecs", "diff", "--name-status", "--no-renames")
+            .args(upstreamSha, "--")
+            .args(pathspecs(paths))
             .context(context)
             .stdout(LineProcessingOutputStream.of(processor))
             .stderr(stderr)
@@ -68,20 +87,29 @@ public class GitWorkingSetProvider {
     }
 
     // Finally list all untracked files, as they're not caught by the git diff step above
-    String untrackedFilesOutput =
-        getConsoleOutput(workspaceRoot, "git", "ls-files", "--others", "--exclude-standard");
-    if (untrackedFilesOutput == null) {
+    List<WorkspacePath> untrackedFiles = new ArrayList<>();
+    stderr.reset();
+    retVal =
+        ExternalTask.builder(workspaceRoot)
+            .args("git", "--literal-pathspecs", "ls-files", "--others", "--exclude-standard")
+            .args("--")
+            .args(pathspecs(paths))
+            .stdout(
+                LineProcessingOutputStream.of(
+                    line -> {
+                      if (!Strings.isNullOrEmpty(line) && WorkspacePath.isValid(line)) {
+                        untrackedFiles.add(new WorkspacePath(line));
+                      }
+                      return true;
+                    }))
+            .stderr(stderr)
+            .build()
+            .run();
+    if (retVal != 0) {
+      logger.error(stderr);
       return null;
     }
 
-    List<WorkspacePath> untrackedFiles =
-        Arrays.asList(untrackedFilesOutput.split("\n"))
-            .stream()
-            .filter(s -> !Strings.isNullOrEmpty(s))
-            .filter(WorkspacePath::isValid)
-            .map(WorkspacePath::new)
-            .collect(Collectors.toList());
-
     return new WorkingSet(
         ImmutableList.<WorkspacePath>builder()
             .addAll(processor.addedFiles)
@@ -91,6 +119,19 @@ public class GitWorkingSetProvider {
         ImmutableList.copyOf(processor.deletedFiles));
   }
 
+  /** Returns the absolute path of the root of the git repository, or null if it can't be found. */
+  @Nullable
+  static String getGitRoot(WorkspaceRoot workspaceRoot) {
+    return getConsoleOutput(workspaceRoot, "git", "rev-parse", "--show-toplevel");
+  }
+
+  private static ImmutableList<String> pathspecs(Collection<WorkspacePath> paths) {
+    // the empty workspace path is the workspace root, which git calls "."
+    return paths.stream()
+        .map(path -> path.isWorkspaceRoot() ? "." : path.relativePath())
+        .collect(toImmutableList());
+  }
+
   /** @return the console output, in string form, or null if there was a non-zero exit code. */
   @Nullable
   private static String getConsoleOutput(WorkspaceRoot workspaceRoot, String... commands) {
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.projectview;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.model.primitives.TargetExpression;
+import com.google.idea.blaze.base.model.primitives.WildcardTargetPattern;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.google.idea.blaze.base.sync.projectview.ImportRoots.ProjectDirectoriesHelper;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Benchmarks {@link ImportRoots.ProjectDirectoriesHelper} and {@link TargetExpressionList} on a
+ * project view with thousands of directories, excludes and target patterns, against the linear
+ * scans they used before being compiled into path tries.
+ *
+ * <p>Not part of the default test run. Run with {@code bazel test //base:benchmarks}.
+ */
+@RunWith(JUnit4.class)
+public class ProjectViewMatcherBenchmarkTest extends BlazeTestCase {
+  private static final int TEAMS = 2000;
+  private static final int QUERIES = 20_000;
+  private static final int ITERATIONS = 3;
+  private static final ImmutableList<String> QUERY_SUFFIXES =
+      ImmutableList.of(
+          "", "/src", "/generated", "/generated/proto", "/experimental/impl", "/a/b/c");
+
+  private final List<WorkspacePath> rootDirectories = new ArrayList<>();
+  private final List<WorkspacePath> excludeDirectories = new ArrayList<>();
+  private final List<TargetExpression> targets = new ArrayList<>();
+
+  @Test
+  public void containsWorkspacePath_trieVersusLinearScan() {
+    createProjectView();
+    ProjectDirectoriesHelper compiled =
+        new ProjectDirectoriesHelper(rootDirectories, excludeDirectories);
+    LinearProjectDirectories linear =
+        new LinearProjectDirectories(rootDirectories, excludeDirectories);
+    List<WorkspacePath> queries = queries(new Random(1), path -> path);
+
+    assertSameResults(queries, compiled::containsWorkspacePath, linear::containsWorkspacePath);
+    report(
+        "containsWorkspacePath",
+        time(queries, linear::containsWorkspacePath),
+        time(queries, compiled::containsWorkspacePath));
+  }
+
+  @Test
+  public void includesTarget_trieVersusLinearScan() {
+    createProjectView();
+    TargetExpressionList compiled = TargetExpressionList.create(targets);
+    LinearTargetExpressionList linear = new LinearTargetExpressionList(targets);
+    List<Label> queries =
+        queries(new Random(2), path -> Label.create("//" + path.relativePath() + ":target"));
+
+    assertSameResults(queries, compiled::includesTarget, linear::includesTarget);
+    report(
+        "includesTarget",
+        time(queries, linear::includesTarget),
+        time(queries, compiled::includesTarget));
+  }
+
+  /**
+   * A project view with a directory, a recursive target pattern and a few individual targets per
+   * team, excluding generated code of every other team and experimental code of every fifth.
+   */
+  private void createProjectView() {
+    assertThat(TEAMS).isAtLeast(1000);
+    for (int i = 0; i < TEAMS; i++) {
+      String team = teamPath(i);
+      rootDirectories.add(new WorkspacePath(team));
+      targets.add(TargetExpression.fromStringSafe("//" + team + "/..."));
+      if (i % 2 == 0) {
+        excludeDirectories.add(new WorkspacePath(team + "/generated"));
+        targets.add(TargetExpression.fromStringSafe("-//" + team + "/generated/..."));
+      }
+      if (i % 5 == 0) {
+        excludeDirectories.add(new WorkspacePath(team + "/experimental/impl"));
+        targets.add(TargetExpression.fromStringSafe("-//" + team + "/experimental/impl:all"));
+      }
+      if (i % 10 == 0) {
+        targets.add(TargetExpression.fromStringSafe("//javatests/" + team + ":tests"));
+      }
+    }
+  }
+
+  private static String teamPath(int team) {
+    return String.format("java/com/google/org%d/team%d", team % 20, team);
+  }
+
+  /**
+   * Workspace paths below, beside and outside the project view's directories, to a mix of depths.
+   */
+  private static <T> List<T> queries(Random random, Function<WorkspacePath, T> f) {
+    List<T> queries = new ArrayList<>();
+    for (int i = 0; i < QUERIES; i++) {
+      // a quarter of the queries are outside every included directory
+      int team = random.nextInt(TEAMS * 4 / 3);
+      String base = team < TEAMS ? teamPath(team) : "javatests/com/google/other" + team;
+      String suffix = QUERY_SUFFIXES.get(random.nextInt(QUERY_SUFFIXES.size()));
+      queries.add(f.apply(new WorkspacePath(base + suffix)));
+    }
+    return queries;
+  }
+
+  private static <T> void assertSameResults(
+      List<T> queries, Predicate<T> compiled, Predicate<T> linear) {
+    int matches = 0;
+    for (T query : queries) {
+      boolean result = compiled.test(query);
+      assertThat(result).isEqualTo(linear.test(query));
+      matches += result ? 1 : 0;
+    }
+    // the workload should exercise both outcomes
+    assertThat(matches).isGreaterThan(0);
+    assertThat(matches).isLessThan(queries.size());
+  }
+
+  /** Returns the mean time in nanoseconds per query, after a warm-up run. */
+  private static <T> long time(List<T> queries, Predicate<T> predicate) {
+    long nanos = 0;
+    int matches = 0;
+    for (int i = 0; i <= ITERATIONS; i++) {
+      Stopwatch stopwatch = Stopwatch.createStarted();
+      for (T query : queries) {
+        matches += predicate.test(query) ? 1 : 0;
+      }
+      if (i > 0) {
+        nanos += stopwatch.elapsed(TimeUnit.NANOSECONDS);
+      }
+    }
+    // use the result, so the queries can't be optimized away
+    assertThat(matches).isAtLeast(0);
+    return nanos / ((long) ITERATIONS * queries.size());
+  }
+
+  private void report(String method, long linearNanos, long compiledNanos) {
+    System.out.printf(
+        "%s over %d directories, %d excludes and %d targets, %d queries:%n"
+            + "  linear scan: %d ns per query%n"
+            + "  path trie:   %d ns per query%n",
+        method,
+        rootDirectories.size(),
+        excludeDirectories.size(),
+        targets.size(),
+        QUERIES,
+        linearNanos,
+        compiledNanos);
+  }
+
+  /** The directory inclusion check as it was before it was compiled into a trie. */
+  private static final class LinearProjectDirectories {
+    private final ImmutableList<WorkspacePath> rootDirectories;
+    private final ImmutableList<WorkspacePath> excludeDirectories;
+
+    LinearProjectDirectories(
+        List<WorkspacePath> rootDirectories, List<WorkspacePath> excludeDirectories) {
+      this.rootDirectories = ImmutableList.copyOf(rootDirectories);
+      this.excludeDirectories = ImmutableList.copyOf(excludeDirectories);
+    }
+
+    boolean containsWorkspacePath(WorkspacePath workspacePath) {
+      boolean included = false;
+      boolean excluded = false;
+      for (WorkspacePath rootDirectory : rootDirectories) {
+        included = included || isSubdirectory(rootDirectory, workspacePath);
+      }
+      for (WorkspacePath excludeDirectory : excludeDirectories) {
+        excluded = excluded || isSubdirectory(excludeDirectory, workspacePath);
+      }
+      return included && !excluded;
+    }
+
+    private static boolean isSubdirectory(WorkspacePath ancestor, WorkspacePath descendant) {
+      if (ancestor.isWorkspaceRoot()) {
+        return true;
+      }
+      Path ancestorPath = FileSystems.getDefault().getPath(ancestor.relativePath());
+      Path descendantPath = FileSystems.getDefault().getPath(descendant.relativePath());
+      return descendantPath.startsWith(ancestorPath);
+    }
+  }
+
+  /** The target coverage check as it was before it was compiled into a trie. */
+  private static final class LinearTargetExpressionList {
+    private final ImmutableList<LinearTarget> reversedTargets;
+
+    LinearTargetExpressionList(List<TargetExpression> targets) {
+      this.reversedTargets =
+          ImmutableList.copyOf(targets).reverse().stream()
+              .map(LinearTarget::new)
+              .collect(toImmutableList());
+    }
+
+    boolean includesTarget(Label label) {
+      // the last target expression to cover this label overrides all previous expressions
+      for (LinearTarget target : reversedTargets) {
+        if (target.coversTarget(label)) {
+          return !target.excluded;
+        }
+      }
+      return false;
+    }
+  }
+
+  private static final class LinearTarget {
+    private final boolean excluded;
+    private final TargetExpression unexcludedExpression;
+    @Nullable private final WildcardTargetPattern wildcardPattern;
+
+    LinearTarget(TargetExpression expression) {
+      this.excluded = expression.isExcluded();
+      this.unexcludedExpression =
+          excluded
+              ? TargetExpression.fromStringSafe(expression.toString().substring(1))
+              : expression;
+      this.wildcardPattern = WildcardTargetPattern.fromExpression(expression);
+    }
+
+    boolean coversTarget(Label label) {
+      return label.equals(unexcludedExpression)
+          || (wildcardPattern != null && wildcardPattern.coversPackage(label.blazePackage()));
+    }
+  }
+}
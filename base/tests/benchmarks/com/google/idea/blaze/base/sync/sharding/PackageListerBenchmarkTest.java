@@ -0,0 +1,195 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.sharding;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.bazel.BazelBuildSystemProvider;
+import com.google.idea.blaze.base.bazel.BuildSystemProvider;
+import com.google.idea.blaze.base.io.FileOperationProvider;
+import com.google.idea.blaze.base.model.primitives.TargetExpression;
+import com.google.idea.blaze.base.model.primitives.WildcardTargetPattern;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.sync.workspace.WorkspacePathResolver;
+import com.google.idea.blaze.base.sync.workspace.WorkspacePathResolverImpl;
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Benchmarks {@link PackageLister} on a synthetic tree of more than 100k directories, against
+ * walking the tree once per pattern as it did before patterns shared a single walk.
+ *
+ * <p>Not part of the default test run. Run with {@code bazel test //base:benchmarks}.
+ */
+@RunWith(JUnit4.class)
+public class PackageListerBenchmarkTest extends BlazeTestCase {
+  private static final int TOP_LEVEL = 50;
+  private static final int SECOND_LEVEL = 50;
+  private static final int LEAVES = 40;
+  private static final int DIRECTORIES =
+      1 + TOP_LEVEL + TOP_LEVEL * SECOND_LEVEL + TOP_LEVEL * SECOND_LEVEL * LEAVES;
+  private static final int ITERATIONS = 3;
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final CountingFileOperationProvider fileOperationProvider =
+      new CountingFileOperationProvider();
+  private final BuildSystemProvider buildSystemProvider = new BazelBuildSystemProvider();
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    applicationServices.register(FileOperationProvider.class, fileOperationProvider);
+  }
+
+  @Test
+  public void overlappingPatterns_sharedWalkVersusWalkPerPattern() throws Exception {
+    createTree();
+    assertThat(DIRECTORIES).isGreaterThan(100_000);
+    List<WildcardTargetPattern> patterns =
+        patterns("//...", "//d0/...", "//d0/d1/...", "//d7/...", "//d8/...", "-//d7/d3/...");
+
+    // warm up the file system cache, so that both implementations see the same conditions
+    walkPerPattern(patterns);
+
+    Duration perPattern = Duration.ZERO;
+    int perPatternListings = 0;
+    Duration shared = Duration.ZERO;
+    int sharedListings = 0;
+    Map<TargetExpression, List<TargetExpression>> expanded = null;
+    for (int i = 0; i < ITERATIONS; i++) {
+      fileOperationProvider.listFilesCalls.set(0);
+      Stopwatch stopwatch = Stopwatch.createStarted();
+      walkPerPattern(patterns);
+      perPattern = perPattern.plus(stopwatch.elapsed());
+      perPatternListings = fileOperationProvider.listFilesCalls.get();
+
+      fileOperationProvider.listFilesCalls.set(0);
+      stopwatch = Stopwatch.createStarted();
+      expanded =
+          PackageLister.expandPackageTargets(
+              buildSystemProvider,
+              BlazeContext.create(),
+              pathResolver(),
+              patterns,
+              ImmutableList.of());
+      shared = shared.plus(stopwatch.elapsed());
+      sharedListings = fileOperationProvider.listFilesCalls.get();
+    }
+
+    System.out.printf(
+        "PackageLister over %d directories, mean of %d runs:%n"
+            + "  walk per pattern: %d ms, %d directory listings%n"
+            + "  shared walk:      %d ms, %d directory listings%n",
+        DIRECTORIES,
+        ITERATIONS,
+        perPattern.dividedBy(ITERATIONS).toMillis(),
+        perPatternListings,
+        shared.dividedBy(ITERATIONS).toMillis(),
+        sharedListings);
+
+    // everything except the excluded d7/d3 subtree is listed, once
+    assertThat(sharedListings).isEqualTo(DIRECTORIES - (1 + LEAVES));
+    assertThat(perPatternListings).isGreaterThan(sharedListings);
+    int packagesPerSubtree = 1 + LEAVES / 4;
+    assertThat(expanded.get(TargetExpression.fromStringSafe("//...")))
+        .hasSize((TOP_LEVEL * SECOND_LEVEL - 1) * packagesPerSubtree);
+    assertThat(expanded.get(TargetExpression.fromStringSafe("//d7/...")))
+        .hasSize((SECOND_LEVEL - 1) * packagesPerSubtree);
+  }
+
+  /** Expands each recursive pattern with a walk of its own, ignoring excludes. */
+  private void walkPerPattern(List<WildcardTargetPattern> patterns) {
+    for (WildcardTargetPattern pattern : patterns) {
+      if (pattern.isRecursive() && !pattern.isExcluded()) {
+        List<TargetExpression> output = new ArrayList<>();
+        walk(pathResolver().resolveToFile(pattern.getBasePackage()), output);
+      }
+    }
+  }
+
+  private void walk(File dir, List<TargetExpression> output) {
+    WorkspacePath path = pathResolver().getWorkspacePath(dir);
+    if (buildSystemProvider.findBuildFileInDirectory(dir) != null) {
+      output.add(TargetExpression.allFromPackageNonRecursive(path));
+    }
+    File[] children = fileOperationProvider.listFiles(dir);
+    if (children == null) {
+      return;
+    }
+    for (File child : children) {
+      if (fileOperationProvider.isDirectory(child)) {
+        walk(child, output);
+      }
+    }
+  }
+
+  /** Creates the tree, with a package in every second-level directory and every fourth leaf. */
+  private void createTree() throws IOException {
+    for (int i = 0; i < TOP_LEVEL; i++) {
+      for (int j = 0; j < SECOND_LEVEL; j++) {
+        File parent = new File(temporaryFolder.getRoot(), String.format("d%d/d%d", i, j));
+        assertThat(parent.mkdirs()).isTrue();
+        assertThat(new File(parent, "BUILD").createNewFile()).isTrue();
+        for (int k = 0; k < LEAVES; k++) {
+          File leaf = new File(parent, "d" + k);
+          assertThat(leaf.mkdir()).isTrue();
+          if (k % 4 == 0) {
+            assertThat(new File(leaf, "BUILD").createNewFile()).isTrue();
+          }
+        }
+      }
+    }
+  }
+
+  private WorkspacePathResolver pathResolver() {
+    return new WorkspacePathResolverImpl(new WorkspaceRoot(temporaryFolder.getRoot()));
+  }
+
+  private static List<WildcardTargetPattern> patterns(String... patterns) {
+    return Arrays.stream(patterns)
+        .map(TargetExpression::fromStringSafe)
+        .map(WildcardTargetPattern::fromExpression)
+        .collect(toImmutableList());
+  }
+
+  private static class CountingFileOperationProvider extends FileOperationProvider {
+    final AtomicInteger listFilesCalls = new AtomicInteger();
+
+    @Override
+    public File[] listFiles(File file) {
+      listFilesCalls.incrementAndGet();
+      return super.listFiles(file);
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.stubs;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.idea.blaze.base.lang.buildfile.BuildFileIntegrationTestCase;
+import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
+import com.google.idea.blaze.base.lang.buildfile.psi.FuncallExpression;
+import com.google.idea.blaze.base.lang.buildfile.psi.FunctionStatement;
+import com.google.idea.blaze.base.lang.buildfile.psi.LoadStatement;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.stubs.StubIndex;
+import com.intellij.psi.stubs.StubIndexKey;
+import java.util.Collection;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for the BUILD file stub indices. */
+@RunWith(JUnit4.class)
+public class BuildStubIndexTest extends BuildFileIntegrationTestCase {
+
+  @Test
+  public void testTopLevelRulesIndexed() {
+    BuildFile file =
+        createBuildFile(
+            new WorkspacePath("java/com/google/BUILD"),
+            "java_library(",
+            "    name = 'lib',",
+            "    deps = [select({'//conditions:default': []})],",
+            ")");
+
+    Collection<FuncallExpression> rules =
+        getElements(BuildRuleNameIndex.KEY, "lib", FuncallExpression.class);
+    assertThat(rules).containsExactly(file.findRule("lib"));
+    assertThat(rules.iterator().next().getFunctionName()).isEqualTo("java_library");
+  }
+
+  @Test
+  public void testOnlyTopLevelFunctionsIndexed() {
+    BuildFile file =
+        createBuildFile(
+            new WorkspacePath("java/com/google/build_defs.bzl"),
+            "def outer(name):",
+            "    def inner():",
+            "        pass");
+
+    assertThat(getElements(BuildFunctionNameIndex.KEY, "outer", FunctionStatement.class))
+        .containsExactly(file.findDeclaredFunction("outer"));
+    assertThat(getElements(BuildFunctionNameIndex.KEY, "inner", FunctionStatement.class))
+        .isEmpty();
+  }
+
+  @Test
+  public void testLoadedSymbolsIndexedIgnoringAliases() {
+    BuildFile file =
+        createBuildFile(
+            new WorkspacePath("java/com/google/BUILD"),
+            "load('//java/com/google:build_defs.bzl', 'function', alias = 'other_function')");
+
+    LoadStatement load = file.firstChildOfClass(LoadStatement.class);
+    assertThat(getElements(BuildLoadedSymbolIndex.KEY, "function", LoadStatement.class))
+        .containsExactly(load);
+    assertThat(getElements(BuildLoadedSymbolIndex.KEY, "other_function", LoadStatement.class))
+        .containsExactly(load);
+    assertThat(getElements(BuildLoadedSymbolIndex.KEY, "alias", LoadStatement.class)).isEmpty();
+  }
+
+  @Test
+  public void testLabelStringsIndexedWithPackageAndWorkspacePrefixes() {
+    BuildFile file =
+        createBuildFile(
+            new WorkspacePath("java/com/google/BUILD"),
+            "java_library(",
+            "    name = 'lib',",
+            "    deps = ['//java/com/google/foo:bar', '@ext//pkg:target', ':local'],",
+            ")");
+
+    assertThat(getElements(BuildLabelStringIndex.KEY, "//java/com/google/foo:bar", BuildFile.class))
+        .containsExactly(file);
+    assertThat(getElements(BuildLabelStringIndex.KEY, "//java/com/google/foo", BuildFile.class))
+        .containsExactly(file);
+    assertThat(getElements(BuildLabelStringIndex.KEY, "@ext//pkg", BuildFile.class))
+        .containsExactly(file);
+    assertThat(getElements(BuildLabelStringIndex.KEY, "@ext", BuildFile.class))
+        .containsExactly(file);
+    assertThat(getElements(BuildLabelStringIndex.KEY, ":local", BuildFile.class)).isEmpty();
+  }
+
+  private <T extends PsiElement> Collection<T> getElements(
+      StubIndexKey<String, T> key, String name, Class<T> psiClass) {
+    return StubIndex.getElements(
+        key, name, getProject(), GlobalSearchScope.allScope(getProject()), psiClass);
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.async;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.idea.blaze.base.async.FutureUtil.FutureResult;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import java.util.concurrent.CancellationException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link FutureUtil}. */
+@RunWith(JUnit4.class)
+public class FutureUtilTest {
+
+  @Test
+  public void run_returnsResult() {
+    BlazeContext context = BlazeContext.create();
+
+    FutureResult<String> result =
+        FutureUtil.waitForFuture(context, Futures.immediateFuture("done")).run();
+
+    assertThat(result.success()).isTrue();
+    assertThat(result.result()).isEqualTo("done");
+  }
+
+  @Test
+  public void run_allowedCancellationIsNotAnError() {
+    BlazeContext context = BlazeContext.create();
+    SettableFuture<String> future = SettableFuture.create();
+    future.cancel(false);
+
+    FutureResult<String> result =
+        FutureUtil.waitForFuture(context, future)
+            .onError("Prefetch failed")
+            .allowCancellation()
+            .run();
+
+    assertThat(result.success()).isFalse();
+    assertThat(result.exception()).isInstanceOf(CancellationException.class);
+    assertThat(context.hasErrors()).isFalse();
+    assertThat(context.isCancelled()).isFalse();
+  }
+}
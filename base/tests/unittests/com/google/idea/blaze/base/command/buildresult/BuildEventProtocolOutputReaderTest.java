@@ -55,10 +55,14 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Predicate;
 import org.junit.Rule;
 import org.junit.Test;
@@ -644,6 +648,69 @@ public class BuildEventProtocolOutputReaderTest extends BlazeTestCase {
         .containsExactly(new File("/usr/local/tmp/_cache/second_result.xml"));
   }
 
+  @Test
+  public void readTargetCompletions_sharedFileSets_reportsEachArtifactOnce() throws Exception {
+    ImmutableList<BuildEvent.Builder> events =
+        ImmutableList.of(
+            configuration("config-id", "k8-opt"),
+            setOfFiles(ImmutableList.of("/usr/out/common.jar"), "common-set"),
+            setOfFiles(ImmutableList.of("/usr/out/a.jar"), "a-set", ImmutableList.of("common-set")),
+            targetComplete(
+                "//some:a",
+                "config-id",
+                ImmutableList.of(outputGroup("jars", ImmutableList.of("a-set")))),
+            setOfFiles(ImmutableList.of("/usr/out/b.jar"), "b-set", ImmutableList.of("common-set")),
+            targetComplete(
+                "//some:b",
+                "config-id",
+                ImmutableList.of(
+                    outputGroup("jars", ImmutableList.of("b-set")),
+                    outputGroup("other", ImmutableList.of("b-set")))));
+
+    Map<String, ImmutableList<File>> completed = new LinkedHashMap<>();
+    TargetCompletionReader.read(
+        BuildEventStreamProvider.fromInputStream(asInputStream(events)),
+        "jars"::equals,
+        (label, outputs) -> {
+          assertThat(outputs.keySet()).containsExactly("jars");
+          completed.put(label, BlazeArtifact.getLocalFiles(outputs.get("jars")));
+        });
+
+    assertThat(completed)
+        .containsExactly(
+            "//some:a",
+            ImmutableList.of(new File("/usr/out/a.jar"), new File("/usr/out/common.jar")),
+            "//some:b",
+            ImmutableList.of(new File("/usr/out/b.jar")))
+        .inOrder();
+  }
+
+  @Test
+  public void openLiveBuildEvents_buildComplete_readsAllEvents() throws Exception {
+    File bepFile = tmpFolder.newFile("build_events");
+    Files.write(
+        bepFile.toPath(),
+        asInputStream(
+                configuration("config-id", "k8-opt"),
+                setOfFiles(ImmutableList.of("/usr/out/a.jar"), "set-id"),
+                targetComplete(
+                    "//some:target",
+                    "config-id",
+                    ImmutableList.of(outputGroup("jars", ImmutableList.of("set-id")))))
+            .readAllBytes());
+
+    List<String> completed = new ArrayList<>();
+    try (InputStream stream =
+        new BuildResultHelperBep(bepFile).openLiveBuildEvents(() -> true).orElseThrow()) {
+      TargetCompletionReader.read(
+          BuildEventStreamProvider.fromInputStream(stream),
+          name -> true,
+          (label, outputs) -> completed.add(label));
+    }
+
+    assertThat(completed).containsExactly("//some:target");
+  }
+
   private static ImmutableList<File> getOutputXmlFiles(BlazeTestResult result) {
     return BlazeArtifact.getLocalFiles(result.getOutputXmlFiles());
   }
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.command.buildresult;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.io.ByteStreams;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link TailingInputStream}. */
+@RunWith(JUnit4.class)
+public class TailingInputStreamTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+  private final AtomicBoolean writerFinished = new AtomicBoolean();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void finishedWriter_readsWholeFile() throws Exception {
+    File file = temporaryFolder.newFile();
+    Files.writeString(file.toPath(), "complete");
+    writerFinished.set(true);
+
+    try (InputStream stream = new TailingInputStream(file, writerFinished::get)) {
+      assertThat(new String(ByteStreams.toByteArray(stream), UTF_8)).isEqualTo("complete");
+    }
+  }
+
+  @Test
+  public void finishedWriter_missingFile_isEmpty() throws Exception {
+    File file = new File(temporaryFolder.getRoot(), "missing");
+    writerFinished.set(true);
+
+    try (InputStream stream = new TailingInputStream(file, writerFinished::get)) {
+      assertThat(stream.read()).isEqualTo(-1);
+    }
+  }
+
+  @Test
+  public void readAtEndOfFile_waitsForAppendedData() throws Exception {
+    File file = temporaryFolder.newFile();
+    Files.writeString(file.toPath(), "first");
+    CountDownLatch firstPartRead = new CountDownLatch(1);
+
+    Future<String> contents =
+        executor.submit(
+            () -> {
+              try (InputStream stream = new TailingInputStream(file, writerFinished::get)) {
+                byte[] first = new byte["first".length()];
+                ByteStreams.readFully(stream, first);
+                firstPartRead.countDown();
+                return new String(first, UTF_8)
+                    + new String(ByteStreams.toByteArray(stream), UTF_8);
+              }
+            });
+
+    assertThat(firstPartRead.await(10, TimeUnit.SECONDS)).isTrue();
+    Files.writeString(file.toPath(), ",second", StandardOpenOption.APPEND);
+    writerFinished.set(true);
+
+    assertThat(contents.get(10, TimeUnit.SECONDS)).isEqualTo("first,second");
+  }
+
+  @Test
+  public void fileCreatedAfterOpening_isRead() throws Exception {
+    File file = new File(temporaryFolder.getRoot(), "later");
+
+    Future<String> contents =
+        executor.submit(
+            () -> {
+              try (InputStream stream = new TailingInputStream(file, writerFinished::get)) {
+                return new String(ByteStreams.toByteArray(stream), UTF_8);
+              }
+            });
+
+    Files.writeString(file.toPath(), "created");
+    writerFinished.set(true);
+
+    assertThat(contents.get(10, TimeUnit.SECONDS)).isEqualTo("created");
+  }
+
+  @Test
+  public void interruptedWhileWaiting_throws() throws Exception {
+    File file = temporaryFolder.newFile();
+
+    try (InputStream stream = new TailingInputStream(file, writerFinished::get)) {
+      Thread.currentThread().interrupt();
+      assertThrows(InterruptedIOException.class, stream::read);
+      assertThat(Thread.interrupted()).isTrue();
+    }
+  }
+
+  @Test
+  public void emptyRead_returnsImmediately() throws IOException {
+    File file = new File(temporaryFolder.getRoot(), "missing");
+
+    try (InputStream stream = new TailingInputStream(file, writerFinished::get)) {
+      assertThat(stream.read(new byte[0], 0, 0)).isEqualTo(0);
+    }
+  }
+}
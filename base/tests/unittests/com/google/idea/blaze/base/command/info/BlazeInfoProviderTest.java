@@ -0,0 +1,286 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.command.info;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.async.executor.BlazeExecutor;
+import com.google.idea.blaze.base.async.executor.MockBlazeExecutor;
+import com.google.idea.blaze.base.bazel.BuildSystem.BuildInvoker;
+import com.google.idea.blaze.base.bazel.FakeBuildInvoker;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.scope.OutputSink.Propagation;
+import com.google.idea.blaze.base.scope.output.IssueOutput;
+import com.google.idea.blaze.base.settings.BlazeImportSettingsManager;
+import com.google.idea.blaze.base.settings.BuildSystemName;
+import com.google.idea.blaze.base.sync.SyncMode;
+import com.google.idea.blaze.common.PrintOutput;
+import com.google.idea.common.experiments.ExperimentService;
+import com.google.idea.common.experiments.MockExperimentService;
+import com.intellij.openapi.project.Project;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link BlazeInfoProvider} */
+@RunWith(JUnit4.class)
+public class BlazeInfoProviderTest extends BlazeTestCase {
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private static final BlazeInfo BLAZE_INFO =
+      BlazeInfo.createMockBlazeInfo(
+          "/output_base",
+          "/output_base/execroot",
+          "/output_base/execroot/bin",
+          "/output_base/execroot/genfiles",
+          "/output_base/execroot/testlogs");
+
+  private final BuildInvoker invoker = FakeBuildInvoker.builder().binaryPath("/bin/blaze").build();
+  private FakeBlazeInfoRunner runner;
+  private BlazeInfoProvider provider;
+
+  @Override
+  protected void initTest(
+      @NotNull Container applicationServices, @NotNull Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    applicationServices.register(ExperimentService.class, new MockExperimentService());
+    applicationServices.register(BlazeExecutor.class, new MockBlazeExecutor());
+    runner = new FakeBlazeInfoRunner();
+    applicationServices.register(BlazeInfoRunner.class, runner);
+    projectServices.register(
+        BlazeImportSettingsManager.class, new BlazeImportSettingsManager(project));
+    provider = new BlazeInfoProvider(project);
+  }
+
+  @Test
+  public void concurrentRequests_shareOneInvocation() throws Exception {
+    ListenableFuture<BlazeInfo> first = getBlazeInfo("--flag");
+    ListenableFuture<BlazeInfo> second = getBlazeInfo("--flag");
+
+    assertThat(runner.invocations).hasSize(1);
+    runner.invocations.get(0).set(BLAZE_INFO);
+    assertThat(first.get()).isSameInstanceAs(BLAZE_INFO);
+    assertThat(second.get()).isSameInstanceAs(BLAZE_INFO);
+  }
+
+  @Test
+  public void requestsWithDifferentFlags_runSeparately() {
+    ListenableFuture<BlazeInfo> unused = getBlazeInfo("--flag");
+    unused = getBlazeInfo("--other_flag");
+
+    assertThat(runner.invocations).hasSize(2);
+  }
+
+  @Test
+  public void completedResult_reusedUntilNextSync() throws Exception {
+    ListenableFuture<BlazeInfo> unused = getBlazeInfo("--flag");
+    runner.invocations.get(0).set(BLAZE_INFO);
+
+    assertThat(getBlazeInfo("--flag").get()).isSameInstanceAs(BLAZE_INFO);
+    assertThat(runner.invocations).hasSize(1);
+
+    provider.onSyncStart(SyncMode.INCREMENTAL);
+    unused = getBlazeInfo("--flag");
+    assertThat(runner.invocations).hasSize(2);
+  }
+
+  @Test
+  public void failedResult_isDropped() {
+    ListenableFuture<BlazeInfo> failed = getBlazeInfo("--flag");
+    runner.invocations.get(0).setException(new BlazeInfoException("failed"));
+    assertThat(failed.isDone()).isTrue();
+
+    ListenableFuture<BlazeInfo> unused = getBlazeInfo("--flag");
+    assertThat(runner.invocations).hasSize(2);
+  }
+
+  @Test
+  public void cancellingOneCaller_doesNotAffectOthers() throws Exception {
+    ListenableFuture<BlazeInfo> cancelled = getBlazeInfo("--flag");
+    ListenableFuture<BlazeInfo> other = getBlazeInfo("--flag");
+
+    cancelled.cancel(true);
+    assertThat(runner.invocations.get(0).isCancelled()).isFalse();
+    assertThat(runner.contexts.get(0).isCancelled()).isFalse();
+    runner.invocations.get(0).set(BLAZE_INFO);
+    assertThat(other.get()).isSameInstanceAs(BLAZE_INFO);
+  }
+
+  @Test
+  public void cancellingAllCallers_cancelsInvocation() {
+    ListenableFuture<BlazeInfo> first = getBlazeInfo("--flag");
+    ListenableFuture<BlazeInfo> second = getBlazeInfo("--flag");
+
+    first.cancel(true);
+    assertThat(runner.invocations.get(0).isCancelled()).isFalse();
+    second.cancel(true);
+    assertThat(runner.invocations.get(0).isCancelled()).isTrue();
+    assertThat(runner.contexts.get(0).isCancelled()).isTrue();
+
+    ListenableFuture<BlazeInfo> unused = getBlazeInfo("--flag");
+    assertThat(runner.invocations).hasSize(2);
+  }
+
+  @Test
+  public void cancellingCallerContext_cancelsItsFuture() {
+    BlazeContext context = BlazeContext.create();
+    ListenableFuture<BlazeInfo> future =
+        provider.getBlazeInfo(invoker, context, ImmutableList.of("--flag"));
+
+    context.setCancelled();
+
+    assertThat(future.isCancelled()).isTrue();
+    assertThat(runner.invocations.get(0).isCancelled()).isTrue();
+  }
+
+  @Test
+  public void sharedOutput_forwardedToEveryCaller() {
+    List<String> firstOutput = new ArrayList<>();
+    List<String> secondOutput = new ArrayList<>();
+    BlazeContext first = collectingContext(firstOutput);
+    BlazeContext second = collectingContext(secondOutput);
+
+    ListenableFuture<BlazeInfo> unused =
+        provider.getBlazeInfo(invoker, first, ImmutableList.of("--flag"));
+    runner.contexts.get(0).output(PrintOutput.output("before"));
+    unused = provider.getBlazeInfo(invoker, second, ImmutableList.of("--flag"));
+    runner.contexts.get(0).output(PrintOutput.output("after"));
+
+    assertThat(firstOutput).containsExactly("before", "after").inOrder();
+    assertThat(secondOutput).containsExactly("before", "after").inOrder();
+  }
+
+  @Test
+  public void sharedErrors_reportedToEveryCaller() {
+    BlazeContext first = BlazeContext.create();
+    BlazeContext second = BlazeContext.create();
+
+    ListenableFuture<BlazeInfo> unused =
+        provider.getBlazeInfo(invoker, first, ImmutableList.of("--flag"));
+    unused = provider.getBlazeInfo(invoker, second, ImmutableList.of("--flag"));
+    IssueOutput.error("bad flag").submit(runner.contexts.get(0));
+
+    assertThat(first.hasErrors()).isTrue();
+    assertThat(second.hasErrors()).isTrue();
+  }
+
+  @Test
+  public void sharedInvocation_runsInItsOwnContext() {
+    BlazeContext context = BlazeContext.create();
+    ListenableFuture<BlazeInfo> unused =
+        provider.getBlazeInfo(invoker, context, ImmutableList.of("--flag"));
+
+    assertThat(runner.contexts.get(0)).isNotSameInstanceAs(context);
+  }
+
+  @Test
+  public void persistedBuildLanguage_roundTrip() throws IOException {
+    Path file = temporaryFolder.getRoot().toPath().resolve("build_language.gz");
+    byte[] bytes = "build language".getBytes(UTF_8);
+
+    BlazeInfoProvider.writeBuildLanguage(file, "key", bytes);
+
+    assertThat(BlazeInfoProvider.readBuildLanguage(file, "key")).isEqualTo(bytes);
+  }
+
+  @Test
+  public void persistedBuildLanguage_keyMismatch_isIgnored() throws IOException {
+    Path file = temporaryFolder.getRoot().toPath().resolve("build_language.gz");
+    BlazeInfoProvider.writeBuildLanguage(file, "key", "build language".getBytes(UTF_8));
+
+    assertThat(BlazeInfoProvider.readBuildLanguage(file, "other_key")).isNull();
+  }
+
+  @Test
+  public void persistedBuildLanguage_corruptFile_isIgnored() throws IOException {
+    Path file = temporaryFolder.getRoot().toPath().resolve("build_language.gz");
+    Files.write(file, "not gzipped".getBytes(UTF_8));
+
+    assertThat(BlazeInfoProvider.readBuildLanguage(file, "key")).isNull();
+  }
+
+  @Test
+  public void persistedBuildLanguage_missingFile_isIgnored() {
+    Path file = temporaryFolder.getRoot().toPath().resolve("build_language.gz");
+
+    assertThat(BlazeInfoProvider.readBuildLanguage(file, "key")).isNull();
+  }
+
+  private static BlazeContext collectingContext(List<String> output) {
+    return BlazeContext.create()
+        .addOutputSink(
+            PrintOutput.class,
+            o -> {
+              output.add(o.getText());
+              return Propagation.Stop;
+            });
+  }
+
+  private ListenableFuture<BlazeInfo> getBlazeInfo(String flag) {
+    return provider.getBlazeInfo(invoker, BlazeContext.create(), ImmutableList.of(flag));
+  }
+
+  private static class FakeBlazeInfoRunner extends BlazeInfoRunner {
+    private final List<SettableFuture<BlazeInfo>> invocations = new ArrayList<>();
+    private final List<BlazeContext> contexts = new ArrayList<>();
+
+    @Override
+    public ListenableFuture<String> runBlazeInfo(
+        Project project,
+        BuildInvoker invoker,
+        BlazeContext context,
+        List<String> blazeFlags,
+        String key) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ListenableFuture<byte[]> runBlazeInfoGetBytes(
+        Project project,
+        BuildInvoker invoker,
+        BlazeContext context,
+        List<String> blazeFlags,
+        String key) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ListenableFuture<BlazeInfo> runBlazeInfo(
+        Project project,
+        BuildInvoker invoker,
+        BlazeContext context,
+        BuildSystemName buildSystemName,
+        List<String> blazeFlags) {
+      SettableFuture<BlazeInfo> future = SettableFuture.create();
+      invocations.add(future);
+      contexts.add(context);
+      return future;
+    }
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.prefetch;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.idea.blaze.base.prefetch.FetchExecutor.Priority;
+import com.google.idea.blaze.base.prefetch.FetchExecutor.PriorityExecutor;
+import com.google.idea.blaze.base.prefetch.FetchExecutor.QueueStats;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link FetchExecutor}. */
+@RunWith(JUnit4.class)
+public class FetchExecutorTest {
+
+  private final PriorityExecutor executor =
+      new PriorityExecutor(Priority.BACKGROUND_PREFETCH, 1, /* virtualThreadFactory= */ null);
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void stats_reportQueueDepthAndStartedTasks() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ListenableFuture<?> running =
+        executor.listeningExecutor.submit(
+            () -> {
+              started.countDown();
+              release.await();
+              return null;
+            });
+    ListenableFuture<?> queued = executor.listeningExecutor.submit(() -> {});
+    started.await();
+
+    QueueStats stats = executor.stats();
+    assertThat(stats.priority()).isEqualTo(Priority.BACKGROUND_PREFETCH);
+    assertThat(stats.queueDepth()).isEqualTo(1);
+    assertThat(stats.activeTasks()).isEqualTo(1);
+    assertThat(stats.startedTasks()).isEqualTo(1);
+
+    release.countDown();
+    running.get(10, TimeUnit.SECONDS);
+    queued.get(10, TimeUnit.SECONDS);
+
+    stats = executor.stats();
+    assertThat(stats.queueDepth()).isEqualTo(0);
+    assertThat(stats.startedTasks()).isEqualTo(2);
+  }
+}
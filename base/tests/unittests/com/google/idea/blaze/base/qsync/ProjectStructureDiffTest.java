@@ -0,0 +1,180 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.qsync;
+
+import static com.google.common.collect.Iterables.getOnlyElement;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.idea.blaze.base.qsync.ProjectStructureDiff.ContentEntryDiff;
+import com.google.idea.blaze.base.qsync.ProjectStructureDiff.ModuleDiff;
+import com.google.idea.blaze.qsync.project.ProjectProto;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ProjectStructureDiffTest {
+
+  private static final ProjectProto.SourceFolder JAVA_SOURCES =
+      ProjectProto.SourceFolder.newBuilder().setPath("java").build();
+  private static final ProjectProto.SourceFolder JAVA_TESTS =
+      ProjectProto.SourceFolder.newBuilder().setPath("javatests").setIsTest(true).build();
+
+  private static final ProjectProto.ContentEntry WORKSPACE_ENTRY =
+      ProjectProto.ContentEntry.newBuilder()
+          .setRoot(contentRoot("project"))
+          .addSources(JAVA_SOURCES)
+          .addSources(JAVA_TESTS)
+          .addExcludes("project/out")
+          .build();
+
+  private static final ProjectProto.Library GUAVA =
+      ProjectProto.Library.newBuilder()
+          .setName("guava")
+          .addClassesJar(ProjectProto.JarDirectory.newBuilder().setPath("libs/guava"))
+          .build();
+
+  private static final ProjectProto.Project PROJECT =
+      ProjectProto.Project.newBuilder()
+          .addLibrary(GUAVA)
+          .addModules(
+              ProjectProto.Module.newBuilder()
+                  .setName(".workspace")
+                  .addContentEntries(WORKSPACE_ENTRY)
+                  .addLibraryName("guava"))
+          .build();
+
+  @Test
+  public void noPreviousProject_fullUpdate() {
+    ProjectStructureDiff diff = ProjectStructureDiff.create(null, PROJECT);
+
+    assertThat(diff.fullUpdate).isTrue();
+    assertThat(diff.isEmpty()).isFalse();
+    assertThat(diff.updatedLibraries).containsExactly(GUAVA);
+    ModuleDiff module = getOnlyElement(diff.updatedModules);
+    assertThat(module.rebuildContentEntries).isTrue();
+    assertThat(module.librariesChanged).isTrue();
+    assertThat(module.addedContentEntries).containsExactly(WORKSPACE_ENTRY);
+  }
+
+  @Test
+  public void unchangedProject_empty() {
+    ProjectStructureDiff diff =
+        ProjectStructureDiff.create(PROJECT, PROJECT.toBuilder().build());
+
+    assertThat(diff.isEmpty()).isTrue();
+  }
+
+  @Test
+  public void libraryChanged_moduleUnchanged() {
+    ProjectProto.Library newGuava =
+        GUAVA.toBuilder()
+            .addClassesJar(ProjectProto.JarDirectory.newBuilder().setPath("libs/guava2"))
+            .build();
+    ProjectProto.Library junit = ProjectProto.Library.newBuilder().setName("junit").build();
+    ProjectProto.Project next =
+        PROJECT.toBuilder().clearLibrary().addLibrary(newGuava).addLibrary(junit).build();
+
+    ProjectStructureDiff diff = ProjectStructureDiff.create(PROJECT, next);
+
+    assertThat(diff.fullUpdate).isFalse();
+    assertThat(diff.updatedLibraries).containsExactly(newGuava, junit);
+    assertThat(diff.removedLibraries).isEmpty();
+    assertThat(diff.updatedModules).isEmpty();
+  }
+
+  @Test
+  public void libraryRemoved() {
+    ProjectProto.Project next =
+        PROJECT.toBuilder()
+            .clearLibrary()
+            .setModules(0, PROJECT.getModules(0).toBuilder().clearLibraryName())
+            .build();
+
+    ProjectStructureDiff diff = ProjectStructureDiff.create(PROJECT, next);
+
+    assertThat(diff.removedLibraries).containsExactly("guava");
+    ModuleDiff module = getOnlyElement(diff.updatedModules);
+    assertThat(module.librariesChanged).isTrue();
+    assertThat(module.rebuildContentEntries).isFalse();
+    assertThat(module.addedContentEntries).isEmpty();
+    assertThat(module.removedContentEntries).isEmpty();
+    assertThat(module.updatedContentEntries).isEmpty();
+  }
+
+  @Test
+  public void sourceFoldersChanged_onlyChangedFoldersUpdated() {
+    ProjectProto.SourceFolder generated =
+        ProjectProto.SourceFolder.newBuilder().setPath("gen").setIsGenerated(true).build();
+    ProjectProto.SourceFolder javaWithPrefix =
+        JAVA_SOURCES.toBuilder().setPackagePrefix("com.example").build();
+    ProjectProto.ContentEntry newEntry =
+        WORKSPACE_ENTRY.toBuilder()
+            .clearSources()
+            .addSources(javaWithPrefix)
+            .addSources(JAVA_TESTS)
+            .addSources(generated)
+            .clearExcludes()
+            .addExcludes("project/build")
+            .build();
+    ProjectProto.Project next =
+        PROJECT.toBuilder()
+            .setModules(
+                0,
+                PROJECT.getModules(0).toBuilder().clearContentEntries().addContentEntries(newEntry))
+            .build();
+
+    ProjectStructureDiff diff = ProjectStructureDiff.create(PROJECT, next);
+
+    ModuleDiff module = getOnlyElement(diff.updatedModules);
+    assertThat(module.librariesChanged).isFalse();
+    assertThat(module.addedContentEntries).isEmpty();
+    assertThat(module.removedContentEntries).isEmpty();
+    ContentEntryDiff entry = getOnlyElement(module.updatedContentEntries);
+    assertThat(entry.removedSourceFolders).containsExactly(JAVA_SOURCES);
+    assertThat(entry.addedSourceFolders).containsExactly(javaWithPrefix, generated);
+    assertThat(entry.removedExcludes).containsExactly("project/out");
+    assertThat(entry.addedExcludes).containsExactly("project/build");
+  }
+
+  @Test
+  public void contentEntryReplaced() {
+    ProjectProto.ContentEntry otherEntry =
+        ProjectProto.ContentEntry.newBuilder().setRoot(contentRoot("other")).build();
+    ProjectProto.Project next =
+        PROJECT.toBuilder()
+            .setModules(
+                0,
+                PROJECT.getModules(0).toBuilder()
+                    .clearContentEntries()
+                    .addContentEntries(otherEntry))
+            .build();
+
+    ProjectStructureDiff diff = ProjectStructureDiff.create(PROJECT, next);
+
+    ModuleDiff module = getOnlyElement(diff.updatedModules);
+    assertThat(module.removedContentEntries).containsExactly(WORKSPACE_ENTRY);
+    assertThat(module.addedContentEntries).containsExactly(otherEntry);
+    assertThat(module.updatedContentEntries).isEmpty();
+  }
+
+  private static ProjectProto.ContentRoot contentRoot(String path) {
+    return ProjectProto.ContentRoot.newBuilder()
+        .setBase(ProjectProto.ContentRoot.Base.WORKSPACE)
+        .setPath(path)
+        .build();
+  }
+}
@@ -22,6 +22,7 @@ import com.google.idea.blaze.base.BlazeTestCase;
 import com.google.idea.blaze.base.dependencies.TargetInfo;
 import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
 import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.ideinfo.TargetMap;
 import com.google.idea.blaze.base.ideinfo.TargetMapBuilder;
 import com.google.idea.blaze.base.model.BlazeProjectData;
@@ -40,7 +41,9 @@ import com.google.idea.common.experiments.MockExperimentService;
 import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
 import java.io.File;
 import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 import org.jetbrains.annotations.NotNull;
@@ -263,6 +266,139 @@ public class TestMapTest extends BlazeTestCase {
         .containsExactly(Label.create("//test:test"));
   }
 
+  @Test
+  public void testDiamondDependenciesOrderedByShortestPath() throws Exception {
+    mockBlazeProjectDataManager.targetMap =
+        TargetMapBuilder.builder()
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//test:lib")
+                    .setKind("sh_library")
+                    .addSource(sourceRoot("test/Test.java")))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//test:lib2")
+                    .setKind("sh_library")
+                    .addDependency("//test:lib"))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//test:lib3")
+                    .setKind("sh_library")
+                    .addDependency("//test:lib2"))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//test:test2")
+                    .setKind("sh_test")
+                    .addDependency("//test:lib3"))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//test:test")
+                    .setKind("sh_test")
+                    .addDependency("//test:lib3")
+                    .addDependency("//test:lib"))
+            .build();
+
+    Collection<TargetInfo> targets =
+        SourceToTargetFinder.findTargetsForSourceFile(
+            project, new File("/test/Test.java"), Optional.of(RuleType.TEST));
+
+    assertThat(targets.stream().map(t -> t.label).collect(Collectors.toList()))
+        .containsExactly(Label.create("//test:test"), Label.create("//test:test2"))
+        .inOrder();
+  }
+
+  @Test
+  public void testDependencyCycle() throws Exception {
+    mockBlazeProjectDataManager.targetMap =
+        TargetMapBuilder.builder()
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//test:lib")
+                    .setKind("sh_library")
+                    .addSource(sourceRoot("test/Test.java"))
+                    .addDependency("//test:lib2"))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//test:lib2")
+                    .setKind("sh_library")
+                    .addDependency("//test:lib"))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//test:test")
+                    .setKind("sh_test")
+                    .addDependency("//test:lib2"))
+            .build();
+
+    Collection<TargetInfo> targets =
+        SourceToTargetFinder.findTargetsForSourceFile(
+            project, new File("/test/Test.java"), Optional.of(RuleType.TEST));
+
+    assertThat(targets.stream().map(t -> t.label).collect(Collectors.toList()))
+        .containsExactly(Label.create("//test:test"));
+  }
+
+  @Test
+  public void testTargetsOverIndexBudgetFoundByWalkingReverseDeps() throws Exception {
+    TargetMap targetMap =
+        TargetMapBuilder.builder()
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//test:lib")
+                    .setKind("sh_library")
+                    .addSource(sourceRoot("test/Test.java")))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//test:lib2")
+                    .setKind("sh_library")
+                    .addDependency("//test:lib"))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//test:test2")
+                    .setKind("sh_test")
+                    .addDependency("//test:lib2"))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setBuildFile(sourceRoot("test/BUILD"))
+                    .setLabel("//test:test")
+                    .setKind("sh_test")
+                    .addDependency("//test:lib"))
+            .build();
+    BlazeProjectData projectData =
+        MockBlazeProjectDataBuilder.builder().setTargetMap(targetMap).build();
+    Predicate<TargetIdeInfo> isTest = t -> t.getKind().getRuleType() == RuleType.TEST;
+
+    FilteredTargetMap indexed =
+        new FilteredTargetMap(projectData.getArtifactLocationDecoder(), targetMap, isTest);
+    FilteredTargetMap unindexed =
+        new FilteredTargetMap(projectData.getArtifactLocationDecoder(), targetMap, isTest, 0);
+
+    TargetKey lib = TargetKey.forPlainTarget(Label.create("//test:lib"));
+    assertThat(indexed.isIndexed(lib)).isTrue();
+    assertThat(unindexed.isIndexed(lib)).isFalse();
+    File source = new File("/test/Test.java");
+    assertThat(labels(unindexed.targetsForSourceFile(source)))
+        .containsExactly(Label.create("//test:test"), Label.create("//test:test2"))
+        .inOrder();
+    assertThat(labels(unindexed.targetsForSourceFile(source)))
+        .containsExactlyElementsIn(labels(indexed.targetsForSourceFile(source)))
+        .inOrder();
+  }
+
+  private static List<Label> labels(Collection<TargetIdeInfo> targets) {
+    return targets.stream().map(t -> t.getKey().getLabel()).collect(Collectors.toList());
+  }
+
   private ArtifactLocation sourceRoot(String relativePath) {
     return ArtifactLocation.builder().setRelativePath(relativePath).setIsSource(true).build();
   }
@@ -0,0 +1,403 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.projectstructure;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ListMultimap;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.google.idea.blaze.base.projectview.section.Glob;
+import com.google.idea.blaze.base.sync.SourceFolderProvider;
+import com.google.idea.blaze.base.sync.projectview.SourceTestConfig;
+import com.intellij.openapi.roots.ContentEntry;
+import com.intellij.openapi.roots.SourceFolder;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link ContentEntryEditor} and {@link ContentEntryLayout}. */
+@RunWith(JUnit4.class)
+public class ContentEntryEditorTest {
+  @Rule
+  public final BlazeTestCase.IgnoreOnWindowsRule rule = new BlazeTestCase.IgnoreOnWindowsRule();
+
+  private static final ImmutableList<String> SEGMENTS =
+      ImmutableList.of("java", "javatests", "test", "tests", "com");
+
+  /** Matches globs with a single trailing wildcard, as produced for test sources. */
+  private static final BiPredicate<Glob, String> PREFIX_GLOB_MATCHER =
+      (glob, path) -> path.startsWith(glob.toString().substring(0, glob.toString().length() - 1));
+
+  private final WorkspaceRoot workspaceRoot = new WorkspaceRoot(new File("/root"));
+  private final List<String> operations = new ArrayList<>();
+  private final SourceFolderProvider provider =
+      new SourceFolderProvider() {
+        @Override
+        public ImmutableMap<File, SourceFolder> initializeSourceFolders(ContentEntry entry) {
+          throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SourceFolder setSourceFolderForLocation(
+            ContentEntry entry, SourceFolder parentFolder, File file, boolean isTestSource) {
+          String path = workspaceRoot.workspacePathFor(file).relativePath();
+          operations.add(String.format("set %s test=%s from %s", path, isTestSource, parentFolder));
+          return sourceFolder("created:" + path, isTestSource);
+        }
+      };
+  private ContentEntry contentEntry;
+
+  @Before
+  public void setUp() {
+    contentEntry = mock(ContentEntry.class);
+    doAnswer(
+            invocation -> {
+              operations.add("remove " + invocation.getArgument(0));
+              return null;
+            })
+        .when(contentEntry)
+        .removeSourceFolder(any());
+  }
+
+  @Test
+  public void testUpdateSourceFolders_matchesDirectoryWalk() {
+    DirectoryStructure structure =
+        rootStructure(
+            ImmutableList.of(""),
+            "java/com/foo",
+            "java/com/foo/test",
+            "javatests/com/foo",
+            "javatests/com/bar");
+    ImmutableMap<File, SourceFolder> sourceFolders =
+        ImmutableMap.of(
+            file(""), sourceFolder("initial:", false),
+            file("java/com/foo"), sourceFolder("initial:java/com/foo", false),
+            file("javatests/com"), sourceFolder("initial:javatests/com", false));
+
+    assertMatchesDirectoryWalk(
+        config(PREFIX_GLOB_MATCHER, "javatests/*", "java/com/foo/test"),
+        structure,
+        ImmutableList.of(new WorkspacePath("")),
+        ImmutableList.of(),
+        sourceFolders);
+    assertThat(operations)
+        .containsExactly(
+            "set java/com/foo/test test=true from initial:java/com/foo",
+            "set javatests test=true from initial:",
+            "set javatests/com test=true from initial:javatests/com",
+            "remove initial:javatests/com");
+  }
+
+  @Test
+  public void testUpdateSourceFolders_skipsExcludedDirectories() {
+    DirectoryStructure structure =
+        rootStructure(ImmutableList.of(""), "java/com", "javatests/com", "javatests/excluded/com");
+    ImmutableMap<File, SourceFolder> sourceFolders =
+        ImmutableMap.of(
+            file(""), sourceFolder("initial:", false),
+            file("javatests/excluded/com"), sourceFolder("initial:excluded", false));
+
+    assertMatchesDirectoryWalk(
+        config(PREFIX_GLOB_MATCHER, "javatests/*"),
+        structure,
+        ImmutableList.of(new WorkspacePath("")),
+        ImmutableList.of(new WorkspacePath("javatests/excluded")),
+        sourceFolders);
+    assertThat(operations).containsExactly("set javatests test=true from initial:");
+  }
+
+  @Test
+  public void testUpdateSourceFolders_matchesDirectoryWalkForRandomTrees() {
+    Random random = new Random(7);
+    for (int i = 0; i < 300; i++) {
+      List<String> directories = new ArrayList<>();
+      for (int j = 0; j < 30; j++) {
+        directories.add(randomPath(random, 1 + random.nextInt(4)));
+      }
+      List<WorkspacePath> rootDirectories =
+          ImmutableList.of(new WorkspacePath("java"), new WorkspacePath("javatests"));
+      DirectoryStructure structure =
+          rootStructure(
+              rootDirectories,
+              directories.stream()
+                  .filter(path -> path.startsWith("java/") || path.startsWith("javatests/"))
+                  .toArray(String[]::new));
+      List<WorkspacePath> excludes = new ArrayList<>();
+      ImmutableMap.Builder<File, SourceFolder> sourceFolders = ImmutableMap.builder();
+      Set<File> sourceFolderFiles = new HashSet<>();
+      for (String directory : directories) {
+        int choice = random.nextInt(10);
+        if (choice == 0) {
+          excludes.add(new WorkspacePath(directory));
+        } else if (choice < 4 && sourceFolderFiles.add(file(directory))) {
+          boolean isTest = random.nextBoolean();
+          sourceFolders.put(file(directory), sourceFolder("initial:" + directory, isTest));
+        }
+      }
+      for (WorkspacePath root : rootDirectories) {
+        if (sourceFolderFiles.add(file(root.relativePath()))) {
+          sourceFolders.put(
+              file(root.relativePath()), sourceFolder("initial:" + root, random.nextBoolean()));
+        }
+      }
+      String[] globs = new String[1 + random.nextInt(3)];
+      for (int j = 0; j < globs.length; j++) {
+        globs[j] = randomPath(random, 1 + random.nextInt(3));
+      }
+
+      assertMatchesDirectoryWalk(
+          config(PREFIX_GLOB_MATCHER, globs),
+          structure,
+          rootDirectories,
+          excludes,
+          sourceFolders.build());
+    }
+  }
+
+  @Test
+  public void testCreateLayout_onlyMatchesDirectoriesWhoseClassificationCanChange() {
+    List<String> directories = new ArrayList<>();
+    addSyntheticTree("java", 10, 4, directories);
+    addSyntheticTree("javatests", 10, 4, directories);
+    DirectoryStructure structure =
+        rootStructure(ImmutableList.of(""), directories.toArray(new String[0]));
+    AtomicInteger matches = new AtomicInteger();
+    SourceTestConfig testConfig =
+        config(
+            (glob, path) -> {
+              matches.incrementAndGet();
+              return PREFIX_GLOB_MATCHER.test(glob, path);
+            },
+            "javatests/*");
+
+    ContentEntryLayout layout =
+        ContentEntryLayout.create(
+            workspaceRoot,
+            ImmutableList.of(new WorkspacePath("")),
+            ImmutableList.of(),
+            ImmutableList.of(),
+            testConfig,
+            structure);
+
+    // directories.size() is over 20,000, but only the root, 'java' and 'javatests' are matched
+    assertThat(matches.get()).isEqualTo(3);
+    ContentEntryLayout.Entry entry = layout.entries.get(0);
+    assertThat(entry.testClassificationChanges)
+        .containsExactly(new WorkspacePath(""), false, new WorkspacePath("javatests"), true);
+    assertThat(entry.isTestSource(new WorkspacePath("javatests/d3/d5/d7"))).isTrue();
+    assertThat(entry.isTestSource(new WorkspacePath("java/d3/d5/d7"))).isFalse();
+
+    ContentEntryEditor.updateSourceFolders(
+        workspaceRoot,
+        entry,
+        contentEntry,
+        provider,
+        ImmutableMap.of(file(""), sourceFolder("initial:", false)));
+    assertThat(operations).containsExactly("set javatests test=true from initial:");
+  }
+
+  @Test
+  public void testEntryContains() {
+    DirectoryStructure structure =
+        rootStructure(ImmutableList.of(new WorkspacePath("java")), "java/com/foo", "java/excluded");
+    ContentEntryLayout layout =
+        ContentEntryLayout.create(
+            workspaceRoot,
+            ImmutableList.of(new WorkspacePath("java")),
+            ImmutableList.of(new WorkspacePath("java/excluded")),
+            ImmutableList.of(),
+            config(PREFIX_GLOB_MATCHER),
+            structure);
+    ContentEntryLayout.Entry entry = layout.entries.get(0);
+
+    assertThat(entry.contains(new WorkspacePath("java"))).isTrue();
+    assertThat(entry.contains(new WorkspacePath("java/com/foo"))).isTrue();
+    assertThat(entry.contains(new WorkspacePath("java/com/missing"))).isFalse();
+    assertThat(entry.contains(new WorkspacePath("java/excluded"))).isFalse();
+    assertThat(entry.contains(new WorkspacePath("javatests"))).isFalse();
+    assertThat(entry.contains(new WorkspacePath(""))).isFalse();
+    assertThat(entry.excludeFolders).containsExactly(file("java/excluded"));
+  }
+
+  /**
+   * Applies the layout, and checks the source folder changes are the same as those made by
+   * matching every directory in turn.
+   */
+  private void assertMatchesDirectoryWalk(
+      SourceTestConfig testConfig,
+      DirectoryStructure structure,
+      Collection<WorkspacePath> rootDirectories,
+      Collection<WorkspacePath> excludes,
+      ImmutableMap<File, SourceFolder> sourceFolders) {
+    ContentEntryLayout layout =
+        ContentEntryLayout.create(
+            workspaceRoot, rootDirectories, excludes, ImmutableList.of(), testConfig, structure);
+    for (ContentEntryLayout.Entry entry : layout.entries) {
+      ContentEntryEditor.updateSourceFolders(
+          workspaceRoot, entry, contentEntry, provider, sourceFolders);
+    }
+    List<String> actual = new ArrayList<>(operations);
+    operations.clear();
+
+    for (WorkspacePath rootDirectory : rootDirectories) {
+      Set<WorkspacePath> rootExcludes =
+          excludes.stream()
+              .filter(exclude -> isUnder(exclude, rootDirectory))
+              .collect(ImmutableSet.toImmutableSet());
+      walkDirectories(
+          testConfig,
+          rootExcludes,
+          sourceFolders,
+          sourceFolders.get(file(rootDirectory.relativePath())),
+          rootDirectory,
+          structure.directories.get(rootDirectory));
+    }
+
+    assertThat(actual).containsExactlyElementsIn(operations);
+  }
+
+  /** Assigns source folders by matching each directory against the test source globs. */
+  private void walkDirectories(
+      SourceTestConfig testConfig,
+      Set<WorkspacePath> excludedDirectories,
+      ImmutableMap<File, SourceFolder> sourceFolders,
+      @Nullable SourceFolder parent,
+      WorkspacePath workspacePath,
+      DirectoryStructure directoryStructure) {
+    if (excludedDirectories.contains(workspacePath)) {
+      return;
+    }
+    File file = workspaceRoot.fileForPath(workspacePath);
+    boolean isTest = testConfig.isTestSource(workspacePath.relativePath());
+    SourceFolder current = sourceFolders.get(file);
+    SourceFolder next;
+    if (current == null) {
+      if (parent != null && isTest != parent.isTestSource()) {
+        next = provider.setSourceFolderForLocation(contentEntry, parent, file, isTest);
+      } else {
+        next = parent;
+      }
+    } else {
+      if (isTest == current.isTestSource()) {
+        next = current;
+      } else {
+        next = provider.setSourceFolderForLocation(contentEntry, current, file, isTest);
+        contentEntry.removeSourceFolder(current);
+      }
+    }
+    for (Map.Entry<WorkspacePath, DirectoryStructure> child :
+        directoryStructure.directories.entrySet()) {
+      walkDirectories(
+          testConfig, excludedDirectories, sourceFolders, next, child.getKey(), child.getValue());
+    }
+  }
+
+  private static boolean isUnder(WorkspacePath path, WorkspacePath rootDirectory) {
+    return rootDirectory.isWorkspaceRoot()
+        || path.equals(rootDirectory)
+        || path.relativePath().startsWith(rootDirectory.relativePath() + "/");
+  }
+
+  private static SourceTestConfig config(BiPredicate<Glob, String> matcher, String... globs) {
+    return new SourceTestConfig(
+        Stream.of(globs).map(Glob::new).collect(Collectors.toList()), matcher);
+  }
+
+  private static SourceFolder sourceFolder(String name, boolean isTest) {
+    SourceFolder sourceFolder = mock(SourceFolder.class, name);
+    when(sourceFolder.isTestSource()).thenReturn(isTest);
+    return sourceFolder;
+  }
+
+  private File file(String relativePath) {
+    return workspaceRoot.fileForPath(new WorkspacePath(relativePath));
+  }
+
+  private static String randomPath(Random random, int depth) {
+    List<String> segments = new ArrayList<>();
+    for (int i = 0; i < depth; i++) {
+      segments.add(SEGMENTS.get(random.nextInt(SEGMENTS.size())));
+    }
+    return String.join("/", segments);
+  }
+
+  private static void addSyntheticTree(
+      String path, int fanout, int depth, List<String> directories) {
+    directories.add(path);
+    if (depth == 0) {
+      return;
+    }
+    for (int i = 0; i < fanout; i++) {
+      addSyntheticTree(path + "/d" + i, fanout, depth - 1, directories);
+    }
+  }
+
+  /**
+   * Returns the structure of the given root directories, containing the given directories and
+   * their parents.
+   */
+  private static DirectoryStructure rootStructure(
+      Collection<WorkspacePath> rootDirectories, String... directories) {
+    ListMultimap<WorkspacePath, WorkspacePath> children = ArrayListMultimap.create();
+    Set<WorkspacePath> seen = new HashSet<>();
+    for (String directory : directories) {
+      for (WorkspacePath path = new WorkspacePath(directory);
+          !path.isWorkspaceRoot() && seen.add(path);
+          path = path.getParent()) {
+        children.put(path.getParent(), path);
+      }
+    }
+    ImmutableMap.Builder<WorkspacePath, DirectoryStructure> roots = ImmutableMap.builder();
+    for (WorkspacePath rootDirectory : rootDirectories) {
+      roots.put(rootDirectory, structure(rootDirectory, children));
+    }
+    return new DirectoryStructure(roots.build());
+  }
+
+  private static DirectoryStructure structure(
+      WorkspacePath directory, ListMultimap<WorkspacePath, WorkspacePath> children) {
+    ImmutableMap.Builder<WorkspacePath, DirectoryStructure> result = ImmutableMap.builder();
+    for (WorkspacePath child : children.get(directory)) {
+      result.put(child, structure(child, children));
+    }
+    return new DirectoryStructure(result.build());
+  }
+}
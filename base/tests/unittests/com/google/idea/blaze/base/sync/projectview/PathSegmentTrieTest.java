@@ -0,0 +1,87 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.projectview;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import javax.annotation.Nullable;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link PathSegmentTrie}. */
+@RunWith(JUnit4.class)
+public class PathSegmentTrieTest {
+
+  private final PathSegmentTrie<String> trie =
+      PathSegmentTrie.<String>builder()
+          .put("", "root", String::concat)
+          .put("foo", "foo", String::concat)
+          .put("foo/bar", "bar", String::concat)
+          .put("foo/bar", "2", String::concat)
+          .put("foobar/baz", "baz", String::concat)
+          .build();
+
+  @Test
+  public void testExactPaths() {
+    assertThat(find("")).isEqualTo("root");
+    assertThat(find("foo")).isEqualTo("foo");
+    assertThat(find("foo/bar")).isEqualTo("bar2");
+    assertThat(find("foobar/baz")).isEqualTo("baz");
+  }
+
+  @Test
+  public void testIntermediateNodesHaveNoValue() {
+    PathSegmentTrie.Node<String> node = walk("foobar", 0, "foobar".length());
+    assertThat(node).isNotNull();
+    assertThat(node.value).isNull();
+  }
+
+  @Test
+  public void testSegmentsMatchExactly() {
+    assertThat(walk("fo", 0, 2)).isNull();
+    assertThat(walk("foo/ba", 0, 6)).isNull();
+    assertThat(walk("foo/bar/baz", 0, 11)).isNull();
+  }
+
+  @Test
+  public void testPathRegion() {
+    String label = "//foo/bar:target";
+    assertThat(find(label, 2, label.indexOf(':'))).isEqualTo("bar2");
+  }
+
+  @Nullable
+  private String find(String path) {
+    return find(path, 0, path.length());
+  }
+
+  @Nullable
+  private String find(String path, int start, int end) {
+    PathSegmentTrie.Node<String> node = walk(path, start, end);
+    return node != null ? node.value : null;
+  }
+
+  @Nullable
+  private PathSegmentTrie.Node<String> walk(String path, int start, int end) {
+    PathSegmentTrie.Node<String> node = trie.root();
+    while (node != null && start < end) {
+      int segmentEnd = PathSegmentTrie.segmentEnd(path, start, end);
+      node = node.child(path, start, segmentEnd);
+      start = segmentEnd + 1;
+    }
+    return node;
+  }
+}
@@ -17,7 +17,17 @@ package com.google.idea.blaze.base.sync.projectview;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import com.google.common.collect.ImmutableList;
 import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.projectview.section.Glob;
+import com.google.idea.blaze.base.sync.projectview.SourceTestConfig.Classification;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -29,6 +39,29 @@ public class SourceTestConfigTest {
   @Rule
   public final BlazeTestCase.IgnoreOnWindowsRule rule = new BlazeTestCase.IgnoreOnWindowsRule();
 
+  /** Matches globs with '*' matching any sequence of characters, including separators. */
+  static final BiPredicate<Glob, String> REGEX_GLOB_MATCHER =
+      (glob, path) -> Pattern.matches(toRegex(glob.toString()), path);
+
+  private static String toRegex(String pattern) {
+    StringBuilder regex = new StringBuilder();
+    for (char c : pattern.toCharArray()) {
+      if (c == '*') {
+        regex.append(".*");
+      } else if (c == '?') {
+        regex.append('.');
+      } else {
+        regex.append(Pattern.quote(String.valueOf(c)));
+      }
+    }
+    return regex.toString();
+  }
+
+  static SourceTestConfig createConfig(BiPredicate<Glob, String> matcher, String... globs) {
+    return new SourceTestConfig(
+        Stream.of(globs).map(Glob::new).collect(Collectors.toList()), matcher);
+  }
+
   @Test
   public void testGlobModification() {
     assertThat(SourceTestConfig.modifyPattern("path/to/file/*")).isEqualTo("path/to/file*");
@@ -36,4 +69,90 @@ public class SourceTestConfigTest {
     assertThat(SourceTestConfig.modifyPattern("path/to/file")).isEqualTo("path/to/file*");
     assertThat(SourceTestConfig.modifyPattern("path/to/file*")).isEqualTo("path/to/file*");
   }
+
+  @Test
+  public void testClassifyDirectory_literalGlob() {
+    SourceTestConfig config = createConfig(REGEX_GLOB_MATCHER, "javatests/*");
+
+    assertThat(config.classifyDirectory("")).isEqualTo(Classification.NON_TEST);
+    assertThat(config.classifyDirectory("java")).isEqualTo(Classification.NON_TEST);
+    assertThat(config.classifyDirectory("javatests")).isEqualTo(Classification.TEST_SUBTREE);
+    assertThat(config.classifyDirectory("javatests/com/google"))
+        .isEqualTo(Classification.TEST_SUBTREE);
+    assertThat(config.classifyDirectory("java/com")).isEqualTo(Classification.NON_TEST_SUBTREE);
+    assertThat(config.classifyDirectory("src")).isEqualTo(Classification.NON_TEST_SUBTREE);
+  }
+
+  @Test
+  public void testClassifyDirectory_leadingWildcardPreventsPruning() {
+    SourceTestConfig config = createConfig(REGEX_GLOB_MATCHER, "*/test/*");
+
+    assertThat(config.classifyDirectory("java/com")).isEqualTo(Classification.NON_TEST);
+    assertThat(config.classifyDirectory("java/test")).isEqualTo(Classification.TEST_SUBTREE);
+  }
+
+  @Test
+  public void testClassifyDirectory_prefixComparisonIgnoresCase() {
+    SourceTestConfig config = createConfig(REGEX_GLOB_MATCHER, "JavaTests/*");
+
+    // the matcher itself is case sensitive here, but the subtree isn't pruned in case it isn't
+    assertThat(config.classifyDirectory("javatests")).isEqualTo(Classification.NON_TEST);
+    assertThat(config.classifyDirectory("JavaTests")).isEqualTo(Classification.TEST_SUBTREE);
+    assertThat(config.classifyDirectory("java")).isEqualTo(Classification.NON_TEST);
+  }
+
+  @Test
+  public void testClassifyDirectory_noGlobs() {
+    SourceTestConfig config = createConfig(REGEX_GLOB_MATCHER);
+
+    assertThat(config.classifyDirectory("")).isEqualTo(Classification.NON_TEST_SUBTREE);
+    assertThat(config.isTestSource("")).isFalse();
+  }
+
+  @Test
+  public void testClassifyDirectory_onlyTriesCompatibleGlobs() {
+    AtomicInteger matches = new AtomicInteger();
+    SourceTestConfig config =
+        createConfig(
+            (glob, path) -> {
+              matches.incrementAndGet();
+              return REGEX_GLOB_MATCHER.test(glob, path);
+            },
+            "a/tests/*",
+            "b/tests/*",
+            "c/tests/*");
+
+    assertThat(config.classifyDirectory("b/tests")).isEqualTo(Classification.TEST_SUBTREE);
+    assertThat(matches.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void testClassifyDirectory_agreesWithIsTestSource() {
+    Random random = new Random(42);
+    List<String> segments = ImmutableList.of("a", "ab", "b", "test", "tests", "Test", "x-y");
+    SourceTestConfig config =
+        createConfig(
+            REGEX_GLOB_MATCHER, "a/test", "ab/*/tests/*", "*/Test", "b?/x-y/", "x-y/a*/b");
+    for (int i = 0; i < 2000; i++) {
+      int depth = random.nextInt(6);
+      StringBuilder path = new StringBuilder();
+      for (int j = 0; j < depth; j++) {
+        if (j > 0) {
+          path.append('/');
+        }
+        path.append(segments.get(random.nextInt(segments.size())));
+      }
+      String directory = path.toString();
+      Classification classification = config.classifyDirectory(directory);
+      assertThat(classification.isTest()).isEqualTo(config.isTestSource(directory));
+      if (classification.appliesToSubtree()) {
+        for (String segment : segments) {
+          String child = directory.isEmpty() ? segment : directory + "/" + segment;
+          assertThat(config.isTestSource(child)).isEqualTo(classification.isTest());
+          assertThat(config.isTestSource(child + "/" + segment))
+              .isEqualTo(classification.isTest());
+        }
+      }
+    }
+  }
 }
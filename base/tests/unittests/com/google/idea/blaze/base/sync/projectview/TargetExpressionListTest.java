@@ -90,6 +90,29 @@ public class TargetExpressionListTest extends BlazeTestCase {
     assertThat(helper.includesPackage(new WorkspacePath("bar"))).isTrue();
   }
 
+  @Test
+  public void testNestedWildcardsUseLastMatchingExpression() throws Exception {
+    TargetExpressionList helper =
+        TargetExpressionList.create(
+            ImmutableList.of(
+                TargetExpression.fromString("//foo/..."),
+                TargetExpression.fromString("-//foo/bar/..."),
+                TargetExpression.fromString("//foo/bar/baz:all"),
+                TargetExpression.fromString("//foo/bar/other:target")));
+
+    assertThat(helper.includesPackage(new WorkspacePath("foo"))).isTrue();
+    assertThat(helper.includesPackage(new WorkspacePath("foo/bar"))).isFalse();
+    assertThat(helper.includesPackage(new WorkspacePath("foo/bar/baz"))).isTrue();
+    assertThat(helper.includesPackage(new WorkspacePath("foo/bar/baz/qux"))).isFalse();
+    assertThat(helper.includesPackage(new WorkspacePath("foo/barbaz"))).isTrue();
+
+    assertThat(helper.includesTarget(Label.create("//foo/bar:target"))).isFalse();
+    assertThat(helper.includesTarget(Label.create("//foo/bar/baz:target"))).isTrue();
+    assertThat(helper.includesTarget(Label.create("//foo/bar/other:target"))).isTrue();
+    assertThat(helper.includesTarget(Label.create("//foo/bar/other:else"))).isFalse();
+    assertThat(helper.includesAnyTargetInPackage(new WorkspacePath("foo/bar/other"))).isFalse();
+  }
+
   @Test
   public void includesAnyTargetInPackage_acceptsIndividualPackageTarget() throws Exception {
     TargetExpressionList helper =
@@ -0,0 +1,315 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.sharding;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.bazel.BazelBuildSystemProvider;
+import com.google.idea.blaze.base.bazel.BuildSystemProvider;
+import com.google.idea.blaze.base.io.FileOperationProvider;
+import com.google.idea.blaze.base.model.primitives.TargetExpression;
+import com.google.idea.blaze.base.model.primitives.WildcardTargetPattern;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.sync.sharding.PackageLister.PackageTreeWalk;
+import com.google.idea.blaze.base.sync.workspace.WorkspacePathResolver;
+import com.google.idea.blaze.base.sync.workspace.WorkspacePathResolverImpl;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link PackageLister}. */
+@RunWith(JUnit4.class)
+public class PackageListerTest extends BlazeTestCase {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final CountingFileOperationProvider fileOperationProvider =
+      new CountingFileOperationProvider();
+  private final BuildSystemProvider buildSystemProvider = new BazelBuildSystemProvider();
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    applicationServices.register(FileOperationProvider.class, fileOperationProvider);
+  }
+
+  @Test
+  public void overlappingPatterns_matchIndependentTraversals() throws Exception {
+    createPackages("a", "a/b", "a/b/c", "a/d", "e", "e/f/g");
+    createDirectories("a/b/no_build_file", "e/f/h");
+    List<WildcardTargetPattern> patterns = patterns("//...", "//a/...", "//a/b/...", "//e/f/...");
+
+    Map<TargetExpression, List<TargetExpression>> expanded = expand(patterns, ImmutableList.of());
+
+    for (WildcardTargetPattern pattern : patterns) {
+      assertThat(expanded.get(pattern.originalPattern))
+          .containsExactlyElementsIn(traverseIndependently(pattern));
+    }
+  }
+
+  @Test
+  public void overlappingPatterns_eachDirectoryListedOnce() throws Exception {
+    createPackages("a", "a/b", "a/b/c", "e");
+    createDirectories("a/b/c/d/e/f");
+
+    expand(patterns("//...", "//a/...", "//a/b/...", "//a/b/c/..."), ImmutableList.of());
+
+    // the workspace root, plus 7 directories below it
+    assertThat(fileOperationProvider.listFilesCalls.get()).isEqualTo(8);
+  }
+
+  @Test
+  public void laterExclude_prunesExcludedSubtree() throws Exception {
+    createPackages("a", "a/b", "a/b/c", "a/d");
+
+    Map<TargetExpression, List<TargetExpression>> expanded =
+        expand(patterns("//a/...", "-//a/b/..."), ImmutableList.of());
+
+    assertThat(expanded.get(TargetExpression.fromStringSafe("//a/...")))
+        .containsExactly(packageTarget("a"), packageTarget("a/d"))
+        .inOrder();
+    assertThat(fileOperationProvider.listedDirectories).doesNotContain(workspaceFile("a/b"));
+  }
+
+  @Test
+  public void earlierExclude_doesNotPrune() throws Exception {
+    createPackages("a", "a/b", "a/b/c");
+
+    Map<TargetExpression, List<TargetExpression>> expanded =
+        expand(patterns("-//a/b/...", "//a/..."), ImmutableList.of());
+
+    assertThat(expanded.get(TargetExpression.fromStringSafe("//a/...")))
+        .containsExactly(packageTarget("a"), packageTarget("a/b"), packageTarget("a/b/c"));
+  }
+
+  @Test
+  public void reincludedSubtree_stillExpanded() throws Exception {
+    createPackages("a", "a/b", "a/b/c", "a/b/c/d");
+
+    Map<TargetExpression, List<TargetExpression>> expanded =
+        expand(patterns("//a/...", "-//a/b/...", "//a/b/c/..."), ImmutableList.of());
+
+    assertThat(expanded.get(TargetExpression.fromStringSafe("//a/...")))
+        .containsExactly(packageTarget("a"));
+    assertThat(expanded.get(TargetExpression.fromStringSafe("//a/b/c/...")))
+        .containsExactly(packageTarget("a/b/c"), packageTarget("a/b/c/d"));
+  }
+
+  @Test
+  public void nonRecursiveExclude_onlyExcludesSinglePackage() throws Exception {
+    createPackages("a", "a/b", "a/b/c");
+
+    Map<TargetExpression, List<TargetExpression>> expanded =
+        expand(patterns("//a/...", "-//a/b:all"), ImmutableList.of());
+
+    assertThat(expanded.get(TargetExpression.fromStringSafe("//a/...")))
+        .containsExactly(packageTarget("a"), packageTarget("a/b/c"));
+  }
+
+  @Test
+  public void rulesOnlyExclude_doesNotPruneAllTargetsInclude() throws Exception {
+    createPackages("a", "a/b", "a/b/c");
+
+    Map<TargetExpression, List<TargetExpression>> expanded =
+        expand(patterns("//a/...:*", "//a/...", "-//a/b/..."), ImmutableList.of());
+
+    assertThat(expanded.get(TargetExpression.fromStringSafe("//a/...:*")))
+        .containsExactly(packageTarget("a"), packageTarget("a/b"), packageTarget("a/b/c"));
+    assertThat(expanded.get(TargetExpression.fromStringSafe("//a/...")))
+        .containsExactly(packageTarget("a"));
+  }
+
+  @Test
+  public void allTargetsExclude_prunesRulesOnlyInclude() throws Exception {
+    createPackages("a", "a/b", "a/b/c");
+
+    Map<TargetExpression, List<TargetExpression>> expanded =
+        expand(patterns("//a/...", "-//a/b/...:*"), ImmutableList.of());
+
+    assertThat(expanded.get(TargetExpression.fromStringSafe("//a/...")))
+        .containsExactly(packageTarget("a"));
+    assertThat(fileOperationProvider.listedDirectories).doesNotContain(workspaceFile("a/b"));
+  }
+
+  @Test
+  public void ignoredPaths_notTraversed() throws Exception {
+    createPackages("a", "a/ignored", "a/ignored/b", "a/c");
+
+    Map<TargetExpression, List<TargetExpression>> expanded =
+        expand(
+            patterns("//...", "//a/ignored/..."),
+            ImmutableList.of(new WorkspacePath("a/ignored")));
+
+    assertThat(expanded.get(TargetExpression.fromStringSafe("//...")))
+        .containsExactly(packageTarget("a"), packageTarget("a/c"));
+    assertThat(expanded.get(TargetExpression.fromStringSafe("//a/ignored/...")))
+        .isEmpty();
+    assertThat(fileOperationProvider.listedDirectories)
+        .doesNotContain(workspaceFile("a/ignored"));
+  }
+
+  @Test
+  public void missingBaseDirectory_notExpanded() throws Exception {
+    createPackages("a");
+
+    Map<TargetExpression, List<TargetExpression>> expanded =
+        expand(patterns("//a/...", "//missing/..."), ImmutableList.of());
+
+    assertThat(expanded.keySet()).containsExactly(TargetExpression.fromStringSafe("//a/..."));
+  }
+
+  /**
+   * Walks a synthetic tree of a few thousand directories with overlapping patterns, checking that
+   * each directory is listed only once and the results match independent traversals. See
+   * PackageListerBenchmarkTest for the same check over more than 100k directories.
+   */
+  @Test
+  public void largeTree_eachDirectoryListedOnce() throws Exception {
+    int topLevel = 12;
+    int secondLevel = 12;
+    int leaves = 16;
+    int directories = 1;
+    for (int i = 0; i < topLevel; i++) {
+      for (int j = 0; j < secondLevel; j++) {
+        String parent = String.format("d%d/d%d", i, j);
+        createPackages(parent);
+        for (int k = 0; k < leaves; k++) {
+          File leaf = workspaceFile(parent + "/d" + k);
+          assertThat(leaf.mkdirs()).isTrue();
+          if (k % 4 == 0) {
+            assertThat(new File(leaf, "BUILD").createNewFile()).isTrue();
+          }
+        }
+      }
+    }
+    directories += topLevel + topLevel * secondLevel + topLevel * secondLevel * leaves;
+    assertThat(directories).isGreaterThan(2_000);
+    List<WildcardTargetPattern> patterns =
+        patterns("//...", "//d0/...", "//d0/d1/...", "//d7/...", "-//d7/d3/...");
+
+    Map<TargetExpression, List<TargetExpression>> expanded =
+        PackageLister.expandPackageTargets(
+            buildSystemProvider,
+            BlazeContext.create(),
+            pathResolver(),
+            patterns,
+            ImmutableList.of());
+
+    // everything except the excluded d7/d3 subtree is listed, once
+    int packagesPerSubtree = 1 + leaves / 4;
+    assertThat(fileOperationProvider.listFilesCalls.get()).isEqualTo(directories - (1 + leaves));
+    assertThat(expanded.get(TargetExpression.fromStringSafe("//...")))
+        .hasSize((topLevel * secondLevel - 1) * packagesPerSubtree);
+    assertThat(expanded.get(TargetExpression.fromStringSafe("//d0/d1/...")))
+        .containsExactlyElementsIn(traverseIndependently(patterns.get(2)));
+    assertThat(expanded.get(TargetExpression.fromStringSafe("//d7/...")))
+        .hasSize((secondLevel - 1) * packagesPerSubtree);
+  }
+
+  private Map<TargetExpression, List<TargetExpression>> expand(
+      List<WildcardTargetPattern> patterns, List<WorkspacePath> ignoredPaths) throws Exception {
+    return PackageTreeWalk.create(
+            buildSystemProvider,
+            pathResolver(),
+            patterns,
+            ignoredPaths,
+            MoreExecutors.newDirectExecutorService())
+        .run()
+        .get();
+  }
+
+  /** Expands a single pattern the way it was expanded before patterns shared a walk. */
+  private ImmutableList<TargetExpression> traverseIndependently(WildcardTargetPattern pattern) {
+    List<TargetExpression> output = new ArrayList<>();
+    traverseIndependently(pathResolver().resolveToFile(pattern.getBasePackage()), output);
+    return output.stream()
+        .sorted((a, b) -> a.toString().compareTo(b.toString()))
+        .collect(toImmutableList());
+  }
+
+  private void traverseIndependently(File dir, List<TargetExpression> output) {
+    WorkspacePath path = pathResolver().getWorkspacePath(dir);
+    if (buildSystemProvider.findBuildFileInDirectory(dir) != null) {
+      output.add(TargetExpression.allFromPackageNonRecursive(path));
+    }
+    for (File child : Objects.requireNonNull(dir.listFiles())) {
+      if (child.isDirectory()) {
+        traverseIndependently(child, output);
+      }
+    }
+  }
+
+  private WorkspacePathResolver pathResolver() {
+    return new WorkspacePathResolverImpl(new WorkspaceRoot(temporaryFolder.getRoot()));
+  }
+
+  private static List<WildcardTargetPattern> patterns(String... patterns) {
+    return Arrays.stream(patterns)
+        .map(TargetExpression::fromStringSafe)
+        .map(WildcardTargetPattern::fromExpression)
+        .collect(toImmutableList());
+  }
+
+  private static TargetExpression packageTarget(String path) {
+    return TargetExpression.allFromPackageNonRecursive(new WorkspacePath(path));
+  }
+
+  private File workspaceFile(String path) {
+    return new File(temporaryFolder.getRoot(), path);
+  }
+
+  private void createDirectories(String... paths) {
+    for (String path : paths) {
+      assertThat(workspaceFile(path).mkdirs()).isTrue();
+    }
+  }
+
+  private void createPackages(String... paths) throws IOException {
+    for (String path : paths) {
+      File dir = workspaceFile(path);
+      dir.mkdirs();
+      assertThat(new File(dir, "BUILD").createNewFile()).isTrue();
+    }
+  }
+
+  private static class CountingFileOperationProvider extends FileOperationProvider {
+    final AtomicInteger listFilesCalls = new AtomicInteger();
+    final List<File> listedDirectories = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    public File[] listFiles(File file) {
+      listFilesCalls.incrementAndGet();
+      listedDirectories.add(file);
+      return super.listFiles(file);
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.workspace;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.idea.blaze.base.bazel.BazelBuildSystemProvider;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.model.primitives.ExecutionRootPath;
+import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link CachingExecutionRootPathResolver}. */
+@RunWith(JUnit4.class)
+public class CachingExecutionRootPathResolverTest {
+
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  private Path workspace;
+  private Path outputBase;
+  private CachingExecutionRootPathResolver pathResolver;
+
+  @Before
+  public void setUp() throws Exception {
+    Path root = folder.getRoot().toPath().toRealPath();
+    workspace = Files.createDirectories(root.resolve("workspace"));
+    outputBase = Files.createDirectories(root.resolve("output_base"));
+    WorkspaceRoot workspaceRoot = new WorkspaceRoot(workspace.toFile());
+    pathResolver =
+        new CachingExecutionRootPathResolver(
+            new BazelBuildSystemProvider(),
+            workspaceRoot,
+            outputBase.resolve("execroot/__main__").toFile(),
+            outputBase.toFile(),
+            new WorkspacePathResolverImpl(workspaceRoot),
+            new TargetMap(ImmutableMap.of()));
+  }
+
+  @Test
+  public void testExternalWorkspaceSymlinkedIntoWorkspace_resolvesToWorkspace() throws Exception {
+    Files.createDirectories(workspace.resolve("third_party/repo/include"));
+    Files.createDirectories(outputBase.resolve("external"));
+    Files.createSymbolicLink(
+        outputBase.resolve("external/repo"), workspace.resolve("third_party/repo"));
+
+    ImmutableList<File> files =
+        pathResolver.resolveToIncludeDirectories(new ExecutionRootPath("external/repo/include"));
+
+    assertThat(files).containsExactly(workspace.resolve("third_party/repo/include").toFile());
+  }
+
+  @Test
+  public void testExternalWorkspaceNotSymlinked_resolvesToOutputBase() throws Exception {
+    Files.createDirectories(outputBase.resolve("external/repo/include"));
+
+    ImmutableList<File> files =
+        pathResolver.resolveToIncludeDirectories(new ExecutionRootPath("external/repo/include"));
+
+    assertThat(files).containsExactly(outputBase.resolve("external/repo/include").toFile());
+  }
+
+  @Test
+  public void testRepeatedLookups_servedFromCache() throws Exception {
+    Files.createDirectories(outputBase.resolve("external/repo/include"));
+    ExecutionRootPath path = new ExecutionRootPath("external/repo/include");
+
+    ImmutableList<File> first = pathResolver.resolveToIncludeDirectories(path);
+    // subsequent file system changes are not seen within the lifetime of the cache
+    Files.delete(outputBase.resolve("external/repo/include"));
+    ImmutableList<File> second = pathResolver.resolveToIncludeDirectories(path);
+
+    assertThat(second).isSameInstanceAs(first);
+    assertThat(pathResolver.getStatsSummary()).contains("2 lookups, 1 cache hits");
+  }
+}
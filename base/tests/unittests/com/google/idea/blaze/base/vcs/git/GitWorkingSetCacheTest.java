@@ -0,0 +1,234 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.vcs.git;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assume.assumeTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.async.process.BinaryPathRemapper;
+import com.google.idea.blaze.base.async.process.ExternalTaskProvider;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.sync.workspace.WorkingSet;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link GitWorkingSetCache}, using generated local git repositories. */
+@RunWith(JUnit4.class)
+public class GitWorkingSetCacheTest extends BlazeTestCase {
+  @Rule public BlazeTestCase.IgnoreOnWindowsRule rule = new BlazeTestCase.IgnoreOnWindowsRule();
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final BlazeContext context = BlazeContext.create();
+  private File repository;
+  private String upstreamSha;
+  private GitWorkingSetCache cache;
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    applicationServices.register(ExternalTaskProvider.class, new ExternalTaskProvider.Impl());
+    registerExtensionPoint(BinaryPathRemapper.EP_NAME, BinaryPathRemapper.class);
+  }
+
+  @Before
+  public void createRepository() throws Exception {
+    assumeTrue(isGitAvailable());
+    // git reports the canonical path of the repository root
+    repository = temporaryFolder.newFolder("repository").getCanonicalFile();
+    git("init", "-q");
+    write("modified.txt", "base");
+    write("deleted.txt", "base");
+    write("unchanged.txt", "base");
+    write("dir/nested.txt", "base");
+    write("dir/.gitignore", "*.log\n");
+    git("add", "-A");
+    git("commit", "-q", "-m", "base");
+    upstreamSha = git("rev-parse", "HEAD");
+    cache = new GitWorkingSetCache(new WorkspaceRoot(repository));
+  }
+
+  @Test
+  public void testFullCalculation() throws Exception {
+    write("modified.txt", "changed");
+    Files.delete(file("deleted.txt").toPath());
+    write("untracked.txt", "new");
+    write("staged.txt", "new");
+    git("add", "staged.txt");
+    write("dir/ignored.log", "new");
+
+    WorkingSet workingSet = cache.getWorkingSet(upstreamSha, context);
+
+    assertThat(workingSet.addedFiles).containsExactly(path("untracked.txt"), path("staged.txt"));
+    assertThat(workingSet.modifiedFiles).containsExactly(path("modified.txt"));
+    assertThat(workingSet.deletedFiles).containsExactly(path("deleted.txt"));
+  }
+
+  @Test
+  public void testOnlyChangedPathsAreCheckedAgain() throws Exception {
+    assertThat(cache.getWorkingSet(upstreamSha, context).isEmpty()).isTrue();
+
+    write("modified.txt", "changed");
+    write("dir/untracked.txt", "new");
+    cache.pathsChanged(ImmutableList.of(file("modified.txt").getPath()));
+    WorkingSet workingSet = cache.getWorkingSet(upstreamSha, context);
+
+    assertThat(workingSet.modifiedFiles).containsExactly(path("modified.txt"));
+    // not reported as changed, so not checked
+    assertThat(workingSet.addedFiles).isEmpty();
+
+    cache.pathsChanged(ImmutableList.of(file("dir").getPath()));
+    workingSet = cache.getWorkingSet(upstreamSha, context);
+
+    assertThat(workingSet.modifiedFiles).containsExactly(path("modified.txt"));
+    assertThat(workingSet.addedFiles).containsExactly(path("dir/untracked.txt"));
+  }
+
+  @Test
+  public void testChangeWithoutEventFoundAfterInvalidation() throws Exception {
+    assertThat(cache.getWorkingSet(upstreamSha, context).isEmpty()).isTrue();
+
+    // e.g. created by a script in a directory IntelliJ hasn't loaded, so no VFS event is sent
+    write("dir/untracked.txt", "new");
+    assertThat(cache.getWorkingSet(upstreamSha, context).isEmpty()).isTrue();
+
+    cache.invalidate();
+
+    assertThat(cache.getWorkingSet(upstreamSha, context).addedFiles)
+        .containsExactly(path("dir/untracked.txt"));
+  }
+
+  @Test
+  public void testRevertedFileIsRemoved() throws Exception {
+    write("modified.txt", "changed");
+    assertThat(cache.getWorkingSet(upstreamSha, context).modifiedFiles)
+        .containsExactly(path("modified.txt"));
+
+    write("modified.txt", "base");
+    cache.pathsChanged(ImmutableList.of(file("modified.txt").getPath()));
+
+    assertThat(cache.getWorkingSet(upstreamSha, context).isEmpty()).isTrue();
+  }
+
+  @Test
+  public void testIndexChangeChecksAllPaths() throws Exception {
+    assertThat(cache.getWorkingSet(upstreamSha, context).isEmpty()).isTrue();
+
+    write("unchanged.txt", "changed");
+    git("add", "unchanged.txt");
+
+    assertThat(cache.getWorkingSet(upstreamSha, context).modifiedFiles)
+        .containsExactly(path("unchanged.txt"));
+  }
+
+  @Test
+  public void testGitIgnoreChangeChecksDirectory() throws Exception {
+    write("dir/ignored.log", "new");
+    assertThat(cache.getWorkingSet(upstreamSha, context).addedFiles).isEmpty();
+
+    write("dir/.gitignore", "");
+    cache.pathsChanged(ImmutableList.of(file("dir/.gitignore").getPath()));
+    WorkingSet workingSet = cache.getWorkingSet(upstreamSha, context);
+
+    assertThat(workingSet.addedFiles).containsExactly(path("dir/ignored.log"));
+    assertThat(workingSet.modifiedFiles).containsExactly(path("dir/.gitignore"));
+  }
+
+  @Test
+  public void testUnsupportedRepositoryLayout() throws Exception {
+    assertThat(GitWorkingSetCache.readRepositoryState(repository)).isNotNull();
+
+    File worktree = temporaryFolder.newFolder("worktree");
+    Files.write(new File(worktree, ".git").toPath(), "gitdir: ../repository/.git".getBytes(UTF_8));
+    assertThat(GitWorkingSetCache.readRepositoryState(worktree)).isNull();
+  }
+
+  @Test
+  public void testMerge() {
+    WorkingSet previous =
+        new WorkingSet(
+            ImmutableList.of(path("a/added.txt"), path("ab/added.txt")),
+            ImmutableList.of(path("a"), path("b/modified.txt")),
+            ImmutableList.of(path("a/b/deleted.txt")));
+    WorkingSet changes =
+        new WorkingSet(
+            ImmutableList.of(path("a/new.txt")), ImmutableList.of(), ImmutableList.of());
+
+    WorkingSet merged = GitWorkingSetCache.merge(previous, ImmutableList.of(path("a")), changes);
+
+    assertThat(merged.addedFiles).containsExactly(path("ab/added.txt"), path("a/new.txt"));
+    assertThat(merged.modifiedFiles).containsExactly(path("b/modified.txt"));
+    assertThat(merged.deletedFiles).isEmpty();
+  }
+
+  private File file(String relativePath) {
+    return new File(repository, relativePath);
+  }
+
+  private static WorkspacePath path(String relativePath) {
+    return new WorkspacePath(relativePath);
+  }
+
+  private void write(String relativePath, String content) throws IOException {
+    File file = file(relativePath);
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), content.getBytes(UTF_8));
+  }
+
+  private String git(String... args) throws IOException, InterruptedException {
+    ImmutableList<String> command =
+        ImmutableList.<String>builder()
+            .add("git", "-c", "user.name=test", "-c", "user.email=test@example.com")
+            .add(args)
+            .build();
+    Process process =
+        new ProcessBuilder(command).directory(repository).redirectErrorStream(true).start();
+    String output = readFully(process.getInputStream());
+    assertThat(process.waitFor()).isEqualTo(0);
+    return output.trim();
+  }
+
+  private static boolean isGitAvailable() {
+    try {
+      Process process = new ProcessBuilder("git", "--version").redirectErrorStream(true).start();
+      readFully(process.getInputStream());
+      return process.waitFor() == 0;
+    } catch (IOException e) {
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private static String readFully(InputStream inputStream) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    inputStream.transferTo(output);
+    return output.toString(UTF_8);
+  }
+}
@@ -16,23 +16,22 @@
 
 package com.google.idea.blaze.cpp;
 
-import static com.google.common.collect.ImmutableList.toImmutableList;
-
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.errorprone.annotations.Keep;
-import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
-import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.model.BlazeProjectData;
-import com.google.idea.blaze.base.model.primitives.ExecutionRootPath;
 import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
 import com.google.idea.blaze.base.projectview.ProjectViewSet;
 import com.google.idea.blaze.base.scope.BlazeContext;
 import com.google.idea.blaze.base.scope.output.IssueOutput;
 import com.google.idea.blaze.base.settings.Blaze;
 import com.google.idea.blaze.base.sync.SyncMode;
+import com.google.idea.blaze.base.sync.workspace.CachingExecutionRootPathResolver;
 import com.google.idea.blaze.base.sync.workspace.ExecutionRootPathResolver;
+import com.google.idea.blaze.cpp.BlazeConfigurationOptionsCache.ConfigurationOptions;
+import com.google.idea.blaze.cpp.BlazeConfigurationOptionsCache.PerFileCompilerOpts;
+import com.google.idea.blaze.cpp.BlazeConfigurationOptionsCache.PerLanguageCompilerOpts;
 import com.intellij.ide.actions.ShowFilePathAction;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.PathManager;
@@ -48,10 +47,7 @@ import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.pom.Navigatable;
 import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.containers.MultiMap;
-import com.jetbrains.cidr.lang.CLanguageKind;
 import com.jetbrains.cidr.lang.OCLanguageKind;
-import com.jetbrains.cidr.lang.toolchains.CidrCompilerSwitches;
-import com.jetbrains.cidr.lang.toolchains.CidrSwitchBuilder;
 import com.jetbrains.cidr.lang.toolchains.CidrToolEnvironment;
 import com.jetbrains.cidr.lang.workspace.OCCompilerSettings;
 import com.jetbrains.cidr.lang.workspace.OCResolveConfiguration;
@@ -64,18 +60,14 @@ import com.jetbrains.cidr.lang.workspace.compiler.CachedTempFilesPool;
 import com.jetbrains.cidr.lang.workspace.compiler.CompilerInfoCache;
 import com.jetbrains.cidr.lang.workspace.compiler.CompilerInfoCache.Message;
 import com.jetbrains.cidr.lang.workspace.compiler.CompilerInfoCache.Session;
-import com.jetbrains.cidr.lang.workspace.compiler.OCCompilerKind;
 import com.jetbrains.cidr.lang.workspace.compiler.TempFilesPool;
 
 import java.io.File;
 import java.util.Collection;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Function;
-import java.util.stream.Stream;
 
 /** Main entry point for C/CPP configuration data. */
 public final class BlazeCWorkspace implements ProjectComponent {
@@ -86,11 +78,10 @@ public final class BlazeCWorkspace implements ProjectComponent {
 
   private final BlazeConfigurationResolver configurationResolver;
   private BlazeConfigurationResolverResult resolverResult;
-  private final ImmutableList<OCLanguageKind> supportedLanguages =
-      ImmutableList.of(CLanguageKind.C, CLanguageKind.CPP);
 
   private final Project project;
   private final CidrToolEnvironment toolEnvironment = new CidrToolEnvironment();
+  private final BlazeConfigurationOptionsCache optionsCache = new BlazeConfigurationOptionsCache();
 
   @Keep // Instantiated as an IntelliJ project component.
   private BlazeCWorkspace(Project project) {
@@ -123,9 +114,19 @@ public final class BlazeCWorkspace implements ProjectComponent {
       return;
     }
     BlazeConfigurationResolverResult oldResult = resolverResult;
+    // shared by the configuration resolver and calculateConfigurations, for the sync's duration
+    CachingExecutionRootPathResolver executionRootPathResolver =
+        CachingExecutionRootPathResolver.create(
+            Blaze.getBuildSystemProvider(project), workspaceRoot, blazeProjectData);
     BlazeConfigurationResolverResult newResult =
         configurationResolver.update(
-            context, workspaceRoot, projectViewSet, blazeProjectData, oldResult);
+            context,
+            workspaceRoot,
+            projectViewSet,
+            blazeProjectData,
+            oldResult,
+            executionRootPathResolver);
+    executionRootPathResolver.logStats(context);
     BlazeCompilerInfoMapService.getInstance(project).setState(newResult.getTargetToCompilerVersion());
     // calculateConfigurations is expensive, so run async without a read lock (b/78570947)
     ProgressManager.getInstance()
@@ -141,9 +142,23 @@ public final class BlazeCWorkspace implements ProjectComponent {
                   indicator.setIndeterminate(false);
                   indicator.setText("Updating Configurations...");
                   indicator.setFraction(0.0);
-                  OCWorkspaceImpl.ModifiableModel model =
-                      calculateConfigurations(
-                          blazeProjectData, workspaceRoot, newResult, indicator);
+                  OCWorkspaceImpl.ModifiableModel model;
+                  try {
+                    model =
+                        calculateConfigurations(
+                            workspaceRoot,
+                            newResult,
+                            executionRootPathResolver,
+                            syncMode.equals(SyncMode.FULL),
+                            indicator);
+                  } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                  } catch (ExecutionException e) {
+                    logger.error("Failed to calculate configurations", e);
+                    return;
+                  }
+                  logger.info(executionRootPathResolver.getStatsSummary());
                   ImmutableList<String> issues =
                       commit(model, SERIALIZATION_VERSION, toolEnvironment, workspaceRoot);
                   logger.info(
@@ -160,142 +175,29 @@ public final class BlazeCWorkspace implements ProjectComponent {
   }
 
   private OCWorkspaceImpl.ModifiableModel calculateConfigurations(
-      BlazeProjectData blazeProjectData,
       WorkspaceRoot workspaceRoot,
       BlazeConfigurationResolverResult configResolveData,
-      ProgressIndicator indicator) {
-
+      ExecutionRootPathResolver executionRootPathResolver,
+      boolean invalidate,
+      ProgressIndicator indicator)
+      throws InterruptedException, ExecutionException {
+    ImmutableList<ConfigurationOptions> configurations =
+        optionsCache.update(configResolveData, executionRootPathResolver, invalidate, indicator);
+
+    // the model is always rebuilt from scratch, but unchanged configurations reuse the switches
+    // calculated by a previous sync
     OCWorkspaceImpl.ModifiableModel workspaceModifiable =
         OCWorkspaceImpl.getInstanceImpl(project)
             .getModifiableModel(OCWorkspace.LEGACY_CLIENT_KEY, true);
-    ImmutableList<BlazeResolveConfiguration> configurations =
-        configResolveData.getAllConfigurations();
-    ExecutionRootPathResolver executionRootPathResolver =
-        new ExecutionRootPathResolver(
-            Blaze.getBuildSystemProvider(project),
-            workspaceRoot,
-            blazeProjectData.getBlazeInfo().getExecutionRoot(),
-            blazeProjectData.getBlazeInfo().getOutputBase(),
-            blazeProjectData.getWorkspacePathResolver(),
-            blazeProjectData.getTargetMap());
-
-    int progress = 0;
-
-    for (BlazeResolveConfiguration resolveConfiguration : configurations) {
-      indicator.setText2(resolveConfiguration.getDisplayName());
-      indicator.setFraction(((double) progress) / configurations.size());
-      BlazeCompilerSettings compilerSettings = resolveConfiguration.getCompilerSettings();
-      Map<OCLanguageKind, PerLanguageCompilerOpts> configLanguages = new HashMap<>();
-      Map<VirtualFile, PerFileCompilerOpts> configSourceFiles = new HashMap<>();
-      for (TargetKey targetKey : resolveConfiguration.getTargets()) {
-        TargetIdeInfo targetIdeInfo = blazeProjectData.getTargetMap().get(targetKey);
-        if (targetIdeInfo == null || targetIdeInfo.getcIdeInfo() == null) {
-          continue;
-        }
-
-        // defines and include directories are the same for all sources in a given target, so lets
-        // collect them once and reuse for each source file's options
-
-        UnfilteredCompilerOptions coptsExtractor =
-            UnfilteredCompilerOptions.builder()
-                .registerSingleOrSplitOption("-I")
-                .build(targetIdeInfo.getcIdeInfo().getLocalCopts());
-        ImmutableList<String> plainLocalCopts =
-            filterIncompatibleFlags(coptsExtractor.getUninterpretedOptions());
-        ImmutableList<ExecutionRootPath> localIncludes =
-            coptsExtractor.getExtractedOptionValues("-I").stream()
-                .map(ExecutionRootPath::new)
-                .collect(toImmutableList());
-
-        // transitiveDefines are sourced from a target's (and transitive deps) "defines" attribute
-        ImmutableList<String> transitiveDefineOptions =
-            targetIdeInfo.getcIdeInfo().getTransitiveDefines().stream()
-                .map(s -> "-D" + s)
-                .collect(toImmutableList());
-
-        Function<ExecutionRootPath, Stream<File>> resolver =
-            executionRootPath ->
-                executionRootPathResolver.resolveToIncludeDirectories(executionRootPath).stream();
-        // localIncludes are sourced from -I options in a target's "copts" attribute. They  can be
-        // arbitrarily declared and may not exist in configResolveData.
-        // transitiveIncludeDirectories are sourced from CcSkylarkApiProvider.include_directories
-
-        ImmutableList<String> iOptionIncludeDirectories =
-            Stream.concat(
-                    localIncludes.stream().flatMap(resolver),
-                    targetIdeInfo.getcIdeInfo().getTransitiveIncludeDirectories().stream()
-                        .flatMap(resolver)
-                        .filter(configResolveData::isValidHeaderRoot))
-                .map(file -> "-I" + file.getAbsolutePath())
-                .collect(toImmutableList());
-
-        // transitiveQuoteIncludeDirectories are sourced from
-        // CcSkylarkApiProvider.quote_include_directories
-        ImmutableList<String> iquoteOptionIncludeDirectories =
-            targetIdeInfo.getcIdeInfo().getTransitiveQuoteIncludeDirectories().stream()
-                .flatMap(resolver)
-                .filter(configResolveData::isValidHeaderRoot)
-                .map(file -> "-iquote" + file.getAbsolutePath())
-                .collect(toImmutableList());
-        // transitiveSystemIncludeDirectories are sourced from
-        // CcSkylarkApiProvider.system_include_directories
-        // Note: We would ideally use -isystem here, but it interacts badly with the switches
-        // that get built by ClangUtils::addIncludeDirectories (it uses -I for system libraries).
-        ImmutableList<String> isystemOptionIncludeDirectories =
-            targetIdeInfo.getcIdeInfo().getTransitiveSystemIncludeDirectories().stream()
-                .flatMap(resolver)
-                .filter(configResolveData::isValidHeaderRoot)
-                .map(file -> "-I" + file.getAbsolutePath())
-                .collect(toImmutableList());
-
-        for (VirtualFile vf : resolveConfiguration.getSources(targetKey)) {
-          OCLanguageKind kind = resolveConfiguration.getDeclaredLanguageKind(vf);
-          if (kind == null) {
-            kind = CLanguageKind.CPP;
-          }
-
-          CidrSwitchBuilder fileSpecificSwitchBuilder = new CidrSwitchBuilder();
-
-          ImmutableList<String> baseSwitches = compilerSettings.getCompilerSwitches(kind, vf);
-          fileSpecificSwitchBuilder.addAllRaw(baseSwitches);
-          fileSpecificSwitchBuilder.addAllRaw(transitiveDefineOptions);
-          fileSpecificSwitchBuilder.addAllRaw(iquoteOptionIncludeDirectories);
-          fileSpecificSwitchBuilder.addAllRaw(iOptionIncludeDirectories);
-          fileSpecificSwitchBuilder.addAllRaw(isystemOptionIncludeDirectories);
-          fileSpecificSwitchBuilder.addAllRaw(plainLocalCopts);
-
-          PerFileCompilerOpts perFileCompilerOpts =
-              new PerFileCompilerOpts(kind, fileSpecificSwitchBuilder.build());
-          configSourceFiles.put(vf, perFileCompilerOpts);
-          if (!configLanguages.containsKey(kind)) {
-            addConfigLanguageSwitches(
-                configLanguages, compilerSettings,
-                // If a file isn't found in configSourceFiles (newly created files), CLion uses the
-                // configLanguages switches. We want some basic header search roots (genfiles),
-                // which are part of every target's iquote directories. See:
-                // https://github.com/bazelbuild/bazel/blob/2c493e8a2132d54f4b2fb8046f6bcef11e92cd22/src/main/java/com/google/devtools/build/lib/rules/cpp/CcCompilationHelper.java#L911
-                iquoteOptionIncludeDirectories, kind);
-          }
-        }
-      }
-
-      for (OCLanguageKind language : supportedLanguages) {
-        if (!configLanguages.containsKey(language)) {
-          addConfigLanguageSwitches(
-              configLanguages, compilerSettings, ImmutableList.of(), language);
-        }
-      }
-
-      String id = resolveConfiguration.getDisplayName();
-
+    for (ConfigurationOptions configuration : configurations) {
+      String id = configuration.configuration.getDisplayName();
       addConfiguration(
           workspaceModifiable,
           id,
           id,
           workspaceRoot.directory(),
-          configLanguages,
-          configSourceFiles);
-      progress++;
+          configuration.languages,
+          configuration.sourceFiles);
     }
     return workspaceModifiable;
   }
@@ -326,46 +228,6 @@ public final class BlazeCWorkspace implements ProjectComponent {
       fileCompilerSettings.setCompilerSwitches(compilerOpts.switches);
     }
   }
-  /** Group compiler options for a specific file. */
-  private static class PerFileCompilerOpts {
-    final OCLanguageKind kind;
-    final CidrCompilerSwitches switches;
-
-    private PerFileCompilerOpts(OCLanguageKind kind, CidrCompilerSwitches switches) {
-      this.kind = kind;
-      this.switches = switches;
-    }
-  }
-
-  /** Group compiler options for a specific language. */
-  private static class PerLanguageCompilerOpts {
-    final OCCompilerKind kind;
-    final File compiler;
-    final CidrCompilerSwitches switches;
-
-    private PerLanguageCompilerOpts(
-        OCCompilerKind kind, File compiler, CidrCompilerSwitches switches) {
-      this.kind = kind;
-      this.compiler = compiler;
-      this.switches = switches;
-    }
-  }
-
-  private void addConfigLanguageSwitches(
-      Map<OCLanguageKind, PerLanguageCompilerOpts> configLanguages,
-      BlazeCompilerSettings compilerSettings,
-      List<String> additionalSwitches,
-      OCLanguageKind language) {
-    OCCompilerKind compilerKind = compilerSettings.getCompiler(language);
-    File executable = compilerSettings.getCompilerExecutable(language);
-    CidrSwitchBuilder switchBuilder = new CidrSwitchBuilder();
-    ImmutableList<String> switches = compilerSettings.getCompilerSwitches(language, null);
-    switchBuilder.addAllRaw(switches);
-    switchBuilder.addAllRaw(additionalSwitches);
-    PerLanguageCompilerOpts perLanguageCompilerOpts =
-        new PerLanguageCompilerOpts(compilerKind, executable, switchBuilder.build());
-    configLanguages.put(language, perLanguageCompilerOpts);
-  }
 
   /**
    * Notifies the workspace of changes in inputs to the resolve configuration. See {@link
@@ -394,15 +256,6 @@ public final class BlazeCWorkspace implements ProjectComponent {
     return OCWorkspace.getInstance(project);
   }
 
-  // Filter out any raw copts that aren't compatible with feature detection.
-  private static ImmutableList<String> filterIncompatibleFlags(List<String> copts) {
-    return copts.stream()
-        // "-include somefile.h" doesn't seem to work for some reason. E.g.,
-        // "-include cstddef" results in "clang: error: no such file or directory: 'cstddef'"
-        .filter(opt -> !opt.startsWith("-include "))
-        .collect(toImmutableList());
-  }
-
   private static void showSetupIssues(ImmutableList<String> issues, BlazeContext context) {
     logger.warn(
         String.format(
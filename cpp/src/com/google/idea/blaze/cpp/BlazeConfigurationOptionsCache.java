@@ -0,0 +1,304 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.cpp;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.idea.blaze.base.async.executor.BlazeExecutor;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.model.primitives.ExecutionRootPath;
+import com.google.idea.blaze.base.sync.workspace.ExecutionRootPathResolver;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.jetbrains.cidr.lang.CLanguageKind;
+import com.jetbrains.cidr.lang.OCLanguageKind;
+import com.jetbrains.cidr.lang.toolchains.CidrCompilerSwitches;
+import com.jetbrains.cidr.lang.toolchains.CidrSwitchBuilder;
+import com.jetbrains.cidr.lang.workspace.compiler.OCCompilerKind;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * The compiler switches of each {@link BlazeResolveConfiguration}, carried over between syncs.
+ *
+ * <p>Switches are only recalculated for configurations whose compiler settings, copts, include
+ * directories, targets or sources have changed since the previous update. Changed configurations
+ * are calculated in parallel.
+ */
+final class BlazeConfigurationOptionsCache {
+  private static final Logger logger = Logger.getInstance(BlazeConfigurationOptionsCache.class);
+
+  private static final ImmutableList<OCLanguageKind> SUPPORTED_LANGUAGES =
+      ImmutableList.of(CLanguageKind.C, CLanguageKind.CPP);
+
+  private ImmutableMap<BlazeResolveConfigurationData, ConfigurationOptions> options =
+      ImmutableMap.of();
+  private BlazeConfigurationResolverResult previousResult =
+      BlazeConfigurationResolverResult.empty();
+  private final AtomicInteger switchBuilds = new AtomicInteger();
+
+  /**
+   * Returns the switches for each configuration of the given result, in order. Only those which
+   * have changed since the previous call are recalculated.
+   *
+   * @param invalidate if true, all configurations are recalculated, e.g. because include
+   *     directories may resolve differently.
+   */
+  synchronized ImmutableList<ConfigurationOptions> update(
+      BlazeConfigurationResolverResult resolverResult,
+      ExecutionRootPathResolver executionRootPathResolver,
+      boolean invalidate,
+      ProgressIndicator indicator)
+      throws InterruptedException, ExecutionException {
+    if (invalidate || !resolverResult.isEquivalentHeaderRoots(previousResult)) {
+      // include directories are filtered by the valid header roots
+      options = ImmutableMap.of();
+    }
+    ImmutableList<BlazeResolveConfiguration> configurations = resolverResult.getAllConfigurations();
+    List<ListenableFuture<ConfigurationOptions>> futures = new ArrayList<>();
+    AtomicInteger done = new AtomicInteger();
+    int changed = 0;
+    for (BlazeResolveConfiguration configuration : configurations) {
+      ConfigurationOptions cached = options.get(configuration.getConfigurationData());
+      if (cached != null && cached.configuration.isEquivalentConfigurations(configuration)) {
+        futures.add(Futures.immediateFuture(cached));
+        done.incrementAndGet();
+        continue;
+      }
+      changed++;
+      futures.add(
+          BlazeExecutor.getInstance()
+              .submit(
+                  () -> {
+                    ConfigurationOptions result =
+                        calculate(configuration, resolverResult, executionRootPathResolver);
+                    indicator.setFraction(
+                        ((double) done.incrementAndGet()) / configurations.size());
+                    return result;
+                  }));
+    }
+    ImmutableList<ConfigurationOptions> result =
+        ImmutableList.copyOf(Futures.allAsList(futures).get());
+    logger.info(
+        String.format(
+            "Calculated switches for %d of %d configurations",
+            changed, configurations.size()));
+    options =
+        result.stream()
+            .collect(
+                toImmutableMap(
+                    o -> o.configuration.getConfigurationData(), Function.identity()));
+    previousResult = resolverResult;
+    return result;
+  }
+
+  /** Returns the number of compiler switch lists built so far. */
+  @VisibleForTesting
+  int getSwitchBuildCount() {
+    return switchBuilds.get();
+  }
+
+  private ConfigurationOptions calculate(
+      BlazeResolveConfiguration configuration,
+      BlazeConfigurationResolverResult resolverResult,
+      ExecutionRootPathResolver executionRootPathResolver) {
+    BlazeResolveConfigurationData data = configuration.getConfigurationData();
+    BlazeCompilerSettings compilerSettings = configuration.getCompilerSettings();
+
+    // Targets are grouped into configurations by their copts, defines and include directories, so
+    // these are the same for every source file in the configuration. Collect them once.
+    UnfilteredCompilerOptions coptsExtractor =
+        UnfilteredCompilerOptions.builder()
+            .registerSingleOrSplitOption("-I")
+            .build(data.localCopts);
+    ImmutableList<String> plainLocalCopts =
+        filterIncompatibleFlags(coptsExtractor.getUninterpretedOptions());
+    ImmutableList<ExecutionRootPath> localIncludes =
+        coptsExtractor.getExtractedOptionValues("-I").stream()
+            .map(ExecutionRootPath::new)
+            .collect(toImmutableList());
+
+    // transitiveDefines are sourced from a target's (and transitive deps) "defines" attribute
+    ImmutableList<String> transitiveDefineOptions =
+        data.transitiveDefines.stream().map(s -> "-D" + s).collect(toImmutableList());
+
+    Function<ExecutionRootPath, Stream<File>> resolver =
+        executionRootPath ->
+            executionRootPathResolver.resolveToIncludeDirectories(executionRootPath).stream();
+    // localIncludes are sourced from -I options in a target's "copts" attribute. They  can be
+    // arbitrarily declared and may not exist in configResolveData.
+    // transitiveIncludeDirectories are sourced from CcSkylarkApiProvider.include_directories
+    ImmutableList<String> iOptionIncludeDirectories =
+        Stream.concat(
+                localIncludes.stream().flatMap(resolver),
+                data.transitiveIncludeDirectories.stream()
+                    .flatMap(resolver)
+                    .filter(resolverResult::isValidHeaderRoot))
+            .map(file -> "-I" + file.getAbsolutePath())
+            .collect(toImmutableList());
+
+    // transitiveQuoteIncludeDirectories are sourced from
+    // CcSkylarkApiProvider.quote_include_directories
+    ImmutableList<String> iquoteOptionIncludeDirectories =
+        data.transitiveQuoteIncludeDirectories.stream()
+            .flatMap(resolver)
+            .filter(resolverResult::isValidHeaderRoot)
+            .map(file -> "-iquote" + file.getAbsolutePath())
+            .collect(toImmutableList());
+    // transitiveSystemIncludeDirectories are sourced from
+    // CcSkylarkApiProvider.system_include_directories
+    // Note: We would ideally use -isystem here, but it interacts badly with the switches
+    // that get built by ClangUtils::addIncludeDirectories (it uses -I for system libraries).
+    ImmutableList<String> isystemOptionIncludeDirectories =
+        data.transitiveSystemIncludeDirectories.stream()
+            .flatMap(resolver)
+            .filter(resolverResult::isValidHeaderRoot)
+            .map(file -> "-I" + file.getAbsolutePath())
+            .collect(toImmutableList());
+
+    Map<OCLanguageKind, PerLanguageCompilerOpts> configLanguages = new HashMap<>();
+    // the switches of a source file only depend on its language, so they're shared between files
+    Map<OCLanguageKind, PerFileCompilerOpts> fileOptions = new HashMap<>();
+    Map<VirtualFile, PerFileCompilerOpts> configSourceFiles = new LinkedHashMap<>();
+    for (TargetKey targetKey : configuration.getTargets()) {
+      for (VirtualFile vf : configuration.getSources(targetKey)) {
+        OCLanguageKind kind = configuration.getDeclaredLanguageKind(vf);
+        if (kind == null) {
+          kind = CLanguageKind.CPP;
+        }
+        PerFileCompilerOpts perFileCompilerOpts =
+            fileOptions.computeIfAbsent(
+                kind,
+                k -> {
+                  CidrSwitchBuilder fileSpecificSwitchBuilder = new CidrSwitchBuilder();
+                  fileSpecificSwitchBuilder.addAllRaw(compilerSettings.getCompilerSwitches(k, vf));
+                  fileSpecificSwitchBuilder.addAllRaw(transitiveDefineOptions);
+                  fileSpecificSwitchBuilder.addAllRaw(iquoteOptionIncludeDirectories);
+                  fileSpecificSwitchBuilder.addAllRaw(iOptionIncludeDirectories);
+                  fileSpecificSwitchBuilder.addAllRaw(isystemOptionIncludeDirectories);
+                  fileSpecificSwitchBuilder.addAllRaw(plainLocalCopts);
+                  return new PerFileCompilerOpts(k, build(fileSpecificSwitchBuilder));
+                });
+        configSourceFiles.put(vf, perFileCompilerOpts);
+        if (!configLanguages.containsKey(kind)) {
+          addConfigLanguageSwitches(
+              configLanguages, compilerSettings,
+              // If a file isn't found in configSourceFiles (newly created files), CLion uses the
+              // configLanguages switches. We want some basic header search roots (genfiles),
+              // which are part of every target's iquote directories. See:
+              // https://github.com/bazelbuild/bazel/blob/2c493e8a2132d54f4b2fb8046f6bcef11e92cd22/src/main/java/com/google/devtools/build/lib/rules/cpp/CcCompilationHelper.java#L911
+              iquoteOptionIncludeDirectories, kind);
+        }
+      }
+    }
+
+    for (OCLanguageKind language : SUPPORTED_LANGUAGES) {
+      if (!configLanguages.containsKey(language)) {
+        addConfigLanguageSwitches(configLanguages, compilerSettings, ImmutableList.of(), language);
+      }
+    }
+    return new ConfigurationOptions(
+        configuration,
+        ImmutableMap.copyOf(configLanguages),
+        ImmutableMap.copyOf(configSourceFiles));
+  }
+
+  private void addConfigLanguageSwitches(
+      Map<OCLanguageKind, PerLanguageCompilerOpts> configLanguages,
+      BlazeCompilerSettings compilerSettings,
+      List<String> additionalSwitches,
+      OCLanguageKind language) {
+    OCCompilerKind compilerKind = compilerSettings.getCompiler(language);
+    File executable = compilerSettings.getCompilerExecutable(language);
+    CidrSwitchBuilder switchBuilder = new CidrSwitchBuilder();
+    ImmutableList<String> switches = compilerSettings.getCompilerSwitches(language, null);
+    switchBuilder.addAllRaw(switches);
+    switchBuilder.addAllRaw(additionalSwitches);
+    PerLanguageCompilerOpts perLanguageCompilerOpts =
+        new PerLanguageCompilerOpts(compilerKind, executable, build(switchBuilder));
+    configLanguages.put(language, perLanguageCompilerOpts);
+  }
+
+  private CidrCompilerSwitches build(CidrSwitchBuilder switchBuilder) {
+    switchBuilds.incrementAndGet();
+    return switchBuilder.build();
+  }
+
+  // Filter out any raw copts that aren't compatible with feature detection.
+  private static ImmutableList<String> filterIncompatibleFlags(List<String> copts) {
+    return copts.stream()
+        // "-include somefile.h" doesn't seem to work for some reason. E.g.,
+        // "-include cstddef" results in "clang: error: no such file or directory: 'cstddef'"
+        .filter(opt -> !opt.startsWith("-include "))
+        .collect(toImmutableList());
+  }
+
+  /** The compiler switches calculated for a single configuration. */
+  static final class ConfigurationOptions {
+    final BlazeResolveConfiguration configuration;
+    final ImmutableMap<OCLanguageKind, PerLanguageCompilerOpts> languages;
+    final ImmutableMap<VirtualFile, PerFileCompilerOpts> sourceFiles;
+
+    private ConfigurationOptions(
+        BlazeResolveConfiguration configuration,
+        ImmutableMap<OCLanguageKind, PerLanguageCompilerOpts> languages,
+        ImmutableMap<VirtualFile, PerFileCompilerOpts> sourceFiles) {
+      this.configuration = configuration;
+      this.languages = languages;
+      this.sourceFiles = sourceFiles;
+    }
+  }
+
+  /** Group compiler options for a specific file. */
+  static final class PerFileCompilerOpts {
+    final OCLanguageKind kind;
+    final CidrCompilerSwitches switches;
+
+    private PerFileCompilerOpts(OCLanguageKind kind, CidrCompilerSwitches switches) {
+      this.kind = kind;
+      this.switches = switches;
+    }
+  }
+
+  /** Group compiler options for a specific language. */
+  static final class PerLanguageCompilerOpts {
+    final OCCompilerKind kind;
+    final File compiler;
+    final CidrCompilerSwitches switches;
+
+    private PerLanguageCompilerOpts(
+        OCCompilerKind kind, File compiler, CidrCompilerSwitches switches) {
+      this.kind = kind;
+      this.compiler = compiler;
+      this.switches = switches;
+    }
+  }
+}
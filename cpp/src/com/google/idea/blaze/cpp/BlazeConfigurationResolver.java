@@ -41,7 +41,7 @@ import com.google.idea.blaze.base.scope.scopes.TimingScope;
 import com.google.idea.blaze.base.scope.scopes.TimingScope.EventType;
 import com.google.idea.blaze.base.settings.Blaze;
 import com.google.idea.blaze.base.sync.projectview.ProjectViewTargetImportFilter;
-import com.google.idea.blaze.base.sync.workspace.ExecutionRootPathResolver;
+import com.google.idea.blaze.base.sync.workspace.CachingExecutionRootPathResolver;
 import com.google.idea.blaze.base.sync.workspace.WorkspaceHelper;
 import com.google.idea.blaze.base.sync.workspace.WorkspacePathResolver;
 import com.google.idea.blaze.common.PrintOutput;
@@ -83,14 +83,30 @@ final class BlazeConfigurationResolver {
       ProjectViewSet projectViewSet,
       BlazeProjectData blazeProjectData,
       BlazeConfigurationResolverResult oldResult) {
-    ExecutionRootPathResolver executionRootPathResolver =
-        new ExecutionRootPathResolver(
+    return update(
+        context,
+        workspaceRoot,
+        projectViewSet,
+        blazeProjectData,
+        oldResult,
+        CachingExecutionRootPathResolver.create(
             Blaze.getBuildSystemProvider(project),
             WorkspaceRoot.fromProject(project),
-            blazeProjectData.getBlazeInfo().getExecutionRoot(),
-            blazeProjectData.getBlazeInfo().getOutputBase(),
-            blazeProjectData.getWorkspacePathResolver(),
-            blazeProjectData.getTargetMap());
+            blazeProjectData));
+  }
+
+  /**
+   * As {@link #update(BlazeContext, WorkspaceRoot, ProjectViewSet, BlazeProjectData,
+   * BlazeConfigurationResolverResult)}, resolving include directories via the given sync-scoped
+   * resolver so that its cache can be shared with later stages of the sync.
+   */
+  public BlazeConfigurationResolverResult update(
+      BlazeContext context,
+      WorkspaceRoot workspaceRoot,
+      ProjectViewSet projectViewSet,
+      BlazeProjectData blazeProjectData,
+      BlazeConfigurationResolverResult oldResult,
+      CachingExecutionRootPathResolver executionRootPathResolver) {
     ImmutableMap<TargetKey, CToolchainIdeInfo> toolchainLookupMap =
         BlazeConfigurationToolchainResolver.buildToolchainLookupMap(
             context, blazeProjectData.getTargetMap());
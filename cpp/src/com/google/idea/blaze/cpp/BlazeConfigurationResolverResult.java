@@ -79,6 +79,11 @@ final class BlazeConfigurationResolverResult {
     return validHeaderRoots.contains(absolutePath);
   }
 
+  /** Returns true if both results have the same set of valid header roots. */
+  boolean isEquivalentHeaderRoots(BlazeConfigurationResolverResult other) {
+    return validHeaderRoots.equals(other.validHeaderRoots);
+  }
+
   boolean isEquivalentConfigurations(BlazeConfigurationResolverResult other) {
     if (!uniqueResolveConfigurations.keySet().equals(other.uniqueResolveConfigurations.keySet())) {
       return false;
@@ -60,10 +60,13 @@ import com.google.idea.blaze.base.settings.BlazeImportSettings.ProjectType;
 import com.google.idea.blaze.base.settings.BlazeImportSettingsManager;
 import com.google.idea.blaze.base.sync.SyncCache;
 import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
+import com.google.idea.blaze.base.sync.workspace.CachingExecutionRootPathResolver;
 import com.google.idea.blaze.base.sync.workspace.WorkspaceHelper;
+import com.google.idea.blaze.cpp.BlazeConfigurationOptionsCache.ConfigurationOptions;
 import com.google.idea.common.experiments.ExperimentService;
 import com.google.idea.common.experiments.MockExperimentService;
 import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.progress.impl.ProgressManagerImpl;
 import com.intellij.openapi.util.registry.Registry;
@@ -860,6 +863,108 @@ public class BlazeConfigurationResolverTest extends BlazeTestCase {
     assertThatResolving(projectView, targetMap).producesXcodeConfiguration(expected);
   }
 
+  @Test
+  public void unchangedConfigurations_switchesNotRebuilt() throws Exception {
+    ProjectView projectView = projectView(directories("foo/bar"), targets("//foo/bar:*"));
+    TargetMap targetMap =
+        TargetMapBuilder.builder()
+            .addTarget(createCcToolchain())
+            .addTarget(
+                createCcTarget(
+                    "//foo/bar:binary",
+                    CppBlazeRules.RuleTypes.CC_BINARY.getKind(),
+                    ImmutableList.of(src("foo/bar/binary.cc")),
+                    "//:toolchain"))
+            .addTarget(
+                createCcTarget(
+                    "//foo/bar:library",
+                    CppBlazeRules.RuleTypes.CC_LIBRARY.getKind(),
+                    ImmutableList.of(src("foo/bar/library.cc")),
+                    ImmutableList.of("-DLIBRARY"),
+                    "//:toolchain"))
+            .build();
+    createVirtualFile("/root/foo/bar/binary.cc");
+    createVirtualFile("/root/foo/bar/library.cc");
+    BlazeConfigurationOptionsCache cache = new BlazeConfigurationOptionsCache();
+
+    computeResolverResult(projectView, targetMap);
+    ImmutableList<ConfigurationOptions> initialOptions = updateOptions(cache, targetMap);
+    int switchBuilds = cache.getSwitchBuildCount();
+    assertThat(initialOptions).hasSize(2);
+    assertThat(switchBuilds).isGreaterThan(0);
+
+    computeResolverResult(projectView, targetMap);
+    ImmutableList<ConfigurationOptions> options = updateOptions(cache, targetMap);
+    assertThat(cache.getSwitchBuildCount()).isEqualTo(switchBuilds);
+    assertThat(options).containsExactlyElementsIn(initialOptions).inOrder();
+  }
+
+  @Test
+  public void changedConfiguration_onlyChangedSwitchesRebuilt() throws Exception {
+    ProjectView projectView = projectView(directories("foo/bar"), targets("//foo/bar:*"));
+    TargetIdeInfo.Builder binary =
+        createCcTarget(
+            "//foo/bar:binary",
+            CppBlazeRules.RuleTypes.CC_BINARY.getKind(),
+            ImmutableList.of(src("foo/bar/binary.cc")),
+            "//:toolchain");
+    TargetMap targetMap =
+        TargetMapBuilder.builder()
+            .addTarget(createCcToolchain())
+            .addTarget(binary)
+            .addTarget(
+                createCcTarget(
+                    "//foo/bar:library",
+                    CppBlazeRules.RuleTypes.CC_LIBRARY.getKind(),
+                    ImmutableList.of(src("foo/bar/library.cc")),
+                    ImmutableList.of("-DLIBRARY"),
+                    "//:toolchain"))
+            .build();
+    createVirtualFile("/root/foo/bar/binary.cc");
+    createVirtualFile("/root/foo/bar/library.cc");
+    BlazeConfigurationOptionsCache cache = new BlazeConfigurationOptionsCache();
+    computeResolverResult(projectView, targetMap);
+    ImmutableList<ConfigurationOptions> initialOptions = updateOptions(cache, targetMap);
+
+    TargetMap changedTargetMap =
+        TargetMapBuilder.builder()
+            .addTarget(createCcToolchain())
+            .addTarget(binary)
+            .addTarget(
+                createCcTarget(
+                    "//foo/bar:library",
+                    CppBlazeRules.RuleTypes.CC_LIBRARY.getKind(),
+                    ImmutableList.of(src("foo/bar/library.cc")),
+                    ImmutableList.of("-DCHANGED"),
+                    "//:toolchain"))
+            .build();
+    computeResolverResult(projectView, changedTargetMap);
+    ImmutableList<ConfigurationOptions> options = updateOptions(cache, changedTargetMap);
+
+    assertThat(options).hasSize(2);
+    assertThat(reusedDisplayNames(initialOptions, options)).containsExactly("//foo/bar:binary");
+  }
+
+  private ImmutableList<ConfigurationOptions> updateOptions(
+      BlazeConfigurationOptionsCache cache, TargetMap targetMap) throws Exception {
+    BlazeProjectData blazeProjectData =
+        MockBlazeProjectDataBuilder.builder(workspaceRoot).setTargetMap(targetMap).build();
+    return cache.update(
+        resolverResult,
+        CachingExecutionRootPathResolver.create(
+            getBuildSystemProvider(), workspaceRoot, blazeProjectData),
+        /* invalidate= */ false,
+        new EmptyProgressIndicator());
+  }
+
+  private static ImmutableList<String> reusedDisplayNames(
+      Collection<ConfigurationOptions> previous, Collection<ConfigurationOptions> current) {
+    return current.stream()
+        .filter(options -> previous.stream().anyMatch(p -> p == options))
+        .map(options -> options.configuration.getDisplayName())
+        .collect(toImmutableList());
+  }
+
   private static ArtifactLocation src(String path) {
     return ArtifactLocation.builder().setRelativePath(path).setIsSource(true).build();
   }
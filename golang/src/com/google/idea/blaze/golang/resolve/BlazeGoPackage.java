@@ -22,30 +22,15 @@ import com.goide.psi.impl.GoPackage;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMultimap;
-import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Streams;
-import com.google.idea.blaze.base.command.buildresult.OutputArtifactResolver;
-import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
-import com.google.idea.blaze.base.ideinfo.GoIdeInfo;
-import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
-import com.google.idea.blaze.base.ideinfo.TargetKey;
-import com.google.idea.blaze.base.ideinfo.TargetMap;
 import com.google.idea.blaze.base.io.VfsUtils;
 import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
 import com.google.idea.blaze.base.lang.buildfile.psi.FuncallExpression;
 import com.google.idea.blaze.base.lang.buildfile.references.BuildReferenceManager;
-import com.google.idea.blaze.base.model.BlazeProjectData;
-import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
 import com.google.idea.blaze.base.model.primitives.Label;
-import com.google.idea.blaze.base.model.primitives.LanguageClass;
-import com.google.idea.blaze.base.model.primitives.RuleType;
-import com.google.idea.blaze.base.sync.SyncCache;
 import com.google.idea.blaze.base.sync.workspace.WorkspaceHelper;
-import com.google.idea.blaze.base.targetmaps.ReverseDependencyMap;
 import com.google.idea.blaze.golang.GoBlazeRules.RuleTypes;
-import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.progress.ProgressIndicatorProvider;
 import com.intellij.openapi.project.Project;
@@ -67,7 +52,6 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.function.Predicate;
-import java.util.stream.Stream;
 import javax.annotation.Nullable;
 import one.util.streamex.StreamEx;
 
@@ -85,9 +69,6 @@ import one.util.streamex.StreamEx;
  * Exactly one {@link BlazeGoPackage} per go rule.
  */
 public class BlazeGoPackage extends GoPackage {
-  private static final Logger logger = Logger.getInstance(BlazeGoPackage.class);
-  private static final String GO_TARGET_TO_FILE_MAP_KEY = "BlazeGoTargetToFileMap";
-
   private final Label label;
   private final String importPath;
   private final ConcurrentMap<File, Optional<PsiFile>> files;
@@ -95,15 +76,6 @@ public class BlazeGoPackage extends GoPackage {
   @Nullable private volatile PsiElement navigableElement;
   @Nullable private volatile PsiElement[] importReferences;
 
-  BlazeGoPackage(
-      Project project, BlazeProjectData projectData, String importPath, TargetIdeInfo target) {
-    this(
-        project,
-        importPath,
-        replaceProtoLibrary(project, projectData, target.getKey()).getLabel(),
-        getTargetToFileMap(project, projectData).get(target.getKey().getLabel()));
-  }
-
   BlazeGoPackage(Project project, String importPath, Label label, Collection<File> files) {
     super(project, getPackageName(project, files, importPath));
     this.importPath = importPath;
@@ -117,139 +89,6 @@ public class BlazeGoPackage extends GoPackage {
         .forEach(f -> directories.put(f, Optional.empty()));
   }
 
-  /**
-   * The import path for proto_library doesn't match the target name, we need to replace the
-   * proto_library with the corresponding go_proto_library for them to match.
-   */
-  private static TargetKey replaceProtoLibrary(
-      Project project, BlazeProjectData projectData, TargetKey targetKey) {
-    TargetMap targetMap = projectData.getTargetMap();
-    TargetIdeInfo target = targetMap.get(targetKey);
-    if (target == null || target.getKind() != GenericBlazeRules.RuleTypes.PROTO_LIBRARY.getKind()) {
-      return targetKey;
-    }
-    return ReverseDependencyMap.get(project).get(targetKey).stream()
-        .map(targetMap::get)
-        .filter(Objects::nonNull)
-        .filter(t -> t.getKind() == RuleTypes.GO_PROTO_LIBRARY.getKind())
-        .map(TargetIdeInfo::getKey)
-        .findFirst()
-        .orElse(targetKey);
-  }
-
-  static ImmutableMultimap<Label, File> getTargetToFileMap(
-      Project project, BlazeProjectData projectData) {
-    ImmutableMultimap<Label, File> map =
-        SyncCache.getInstance(project)
-            .get(GO_TARGET_TO_FILE_MAP_KEY, BlazeGoPackage::getUncachedTargetToFileMap);
-    if (map == null) {
-      logger.error("Unexpected null target to file map from SyncCache.");
-      return getUncachedTargetToFileMap(project, projectData);
-    }
-    return map;
-  }
-
-  public static ImmutableMultimap<Label, File> getUncachedTargetToFileMap(
-      Project project, BlazeProjectData projectData) {
-    ImmutableMultimap<Label, GoIdeInfo> libraryToTestMap = buildLibraryToTestMap(projectData);
-    ImmutableMultimap.Builder<Label, File> builder = ImmutableMultimap.builder();
-    for (TargetIdeInfo target : projectData.getTargetMap().targets()) {
-      if (target.getGoIdeInfo() == null) {
-        continue;
-      }
-      ImmutableSet<File> sourceFiles =
-          getSourceFiles(target, project, projectData, libraryToTestMap).stream()
-              .map(BlazeGoPackage::toRealFile)
-              .filter(Objects::nonNull)
-              .collect(toImmutableSet());
-      builder.putAll(target.getKey().getLabel(), sourceFiles);
-    }
-    return builder.build();
-  }
-
-  /**
-   * Workaround for https://github.com/bazelbuild/intellij/issues/2057. External workspace symlinks
-   * can be changed externally by practically any bazel command. Such changes to symlinks will make
-   * IntelliJ red. This helper resolves such symlink to an actual location.
-   *
-   * @see com.google.idea.blaze.java.libraries.JarCache.patchExternalFilePath()
-   */
-  @Nullable
-  private static File toRealFile(@Nullable File maybeExternal) {
-    if (maybeExternal == null) {
-      return null;
-    }
-    // do string manipulation instead of .toPath().toRealPath().toFile()
-    // because there might be a race condition and symlink won't be resolved at the time
-    String externalString = maybeExternal.toString();
-    if (externalString.contains("/external/")
-        && !externalString.contains("/bazel-out/")
-        && !externalString.contains("/blaze-out/")) {
-      return new File(externalString.replaceAll("/execroot.*/external/", "/external/"));
-    }
-    return maybeExternal;
-  }
-
-  private static ImmutableSet<File> getSourceFiles(
-      TargetIdeInfo target,
-      Project project,
-      BlazeProjectData projectData,
-      ImmutableMultimap<Label, GoIdeInfo> libraryToTestMap) {
-    if (target.getKind() == RuleTypes.GO_WRAP_CC.getKind()) {
-      return getWrapCcGoFiles(project, projectData, target);
-    }
-    return Stream.concat(
-            Stream.of(target.getGoIdeInfo()),
-            libraryToTestMap.get(target.getKey().getLabel()).stream())
-        .map(GoIdeInfo::getSources)
-        .flatMap(Collection::stream)
-        .map(a -> resolveArtifact(project, projectData, a))
-        .filter(Objects::nonNull)
-        .collect(toImmutableSet());
-  }
-
-  private static ImmutableMultimap<Label, GoIdeInfo> buildLibraryToTestMap(
-      BlazeProjectData projectData) {
-    TargetMap targetMap = projectData.getTargetMap();
-    ImmutableMultimap.Builder<Label, GoIdeInfo> builder = ImmutableMultimap.builder();
-    for (TargetIdeInfo target : targetMap.targets()) {
-      if (!target.getKind().hasLanguage(LanguageClass.GO)
-          || target.getKind().getRuleType() != RuleType.TEST
-          || target.getGoIdeInfo() == null
-          || target.getGoIdeInfo().getLibraryLabels().isEmpty()) {
-        continue;
-      }
-      for (Label label : target.getGoIdeInfo().getLibraryLabels()) {
-        builder.put(label, target.getGoIdeInfo());
-      }
-    }
-    return builder.build();
-  }
-
-  @Nullable
-  private static File resolveArtifact(
-      Project project, BlazeProjectData data, ArtifactLocation artifact) {
-    return OutputArtifactResolver.resolve(project, data.getArtifactLocationDecoder(), artifact);
-  }
-
-  private static ImmutableSet<File> getWrapCcGoFiles(
-      Project project, BlazeProjectData projectData, TargetIdeInfo target) {
-    if (!target.getGoIdeInfo().getSources().isEmpty()) {
-      return target.getGoIdeInfo().getSources().stream()
-          .map(a -> resolveArtifact(project, projectData, a))
-          .filter(Objects::nonNull)
-          .collect(toImmutableSet());
-    }
-    // older versions of blaze don't expose the .go genfile
-    // in that case, look directly in blaze-out
-    String blazePackage = target.getKey().getLabel().blazePackage().relativePath();
-    File directory = new File(projectData.getBlazeInfo().getGenfilesDirectory(), blazePackage);
-    String filename = blazePackage + '/' + target.getKey().getLabel().targetName() + ".go";
-    filename = filename.replace("_", "__");
-    filename = filename.replace('/', '_');
-    return ImmutableSet.of(new File(directory, filename));
-  }
-
   /**
    * Package name is determined by package declaration in the source files (must all be the same).
    *
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.golang.resolve;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.idea.blaze.base.command.buildresult.OutputArtifactResolver;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.Dependency;
+import com.google.idea.blaze.base.ideinfo.GoIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.model.primitives.LanguageClass;
+import com.google.idea.blaze.base.model.primitives.RuleType;
+import com.google.idea.blaze.golang.GoBlazeRules.RuleTypes;
+import com.intellij.openapi.project.Project;
+import java.io.File;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+
+/**
+ * An index of the go packages in a project, built in a single pass over the {@link TargetMap}.
+ *
+ * <p>Maps each import path to the target providing it and its source files (including those of
+ * tests declaring it as their library), and each source file back to its import path. Source files
+ * are resolved once and shared between all maps.
+ */
+public final class BlazeGoPackageIndex {
+
+  /** The go target providing a single import path. */
+  @VisibleForTesting
+  static final class PackageEntry {
+    /** The target to navigate to, i.e. the go_proto_library rather than its proto_library. */
+    final Label label;
+    /** The sources of the target and of any tests of it. */
+    final ImmutableList<File> files;
+
+    PackageEntry(Label label, ImmutableList<File> files) {
+      this.label = label;
+      this.files = files;
+    }
+  }
+
+  private final ImmutableMap<String, PackageEntry> packages;
+  private final ImmutableMap<File, String> fileToImportPath;
+  private final ImmutableList<File> files;
+
+  /** {@link BlazeGoPackage}s are created lazily, as they can only be used in a read action. */
+  private final ConcurrentMap<String, Optional<BlazeGoPackage>> goPackages =
+      new ConcurrentHashMap<>();
+
+  @VisibleForTesting
+  BlazeGoPackageIndex(
+      ImmutableMap<String, PackageEntry> packages,
+      ImmutableMap<File, String> fileToImportPath,
+      ImmutableList<File> files) {
+    this.packages = packages;
+    this.fileToImportPath = fileToImportPath;
+    this.files = files;
+  }
+
+  /** Returns the {@link BlazeGoPackage} for the given import path, or null if there is none. */
+  @Nullable
+  BlazeGoPackage getPackage(Project project, String importPath) {
+    PackageEntry entry = packages.get(importPath);
+    if (entry == null) {
+      return null;
+    }
+    return goPackages
+        .computeIfAbsent(
+            importPath,
+            path -> Optional.of(new BlazeGoPackage(project, path, entry.label, entry.files)))
+        .orElse(null);
+  }
+
+  @VisibleForTesting
+  @Nullable
+  PackageEntry getPackageEntry(String importPath) {
+    return packages.get(importPath);
+  }
+
+  /** Returns the import path of the package containing the given source file. */
+  @Nullable
+  public String getImportPath(File file) {
+    return fileToImportPath.get(file);
+  }
+
+  /** Returns a map of each source file to the import path of the package containing it. */
+  public ImmutableMap<File, String> getFileToImportPathMap() {
+    return fileToImportPath;
+  }
+
+  /** Returns the source files of every go target in the project, without duplicates. */
+  public ImmutableList<File> getFiles() {
+    return files;
+  }
+
+  /** Builds the index, resolving the source files of each target in parallel. */
+  public static BlazeGoPackageIndex build(Project project, BlazeProjectData projectData) {
+    TargetMap targetMap = projectData.getTargetMap();
+    ImmutableList<TargetIdeInfo> goTargets =
+        targetMap.targets().stream()
+            .filter(t -> t.getGoIdeInfo() != null)
+            .collect(toImmutableList());
+    ImmutableMultimap<Label, GoIdeInfo> libraryToTestMap = buildLibraryToTestMap(goTargets);
+
+    // the same label may appear more than once (e.g., same target with different aspects)
+    Map<Label, ImmutableSet<File>> targetToFiles =
+        goTargets.parallelStream()
+            .collect(
+                Collectors.toConcurrentMap(
+                    t -> t.getKey().getLabel(),
+                    t ->
+                        getSourceFiles(t, project, projectData, libraryToTestMap).stream()
+                            .map(BlazeGoPackageIndex::toRealFile)
+                            .filter(Objects::nonNull)
+                            .collect(toImmutableSet()),
+                    (first, second) -> Sets.union(first, second).immutableCopy()));
+
+    Map<String, TargetKey> importPathToTarget = new HashMap<>();
+    Map<TargetKey, TargetKey> protoToGoLibrary = new HashMap<>();
+    Map<File, String> fileToImportPath = new HashMap<>();
+    Set<File> allFiles = new LinkedHashSet<>();
+    for (TargetIdeInfo target : goTargets) {
+      GoIdeInfo goInfo = target.getGoIdeInfo();
+      String importPath = goInfo.getImportPath();
+      if (importPath != null) {
+        // duplicates are possible (e.g., same target with different aspects)
+        // choose the one with the most sources (though they're probably the same)
+        importPathToTarget.merge(
+            importPath,
+            target.getKey(),
+            (first, second) ->
+                targetMap.get(first).getGoIdeInfo().getSources().size()
+                        >= targetMap.get(second).getGoIdeInfo().getSources().size()
+                    ? first
+                    : second);
+      }
+      if (target.getKind() == RuleTypes.GO_PROTO_LIBRARY.getKind()) {
+        // the import path for proto_library doesn't match the target name, so navigate to the
+        // corresponding go_proto_library instead
+        for (Dependency dep : target.getDependencies()) {
+          TargetIdeInfo depTarget = targetMap.get(dep.getTargetKey());
+          if (depTarget != null
+              && depTarget.getKind() == GenericBlazeRules.RuleTypes.PROTO_LIBRARY.getKind()) {
+            protoToGoLibrary.putIfAbsent(dep.getTargetKey(), target.getKey());
+          }
+        }
+      }
+      String fileImportPath =
+          goInfo.getLibraryLabels().stream()
+              .map(TargetKey::forPlainTarget)
+              .map(targetMap::get)
+              .filter(Objects::nonNull)
+              .map(TargetIdeInfo::getGoIdeInfo)
+              .filter(Objects::nonNull)
+              .map(GoIdeInfo::getImportPath)
+              .filter(Objects::nonNull)
+              .findFirst()
+              .orElse(importPath);
+      ImmutableSet<File> targetFiles =
+          targetToFiles.getOrDefault(target.getKey().getLabel(), ImmutableSet.of());
+      allFiles.addAll(targetFiles);
+      if (fileImportPath != null) {
+        for (File file : targetFiles) {
+          fileToImportPath.putIfAbsent(file, fileImportPath);
+        }
+      }
+    }
+
+    ImmutableMap.Builder<String, PackageEntry> packages = ImmutableMap.builder();
+    for (Map.Entry<String, TargetKey> entry : importPathToTarget.entrySet()) {
+      TargetKey targetKey = entry.getValue();
+      Label label = protoToGoLibrary.getOrDefault(targetKey, targetKey).getLabel();
+      ImmutableSet<File> targetFiles =
+          targetToFiles.getOrDefault(targetKey.getLabel(), ImmutableSet.of());
+      packages.put(entry.getKey(), new PackageEntry(label, targetFiles.asList()));
+    }
+    return new BlazeGoPackageIndex(
+        packages.buildOrThrow(),
+        ImmutableMap.copyOf(fileToImportPath),
+        ImmutableList.copyOf(allFiles));
+  }
+
+  /**
+   * Workaround for https://github.com/bazelbuild/intellij/issues/2057. External workspace symlinks
+   * can be changed externally by practically any bazel command. Such changes to symlinks will make
+   * IntelliJ red. This helper resolves such symlink to an actual location.
+   *
+   * @see com.google.idea.blaze.java.libraries.JarCache.patchExternalFilePath()
+   */
+  @Nullable
+  private static File toRealFile(@Nullable File maybeExternal) {
+    if (maybeExternal == null) {
+      return null;
+    }
+    // do string manipulation instead of .toPath().toRealPath().toFile()
+    // because there might be a race condition and symlink won't be resolved at the time
+    String externalString = maybeExternal.toString();
+    if (externalString.contains("/external/")
+        && !externalString.contains("/bazel-out/")
+        && !externalString.contains("/blaze-out/")) {
+      return new File(externalString.replaceAll("/execroot.*/external/", "/external/"));
+    }
+    return maybeExternal;
+  }
+
+  private static ImmutableSet<File> getSourceFiles(
+      TargetIdeInfo target,
+      Project project,
+      BlazeProjectData projectData,
+      ImmutableMultimap<Label, GoIdeInfo> libraryToTestMap) {
+    if (target.getKind() == RuleTypes.GO_WRAP_CC.getKind()) {
+      return getWrapCcGoFiles(project, projectData, target);
+    }
+    return Stream.concat(
+            Stream.of(target.getGoIdeInfo()),
+            libraryToTestMap.get(target.getKey().getLabel()).stream())
+        .map(GoIdeInfo::getSources)
+        .flatMap(Collection::stream)
+        .map(a -> resolveArtifact(project, projectData, a))
+        .filter(Objects::nonNull)
+        .collect(toImmutableSet());
+  }
+
+  private static ImmutableMultimap<Label, GoIdeInfo> buildLibraryToTestMap(
+      Collection<TargetIdeInfo> goTargets) {
+    ImmutableMultimap.Builder<Label, GoIdeInfo> builder = ImmutableMultimap.builder();
+    for (TargetIdeInfo target : goTargets) {
+      if (!target.getKind().hasLanguage(LanguageClass.GO)
+          || target.getKind().getRuleType() != RuleType.TEST
+          || target.getGoIdeInfo().getLibraryLabels().isEmpty()) {
+        continue;
+      }
+      for (Label label : target.getGoIdeInfo().getLibraryLabels()) {
+        builder.put(label, target.getGoIdeInfo());
+      }
+    }
+    return builder.build();
+  }
+
+  @Nullable
+  private static File resolveArtifact(
+      Project project, BlazeProjectData data, ArtifactLocation artifact) {
+    return OutputArtifactResolver.resolve(project, data.getArtifactLocationDecoder(), artifact);
+  }
+
+  private static ImmutableSet<File> getWrapCcGoFiles(
+      Project project, BlazeProjectData projectData, TargetIdeInfo target) {
+    if (!target.getGoIdeInfo().getSources().isEmpty()) {
+      return target.getGoIdeInfo().getSources().stream()
+          .map(a -> resolveArtifact(project, projectData, a))
+          .filter(Objects::nonNull)
+          .collect(toImmutableSet());
+    }
+    // older versions of blaze don't expose the .go genfile
+    // in that case, look directly in blaze-out
+    String blazePackage = target.getKey().getLabel().blazePackage().relativePath();
+    File directory = new File(projectData.getBlazeInfo().getGenfilesDirectory(), blazePackage);
+    String filename = blazePackage + '/' + target.getKey().getLabel().targetName() + ".go";
+    filename = filename.replace("_", "__");
+    filename = filename.replace('/', '_');
+    return ImmutableSet.of(new File(directory, filename));
+  }
+}
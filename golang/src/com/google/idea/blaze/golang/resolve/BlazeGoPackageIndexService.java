@@ -0,0 +1,152 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.golang.resolve;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.primitives.LanguageClass;
+import com.google.idea.blaze.base.projectview.ProjectViewSet;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.settings.BlazeImportSettings;
+import com.google.idea.blaze.base.settings.BlazeImportSettings.ProjectType;
+import com.google.idea.blaze.base.sync.SyncListener;
+import com.google.idea.blaze.base.sync.SyncMode;
+import com.google.idea.blaze.base.sync.SyncResult;
+import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
+import com.intellij.openapi.progress.util.ProgressIndicatorUtils;
+import com.intellij.openapi.project.Project;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import javax.annotation.Nullable;
+
+/**
+ * Holds the {@link BlazeGoPackageIndex} for the project.
+ *
+ * <p>The index is built in the background as soon as a sync completes (or during sync, if the
+ * library roots are calculated first), so that the first go resolve doesn't have to build it on a
+ * read action. Indexes are keyed by the identity of the {@link BlazeProjectData} they were built
+ * from, and are dropped along with it.
+ *
+ * <p>Callers which find a build of the same index already in progress wait for it cancellably, so
+ * a read action waiting on the background build can still be interrupted by a write action.
+ */
+public class BlazeGoPackageIndexService {
+
+  private static final Executor BUILD_EXECUTOR =
+      AppExecutorUtil.createBoundedApplicationPoolExecutor("BlazeGoPackageIndexBuilder", 1);
+
+  private final Project project;
+  // weak keys are compared by identity
+  private final Cache<BlazeProjectData, ListenableFuture<BlazeGoPackageIndex>> indexes =
+      CacheBuilder.newBuilder().weakKeys().build();
+
+  public BlazeGoPackageIndexService(Project project) {
+    this.project = project;
+  }
+
+  public static BlazeGoPackageIndexService getInstance(Project project) {
+    return project.getService(BlazeGoPackageIndexService.class);
+  }
+
+  /** Returns the index for the current project data, or null if the project hasn't been synced. */
+  @Nullable
+  public BlazeGoPackageIndex getIndex() {
+    BlazeProjectData projectData =
+        BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
+    return projectData != null ? getIndex(projectData) : null;
+  }
+
+  /**
+   * Returns the index for the given project data, building it if necessary, or waiting for a build
+   * already in progress.
+   */
+  public BlazeGoPackageIndex getIndex(BlazeProjectData projectData) {
+    while (true) {
+      SettableFuture<BlazeGoPackageIndex> future = SettableFuture.create();
+      ListenableFuture<BlazeGoPackageIndex> inProgress =
+          indexes.asMap().putIfAbsent(projectData, future);
+      if (inProgress == null) {
+        return build(projectData, future);
+      }
+      BlazeGoPackageIndex index = ProgressIndicatorUtils.awaitWithCheckCanceled(inProgress);
+      if (index != null) {
+        return index;
+      }
+      // the build was cancelled or failed, so try again
+    }
+  }
+
+  /**
+   * Builds the index on the calling thread, completing {@code future} with it. Any exception
+   * thrown by the build, including {@link com.intellij.openapi.progress.ProcessCanceledException},
+   * propagates unchanged. Callers waiting for the build are then woken with a null index, to retry.
+   */
+  private BlazeGoPackageIndex build(
+      BlazeProjectData projectData, SettableFuture<BlazeGoPackageIndex> future) {
+    BlazeGoPackageIndex index = null;
+    try {
+      index = BlazeGoPackageIndex.build(project, projectData);
+      return index;
+    } finally {
+      if (index == null) {
+        // remove the failed build before waking the waiters, so they don't find it again
+        indexes.asMap().remove(projectData, future);
+      }
+      future.set(index);
+    }
+  }
+
+  /**
+   * Returns a map of each go source file to the import path of its package, or null if the project
+   * hasn't been synced.
+   */
+  @Nullable
+  public Map<File, String> getFileToImportPathMap() {
+    BlazeGoPackageIndex index = getIndex();
+    return index != null ? index.getFileToImportPathMap() : null;
+  }
+
+  /** Builds the go package index in the background at the end of each sync. */
+  static class BuildIndex implements SyncListener {
+    @Override
+    public void onSyncComplete(
+        Project project,
+        BlazeContext context,
+        BlazeImportSettings importSettings,
+        ProjectViewSet projectViewSet,
+        ImmutableSet<Integer> buildIds,
+        BlazeProjectData blazeProjectData,
+        SyncMode syncMode,
+        SyncResult syncResult) {
+      if (importSettings.getProjectType() == ProjectType.QUERY_SYNC
+          || !blazeProjectData.getWorkspaceLanguageSettings().isLanguageActive(LanguageClass.GO)) {
+        return;
+      }
+      BUILD_EXECUTOR.execute(
+          () -> {
+            if (!project.isDisposed()) {
+              getInstance(project).getIndex(blazeProjectData);
+            }
+          });
+    }
+  }
+}
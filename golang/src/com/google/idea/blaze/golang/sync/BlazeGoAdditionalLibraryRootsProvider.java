@@ -24,7 +24,7 @@ import com.google.idea.blaze.base.model.primitives.WorkspacePath;
 import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
 import com.google.idea.blaze.base.sync.libraries.BlazeExternalLibraryProvider;
 import com.google.idea.blaze.base.sync.projectview.ImportRoots;
-import com.google.idea.blaze.golang.resolve.BlazeGoPackage;
+import com.google.idea.blaze.golang.resolve.BlazeGoPackageIndexService;
 import com.intellij.openapi.project.Project;
 import java.io.File;
 import java.util.function.Predicate;
@@ -61,13 +61,11 @@ public final class BlazeGoAdditionalLibraryRootsProvider extends BlazeExternalLi
           WorkspacePath path = workspaceRoot.workspacePathForSafe(f);
           return path == null || !importRoots.containsWorkspacePath(path);
         };
-    // don't use sync cache, because
-    // 1. this is used during sync before project data is saved
-    // 2. the roots provider is its own cache
-    return BlazeGoPackage.getUncachedTargetToFileMap(project, projectData).values().stream()
+    // this is used during sync before project data is saved, so look up the index for the new
+    // project data rather than the current one
+    return BlazeGoPackageIndexService.getInstance(project).getIndex(projectData).getFiles().stream()
         .filter(isExternal)
         .filter(f -> f.getName().endsWith(".go"))
-        .distinct()
         .collect(toImmutableList());
   }
 }
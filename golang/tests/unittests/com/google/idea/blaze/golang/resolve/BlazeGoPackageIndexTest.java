@@ -0,0 +1,142 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.golang.resolve;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.GoIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.ideinfo.TargetMapBuilder;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.MockBlazeProjectDataBuilder;
+import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.qsync.settings.QuerySyncSettings;
+import com.google.idea.blaze.base.sync.workspace.MockArtifactLocationDecoder;
+import com.google.idea.blaze.golang.GoBlazeRules;
+import com.google.idea.blaze.golang.resolve.BlazeGoPackageIndex.PackageEntry;
+import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import java.io.File;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link BlazeGoPackageIndex}. */
+@RunWith(JUnit4.class)
+public class BlazeGoPackageIndexTest extends BlazeTestCase {
+  private static final File WORKSPACE = new File("/root");
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    ExtensionPointImpl<Kind.Provider> kindProvider =
+        registerExtensionPoint(Kind.Provider.EP_NAME, Kind.Provider.class);
+    kindProvider.registerExtension(new GenericBlazeRules());
+    kindProvider.registerExtension(new GoBlazeRules());
+    applicationServices.register(Kind.ApplicationState.class, new Kind.ApplicationState());
+    applicationServices.register(QuerySyncSettings.class, new QuerySyncSettings());
+  }
+
+  @Test
+  public void testLibraryIncludesTestSources() {
+    BlazeGoPackageIndex index =
+        buildIndex(
+            TargetMapBuilder.builder()
+                .addTarget(
+                    TargetIdeInfo.builder()
+                        .setLabel("//foo:foo")
+                        .setKind("go_library")
+                        .setGoInfo(
+                            GoIdeInfo.builder()
+                                .addSource(source("foo/foo.go"))
+                                .setImportPath("github.com/user/foo")))
+                .addTarget(
+                    TargetIdeInfo.builder()
+                        .setLabel("//foo:foo_test")
+                        .setKind("go_test")
+                        .setGoInfo(
+                            GoIdeInfo.builder()
+                                .addSource(source("foo/foo_test.go"))
+                                .setImportPath("github.com/user/foo_test")
+                                .addLibraryLabel("//foo:foo")))
+                .build());
+
+    PackageEntry entry = index.getPackageEntry("github.com/user/foo");
+    assertThat(entry).isNotNull();
+    assertThat(entry.label).isEqualTo(Label.create("//foo:foo"));
+    assertThat(entry.files)
+        .containsExactly(file("foo/foo.go"), file("foo/foo_test.go"))
+        .inOrder();
+    assertThat(index.getImportPath(file("foo/foo.go"))).isEqualTo("github.com/user/foo");
+    // test sources take the import path of the library under test
+    assertThat(index.getImportPath(file("foo/foo_test.go"))).isEqualTo("github.com/user/foo");
+    assertThat(index.getFiles()).containsExactly(file("foo/foo.go"), file("foo/foo_test.go"));
+  }
+
+  @Test
+  public void testProtoLibraryNavigatesToGoProtoLibrary() {
+    BlazeGoPackageIndex index =
+        buildIndex(
+            TargetMapBuilder.builder()
+                .addTarget(
+                    TargetIdeInfo.builder()
+                        .setLabel("//proto:foo_proto")
+                        .setKind("proto_library")
+                        .setGoInfo(
+                            GoIdeInfo.builder()
+                                .addSource(source("proto/foo.pb.go"))
+                                .setImportPath("github.com/user/proto/foo_go_proto")))
+                .addTarget(
+                    TargetIdeInfo.builder()
+                        .setLabel("//proto:foo_go_proto")
+                        .setKind("go_proto_library")
+                        .addDependency("//proto:foo_proto"))
+                .build());
+
+    PackageEntry entry = index.getPackageEntry("github.com/user/proto/foo_go_proto");
+    assertThat(entry).isNotNull();
+    assertThat(entry.label).isEqualTo(Label.create("//proto:foo_go_proto"));
+    assertThat(entry.files).containsExactly(file("proto/foo.pb.go"));
+  }
+
+  @Test
+  public void testUnknownImportPath() {
+    BlazeGoPackageIndex index = buildIndex(TargetMapBuilder.builder().build());
+    assertThat(index.getPackageEntry("github.com/user/missing")).isNull();
+    assertThat(index.getImportPath(file("missing.go"))).isNull();
+    assertThat(index.getFiles()).isEmpty();
+  }
+
+  private BlazeGoPackageIndex buildIndex(TargetMap targetMap) {
+    BlazeProjectData projectData =
+        MockBlazeProjectDataBuilder.builder()
+            .setTargetMap(targetMap)
+            .setArtifactLocationDecoder(new MockArtifactLocationDecoder(WORKSPACE, false))
+            .build();
+    return BlazeGoPackageIndex.build(getProject(), projectData);
+  }
+
+  private static ArtifactLocation source(String relativePath) {
+    return ArtifactLocation.builder().setRelativePath(relativePath).setIsSource(true).build();
+  }
+
+  private static File file(String relativePath) {
+    return new File(WORKSPACE, relativePath);
+  }
+}
@@ -18,8 +18,6 @@ package com.google.idea.blaze.golang.treeview;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.idea.blaze.golang.sync.BlazeGoAdditionalLibraryRootsProvider.GO_EXTERNAL_LIBRARY_ROOT_NAME;
-import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.when;
 
 import com.google.common.collect.ImmutableList;
@@ -28,9 +26,8 @@ import com.google.idea.blaze.base.settings.BlazeImportSettings;
 import com.google.idea.blaze.base.settings.BlazeImportSettings.ProjectType;
 import com.google.idea.blaze.base.settings.BlazeImportSettingsManager;
 import com.google.idea.blaze.base.settings.BuildSystemName;
-import com.google.idea.blaze.base.sync.SyncCache;
 import com.google.idea.blaze.base.sync.libraries.BlazeExternalSyntheticLibrary;
-import com.google.idea.blaze.golang.resolve.BlazeGoPackageFactory;
+import com.google.idea.blaze.golang.resolve.BlazeGoPackageIndexService;
 import com.google.idea.testing.IntellijRule;
 import com.intellij.ide.projectView.ViewSettings;
 import com.intellij.ide.projectView.impl.nodes.PsiFileNode;
@@ -75,7 +72,7 @@ public class BlazeGoTreeStructureProviderTest {
   @Rule public TemporaryFolder folder = new TemporaryFolder();
   private static final BlazeImportSettings DUMMY_IMPORT_SETTINGS =
       new BlazeImportSettings("", "", "", "", BuildSystemName.Blaze, ProjectType.ASPECT_SYNC);
-  @Mock private SyncCache syncCache;
+  @Mock private BlazeGoPackageIndexService indexService;
 
   private ConcurrentHashMap<File, String> fileToImportPathMap;
   private SyntheticLibraryElementNode rootNode;
@@ -88,10 +85,10 @@ public class BlazeGoTreeStructureProviderTest {
         BlazeImportSettingsManager.class, new BlazeImportSettingsManager(intellij.getProject()));
 
     intellij.registerApplicationService(VirtualFileSystemProvider.class, MockLocalFileSystem::new);
-    intellij.registerProjectService(SyncCache.class, syncCache);
+    intellij.registerProjectService(BlazeGoPackageIndexService.class, indexService);
 
     fileToImportPathMap = new ConcurrentHashMap<>();
-    when(syncCache.get(eq(BlazeGoPackageFactory.class), any())).thenReturn(fileToImportPathMap);
+    when(indexService.getFileToImportPathMap()).thenReturn(fileToImportPathMap);
 
     BlazeImportSettingsManager.getInstance(intellij.getProject())
         .setImportSettings(DUMMY_IMPORT_SETTINGS);
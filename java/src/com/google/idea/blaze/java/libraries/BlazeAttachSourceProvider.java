@@ -17,13 +17,17 @@ package com.google.idea.blaze.java.libraries;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
 import com.google.idea.blaze.base.ideinfo.LibraryArtifact;
 import com.google.idea.blaze.base.model.BlazeLibrary;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.model.LibraryKey;
+import com.google.idea.blaze.base.prefetch.FetchExecutor;
+import com.google.idea.blaze.base.prefetch.PrefetchService;
 import com.google.idea.blaze.base.qsync.QuerySync;
 import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
 import com.google.idea.blaze.base.sync.libraries.LibraryEditor;
+import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
 import com.google.idea.blaze.java.sync.model.BlazeJarLibrary;
 import com.google.idea.common.experiments.BoolExperiment;
 import com.google.idea.common.util.Transactions;
@@ -38,6 +42,7 @@ import com.intellij.openapi.roots.libraries.Library;
 import com.intellij.openapi.util.ActionCallback;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiManager;
+import java.io.File;
 import java.util.Collection;
 import java.util.List;
 import javax.annotation.Nullable;
@@ -67,7 +72,7 @@ public class BlazeAttachSourceProvider extends AttachSourcesProviderAdapter {
       return ImmutableList.of();
     }
 
-    List<BlazeLibrary> librariesToAttachSourceTo = Lists.newArrayList();
+    List<BlazeJarLibrary> librariesToAttachSourceTo = Lists.newArrayList();
     for (LibraryOrderEntry orderEntry : orderEntries) {
       Library library = orderEntry.getLibrary();
       if (library == null) {
@@ -96,6 +101,8 @@ public class BlazeAttachSourceProvider extends AttachSourcesProviderAdapter {
     if (librariesToAttachSourceTo.isEmpty()) {
       return ImmutableList.of();
     }
+    // the editor is about to open these, so fetch them ahead of any background work
+    prefetchSourceJars(project, blazeProjectData, librariesToAttachSourceTo);
 
     // Hack: When sources are requested and we have them, we attach them automatically in the
     // background.
@@ -136,6 +143,26 @@ public class BlazeAttachSourceProvider extends AttachSourcesProviderAdapter {
         });
   }
 
+  private static void prefetchSourceJars(
+      Project project, BlazeProjectData blazeProjectData, Collection<BlazeJarLibrary> libraries) {
+    ArtifactLocationDecoder decoder = blazeProjectData.getArtifactLocationDecoder();
+    List<File> sourceJars = Lists.newArrayList();
+    for (BlazeJarLibrary library : libraries) {
+      for (ArtifactLocation sourceJar : library.libraryArtifact.getSourceJars()) {
+        File file = JarCache.getInstance(project).getCachedSourceJar(decoder, sourceJar);
+        if (file != null) {
+          sourceJars.add(file);
+        }
+      }
+    }
+    PrefetchService.getInstance()
+        .prefetchFiles(
+            sourceJars,
+            /* refetchCachedFiles= */ false,
+            /* fetchFileTypes= */ false,
+            FetchExecutor.Priority.EDITOR_VISIBLE);
+  }
+
   private static void navigateToSource(PsiFile psiFile) {
     ApplicationManager.getApplication()
         .invokeLater(
@@ -157,7 +184,7 @@ public class BlazeAttachSourceProvider extends AttachSourcesProviderAdapter {
   private static void attachSources(
       Project project,
       BlazeProjectData blazeProjectData,
-      Collection<BlazeLibrary> librariesToAttachSourceTo) {
+      Collection<? extends BlazeLibrary> librariesToAttachSourceTo) {
     ApplicationManager.getApplication()
         .runWriteAction(
             () -> {
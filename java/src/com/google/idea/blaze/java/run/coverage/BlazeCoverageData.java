@@ -17,23 +17,46 @@ package com.google.idea.blaze.java.run.coverage;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
-import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
 import com.intellij.openapi.diagnostic.Logger;
 import gnu.trove.TIntIntHashMap;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.List;
+import javax.annotation.Nullable;
 
-/** Blaze coverage data class. Parsed from LCOV-formatted blaze output. */
+/**
+ * Blaze coverage data class. Parsed from LCOV-formatted blaze output.
+ *
+ * <p>Reports are indexed in a single pass, recording where each source file's records lie. Line
+ * hits are only parsed when requested via {@link #getFileData}, so the memory used doesn't grow
+ * with the size of the reports.
+ */
 class BlazeCoverageData {
 
   private static final Logger logger = Logger.getInstance(BlazeCoverageData.class);
 
   static BlazeCoverageData parse(InputStream inputStream) throws IOException {
-    return LcovParser.parse(inputStream);
+    return index(ImmutableList.of(ByteSource.wrap(ByteStreams.toByteArray(inputStream))));
+  }
+
+  /**
+   * Indexes the given LCOV reports, e.g. one per test shard. Records for the same source file are
+   * merged, summing the hits for each line.
+   */
+  static BlazeCoverageData index(List<ByteSource> reports) throws IOException {
+    ImmutableListMultimap.Builder<String, ByteSource> records = ImmutableListMultimap.builder();
+    for (ByteSource report : reports) {
+      LcovParser.indexRecords(report, records);
+    }
+    return new BlazeCoverageData(records.build());
   }
 
   static class FileData {
@@ -46,10 +69,33 @@ class BlazeCoverageData {
     }
   }
 
-  final ImmutableMap<String, FileData> perFileData;
+  /** The records for each source file which has any line data, in the order they were found. */
+  private final ImmutableListMultimap<String, ByteSource> records;
+
+  private BlazeCoverageData(ImmutableListMultimap<String, ByteSource> records) {
+    this.records = records;
+  }
+
+  /** Returns the source files with line data. */
+  ImmutableSet<String> getSourceFiles() {
+    return records.keySet();
+  }
 
-  private BlazeCoverageData(ImmutableMap<String, FileData> perFileData) {
-    this.perFileData = perFileData;
+  /**
+   * Parses the line hits for the given source file, merged across all its records. The result
+   * isn't cached, so callers should avoid holding on to it for many files at once.
+   */
+  @Nullable
+  FileData getFileData(String source) throws IOException {
+    List<ByteSource> fileRecords = records.get(source);
+    if (fileRecords.isEmpty()) {
+      return null;
+    }
+    TIntIntHashMap hits = new TIntIntHashMap();
+    for (ByteSource record : fileRecords) {
+      LcovParser.parseHits(record, hits);
+    }
+    return new FileData(source, hits);
   }
 
   private static class LcovParser {
@@ -58,42 +104,130 @@ class BlazeCoverageData {
     static final String DA = "DA:";
     static final String END_OF_RECORD = "end_of_record";
 
-    private static BlazeCoverageData parse(InputStream inputStream) throws IOException {
-      Map<String, FileData> map = new HashMap<>();
-      BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, UTF_8));
-      String line;
-      while ((line = reader.readLine()) != null) {
-        if (line.startsWith(SF)) {
-          String source = line.substring(SF.length());
-          TIntIntHashMap hits = parseHits(reader);
-          if (!hits.isEmpty()) {
-            map.put(source, new FileData(source, hits));
+    private static final byte[] SF_BYTES = SF.getBytes(UTF_8);
+    private static final byte[] DA_BYTES = DA.getBytes(UTF_8);
+    private static final byte[] END_OF_RECORD_BYTES = END_OF_RECORD.getBytes(UTF_8);
+
+    /**
+     * Scans a report, adding the location of the body of each record containing line data. Only
+     * {@code SF:} lines are decoded.
+     */
+    private static void indexRecords(
+        ByteSource report, ImmutableListMultimap.Builder<String, ByteSource> records)
+        throws IOException {
+      try (InputStream stream = report.openStream()) {
+        LineScanner scanner = new LineScanner(stream);
+        String source = null;
+        long recordStart = 0;
+        boolean hasLineData = false;
+        while (scanner.next()) {
+          if (scanner.startsWith(SF_BYTES)) {
+            if (source != null && hasLineData) {
+              records.put(source, report.slice(recordStart, scanner.lineStart - recordStart));
+            }
+            source = scanner.decode(SF_BYTES.length);
+            recordStart = scanner.offset;
+            hasLineData = false;
+          } else if (source == null) {
+            continue;
+          } else if (scanner.startsWith(DA_BYTES)) {
+            hasLineData = true;
+          } else if (scanner.startsWith(END_OF_RECORD_BYTES)) {
+            if (hasLineData) {
+              records.put(source, report.slice(recordStart, scanner.lineStart - recordStart));
+            }
+            source = null;
           }
         }
+        if (source != null && hasLineData) {
+          // the final record wasn't terminated
+          records.put(source, report.slice(recordStart, scanner.offset - recordStart));
+        }
       }
-      return new BlazeCoverageData(ImmutableMap.copyOf(map));
     }
 
-    private static TIntIntHashMap parseHits(BufferedReader reader) throws IOException {
-      TIntIntHashMap hits = new TIntIntHashMap();
-      String line;
-      while ((line = reader.readLine()) != null) {
-        if (line.startsWith(END_OF_RECORD)) {
-          return hits;
+    private static void parseHits(ByteSource record, TIntIntHashMap hits) throws IOException {
+      try (BufferedReader reader =
+          new BufferedReader(new InputStreamReader(record.openStream(), UTF_8))) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          if (line.startsWith(DA)) {
+            // DA:line,hits
+            int comma = line.indexOf(',');
+            try {
+              int lineNumber = Integer.parseInt(line.substring(DA.length(), comma));
+              int lineHits = Integer.parseInt(line.substring(comma + 1));
+              hits.adjustOrPutValue(lineNumber, lineHits, lineHits);
+            } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+              logger.warn("Cannot parse LCOV line: " + line, e);
+            }
+          }
         }
-        if (line.startsWith(DA)) {
-          // DA:line,hits
-          int comma = line.indexOf(',');
-          try {
-            hits.put(
-                Integer.parseInt(line.substring(DA.length(), comma)),
-                Integer.parseInt(line.substring(comma + 1)));
-          } catch (NumberFormatException e) {
-            logger.warn("Cannot parse LCOV line: " + line, e);
+      }
+    }
+  }
+
+  /** Reads the lines of a stream as bytes, tracking the offset of each line. */
+  private static class LineScanner {
+    private final InputStream stream;
+    private final byte[] buffer = new byte[64 * 1024];
+    private int position;
+    private int limit;
+
+    private byte[] line = new byte[256];
+    private int lineLength;
+    /** The offset of the start of the current line. */
+    long lineStart;
+    /** The offset of the start of the next line. */
+    long offset;
+
+    LineScanner(InputStream stream) {
+      this.stream = stream;
+    }
+
+    /** Advances to the next line, returning false at the end of the stream. */
+    boolean next() throws IOException {
+      lineStart = offset;
+      lineLength = 0;
+      while (true) {
+        if (position == limit) {
+          limit = Math.max(stream.read(buffer), 0);
+          position = 0;
+          if (limit == 0) {
+            return offset > lineStart;
           }
         }
+        byte b = buffer[position++];
+        offset++;
+        if (b == '\n') {
+          return true;
+        }
+        if (lineLength == line.length) {
+          line = Arrays.copyOf(line, line.length * 2);
+        }
+        line[lineLength++] = b;
+      }
+    }
+
+    boolean startsWith(byte[] prefix) {
+      if (lineLength < prefix.length) {
+        return false;
+      }
+      for (int i = 0; i < prefix.length; i++) {
+        if (line[i] != prefix[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /** Decodes the current line from the given index, excluding any trailing carriage return. */
+    String decode(int from) {
+      int end = lineLength;
+      if (end > from && line[end - 1] == '\r') {
+        end--;
       }
-      return hits;
+      return new String(line, from, end - from, UTF_8);
     }
   }
 }
@@ -16,6 +16,8 @@
 package com.google.idea.blaze.java.run.coverage;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
 import com.google.common.primitives.Ints;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.settings.Blaze;
@@ -30,7 +32,6 @@ import com.intellij.rt.coverage.data.ClassData;
 import com.intellij.rt.coverage.data.LineData;
 import com.intellij.rt.coverage.data.ProjectData;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import javax.annotation.Nullable;
@@ -52,8 +53,10 @@ public class BlazeCoverageRunner extends CoverageRunner {
     if (blazeProjectData == null) {
       return null;
     }
-    try (FileInputStream stream = new FileInputStream(sessionDataFile)) {
-      return parseCoverage(blazeProjectData.getWorkspacePathResolver(), stream);
+    try {
+      BlazeCoverageData blazeData =
+          BlazeCoverageData.index(ImmutableList.of(Files.asByteSource(sessionDataFile)));
+      return toProjectData(blazeProjectData.getWorkspacePathResolver(), blazeData);
     } catch (IOException e) {
       logger.warn(e);
     }
@@ -63,12 +66,24 @@ public class BlazeCoverageRunner extends CoverageRunner {
   @VisibleForTesting
   static ProjectData parseCoverage(WorkspacePathResolver pathResolver, InputStream stream)
       throws IOException {
+    return toProjectData(pathResolver, BlazeCoverageData.parse(stream));
+  }
+
+  /**
+   * Converts the coverage data for each file in turn, so that only a single file's line hits are
+   * held in memory at once.
+   */
+  private static ProjectData toProjectData(
+      WorkspacePathResolver pathResolver, BlazeCoverageData blazeData) throws IOException {
     ProjectData data = new ProjectData();
-    BlazeCoverageData blazeData = BlazeCoverageData.parse(stream);
-    for (String filePath : blazeData.perFileData.keySet()) {
+    for (String filePath : blazeData.getSourceFiles()) {
+      FileData fileData = blazeData.getFileData(filePath);
+      if (fileData == null) {
+        continue;
+      }
       File file = pathResolver.resolveToFile(filePath);
       ClassData classData = data.getOrCreateClassData(file.getPath());
-      classData.setLines(fromFileData(blazeData.perFileData.get(filePath)));
+      classData.setLines(fromFileData(fileData));
     }
     return data;
   }
@@ -15,36 +15,55 @@
  */
 package com.google.idea.blaze.java.run.hotswap;
 
-import static com.google.common.collect.ImmutableList.toImmutableList;
-import static com.google.common.collect.ImmutableMap.toImmutableMap;
-
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.util.concurrent.Futures;
 import com.google.idea.blaze.base.async.executor.BlazeExecutor;
-import com.google.idea.blaze.base.filecache.FilesDiff;
+import com.google.idea.blaze.base.io.FileOperationProvider;
 import com.intellij.execution.ExecutionException;
 import com.intellij.execution.RunCanceledByUserException;
 import com.intellij.openapi.diagnostic.Logger;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Enumeration;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Objects;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import javax.annotation.Nullable;
 
-/** A manifest of .class file hashes for jars needed at runtime. Used for HotSwapping. */
+/**
+ * A manifest of .class file hashes for jars needed at runtime. Used for HotSwapping.
+ *
+ * <p>The hashes are the CRCs stored in each jar's central directory, so entries are never
+ * inflated. Per-jar manifests are shared across debug sessions, and are only re-read when a jar's
+ * size or timestamp changes, so diffing an unchanged classpath is a series of identity checks. A
+ * re-read jar whose classes all have the same CRCs as before shares the previous manifest's
+ * contents rather than keeping a second copy.
+ */
 public class ClassFileManifest {
 
   private static final Logger logger = Logger.getInstance(ClassFileManifest.class);
 
+  /**
+   * Manifests of recently used jars, shared across debug sessions. Soft values let the IDE reclaim
+   * them under memory pressure; they're cheap to rebuild.
+   */
+  private static final Cache<File, JarManifest> sharedJarManifests =
+      CacheBuilder.newBuilder().softValues().build();
+
+  /** The number of jars read since the IDE started. */
+  private static final AtomicInteger jarsRead = new AtomicInteger();
+
   /** A per-jar map of .class files changed between manifests */
   public static class Diff {
     public final ImmutableMultimap<File, String> perJarModifiedClasses;
@@ -54,14 +73,10 @@ public class ClassFileManifest {
     }
   }
 
-  // jar file timestamps
-  private final ImmutableMap<File, Long> jarFileState;
   // per-jar manifest of .class file hashes
   private final ImmutableMap<File, JarManifest> jarManifests;
 
-  private ClassFileManifest(
-      ImmutableMap<File, Long> jarFileState, ImmutableMap<File, JarManifest> jarManifests) {
-    this.jarFileState = jarFileState;
+  private ClassFileManifest(ImmutableMap<File, JarManifest> jarManifests) {
     this.jarManifests = jarManifests;
   }
 
@@ -69,7 +84,7 @@ public class ClassFileManifest {
   public static Diff modifiedClasses(ClassFileManifest oldManifest, ClassFileManifest newManifest) {
     ImmutableMultimap.Builder<File, String> map = ImmutableMultimap.builder();
     for (Map.Entry<File, JarManifest> entry : newManifest.jarManifests.entrySet()) {
-      // quick test for object equality -- jars are often not rebuilt
+      // quick test for object equality -- jars are often not rebuilt, or rebuilt identically
       JarManifest old = oldManifest.jarManifests.get(entry.getKey());
       if (old == entry.getValue()) {
         continue;
@@ -87,21 +102,13 @@ public class ClassFileManifest {
       Collection<File> jars, @Nullable ClassFileManifest previousManifest)
       throws ExecutionException {
     try {
-      FilesDiff<File, File> diff =
-          FilesDiff.diffFileTimestamps(
-              previousManifest != null ? previousManifest.jarFileState : null, jars);
-
       ImmutableMap.Builder<File, JarManifest> jarManifests = ImmutableMap.builder();
-      jars.forEach(
-          f -> {
-            if (!diff.getUpdatedFiles().contains(f) && previousManifest != null) {
-              jarManifests.put(f, previousManifest.jarManifests.get(f));
-            }
-          });
-      buildJarManifests(diff.getUpdatedFiles()).stream()
-          .filter(Objects::nonNull)
-          .forEach(m -> jarManifests.put(m.jar, m));
-      return new ClassFileManifest(diff.getNewFileState(), jarManifests.build());
+      for (JarManifest manifest : buildJarManifests(jars, previousManifest)) {
+        if (manifest != null) {
+          jarManifests.put(manifest.jar, manifest);
+        }
+      }
+      return new ClassFileManifest(jarManifests.build());
     } catch (InterruptedException e) {
       throw new RunCanceledByUserException();
     } catch (java.util.concurrent.ExecutionException e) {
@@ -109,51 +116,187 @@ public class ClassFileManifest {
     }
   }
 
-  private static List<JarManifest> buildJarManifests(Collection<File> jars)
+  private static List<JarManifest> buildJarManifests(
+      Collection<File> jars, @Nullable ClassFileManifest previousManifest)
       throws java.util.concurrent.ExecutionException, InterruptedException {
     BlazeExecutor executor = BlazeExecutor.getInstance();
     return Futures.allAsList(
             jars.stream()
-                .map(f -> executor.submit(() -> JarManifest.build(f)))
+                .map(
+                    f ->
+                        executor.submit(
+                            () ->
+                                getJarManifest(
+                                    f,
+                                    previousManifest != null
+                                        ? previousManifest.jarManifests.get(f)
+                                        : null)))
                 .collect(Collectors.toList()))
         .get();
   }
 
+  /**
+   * Returns the manifest for the given jar, reusing the previous manifest for this session or the
+   * shared manifest if the jar hasn't changed since.
+   */
+  @Nullable
+  private static JarManifest getJarManifest(File jar, @Nullable JarManifest previous) {
+    FileOperationProvider fileOperations = FileOperationProvider.getInstance();
+    long size = fileOperations.getFileSize(jar);
+    long modifiedTime = fileOperations.getFileModifiedTime(jar);
+    if (previous != null && previous.isUpToDate(size, modifiedTime)) {
+      return previous;
+    }
+    JarManifest shared = sharedJarManifests.getIfPresent(jar);
+    if (shared != null && shared.isUpToDate(size, modifiedTime)) {
+      return shared;
+    }
+    JarManifest manifest = JarManifest.build(jar, size, modifiedTime);
+    if (manifest == null) {
+      return null;
+    }
+    // Share the previous contents if the jar was rebuilt with identical classes
+    JarManifest sameClasses =
+        previous != null && previous.hasSameClasses(manifest)
+            ? previous
+            : shared != null && shared.hasSameClasses(manifest) ? shared : null;
+    if (sameClasses != null) {
+      manifest = sameClasses.withFileState(size, modifiedTime);
+    }
+    sharedJarManifests.put(jar, manifest);
+    return manifest;
+  }
+
+  @VisibleForTesting
+  static int getJarsRead() {
+    return jarsRead.get();
+  }
+
+  @VisibleForTesting
+  static void clearSharedManifests() {
+    sharedJarManifests.invalidateAll();
+  }
+
   /** .class file manifest for a single jar. */
   private static class JarManifest {
     private final File jar;
-    private final ImmutableMap<String, Long> nameToHash;
+    private final long size;
+    private final long modifiedTime;
+
+    /** .class file names, in sorted order. */
+    private final String[] names;
+
+    /** The CRC of each .class file in {@link #names}. */
+    private final int[] crcs;
+
+    /** A hash of all names and CRCs, to quickly check whether two manifests can differ. */
+    private final long digest;
 
     @Nullable
-    static JarManifest build(File file) {
-      try {
-        JarFile jar = new JarFile(file);
+    static JarManifest build(File file, long size, long modifiedTime) {
+      // ZipFile reads entry metadata from the central directory, so nothing is inflated here
+      try (ZipFile zip = new ZipFile(file)) {
+        List<ZipEntry> entries = new ArrayList<>(zip.size());
+        Enumeration<? extends ZipEntry> enumeration = zip.entries();
+        while (enumeration.hasMoreElements()) {
+          ZipEntry entry = enumeration.nextElement();
+          if (entry.getName().endsWith(".class")) {
+            entries.add(entry);
+          }
+        }
+        jarsRead.incrementAndGet();
+        entries.sort((a, b) -> a.getName().compareTo(b.getName()));
+
+        String[] names = new String[entries.size()];
+        int[] crcs = new int[entries.size()];
+        int count = 0;
+        for (ZipEntry entry : entries) {
+          if (count > 0 && names[count - 1].equals(entry.getName())) {
+            // keep the first of any duplicate entries
+            continue;
+          }
+          names[count] = entry.getName();
+          crcs[count] = (int) entry.getCrc();
+          count++;
+        }
         return new JarManifest(
             file,
-            jar.stream()
-                .filter(e -> e.getName().endsWith(".class"))
-                .collect(
-                    toImmutableMap(JarEntry::getName, ZipEntry::getCrc, (first, second) -> first)));
+            size,
+            modifiedTime,
+            Arrays.copyOf(names, count),
+            Arrays.copyOf(crcs, count));
       } catch (IOException e) {
         logger.warn("Error reading jar file: " + file, e);
         return null;
       }
     }
 
-    private JarManifest(File jar, ImmutableMap<String, Long> nameToHash) {
+    private JarManifest(File jar, long size, long modifiedTime, String[] names, int[] crcs) {
+      this(jar, size, modifiedTime, names, crcs, computeDigest(names, crcs));
+    }
+
+    private JarManifest(
+        File jar, long size, long modifiedTime, String[] names, int[] crcs, long digest) {
       this.jar = jar;
-      this.nameToHash = nameToHash;
+      this.size = size;
+      this.modifiedTime = modifiedTime;
+      this.names = names;
+      this.crcs = crcs;
+      this.digest = digest;
+    }
+
+    private static long computeDigest(String[] names, int[] crcs) {
+      long digest = names.length;
+      for (int i = 0; i < names.length; i++) {
+        digest = 31 * (31 * digest + names[i].hashCode()) + crcs[i];
+      }
+      return digest;
     }
 
-    /** Returns the list of classes changed in the new manifest. */
-    static ImmutableList<String> diff(JarManifest oldManifest, JarManifest newManifest) {
-      return newManifest
-          .nameToHash
-          .entrySet()
-          .stream()
-          .filter(e -> !Objects.equals(e.getValue(), oldManifest.nameToHash.get(e.getKey())))
-          .map(Entry::getKey)
-          .collect(toImmutableList());
+    boolean isUpToDate(long size, long modifiedTime) {
+      return this.size == size && this.modifiedTime == modifiedTime;
+    }
+
+    boolean hasSameClasses(JarManifest other) {
+      return digest == other.digest
+          && Arrays.equals(crcs, other.crcs)
+          && Arrays.equals(names, other.names);
+    }
+
+    /** Returns this manifest, updated to a new (but identical) version of the jar. */
+    JarManifest withFileState(long size, long modifiedTime) {
+      return isUpToDate(size, modifiedTime)
+          ? this
+          : new JarManifest(jar, size, modifiedTime, names, crcs, digest);
+    }
+
+    /**
+     * Returns the list of classes changed in the new manifest. All classes are considered changed
+     * if the jar wasn't in the old manifest.
+     */
+    static ImmutableList<String> diff(@Nullable JarManifest oldManifest, JarManifest newManifest) {
+      if (oldManifest == null) {
+        return ImmutableList.copyOf(newManifest.names);
+      }
+      if (oldManifest.hasSameClasses(newManifest)) {
+        return ImmutableList.of();
+      }
+      // both name arrays are sorted, so walk them in step
+      ImmutableList.Builder<String> changed = ImmutableList.builder();
+      String[] oldNames = oldManifest.names;
+      int oldIndex = 0;
+      for (int i = 0; i < newManifest.names.length; i++) {
+        String name = newManifest.names[i];
+        while (oldIndex < oldNames.length && oldNames[oldIndex].compareTo(name) < 0) {
+          oldIndex++;
+        }
+        if (oldIndex == oldNames.length
+            || !oldNames[oldIndex].equals(name)
+            || oldManifest.crcs[oldIndex] != newManifest.crcs[i]) {
+          changed.add(name);
+        }
+      }
+      return changed.build();
     }
   }
 }
@@ -128,7 +128,6 @@ public class JavaBinaryContextProvider implements BinaryContextProvider {
 
   private static FilteredTargetMap computeTargetMap(Project project, BlazeProjectData projectData) {
     return new FilteredTargetMap(
-        project,
         projectData.getArtifactLocationDecoder(),
         projectData.getTargetMap(),
         target ->
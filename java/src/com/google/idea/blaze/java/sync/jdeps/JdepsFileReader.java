@@ -17,6 +17,8 @@ package com.google.idea.blaze.java.sync.jdeps;
 
 import static com.google.common.collect.ImmutableList.toImmutableList;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.Futures;
@@ -36,12 +38,14 @@ import com.google.idea.blaze.base.prefetch.PrefetchService;
 import com.google.idea.blaze.base.prefetch.RemoteArtifactPrefetcher;
 import com.google.idea.blaze.base.scope.BlazeContext;
 import com.google.idea.blaze.base.scope.Scope;
+import com.google.idea.blaze.base.scope.scopes.SyncDataSizeTrackingScope.SyncDataSizeOutput;
 import com.google.idea.blaze.base.scope.scopes.TimingScope;
 import com.google.idea.blaze.base.scope.scopes.TimingScope.EventType;
 import com.google.idea.blaze.base.sync.SyncMode;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
 import com.google.idea.blaze.common.PrintOutput;
-import com.google.idea.blaze.java.sync.jdeps.JdepsState.JdepsData;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.project.Project;
@@ -58,6 +62,17 @@ import javax.annotation.Nullable;
 public class JdepsFileReader {
   private static final Logger logger = Logger.getInstance(JdepsFileReader.class);
 
+  private static final int DEPENDENCY_TAG =
+      makeTag(Deps.Dependencies.DEPENDENCY_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  private static final int PATH_TAG =
+      makeTag(Dependency.PATH_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  private static final int KIND_TAG =
+      makeTag(Dependency.KIND_FIELD_NUMBER, WireFormat.WIRETYPE_VARINT);
+
+  private static int makeTag(int fieldNumber, int wireType) {
+    return (fieldNumber << 3) | wireType;
+  }
+
   private static class Result {
     OutputArtifactWithoutDigest output;
     TargetKey targetKey;
@@ -102,7 +117,7 @@ public class JdepsFileReader {
       return null;
     }
     syncStateBuilder.put(jdepsState);
-    return jdepsState.getJdepsMap()::get;
+    return jdepsState.getJdepsMap();
   }
 
   @Nullable
@@ -177,15 +192,7 @@ public class JdepsFileReader {
               () -> {
                 totalSizeLoaded.addAndGet(updatedFile.getLength());
                 try (InputStream inputStream = updatedFile.getInputStream()) {
-                  Deps.Dependencies dependencies = Deps.Dependencies.parseFrom(inputStream);
-                  if (dependencies == null) {
-                    return null;
-                  }
-                  List<String> deps =
-                      dependencies.getDependencyList().stream()
-                          .filter(dep -> relevantDep(dep))
-                          .map(Dependency::getPath)
-                          .collect(toImmutableList());
+                  List<String> deps = readRelevantDeps(inputStream);
                   TargetKey targetKey = fileToTargetMap.get(updatedFile);
                   return new Result(updatedFile, targetKey, deps);
                 } catch (IOException e) {
@@ -195,10 +202,7 @@ public class JdepsFileReader {
               }));
     }
 
-    JdepsState.Builder state = JdepsState.builder();
-    if (oldState != null) {
-      state.list.addAll(oldState.data);
-    }
+    JdepsState.Builder state = oldState != null ? oldState.toBuilder() : JdepsState.builder();
     state.removeArtifacts(
         diff.getUpdatedOutputs().stream()
             .map(OutputArtifactWithoutDigest::toArtifactState)
@@ -206,24 +210,64 @@ public class JdepsFileReader {
     state.removeArtifacts(diff.getRemovedOutputs());
     for (Result result : Futures.allAsList(futures).get()) {
       if (result != null) {
-        state.list.add(
-            JdepsData.create(
-                result.targetKey, result.dependencies, result.output.toArtifactState()));
+        state.add(result.targetKey, result.dependencies, result.output.toArtifactState());
       }
     }
+    JdepsState newState = state.build();
+    long stateSize = newState.estimateSizeBytes();
     context.output(
         PrintOutput.log(
             String.format(
-                "Loaded %d jdeps files, total size %dkB",
-                diff.getUpdatedOutputs().size(), totalSizeLoaded.get() / 1024)));
-    return state.build();
+                "Loaded %d jdeps files, total size %dkB. Jdeps for %d targets use %d distinct"
+                    + " paths, ~%dkB in memory",
+                diff.getUpdatedOutputs().size(),
+                totalSizeLoaded.get() / 1024,
+                newState.data.size(),
+                newState.paths.size(),
+                stateSize / 1024)));
+    context.output(new SyncDataSizeOutput("jdeps", stateSize));
+    return newState;
+  }
+
+  /**
+   * Reads the paths of relevant dependencies from a serialized {@link Deps.Dependencies} proto.
+   *
+   * <p>Fields are read straight from the input stream, skipping everything except dependency
+   * paths and kinds, so that source locations and irrelevant dependencies are never materialized.
+   */
+  @VisibleForTesting
+  static ImmutableList<String> readRelevantDeps(InputStream inputStream) throws IOException {
+    CodedInputStream input = CodedInputStream.newInstance(inputStream);
+    ImmutableList.Builder<String> deps = ImmutableList.builder();
+    for (int tag = input.readTag(); tag != 0; tag = input.readTag()) {
+      if (tag != DEPENDENCY_TAG) {
+        input.skipField(tag);
+        continue;
+      }
+      int oldLimit = input.pushLimit(input.readRawVarint32());
+      String path = null;
+      int kind = Dependency.Kind.EXPLICIT_VALUE;
+      for (int depTag = input.readTag(); depTag != 0; depTag = input.readTag()) {
+        if (depTag == PATH_TAG) {
+          path = input.readString();
+        } else if (depTag == KIND_TAG) {
+          kind = input.readEnum();
+        } else {
+          input.skipField(depTag);
+        }
+      }
+      input.popLimit(oldLimit);
+      if (path != null && relevantDep(kind)) {
+        deps.add(path);
+      }
+    }
+    return deps.build();
   }
 
-  private static boolean relevantDep(Deps.Dependency dep) {
+  private static boolean relevantDep(int kind) {
     // we only want explicit or implicit deps that were actually resolved by the compiler, not ones
     // that are available for use in the same package
-    return dep.getKind() == Deps.Dependency.Kind.EXPLICIT
-        || dep.getKind() == Deps.Dependency.Kind.IMPLICIT;
+    return kind == Dependency.Kind.EXPLICIT_VALUE || kind == Dependency.Kind.IMPLICIT_VALUE;
   }
 
   @Nullable
@@ -22,6 +22,8 @@ import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import com.google.auto.value.AutoValue;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.ImmutableIntArray;
 import com.google.devtools.intellij.model.ProjectData;
 import com.google.idea.blaze.base.filecache.ArtifactState;
 import com.google.idea.blaze.base.filecache.ArtifactStateProtoConverter;
@@ -30,35 +32,54 @@ import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.model.SyncData;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import javax.annotation.Nullable;
 
+/**
+ * The jdeps dependencies of each target, along with the jdeps file they were read from.
+ *
+ * <p>The same dependency paths appear in the jdeps of many targets, so each is stored once in a
+ * shared path table, and each target refers to its dependencies by index into that table.
+ */
 final class JdepsState implements SyncData<ProjectData.JdepsState> {
 
   @AutoValue
   abstract static class JdepsData {
     abstract TargetKey getTargetKey();
 
-    abstract ImmutableList<String> getJdeps();
+    /** Indices into the path table of the enclosing {@link JdepsState}. */
+    abstract ImmutableIntArray getJdepIds();
 
     abstract ArtifactState getFile();
 
-    static JdepsData create(TargetKey targetKey, List<String> jdeps, ArtifactState file) {
-      return new AutoValue_JdepsState_JdepsData(targetKey, ImmutableList.copyOf(jdeps), file);
+    static JdepsData create(TargetKey targetKey, ImmutableIntArray jdepIds, ArtifactState file) {
+      return new AutoValue_JdepsState_JdepsData(targetKey, jdepIds, file);
     }
   }
 
+  final ImmutableList<String> paths;
   final ImmutableList<JdepsData> data;
 
-  private JdepsState(List<JdepsData> data) {
+  private JdepsState(List<String> paths, List<JdepsData> data) {
+    this.paths = ImmutableList.copyOf(paths);
     this.data = ImmutableList.copyOf(data);
   }
 
-  Map<TargetKey, List<String>> getJdepsMap() {
-    return data.stream().collect(toImmutableMap(JdepsData::getTargetKey, JdepsData::getJdeps));
+  JdepsMap getJdepsMap() {
+    ImmutableMap<TargetKey, JdepsData> byTarget =
+        data.stream().collect(toImmutableMap(JdepsData::getTargetKey, d -> d));
+    return targetKey -> {
+      JdepsData jdepsData = byTarget.get(targetKey);
+      return jdepsData != null ? getJdeps(jdepsData) : null;
+    };
+  }
+
+  private List<String> getJdeps(JdepsData jdepsData) {
+    return Lists.transform(jdepsData.getJdepIds().asList(), paths::get);
   }
 
   ImmutableMap<String, ArtifactState> getArtifactState() {
@@ -66,17 +87,41 @@ final class JdepsState implements SyncData<ProjectData.JdepsState> {
         .collect(toImmutableMap(s -> s.getFile().getKey(), s -> s.getFile(), (a, b) -> a));
   }
 
+  /** Returns an estimate of the heap used by the path table and dependency indices. */
+  long estimateSizeBytes() {
+    long size = 0;
+    for (String path : paths) {
+      // object headers plus (at most) two bytes per char
+      size += 40 + 2L * path.length();
+    }
+    for (JdepsData jdepsData : data) {
+      size += 48 + 4L * jdepsData.getJdepIds().length();
+    }
+    return size;
+  }
+
   private static JdepsState fromNewProto(ProjectData.TargetToJdepsMap proto) {
+    if (proto.getPathTableCount() == 0) {
+      // written before jdeps paths were dictionary-encoded
+      Builder builder = builder();
+      for (ProjectData.TargetToJdepsMap.Entry e : proto.getEntriesList()) {
+        builder.add(
+            TargetKey.fromProto(e.getKey()),
+            e.getValueList(),
+            ArtifactStateProtoConverter.fromProto(e.getFile()));
+      }
+      return builder.build();
+    }
     ImmutableList<JdepsData> data =
         proto.getEntriesList().stream()
             .map(
                 e ->
                     JdepsData.create(
                         TargetKey.fromProto(e.getKey()),
-                        ProtoWrapper.internStrings(e.getValueList()),
+                        ImmutableIntArray.copyOf(e.getValueIdList()),
                         ArtifactStateProtoConverter.fromProto(e.getFile())))
             .collect(toImmutableList());
-    return new JdepsState(data);
+    return new JdepsState(ProtoWrapper.internStrings(proto.getPathTableList()), data);
   }
 
   private static JdepsState fromProto(ProjectData.JdepsState proto) {
@@ -95,23 +140,23 @@ final class JdepsState implements SyncData<ProjectData.JdepsState> {
             .map(ArtifactStateProtoConverter::fromProto)
             .filter(Objects::nonNull)
             .collect(toImmutableMap(ArtifactState::getKey, s -> s, (a, b) -> a));
-    ImmutableList.Builder<JdepsData> data = ImmutableList.builder();
+    Builder builder = builder();
     for (ProjectData.TargetToJdepsMap.Entry e : proto.getTargetToJdeps().getEntriesList()) {
       TargetKey key = TargetKey.fromProto(e.getKey());
-      ImmutableList<String> jdeps = ProtoWrapper.internStrings(e.getValueList());
       String artifactKey = targetToArtifactKey.get(key);
       ArtifactState file = artifactKey != null ? artifacts.get(artifactKey) : null;
       if (file != null) {
-        data.add(JdepsData.create(key, jdeps, file));
+        builder.add(key, e.getValueList(), file);
       }
     }
-    return new JdepsState(data.build());
+    return builder.build();
   }
 
   @Override
   public ProjectData.JdepsState toProto() {
     ProjectData.TargetToJdepsMap.Builder proto =
         ProjectData.TargetToJdepsMap.newBuilder()
+            .addAllPathTable(paths)
             .addAllEntries(
                 data.stream()
                     .map(
@@ -119,7 +164,7 @@ final class JdepsState implements SyncData<ProjectData.JdepsState> {
                             ProjectData.TargetToJdepsMap.Entry.newBuilder()
                                 .setKey(s.getTargetKey().toProto())
                                 .setFile(s.getFile().serializeToProto())
-                                .addAllValue(s.getJdeps())
+                                .addAllValueId(s.getJdepIds().asList())
                                 .build())
                     .collect(toImmutableList()));
     return ProjectData.JdepsState.newBuilder().setTargetToJdeps(proto).build();
@@ -134,23 +179,65 @@ final class JdepsState implements SyncData<ProjectData.JdepsState> {
       return false;
     }
     JdepsState that = (JdepsState) o;
-    return Objects.equals(data, that.data);
+    return Objects.equals(paths, that.paths) && Objects.equals(data, that.data);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hashCode(data);
+    return Objects.hash(paths, data);
   }
 
   static Builder builder() {
     return new Builder();
   }
 
+  /** Returns a builder initialized with the contents of this state. */
+  Builder toBuilder() {
+    Builder builder = builder();
+    builder.paths.addAll(paths);
+    for (int i = 0; i < paths.size(); i++) {
+      builder.pathIds.put(paths.get(i), i);
+    }
+    builder.list.addAll(data);
+    return builder;
+  }
+
   static class Builder {
+    private final List<String> paths = new ArrayList<>();
+    private final Map<String, Integer> pathIds = new HashMap<>();
     final ArrayList<JdepsData> list = new ArrayList<>();
 
+    void add(TargetKey targetKey, List<String> jdeps, ArtifactState file) {
+      int[] ids = new int[jdeps.size()];
+      for (int i = 0; i < ids.length; i++) {
+        ids[i] = pathIds.computeIfAbsent(jdeps.get(i), this::addPath);
+      }
+      list.add(JdepsData.create(targetKey, ImmutableIntArray.copyOf(ids), file));
+    }
+
+    private int addPath(String path) {
+      paths.add(path);
+      return paths.size() - 1;
+    }
+
+    /** Builds the state, dropping any paths no longer referenced by a target. */
     JdepsState build() {
-      return new JdepsState(list);
+      int[] newIds = new int[paths.size()];
+      List<String> newPaths = new ArrayList<>();
+      ImmutableList.Builder<JdepsData> data = ImmutableList.builder();
+      for (JdepsData jdepsData : list) {
+        ImmutableIntArray.Builder ids = ImmutableIntArray.builder(jdepsData.getJdepIds().length());
+        for (int i = 0; i < jdepsData.getJdepIds().length(); i++) {
+          int id = jdepsData.getJdepIds().get(i);
+          if (newIds[id] == 0) {
+            newPaths.add(paths.get(id));
+            newIds[id] = newPaths.size();
+          }
+          ids.add(newIds[id] - 1);
+        }
+        data.add(JdepsData.create(jdepsData.getTargetKey(), ids.build(), jdepsData.getFile()));
+      }
+      return new JdepsState(newPaths, data.build());
     }
 
     void removeArtifacts(Collection<ArtifactState> artifacts) {
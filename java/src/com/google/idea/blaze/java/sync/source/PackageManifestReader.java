@@ -72,6 +72,16 @@ public class PackageManifestReader {
   private ImmutableMap<String, ArtifactState> artifactState;
   private Map<ArtifactState, TargetKey> fileToLabelMap = new HashMap<>();
   private final Map<TargetKey, Map<ArtifactLocation, String>> manifestMap = Maps.newConcurrentMap();
+  private volatile ImmutableMap<TargetKey, ArtifactState> manifestStates = ImmutableMap.of();
+
+  /**
+   * Returns the state of the given target's package manifest as of the last call to {@link
+   * #readPackageManifestFiles}, or null if it has no package manifest.
+   */
+  @Nullable
+  ArtifactState getManifestState(TargetKey target) {
+    return manifestStates.get(target);
+  }
 
   /**
    * @return A map from java source absolute file path to declared package string.
@@ -169,6 +179,13 @@ public class PackageManifestReader {
       logger.error(e);
       throw new IllegalStateException("Could not read sources");
     }
+    ImmutableMap<String, ArtifactState> newState = diff.getNewState();
+    manifestStates =
+        fileToLabelMap.entrySet().stream()
+            .filter(e -> newState.containsKey(e.getKey().getRelativePath()))
+            .collect(
+                toImmutableMap(
+                    Map.Entry::getValue, e -> newState.get(e.getKey().getRelativePath())));
     return manifestMap;
   }
 
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.sync.source;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.idea.blaze.base.filecache.ArtifactState;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.google.idea.blaze.java.sync.model.BlazeSourceDirectory;
+import com.google.idea.blaze.java.sync.source.SourceDirectoryCalculator.SourceRoot;
+import com.intellij.openapi.project.Project;
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+/**
+ * Source directory results from previous syncs of a project, keyed by content root.
+ *
+ * <p>The package prefix of each directory is reused until the set of sources in that directory
+ * changes, or the package manifest of any of their targets is updated. Packages which weren't
+ * read from a package manifest are never cached, as the source files can change without a build.
+ *
+ * <p>Results are kept in memory for the lifetime of the project.
+ */
+public final class SourceDirectoryCache {
+
+  private final Map<File, ContentRootEntry> contentRoots = new ConcurrentHashMap<>();
+
+  static SourceDirectoryCache getInstance(Project project) {
+    return project.getService(SourceDirectoryCache.class);
+  }
+
+  @Nullable
+  ContentRootEntry get(File contentRoot) {
+    return contentRoots.get(contentRoot);
+  }
+
+  void put(File contentRoot, ContentRootEntry entry) {
+    contentRoots.put(contentRoot, entry);
+  }
+
+  /** The results calculated for a single content root. */
+  static final class ContentRootEntry {
+    final ImmutableMap<WorkspacePath, DirectoryEntry> directories;
+    final ImmutableMap<WorkspacePath, SourceRoot> directorySourceRoots;
+    final ImmutableList<BlazeSourceDirectory> sourceDirectories;
+
+    ContentRootEntry(
+        ImmutableMap<WorkspacePath, DirectoryEntry> directories,
+        ImmutableMap<WorkspacePath, SourceRoot> directorySourceRoots,
+        ImmutableList<BlazeSourceDirectory> sourceDirectories) {
+      this.directories = directories;
+      this.directorySourceRoots = directorySourceRoots;
+      this.sourceDirectories = sourceDirectories;
+    }
+  }
+
+  /** The package prefix of a single directory, along with the inputs it was calculated from. */
+  static final class DirectoryEntry {
+    final ImmutableSetMultimap<TargetKey, ArtifactLocation> sources;
+    /** The package manifest states of each target, or null if the entry can't be reused. */
+    @Nullable final ImmutableMap<TargetKey, ArtifactState> manifestStates;
+    @Nullable final SourceRoot sourceRoot;
+
+    DirectoryEntry(
+        ImmutableSetMultimap<TargetKey, ArtifactLocation> sources,
+        @Nullable ImmutableMap<TargetKey, ArtifactState> manifestStates,
+        @Nullable SourceRoot sourceRoot) {
+      this.sources = sources;
+      this.manifestStates = manifestStates;
+      this.sourceRoot = sourceRoot;
+    }
+
+    /**
+     * Returns true if this entry was calculated from the given sources, and the package manifests
+     * of their targets haven't changed since.
+     */
+    boolean isUpToDate(
+        ImmutableSetMultimap<TargetKey, ArtifactLocation> sources,
+        Function<TargetKey, ArtifactState> currentManifestState) {
+      if (manifestStates == null || !this.sources.equals(sources)) {
+        return false;
+      }
+      for (Map.Entry<TargetKey, ArtifactState> entry : manifestStates.entrySet()) {
+        ArtifactState previous = entry.getValue();
+        ArtifactState current = currentManifestState.apply(entry.getKey());
+        if (current == null || previous.isMoreRecent(current) || current.isMoreRecent(previous)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
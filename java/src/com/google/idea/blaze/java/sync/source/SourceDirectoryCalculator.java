@@ -15,6 +15,8 @@
  */
 package com.google.idea.blaze.java.sync.source;
 
+import static com.google.common.collect.ImmutableSetMultimap.toImmutableSetMultimap;
+
 import com.google.common.base.Joiner;
 import com.google.common.base.Objects;
 import com.google.common.base.Splitter;
@@ -22,15 +24,14 @@ import com.google.common.base.Strings;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multiset;
 import com.google.common.collect.Sets;
-import com.google.common.util.concurrent.Futures;
-import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.ListeningExecutorService;
-import com.google.common.util.concurrent.MoreExecutors;
+import com.google.idea.blaze.base.filecache.ArtifactState;
 import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.model.primitives.WorkspacePath;
@@ -46,15 +47,16 @@ import com.google.idea.blaze.base.util.PackagePrefixCalculator;
 import com.google.idea.blaze.common.PrintOutput;
 import com.google.idea.blaze.java.sync.model.BlazeContentEntry;
 import com.google.idea.blaze.java.sync.model.BlazeSourceDirectory;
+import com.google.idea.blaze.java.sync.source.SourceDirectoryCache.ContentRootEntry;
+import com.google.idea.blaze.java.sync.source.SourceDirectoryCache.DirectoryEntry;
 import com.intellij.openapi.project.Project;
 import java.io.File;
 import java.util.Collection;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ExecutionException;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
@@ -72,7 +74,9 @@ public final class SourceDirectoryCalculator {
 
   private static final JavaPackageReader generatedFileJavaPackageReader =
       new FilePathJavaPackageReader();
-  private final ListeningExecutorService executorService = MoreExecutors.newDirectExecutorService();
+
+  private int reusedDirectories;
+  private int totalDirectories;
 
   public ImmutableList<BlazeContentEntry> calculateContentEntries(
       Project project,
@@ -99,11 +103,9 @@ public final class SourceDirectoryCalculator {
               return new ManifestFilePackageReader(manifestMap);
             });
 
+    // Fallbacks for sources which aren't listed in their target's package manifest
     final List<JavaPackageReader> javaPackageReaders =
-        Lists.newArrayList(
-            manifestFilePackageReader,
-            JavaSourcePackageReader.getInstance(),
-            generatedFileJavaPackageReader);
+        Lists.newArrayList(JavaSourcePackageReader.getInstance(), generatedFileJavaPackageReader);
 
     Collection<SourceArtifact> nonGeneratedSources = filterGeneratedArtifacts(sources);
 
@@ -112,6 +114,8 @@ public final class SourceDirectoryCalculator {
         sortArtifactLocationsByRootDirectory(importRoots, nonGeneratedSources);
 
     List<BlazeContentEntry> result = Lists.newArrayList();
+    reusedDirectories = 0;
+    totalDirectories = 0;
     Scope.push(
         context,
         (childContext) -> {
@@ -120,16 +124,23 @@ public final class SourceDirectoryCalculator {
             File contentRoot = workspaceRoot.fileForPath(workspacePath);
             ImmutableList<BlazeSourceDirectory> sourceDirectories =
                 calculateSourceDirectoriesForContentRoot(
+                    SourceDirectoryCache.getInstance(project),
                     context,
                     workspaceRoot,
                     artifactLocationDecoder,
                     workspacePath,
                     sourcesUnderDirectoryRoot.get(workspacePath),
+                    manifestFilePackageReader,
                     javaPackageReaders);
             result.add(new BlazeContentEntry(contentRoot, sourceDirectories));
           }
           result.sort(Comparator.comparing(lhs -> lhs.contentRoot));
         });
+    context.output(
+        PrintOutput.log(
+            String.format(
+                "Reused package prefixes of %d/%d source directories from the previous sync",
+                reusedDirectories, totalDirectories)));
     return ImmutableList.copyOf(result);
   }
 
@@ -169,35 +180,152 @@ public final class SourceDirectoryCalculator {
             || (relativePath.charAt(rootDirectoryString.length()) == '/'));
   }
 
-  /** Calculates all source directories for a single content root. */
+  /**
+   * Calculates all source directories for a single content root, reusing the results of the
+   * previous sync for any directories whose sources and package manifests haven't changed.
+   */
   private ImmutableList<BlazeSourceDirectory> calculateSourceDirectoriesForContentRoot(
+      SourceDirectoryCache cache,
       BlazeContext context,
       WorkspaceRoot workspaceRoot,
       ArtifactLocationDecoder artifactLocationDecoder,
       WorkspacePath directoryRoot,
       Collection<SourceArtifact> sourceArtifacts,
+      JavaPackageReader manifestFilePackageReader,
       Collection<JavaPackageReader> javaPackageReaders) {
 
-    // Split out java-like files
+    // Split out java-like files, and sort them into their respective directories
     Predicate<ArtifactLocation> isSourceFile = JavaLikeLanguage.getSourceFileMatcher();
-    List<SourceArtifact> javaArtifacts = Lists.newArrayList();
+    Map<WorkspacePath, List<SourceArtifact>> sourcesByDirectory = new LinkedHashMap<>();
     for (SourceArtifact sourceArtifact : sourceArtifacts) {
       if (isSourceFile.test(sourceArtifact.artifactLocation)) {
-        javaArtifacts.add(sourceArtifact);
+        String parentPath = new File(sourceArtifact.artifactLocation.getRelativePath()).getParent();
+        sourcesByDirectory
+            .computeIfAbsent(
+                new WorkspacePath(Strings.nullToEmpty(parentPath)), k -> Lists.newArrayList())
+            .add(sourceArtifact);
       }
     }
 
+    PackageManifestReader packageManifestReader = PackageManifestReader.getInstance();
+    File contentRoot = workspaceRoot.fileForPath(directoryRoot);
+    ContentRootEntry previous = cache.get(contentRoot);
+
+    // Create a mapping from directory to package prefix
+    ImmutableMap.Builder<WorkspacePath, DirectoryEntry> cacheableDirectories =
+        ImmutableMap.builder();
+    ImmutableMap.Builder<WorkspacePath, SourceRoot> directorySourceRoots = ImmutableMap.builder();
+    for (Map.Entry<WorkspacePath, List<SourceArtifact>> entry : sourcesByDirectory.entrySet()) {
+      WorkspacePath directory = entry.getKey();
+      ImmutableSetMultimap<TargetKey, ArtifactLocation> sources =
+          entry.getValue().stream()
+              .collect(
+                  toImmutableSetMultimap(
+                      source -> source.originatingTarget, source -> source.artifactLocation));
+      DirectoryEntry directoryEntry = previous != null ? previous.directories.get(directory) : null;
+      if (directoryEntry != null
+          && directoryEntry.isUpToDate(sources, packageManifestReader::getManifestState)) {
+        reusedDirectories++;
+      } else {
+        directoryEntry =
+            calculateDirectorySourceRoot(
+                context,
+                artifactLocationDecoder,
+                directory,
+                entry.getValue(),
+                sources,
+                packageManifestReader,
+                manifestFilePackageReader,
+                javaPackageReaders);
+      }
+      totalDirectories++;
+      if (directoryEntry.manifestStates != null) {
+        cacheableDirectories.put(directory, directoryEntry);
+      }
+      if (directoryEntry.sourceRoot != null) {
+        directorySourceRoots.put(directory, directoryEntry.sourceRoot);
+      }
+    }
+
+    ImmutableMap<WorkspacePath, SourceRoot> sourceRoots = directorySourceRoots.buildOrThrow();
+    ImmutableList<BlazeSourceDirectory> result =
+        previous != null && previous.directorySourceRoots.equals(sourceRoots)
+            ? previous.sourceDirectories
+            : calculateSourceDirectories(workspaceRoot, directoryRoot, sourceRoots.values());
+    cache.put(
+        contentRoot,
+        new ContentRootEntry(cacheableDirectories.buildOrThrow(), sourceRoots, result));
+    return result;
+  }
+
+  /**
+   * Calculates the package prefix of a single directory, from the packages declared by its
+   * sources.
+   */
+  private static DirectoryEntry calculateDirectorySourceRoot(
+      BlazeContext context,
+      ArtifactLocationDecoder artifactLocationDecoder,
+      WorkspacePath directory,
+      Collection<SourceArtifact> javaArtifacts,
+      ImmutableSetMultimap<TargetKey, ArtifactLocation> sources,
+      PackageManifestReader packageManifestReader,
+      JavaPackageReader manifestFilePackageReader,
+      Collection<JavaPackageReader> javaPackageReaders) {
+    Multiset<String> packages = HashMultiset.create();
+    boolean allFromManifests = true;
+    for (SourceArtifact sourceArtifact : javaArtifacts) {
+      String declaredPackage =
+          manifestFilePackageReader.getDeclaredPackageOfJavaFile(
+              context, artifactLocationDecoder, sourceArtifact);
+      if (declaredPackage == null) {
+        allFromManifests = false;
+        declaredPackage =
+            readDeclaredPackage(
+                context, artifactLocationDecoder, sourceArtifact, javaPackageReaders);
+      }
+      if (declaredPackage != null) {
+        packages.add(declaredPackage);
+      }
+    }
+
+    SourceRoot sourceRoot = null;
+    if (!packages.isEmpty()) {
+      final String directoryPackagePrefix;
+      // Common case -- all source files agree on a single package
+      if (packages.elementSet().size() == 1) {
+        directoryPackagePrefix = packages.elementSet().iterator().next();
+      } else {
+        String preferredPackagePrefix = PackagePrefixCalculator.packagePrefixOf(directory);
+        directoryPackagePrefix = pickMostFrequentlyOccurring(packages, preferredPackagePrefix);
+      }
+      sourceRoot = new SourceRoot(directory, directoryPackagePrefix);
+    }
+
+    ImmutableMap<TargetKey, ArtifactState> manifestStates = null;
+    if (allFromManifests) {
+      Map<TargetKey, ArtifactState> states = Maps.newHashMap();
+      for (TargetKey target : sources.keySet()) {
+        ArtifactState state = packageManifestReader.getManifestState(target);
+        if (state == null) {
+          states = null;
+          break;
+        }
+        states.put(target, state);
+      }
+      manifestStates = states != null ? ImmutableMap.copyOf(states) : null;
+    }
+    return new DirectoryEntry(sources, manifestStates, sourceRoot);
+  }
+
+  /** Calculates the source directories of a content root from the package of each directory. */
+  private static ImmutableList<BlazeSourceDirectory> calculateSourceDirectories(
+      WorkspaceRoot workspaceRoot,
+      WorkspacePath directoryRoot,
+      Collection<SourceRoot> directorySourceRoots) {
     List<BlazeSourceDirectory> result = Lists.newArrayList();
 
     // Add java source directories
-    calculateJavaSourceDirectories(
-        context,
-        workspaceRoot,
-        artifactLocationDecoder,
-        directoryRoot,
-        javaArtifacts,
-        javaPackageReaders,
-        result);
+    calculateJavaSourceDirectories(workspaceRoot, directoryRoot, directorySourceRoots, result);
 
     if (result.isEmpty()) {
       // if there are no nested source directories, then mark the content root as a source directory
@@ -213,76 +341,17 @@ public final class SourceDirectoryCalculator {
   }
 
   /** Adds the java source directories. */
-  private void calculateJavaSourceDirectories(
-      BlazeContext context,
+  private static void calculateJavaSourceDirectories(
       WorkspaceRoot workspaceRoot,
-      ArtifactLocationDecoder artifactLocationDecoder,
       WorkspacePath directoryRoot,
-      Collection<SourceArtifact> javaArtifacts,
-      Collection<JavaPackageReader> javaPackageReaders,
+      Collection<SourceRoot> directorySourceRoots,
       Collection<BlazeSourceDirectory> result) {
 
-    List<SourceRoot> sourceRootsPerFile = Lists.newArrayList();
-
-    // Get java sources
-    List<ListenableFuture<SourceRoot>> sourceRootFutures = Lists.newArrayList();
-    for (final SourceArtifact sourceArtifact : javaArtifacts) {
-      ListenableFuture<SourceRoot> future =
-          executorService.submit(
-              () ->
-                  sourceRootForJavaSource(
-                      context, artifactLocationDecoder, sourceArtifact, javaPackageReaders));
-      sourceRootFutures.add(future);
-    }
-    try {
-      for (SourceRoot sourceRoot : Futures.allAsList(sourceRootFutures).get()) {
-        if (sourceRoot != null) {
-          sourceRootsPerFile.add(sourceRoot);
-        }
-      }
-    } catch (InterruptedException e) {
-      Thread.currentThread().interrupt();
-      context.setCancelled();
-    } catch (ExecutionException e) {
-      throw new IllegalStateException("Could not read sources", e);
-    }
-
-    // Sort source roots into their respective directories
-    Map<WorkspacePath, Multiset<SourceRoot>> sourceDirectoryToSourceRoots = new HashMap<>();
-    for (SourceRoot sourceRoot : sourceRootsPerFile) {
-      sourceDirectoryToSourceRoots
-          .computeIfAbsent(sourceRoot.workspacePath, k -> HashMultiset.create())
-          .add(sourceRoot);
-    }
-
-    // Create a mapping from directory to package prefix
-    Map<WorkspacePath, SourceRoot> workspacePathToSourceRoot = Maps.newHashMap();
-    for (WorkspacePath workspacePath : sourceDirectoryToSourceRoots.keySet()) {
-      Multiset<SourceRoot> sources = sourceDirectoryToSourceRoots.get(workspacePath);
-      Multiset<String> packages = HashMultiset.create();
-
-      for (Multiset.Entry<SourceRoot> entry : sources.entrySet()) {
-        packages.setCount(entry.getElement().packagePrefix, entry.getCount());
-      }
-
-      final String directoryPackagePrefix;
-      // Common case -- all source files agree on a single package
-      if (packages.elementSet().size() == 1) {
-        directoryPackagePrefix = packages.elementSet().iterator().next();
-      } else {
-        String preferredPackagePrefix = PackagePrefixCalculator.packagePrefixOf(workspacePath);
-        directoryPackagePrefix = pickMostFrequentlyOccurring(packages, preferredPackagePrefix);
-      }
-
-      SourceRoot candidateRoot = new SourceRoot(workspacePath, directoryPackagePrefix);
-      workspacePathToSourceRoot.put(workspacePath, candidateRoot);
-    }
-
     // First, create a graph of the directory structure from root to each source file
     Map<WorkspacePath, SourceRootDirectoryNode> sourceRootDirectoryNodeMap = Maps.newHashMap();
     SourceRootDirectoryNode rootNode = new SourceRootDirectoryNode(directoryRoot, null);
     sourceRootDirectoryNodeMap.put(directoryRoot, rootNode);
-    for (SourceRoot sourceRoot : workspacePathToSourceRoot.values()) {
+    for (SourceRoot sourceRoot : directorySourceRoots) {
       final String sourcePathRelativeToDirectoryRoot =
           sourcePathRelativeToDirectoryRoot(directoryRoot, sourceRoot.workspacePath);
       List<String> pathComponents =
@@ -304,7 +373,7 @@ public final class SourceDirectoryCalculator {
     }
 
     // Add package prefix votes at each directory node
-    for (SourceRoot sourceRoot : workspacePathToSourceRoot.values()) {
+    for (SourceRoot sourceRoot : directorySourceRoots) {
       final String sourcePathRelativeToDirectoryRoot =
           sourcePathRelativeToDirectoryRoot(directoryRoot, sourceRoot.workspacePath);
 
@@ -430,28 +499,24 @@ public final class SourceDirectoryCalculator {
   }
 
   @Nullable
-  private SourceRoot sourceRootForJavaSource(
+  private static String readDeclaredPackage(
       BlazeContext context,
       ArtifactLocationDecoder decoder,
       SourceArtifact sourceArtifact,
       Collection<JavaPackageReader> javaPackageReaders) {
 
-    String declaredPackage = null;
     for (JavaPackageReader reader : javaPackageReaders) {
-      declaredPackage = reader.getDeclaredPackageOfJavaFile(context, decoder, sourceArtifact);
+      String declaredPackage =
+          reader.getDeclaredPackageOfJavaFile(context, decoder, sourceArtifact);
       if (declaredPackage != null) {
-        break;
+        return declaredPackage;
       }
     }
-    if (declaredPackage == null) {
-      context.output(
-          PrintOutput.log(
-              "Failed to inspect the package name of java source file: "
-                  + sourceArtifact.artifactLocation));
-      return null;
-    }
-    String parentPath = new File(sourceArtifact.artifactLocation.getRelativePath()).getParent();
-    return new SourceRoot(new WorkspacePath(Strings.nullToEmpty(parentPath)), declaredPackage);
+    context.output(
+        PrintOutput.log(
+            "Failed to inspect the package name of java source file: "
+                + sourceArtifact.artifactLocation));
+    return null;
   }
 
   static class SourceRoot {
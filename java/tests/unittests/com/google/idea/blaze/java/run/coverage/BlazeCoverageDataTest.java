@@ -18,7 +18,9 @@ package com.google.idea.blaze.java.run.coverage;
 import static com.google.common.truth.Truth.assertThat;
 
 import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteSource;
 import com.google.idea.blaze.java.run.coverage.BlazeCoverageData.FileData;
 import gnu.trove.TIntIntHashMap;
 import java.io.ByteArrayInputStream;
@@ -52,13 +54,13 @@ public class BlazeCoverageDataTest {
                 "DA:5,0",
                 "DA:123,1",
                 "end_of_record"));
-    assertThat(data.perFileData).hasSize(2);
+    assertThat(data.getSourceFiles()).hasSize(2);
 
-    FileData fileData = data.perFileData.get("path/to/file.txt");
+    FileData fileData = data.getFileData("path/to/file.txt");
     assertThat(fileData.source).isEqualTo("path/to/file.txt");
     assertThat(toMap(fileData.lineHits)).containsExactly(4, 0, 8, 0, 9, 1, 23, 3);
 
-    fileData = data.perFileData.get("path/to/another/file.txt");
+    fileData = data.getFileData("path/to/another/file.txt");
     assertThat(fileData.source).isEqualTo("path/to/another/file.txt");
     assertThat(toMap(fileData.lineHits)).containsExactly(1, 1, 2, 2, 5, 0, 123, 1);
   }
@@ -78,7 +80,55 @@ public class BlazeCoverageDataTest {
                 "DA:5,0",
                 "DA:123,1",
                 "end_of_record"));
-    assertThat(data.perFileData.keySet()).containsExactly("path/to/another/file.txt");
+    assertThat(data.getSourceFiles()).containsExactly("path/to/another/file.txt");
+    assertThat(data.getFileData("path/to/file.txt")).isNull();
+  }
+
+  @Test
+  public void testRecordsForSameFileMerged() throws IOException {
+    BlazeCoverageData data =
+        BlazeCoverageData.parse(
+            inputStream(
+                "SF:path/to/file.txt",
+                "DA:4,0",
+                "DA:8,1",
+                "end_of_record",
+                "SF:path/to/another/file.txt",
+                "DA:1,1",
+                "end_of_record",
+                "SF:path/to/file.txt",
+                "DA:4,2",
+                "DA:9,1",
+                "end_of_record"));
+    assertThat(data.getSourceFiles())
+        .containsExactly("path/to/file.txt", "path/to/another/file.txt");
+    assertThat(toMap(data.getFileData("path/to/file.txt").lineHits))
+        .containsExactly(4, 2, 8, 1, 9, 1);
+  }
+
+  @Test
+  public void testReportsMerged() throws IOException {
+    BlazeCoverageData data =
+        BlazeCoverageData.index(
+            ImmutableList.of(
+                byteSource("SF:path/to/file.txt", "DA:4,1", "DA:8,0", "end_of_record"),
+                byteSource("SF:path/to/file.txt", "DA:4,3", "DA:8,1", "end_of_record")));
+    assertThat(toMap(data.getFileData("path/to/file.txt").lineHits)).containsExactly(4, 4, 8, 1);
+  }
+
+  @Test
+  public void testWindowsLineEndingsAndUnterminatedRecord() throws IOException {
+    BlazeCoverageData data =
+        BlazeCoverageData.parse(
+            inputStream(
+                "SF:path/to/file.txt\r",
+                "DA:4,1\r",
+                "end_of_record\r",
+                "SF:other.txt",
+                "DA:1,2"));
+    assertThat(data.getSourceFiles()).containsExactly("path/to/file.txt", "other.txt");
+    assertThat(toMap(data.getFileData("path/to/file.txt").lineHits)).containsExactly(4, 1);
+    assertThat(toMap(data.getFileData("other.txt").lineHits)).containsExactly(1, 2);
   }
 
   private static ImmutableMap<Integer, Integer> toMap(TIntIntHashMap troveMap) {
@@ -91,4 +141,8 @@ public class BlazeCoverageDataTest {
     String string = Joiner.on('\n').join(lines);
     return new ByteArrayInputStream(string.getBytes(StandardCharsets.UTF_8));
   }
+
+  private static ByteSource byteSource(String... lines) {
+    return ByteSource.wrap(Joiner.on('\n').join(lines).getBytes(StandardCharsets.UTF_8));
+  }
 }
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.run.hotswap;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.async.executor.BlazeExecutor;
+import com.google.idea.blaze.base.async.executor.MockBlazeExecutor;
+import com.google.idea.blaze.base.io.FileOperationProvider;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link ClassFileManifest} */
+@RunWith(JUnit4.class)
+public class ClassFileManifestTest extends BlazeTestCase {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Override
+  protected void initTest(Container applicationServices, Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    applicationServices.register(FileOperationProvider.class, new FileOperationProvider());
+    applicationServices.register(BlazeExecutor.class, new MockBlazeExecutor());
+    ClassFileManifest.clearSharedManifests();
+  }
+
+  @Test
+  public void unchangedJars_notReread() throws Exception {
+    File jar = writeJar("lib.jar", ImmutableMap.of("a/A.class", "A", "a/B.class", "B"), 1000);
+    ClassFileManifest first = ClassFileManifest.build(ImmutableList.of(jar), null);
+    int jarsRead = ClassFileManifest.getJarsRead();
+
+    ClassFileManifest second = ClassFileManifest.build(ImmutableList.of(jar), first);
+
+    assertThat(ClassFileManifest.getJarsRead()).isEqualTo(jarsRead);
+    assertThat(ClassFileManifest.modifiedClasses(first, second).perJarModifiedClasses).isEmpty();
+  }
+
+  @Test
+  public void newSession_reusesSharedManifests() throws Exception {
+    File jar = writeJar("lib.jar", ImmutableMap.of("a/A.class", "A"), 1000);
+    ClassFileManifest.build(ImmutableList.of(jar), null);
+    int jarsRead = ClassFileManifest.getJarsRead();
+
+    ClassFileManifest.build(ImmutableList.of(jar), null);
+
+    assertThat(ClassFileManifest.getJarsRead()).isEqualTo(jarsRead);
+  }
+
+  @Test
+  public void modifiedJar_onlyChangedClassesReported() throws Exception {
+    File jar =
+        writeJar(
+            "lib.jar",
+            ImmutableMap.of("a/A.class", "A", "a/B.class", "B", "a/C.class", "C"),
+            1000);
+    ClassFileManifest first = ClassFileManifest.build(ImmutableList.of(jar), null);
+
+    writeJar(
+        "lib.jar",
+        ImmutableMap.of("a/A.class", "A", "a/B.class", "B2", "a/C.class", "C", "a/D.class", "D"),
+        2000);
+    ClassFileManifest second = ClassFileManifest.build(ImmutableList.of(jar), first);
+
+    assertThat(ClassFileManifest.modifiedClasses(first, second).perJarModifiedClasses)
+        .containsExactly(jar, "a/B.class", jar, "a/D.class");
+  }
+
+  @Test
+  public void jarRebuiltIdentically_noClassesReported() throws Exception {
+    ImmutableMap<String, String> classes = ImmutableMap.of("a/A.class", "A", "a/B.class", "B");
+    File jar = writeJar("lib.jar", classes, 1000);
+    ClassFileManifest first = ClassFileManifest.build(ImmutableList.of(jar), null);
+    int jarsRead = ClassFileManifest.getJarsRead();
+
+    writeJar("lib.jar", classes, 2000);
+    ClassFileManifest second = ClassFileManifest.build(ImmutableList.of(jar), first);
+
+    assertThat(ClassFileManifest.getJarsRead()).isEqualTo(jarsRead + 1);
+    assertThat(ClassFileManifest.modifiedClasses(first, second).perJarModifiedClasses).isEmpty();
+  }
+
+  @Test
+  public void jarAddedToClasspath_allClassesReported() throws Exception {
+    File jar = writeJar("lib.jar", ImmutableMap.of("a/A.class", "A"), 1000);
+    File addedJar = writeJar("added.jar", ImmutableMap.of("b/B.class", "B"), 1000);
+    ClassFileManifest first = ClassFileManifest.build(ImmutableList.of(jar), null);
+
+    ClassFileManifest second = ClassFileManifest.build(ImmutableList.of(jar, addedJar), first);
+
+    assertThat(ClassFileManifest.modifiedClasses(first, second).perJarModifiedClasses)
+        .containsExactly(addedJar, "b/B.class");
+  }
+
+  /**
+   * Rebuilding the manifest for a large classpath should only read the jars which changed, and
+   * rebuilt jars with identical classes should not be reported.
+   */
+  @Test
+  public void largeClasspath_onlyChangedJarsRead() throws Exception {
+    int jarCount = 20;
+    int classesPerJar = 5000;
+    ImmutableList.Builder<File> jars = ImmutableList.builder();
+    for (int j = 0; j < jarCount; j++) {
+      jars.add(writeJar("lib" + j + ".jar", syntheticClasses(j, classesPerJar), 1000));
+    }
+    ImmutableList<File> classpath = jars.build();
+    ClassFileManifest first = ClassFileManifest.build(classpath, null);
+    int jarsRead = ClassFileManifest.getJarsRead();
+
+    ClassFileManifest unchanged = ClassFileManifest.build(classpath, first);
+    assertThat(ClassFileManifest.getJarsRead()).isEqualTo(jarsRead);
+    assertThat(ClassFileManifest.modifiedClasses(first, unchanged).perJarModifiedClasses)
+        .isEmpty();
+
+    // rebuild every jar, changing a single class in one of them
+    for (int j = 0; j < jarCount; j++) {
+      Map<String, String> classes = new LinkedHashMap<>(syntheticClasses(j, classesPerJar));
+      if (j == 7) {
+        classes.put("pkg7/Class42.class", "changed");
+      }
+      writeJar("lib" + j + ".jar", classes, 2000);
+    }
+    ClassFileManifest rebuilt = ClassFileManifest.build(classpath, unchanged);
+
+    assertThat(ClassFileManifest.getJarsRead()).isEqualTo(jarsRead + jarCount);
+    assertThat(ClassFileManifest.modifiedClasses(unchanged, rebuilt).perJarModifiedClasses)
+        .containsExactly(classpath.get(7), "pkg7/Class42.class");
+  }
+
+  private static Map<String, String> syntheticClasses(int jarIndex, int count) {
+    Map<String, String> classes = new LinkedHashMap<>();
+    for (int i = 0; i < count; i++) {
+      classes.put(
+          String.format("pkg%d/Class%d.class", jarIndex, i),
+          String.format("contents of class %d in jar %d", i, jarIndex));
+    }
+    return classes;
+  }
+
+  private File writeJar(String name, Map<String, String> classes, long modifiedTime)
+      throws IOException {
+    File jar = new File(temporaryFolder.getRoot(), name);
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+      for (Map.Entry<String, String> entry : classes.entrySet()) {
+        out.putNextEntry(new ZipEntry(entry.getKey()));
+        out.write(entry.getValue().getBytes(UTF_8));
+        out.closeEntry();
+      }
+    }
+    assertThat(jar.setLastModified(modifiedTime)).isTrue();
+    return jar;
+  }
+}
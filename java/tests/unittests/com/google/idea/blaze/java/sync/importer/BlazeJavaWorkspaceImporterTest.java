@@ -85,6 +85,7 @@ import com.google.idea.blaze.java.sync.source.JavaLikeLanguage;
 import com.google.idea.blaze.java.sync.source.JavaSourcePackageReader;
 import com.google.idea.blaze.java.sync.source.PackageManifestReader;
 import com.google.idea.blaze.java.sync.source.SourceArtifact;
+import com.google.idea.blaze.java.sync.source.SourceDirectoryCache;
 import com.google.idea.blaze.java.sync.workingset.JavaWorkingSet;
 import com.google.idea.common.experiments.ExperimentService;
 import com.google.idea.common.experiments.MockExperimentService;
@@ -208,6 +209,7 @@ public class BlazeJavaWorkspaceImporterTest extends BlazeTestCase {
           }
         });
     applicationServices.register(PackageManifestReader.class, new PackageManifestReader());
+    projectServices.register(SourceDirectoryCache.class, new SourceDirectoryCache());
     applicationServices.register(PrefetchService.class, new MockPrefetchService());
 
     context = BlazeContext.create();
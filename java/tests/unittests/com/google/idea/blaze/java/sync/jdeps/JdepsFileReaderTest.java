@@ -0,0 +1,60 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.sync.jdeps;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.build.lib.view.proto.Deps;
+import com.google.devtools.build.lib.view.proto.Deps.Dependency;
+import java.io.ByteArrayInputStream;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link JdepsFileReader}. */
+@RunWith(JUnit4.class)
+public class JdepsFileReaderTest {
+
+  @Test
+  public void testReadRelevantDeps_keepsOnlyExplicitAndImplicitDeps() throws Exception {
+    Deps.Dependencies dependencies =
+        Deps.Dependencies.newBuilder()
+            .setRuleLabel("//a:a")
+            .addDependency(dependency("explicit.jar", Dependency.Kind.EXPLICIT))
+            .addDependency(dependency("unused.jar", Dependency.Kind.UNUSED))
+            .addDependency(
+                dependency("implicit.jar", Dependency.Kind.IMPLICIT)
+                    .addLocation(Deps.SourceLocation.newBuilder().setPath("A.java").setLine(3)))
+            .addDependency(dependency("incomplete.jar", Dependency.Kind.INCOMPLETE))
+            .setSuccess(true)
+            .addContainedPackage("com.google.a")
+            .build();
+
+    assertThat(
+            JdepsFileReader.readRelevantDeps(new ByteArrayInputStream(dependencies.toByteArray())))
+        .containsExactly("explicit.jar", "implicit.jar")
+        .inOrder();
+  }
+
+  @Test
+  public void testReadRelevantDeps_emptyFile() throws Exception {
+    assertThat(JdepsFileReader.readRelevantDeps(new ByteArrayInputStream(new byte[0]))).isEmpty();
+  }
+
+  private static Dependency.Builder dependency(String path, Dependency.Kind kind) {
+    return Dependency.newBuilder().setPath(path).setKind(kind);
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.sync.jdeps;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.intellij.model.ProjectData;
+import com.google.idea.blaze.base.filecache.ArtifactState;
+import com.google.idea.blaze.base.filecache.ArtifactState.LocalFileState;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.model.primitives.Label;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link JdepsState}. */
+@RunWith(JUnit4.class)
+public class JdepsStateTest {
+
+  private static final TargetKey TARGET_A = TargetKey.forPlainTarget(Label.create("//a:a"));
+  private static final TargetKey TARGET_B = TargetKey.forPlainTarget(Label.create("//b:b"));
+  private static final ArtifactState FILE_A = new LocalFileState("a/a.jdeps", 1);
+  private static final ArtifactState FILE_B = new LocalFileState("b/b.jdeps", 1);
+
+  @Test
+  public void testPathsSharedBetweenTargets() {
+    JdepsState.Builder builder = JdepsState.builder();
+    builder.add(TARGET_A, ImmutableList.of("x.jar", "y.jar"), FILE_A);
+    builder.add(TARGET_B, ImmutableList.of("y.jar", "z.jar"), FILE_B);
+    JdepsState state = builder.build();
+
+    assertThat(state.paths).containsExactly("x.jar", "y.jar", "z.jar");
+    JdepsMap jdepsMap = state.getJdepsMap();
+    assertThat(jdepsMap.getDependenciesForTarget(TARGET_A))
+        .containsExactly("x.jar", "y.jar")
+        .inOrder();
+    assertThat(jdepsMap.getDependenciesForTarget(TARGET_B))
+        .containsExactly("y.jar", "z.jar")
+        .inOrder();
+    assertThat(jdepsMap.getDependenciesForTarget(TargetKey.forPlainTarget(Label.create("//c:c"))))
+        .isNull();
+  }
+
+  @Test
+  public void testUnreferencedPathsDroppedOnRemoval() {
+    JdepsState.Builder builder = JdepsState.builder();
+    builder.add(TARGET_A, ImmutableList.of("x.jar", "y.jar"), FILE_A);
+    builder.add(TARGET_B, ImmutableList.of("y.jar", "z.jar"), FILE_B);
+
+    JdepsState.Builder updated = builder.build().toBuilder();
+    updated.removeArtifacts(ImmutableList.of(FILE_A));
+    JdepsState state = updated.build();
+
+    assertThat(state.paths).containsExactly("y.jar", "z.jar");
+    assertThat(state.getJdepsMap().getDependenciesForTarget(TARGET_A)).isNull();
+    assertThat(state.getJdepsMap().getDependenciesForTarget(TARGET_B))
+        .containsExactly("y.jar", "z.jar")
+        .inOrder();
+  }
+
+  @Test
+  public void testUnchangedFromSerializationRoundTrip() {
+    JdepsState.Builder builder = JdepsState.builder();
+    builder.add(TARGET_A, ImmutableList.of("x.jar", "y.jar"), FILE_A);
+    builder.add(TARGET_B, ImmutableList.of("y.jar", "z.jar"), FILE_B);
+    JdepsState state = builder.build();
+
+    ProjectData.SyncState.Builder syncState = ProjectData.SyncState.newBuilder();
+    state.insert(syncState);
+
+    assertThat(new JdepsState.Extractor().extract(syncState.build())).isEqualTo(state);
+  }
+
+  @Test
+  public void testReadsUnencodedPaths() {
+    ProjectData.TargetToJdepsMap proto =
+        ProjectData.TargetToJdepsMap.newBuilder()
+            .addEntries(
+                ProjectData.TargetToJdepsMap.Entry.newBuilder()
+                    .setKey(TARGET_A.toProto())
+                    .setFile(FILE_A.serializeToProto())
+                    .addValue("x.jar")
+                    .addValue("y.jar"))
+            .addEntries(
+                ProjectData.TargetToJdepsMap.Entry.newBuilder()
+                    .setKey(TARGET_B.toProto())
+                    .setFile(FILE_B.serializeToProto())
+                    .addValue("y.jar"))
+            .build();
+    ProjectData.SyncState syncState =
+        ProjectData.SyncState.newBuilder()
+            .setJdepsState(ProjectData.JdepsState.newBuilder().setTargetToJdeps(proto))
+            .build();
+
+    JdepsState state = new JdepsState.Extractor().extract(syncState);
+
+    assertThat(state.paths).containsExactly("x.jar", "y.jar");
+    assertThat(state.getJdepsMap().getDependenciesForTarget(TARGET_A))
+        .containsExactly("x.jar", "y.jar")
+        .inOrder();
+    assertThat(state.getJdepsMap().getDependenciesForTarget(TARGET_B)).containsExactly("y.jar");
+  }
+}
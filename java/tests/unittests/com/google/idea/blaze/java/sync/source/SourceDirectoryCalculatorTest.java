@@ -69,6 +69,7 @@ public class SourceDirectoryCalculatorTest extends BlazeTestCase {
   private static final Label LABEL = Label.create("//fake:label");
 
   private MockInputStreamProvider mockInputStreamProvider;
+  private MockFileOperationProvider fileOperationProvider;
   private SourceDirectoryCalculator sourceDirectoryCalculator;
 
   private final BlazeContext context = BlazeContext.create();
@@ -92,7 +93,9 @@ public class SourceDirectoryCalculatorTest extends BlazeTestCase {
     applicationServices.register(InputStreamProvider.class, mockInputStreamProvider);
     applicationServices.register(JavaSourcePackageReader.class, new JavaSourcePackageReader());
     applicationServices.register(PackageManifestReader.class, new PackageManifestReader());
-    applicationServices.register(FileOperationProvider.class, new MockFileOperationProvider());
+    projectServices.register(SourceDirectoryCache.class, new SourceDirectoryCache());
+    fileOperationProvider = new MockFileOperationProvider();
+    applicationServices.register(FileOperationProvider.class, fileOperationProvider);
 
     context.addOutputSink(IssueOutput.class, issues);
     sourceDirectoryCalculator = new SourceDirectoryCalculator();
@@ -1157,6 +1160,98 @@ public class SourceDirectoryCalculatorTest extends BlazeTestCase {
                 .build());
   }
 
+  @Test
+  public void testDirectoriesRecalculatedOnlyWhenManifestChanges() {
+    setPackageManifest(
+        "/root/blaze-out/k8-opt/genfiles/java/com/test.manifest",
+        ImmutableList.of("java/com/google/Bla.java", "java/com/google/Foo.java"),
+        ImmutableList.of("com.google", "com.google"));
+    mockInputStreamProvider.addFile(
+        "/root/java/com/google/subpackage/Bla.java",
+        "package com.google.different;\n public class Bla {}");
+
+    ImmutableMap<TargetKey, ArtifactLocation> manifests =
+        ImmutableMap.of(
+            TargetKey.forPlainTarget(LABEL),
+            ArtifactLocation.builder()
+                .setRelativePath("java/com/test.manifest")
+                .setRootExecutionPathFragment("blaze-out/k8-opt/genfiles")
+                .setIsSource(false)
+                .build());
+    List<SourceArtifact> sourceArtifacts =
+        ImmutableList.of(
+            SourceArtifact.builder(TargetKey.forPlainTarget(LABEL))
+                .setArtifactLocation(
+                    ArtifactLocation.builder()
+                        .setRelativePath("java/com/google/Bla.java")
+                        .setIsSource(true))
+                .build(),
+            SourceArtifact.builder(TargetKey.forPlainTarget(LABEL))
+                .setArtifactLocation(
+                    ArtifactLocation.builder()
+                        .setRelativePath("java/com/google/Foo.java")
+                        .setIsSource(true))
+                .build(),
+            SourceArtifact.builder(TargetKey.forPlainTarget(LABEL))
+                .setArtifactLocation(
+                    ArtifactLocation.builder()
+                        .setRelativePath("java/com/google/subpackage/Bla.java")
+                        .setIsSource(true))
+                .build());
+    ImportRoots importRoots =
+        buildImportRoots(
+            ImmutableList.of(new WorkspacePath("java/com/google")), ImmutableList.of());
+
+    sourceDirectoryCalculator.calculateContentEntries(
+        project, context, workspaceRoot, getDecoder(), importRoots, sourceArtifacts, manifests);
+
+    // the manifest is unchanged, but sources without manifest entries are always re-read
+    setPackageManifest(
+        "/root/blaze-out/k8-opt/genfiles/java/com/test.manifest",
+        ImmutableList.of("java/com/google/Bla.java", "java/com/google/Foo.java"),
+        ImmutableList.of("com.google.changed", "com.google.changed"));
+    mockInputStreamProvider.addFile(
+        "/root/java/com/google/subpackage/Bla.java",
+        "package com.google.other;\n public class Bla {}");
+    ImmutableList<BlazeContentEntry> result =
+        sourceDirectoryCalculator.calculateContentEntries(
+            project, context, workspaceRoot, getDecoder(), importRoots, sourceArtifacts, manifests);
+
+    issues.assertNoIssues();
+    assertThat(result)
+        .containsExactly(
+            BlazeContentEntry.builder("/root/java/com/google")
+                .addSource(
+                    BlazeSourceDirectory.builder("/root/java/com/google")
+                        .setPackagePrefix("com.google")
+                        .build())
+                .addSource(
+                    BlazeSourceDirectory.builder("/root/java/com/google/subpackage")
+                        .setPackagePrefix("com.google.other")
+                        .build())
+                .build());
+
+    // an updated manifest invalidates the directories containing its sources
+    fileOperationProvider.modifiedTime = 2;
+    result =
+        sourceDirectoryCalculator.calculateContentEntries(
+            project, context, workspaceRoot, getDecoder(), importRoots, sourceArtifacts, manifests);
+
+    issues.assertNoIssues();
+    assertThat(result)
+        .containsExactly(
+            BlazeContentEntry.builder("/root/java/com/google")
+                .addSource(
+                    BlazeSourceDirectory.builder("/root/java/com/google")
+                        .setPackagePrefix("com.google.changed")
+                        .build())
+                .addSource(
+                    BlazeSourceDirectory.builder("/root/java/com/google/subpackage")
+                        .setPackagePrefix("com.google.other")
+                        .build())
+                .build());
+  }
+
   private ImportRoots buildImportRoots(
       ImmutableList<WorkspacePath> roots, ImmutableList<WorkspacePath> excluded) {
     ImportRoots.Builder builder = ImportRoots.builder(workspaceRoot, BuildSystemName.Blaze);
@@ -1217,9 +1312,11 @@ public class SourceDirectoryCalculatorTest extends BlazeTestCase {
   }
 
   static class MockFileOperationProvider extends FileOperationProvider {
+    long modifiedTime = 1;
+
     @Override
     public long getFileModifiedTime(File file) {
-      return 1;
+      return modifiedTime;
     }
   }
 }
@@ -118,7 +118,6 @@ class KotlinBinaryContextProvider implements BinaryContextProvider {
 
   private static FilteredTargetMap computeTargetMap(Project project, BlazeProjectData projectData) {
     return new FilteredTargetMap(
-        project,
         projectData.getArtifactLocationDecoder(),
         projectData.getTargetMap(),
         KotlinBinaryContextProvider::possiblyRelevantTarget);
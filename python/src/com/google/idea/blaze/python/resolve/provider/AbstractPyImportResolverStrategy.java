@@ -16,15 +16,12 @@
 package com.google.idea.blaze.python.resolve.provider;
 
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSetMultimap;
 import com.google.idea.blaze.base.command.buildresult.OutputArtifactResolver;
 import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
 import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.model.primitives.LanguageClass;
-import com.google.idea.blaze.base.sync.SyncCache;
-import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
 import com.google.idea.blaze.python.resolve.BlazePyResolverUtils;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.text.StringUtil;
@@ -40,8 +37,6 @@ import com.jetbrains.python.psi.PyUtil;
 import com.jetbrains.python.psi.resolve.PyQualifiedNameResolveContext;
 import java.io.File;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
 import javax.annotation.Nullable;
 
 /**
@@ -54,29 +49,29 @@ public abstract class AbstractPyImportResolverStrategy implements PyImportResolv
   @Override
   public final PsiElement resolveFromSyncData(
       QualifiedName name, PyQualifiedNameResolveContext context) {
-    PySourcesIndex index = getSourcesIndex(context.getProject());
+    PyModuleIndex index = PyModuleIndexService.getInstance(context.getProject()).getIndex(this);
     if (index == null) {
       return null;
     }
-    PsiElementProvider resolver = index.sourceMap.get(name);
-    return resolver != null ? resolver.get(context.getPsiManager()) : null;
+    PyModuleIndex.Source source = index.find(name);
+    return source != null ? resolve(context.getProject(), context.getPsiManager(), source) : null;
   }
 
   @Override
   public final void addImportCandidates(
       PsiReference reference, String name, AutoImportQuickFix quickFix) {
     Project project = reference.getElement().getProject();
-    PySourcesIndex index = getSourcesIndex(project);
+    PyModuleIndex index = PyModuleIndexService.getInstance(project).getIndex(this);
     if (index == null) {
       return;
     }
     PsiManager psiManager = PsiManager.getInstance(project);
-    for (QualifiedName candidate : index.shortNames.get(name)) {
-      PsiElementProvider resolver = index.sourceMap.get(candidate);
-      if (resolver == null) {
+    for (QualifiedName candidate : index.findByShortName(name)) {
+      PyModuleIndex.Source source = index.find(candidate);
+      if (source == null) {
         continue;
       }
-      PsiElement psi = PyUtil.turnDirIntoInit(resolver.get(psiManager));
+      PsiElement psi = PyUtil.turnDirIntoInit(resolve(project, psiManager, source));
       if (psi == null) {
         continue;
       }
@@ -87,45 +82,43 @@ public abstract class AbstractPyImportResolverStrategy implements PyImportResolv
     }
   }
 
-  @Nullable
-  private PySourcesIndex getSourcesIndex(Project project) {
-    return SyncCache.getInstance(project).get(getClass(), this::buildSourcesIndex);
-  }
-
-  @SuppressWarnings("unused")
-  private PySourcesIndex buildSourcesIndex(Project project, BlazeProjectData projectData) {
-    ImmutableSetMultimap.Builder<String, QualifiedName> shortNames = ImmutableSetMultimap.builder();
-    Map<QualifiedName, PsiElementProvider> map = new HashMap<>();
-    ArtifactLocationDecoder decoder = projectData.getArtifactLocationDecoder();
+  /** Builds the index of import strings for all python sources in the project. */
+  PyModuleIndex buildModuleIndex(BlazeProjectData projectData) {
+    PyModuleIndex.Builder index = new PyModuleIndex.Builder();
     for (TargetIdeInfo target : projectData.getTargetMap().targets()) {
       for (ArtifactLocation source : getPySources(target)) {
         QualifiedName name = toImportString(source);
         if (name == null || name.getLastComponent() == null) {
           continue;
         }
-        shortNames.put(name.getLastComponent(), name);
-        PsiElementProvider psiProvider = psiProviderFromArtifact(project, decoder, source);
-        map.put(name, psiProvider);
-        if (includeParentDirectory(source)) {
-          map.put(name.removeTail(1), PsiElementProvider.getParent(psiProvider));
-        }
+        index.addSource(name, source, includeParentDirectory(source));
       }
     }
-    return new PySourcesIndex(shortNames.build(), ImmutableMap.copyOf(map));
+    return index.build();
   }
 
-  private static PsiElementProvider psiProviderFromArtifact(
-      Project project, ArtifactLocationDecoder decoder, ArtifactLocation source) {
-    return (manager) -> {
-      File file = OutputArtifactResolver.resolve(project, decoder, source);
-      if (file == null) {
-        return null;
-      }
-      if (PyNames.INIT_DOT_PY.equals(file.getName())) {
-        file = file.getParentFile();
-      }
-      return BlazePyResolverUtils.resolveFile(manager, file);
-    };
+  @Nullable
+  private static PsiElement resolve(
+      Project project, PsiManager manager, PyModuleIndex.Source source) {
+    BlazeProjectData projectData =
+        BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
+    if (projectData == null) {
+      return null;
+    }
+    File file =
+        OutputArtifactResolver.resolve(
+            project, projectData.getArtifactLocationDecoder(), source.file);
+    if (file == null) {
+      return null;
+    }
+    if (PyNames.INIT_DOT_PY.equals(file.getName())) {
+      file = file.getParentFile();
+    }
+    PsiElement psi = BlazePyResolverUtils.resolveFile(manager, file);
+    if (source.parentDirectory) {
+      return psi != null ? psi.getParent() : null;
+    }
+    return psi;
   }
 
   private static Collection<ArtifactLocation> getPySources(TargetIdeInfo target) {
@@ -0,0 +1,313 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.python.resolve.provider;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Lists;
+import com.google.devtools.intellij.aspect.Common;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.intellij.psi.util.QualifiedName;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * An index from python import strings to the sources they refer to.
+ *
+ * <p>Import strings are stored in a trie keyed by name component, supporting exact lookup, prefix
+ * completion and lookup by the last name component (for auto-import). Entries refer to sources by
+ * their position in a shared file table, so the index stays compact for large projects and can be
+ * persisted between IDE sessions.
+ */
+final class PyModuleIndex {
+
+  private static final int SERIAL_VERSION = 1;
+
+  /** Entry reference of a trie node which doesn't correspond to an import string. */
+  private static final int NO_ENTRY = -1;
+
+  /** Set on entry references which refer to the directory containing the source. */
+  private static final int PARENT_DIRECTORY_BIT = 1;
+
+  private final ImmutableList<ArtifactLocation> files;
+  private final Node root;
+  private final ImmutableSetMultimap<String, Node> shortNames;
+
+  private PyModuleIndex(
+      ImmutableList<ArtifactLocation> files,
+      Node root,
+      ImmutableSetMultimap<String, Node> shortNames) {
+    this.files = files;
+    this.root = root;
+    this.shortNames = shortNames;
+  }
+
+  /** The source an import string refers to. */
+  static final class Source {
+    final ArtifactLocation file;
+
+    /** True if the import string refers to the directory containing {@link #file}. */
+    final boolean parentDirectory;
+
+    private Source(ArtifactLocation file, boolean parentDirectory) {
+      this.file = file;
+      this.parentDirectory = parentDirectory;
+    }
+  }
+
+  /** Returns the source the given import string refers to, or null if it's not indexed. */
+  @Nullable
+  Source find(QualifiedName name) {
+    Node node = root;
+    for (String component : name.getComponents()) {
+      node = node.child(component);
+      if (node == null) {
+        return null;
+      }
+    }
+    return toSource(node.ref);
+  }
+
+  /** Returns the import strings of all sources whose module name is {@code shortName}. */
+  ImmutableList<QualifiedName> findByShortName(String shortName) {
+    ImmutableList.Builder<QualifiedName> names = ImmutableList.builder();
+    for (Node node : shortNames.get(shortName)) {
+      names.add(node.qualifiedName());
+    }
+    return names.build();
+  }
+
+  /**
+   * Returns up to {@code limit} indexed import strings starting with {@code prefix}, in
+   * lexicographic order. The last component of the prefix may be incomplete, e.g. {@code foo.ba}
+   * matches both {@code foo.bar} and {@code foo.baz.qux}.
+   */
+  ImmutableList<QualifiedName> findByPrefix(QualifiedName prefix, int limit) {
+    List<String> components = prefix.getComponents();
+    if (components.isEmpty()) {
+      return collect(ImmutableList.of(root), limit);
+    }
+    Node node = root;
+    for (String component : components.subList(0, components.size() - 1)) {
+      node = node.child(component);
+      if (node == null) {
+        return ImmutableList.of();
+      }
+    }
+    String partial = components.get(components.size() - 1);
+    List<Node> matches = new ArrayList<>();
+    for (Node child : node.sortedChildren()) {
+      if (child.component.startsWith(partial)) {
+        matches.add(child);
+      }
+    }
+    return collect(matches, limit);
+  }
+
+  private static ImmutableList<QualifiedName> collect(List<Node> roots, int limit) {
+    ImmutableList.Builder<QualifiedName> names = ImmutableList.builder();
+    int count = 0;
+    Deque<Node> toVisit = new ArrayDeque<>();
+    for (int i = roots.size() - 1; i >= 0; i--) {
+      toVisit.push(roots.get(i));
+    }
+    while (!toVisit.isEmpty() && count < limit) {
+      Node node = toVisit.pop();
+      if (node.ref != NO_ENTRY) {
+        names.add(node.qualifiedName());
+        count++;
+      }
+      List<Node> children = node.sortedChildren();
+      for (int i = children.size() - 1; i >= 0; i--) {
+        toVisit.push(children.get(i));
+      }
+    }
+    return names.build();
+  }
+
+  /** Returns the number of indexed import strings. */
+  int size() {
+    int size = 0;
+    Deque<Node> toVisit = new ArrayDeque<>();
+    toVisit.push(root);
+    while (!toVisit.isEmpty()) {
+      Node node = toVisit.pop();
+      if (node.ref != NO_ENTRY) {
+        size++;
+      }
+      node.children.values().forEach(toVisit::push);
+    }
+    return size;
+  }
+
+  @Nullable
+  private Source toSource(int ref) {
+    if (ref == NO_ENTRY) {
+      return null;
+    }
+    return new Source(files.get(ref >>> 1), (ref & PARENT_DIRECTORY_BIT) != 0);
+  }
+
+  void writeTo(DataOutputStream out) throws IOException {
+    out.writeInt(SERIAL_VERSION);
+    out.writeInt(files.size());
+    for (ArtifactLocation file : files) {
+      file.toProto().writeDelimitedTo(out);
+    }
+    ImmutableSet<Node> shortNameNodes = ImmutableSet.copyOf(shortNames.values());
+    writeNode(root, shortNameNodes, out);
+  }
+
+  private static void writeNode(Node node, ImmutableSet<Node> shortNameNodes, DataOutputStream out)
+      throws IOException {
+    out.writeUTF(node.component);
+    out.writeInt(node.ref);
+    out.writeBoolean(shortNameNodes.contains(node));
+    out.writeInt(node.children.size());
+    for (Node child : node.children.values()) {
+      writeNode(child, shortNameNodes, out);
+    }
+  }
+
+  static PyModuleIndex readFrom(DataInputStream in) throws IOException {
+    int version = in.readInt();
+    if (version != SERIAL_VERSION) {
+      throw new IOException("Unsupported python module index version " + version);
+    }
+    int fileCount = in.readInt();
+    ImmutableList.Builder<ArtifactLocation> files =
+        ImmutableList.builderWithExpectedSize(fileCount);
+    for (int i = 0; i < fileCount; i++) {
+      Common.ArtifactLocation proto = Common.ArtifactLocation.parseDelimitedFrom(in);
+      if (proto == null) {
+        throw new IOException("Truncated python module index");
+      }
+      files.add(ArtifactLocation.fromProto(proto));
+    }
+    ImmutableSetMultimap.Builder<String, Node> shortNames = ImmutableSetMultimap.builder();
+    Node root = readNode(null, in, shortNames);
+    return new PyModuleIndex(files.build(), root, shortNames.build());
+  }
+
+  private static Node readNode(
+      @Nullable Node parent,
+      DataInputStream in,
+      ImmutableSetMultimap.Builder<String, Node> shortNames)
+      throws IOException {
+    Node node = new Node(parent, in.readUTF());
+    node.ref = in.readInt();
+    if (in.readBoolean()) {
+      shortNames.put(node.component, node);
+    }
+    int childCount = in.readInt();
+    for (int i = 0; i < childCount; i++) {
+      Node child = readNode(node, in, shortNames);
+      node.children.put(child.component, child);
+    }
+    return node;
+  }
+
+  /** A node in the trie of import strings, for a single name component. */
+  private static final class Node {
+    @Nullable private final Node parent;
+    private final String component;
+    private final Map<String, Node> children = new HashMap<>(2);
+    private int ref = NO_ENTRY;
+
+    Node(@Nullable Node parent, String component) {
+      this.parent = parent;
+      this.component = component;
+    }
+
+    @Nullable
+    Node child(String component) {
+      return children.get(component);
+    }
+
+    Node getOrCreateChild(String component) {
+      return children.computeIfAbsent(component, c -> new Node(this, c));
+    }
+
+    List<Node> sortedChildren() {
+      List<Node> sorted = new ArrayList<>(children.values());
+      sorted.sort((a, b) -> a.component.compareTo(b.component));
+      return sorted;
+    }
+
+    QualifiedName qualifiedName() {
+      List<String> components = new ArrayList<>();
+      for (Node node = this; node.parent != null; node = node.parent) {
+        components.add(node.component);
+      }
+      return QualifiedName.fromComponents(Lists.reverse(components));
+    }
+  }
+
+  /** Builder for {@link PyModuleIndex}. */
+  static final class Builder {
+    private final List<ArtifactLocation> files = new ArrayList<>();
+    private final Map<ArtifactLocation, Integer> fileIds = new HashMap<>();
+    private final Node root = new Node(null, "");
+    private final ImmutableSetMultimap.Builder<String, Node> shortNames =
+        ImmutableSetMultimap.builder();
+
+    /**
+     * Indexes a python source.
+     *
+     * @param name the import string referring to the source.
+     * @param includeParentDirectory whether the parent of {@code name} refers to the directory
+     *     containing the source.
+     */
+    @CanIgnoreReturnValue
+    Builder addSource(QualifiedName name, ArtifactLocation source, boolean includeParentDirectory) {
+      Integer fileId = fileIds.get(source);
+      if (fileId == null) {
+        fileId = files.size();
+        files.add(source);
+        fileIds.put(source, fileId);
+      }
+      Node node = getOrCreateNode(name);
+      node.ref = fileId << 1;
+      shortNames.put(node.component, node);
+      if (includeParentDirectory) {
+        getOrCreateNode(name.removeTail(1)).ref = (fileId << 1) | PARENT_DIRECTORY_BIT;
+      }
+      return this;
+    }
+
+    private Node getOrCreateNode(QualifiedName name) {
+      Node node = root;
+      for (String component : name.getComponents()) {
+        node = node.getOrCreateChild(component);
+      }
+      return node;
+    }
+
+    PyModuleIndex build() {
+      return new PyModuleIndex(ImmutableList.copyOf(files), root, shortNames.build());
+    }
+  }
+}
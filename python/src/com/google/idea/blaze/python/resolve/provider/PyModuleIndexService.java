@@ -0,0 +1,243 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.python.resolve.provider;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.projectview.ProjectViewSet;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.settings.Blaze;
+import com.google.idea.blaze.base.settings.BlazeImportSettings;
+import com.google.idea.blaze.base.settings.BlazeImportSettings.ProjectType;
+import com.google.idea.blaze.base.settings.BlazeImportSettingsManager;
+import com.google.idea.blaze.base.settings.BuildSystemName;
+import com.google.idea.blaze.base.sync.SyncListener;
+import com.google.idea.blaze.base.sync.SyncMode;
+import com.google.idea.blaze.base.sync.SyncResult;
+import com.google.idea.blaze.base.sync.data.BlazeDataStorage;
+import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.Nullable;
+
+/**
+ * Holds the {@link PyModuleIndex} of each {@link AbstractPyImportResolverStrategy}.
+ *
+ * <p>Indexes are built in the background as soon as a sync completes, and persisted to the project
+ * data directory so that they're available as soon as the project is reopened. They're only built
+ * on demand if neither is possible, e.g. for the first import resolution after upgrading.
+ */
+public final class PyModuleIndexService {
+
+  private static final Logger logger = Logger.getInstance(PyModuleIndexService.class);
+
+  private static final String INDEX_DIRECTORY = "python_module_index";
+
+  /** Serializes index builds, so that a slow build never overwrites a newer index. */
+  private static final Executor BUILD_EXECUTOR =
+      AppExecutorUtil.createBoundedApplicationPoolExecutor("PyModuleIndexBuilder", 1);
+
+  private final Project project;
+  private final Map<String, PyModuleIndex> indexes = new ConcurrentHashMap<>();
+
+  public PyModuleIndexService(Project project) {
+    this.project = project;
+  }
+
+  static PyModuleIndexService getInstance(Project project) {
+    return project.getService(PyModuleIndexService.class);
+  }
+
+  /**
+   * Returns the index for the given strategy, reading it from disk or building it if necessary.
+   * Returns null if the project hasn't been synced.
+   */
+  @Nullable
+  PyModuleIndex getIndex(AbstractPyImportResolverStrategy strategy) {
+    String key = getIndexKey(strategy);
+    PyModuleIndex index = indexes.get(key);
+    if (index != null) {
+      return index;
+    }
+    synchronized (this) {
+      index = indexes.get(key);
+      if (index != null) {
+        return index;
+      }
+      BlazeProjectData projectData =
+          BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
+      if (projectData == null) {
+        return null;
+      }
+      Path indexFile = getIndexFile(key);
+      index = indexFile != null ? readIndex(indexFile) : null;
+      if (index == null) {
+        index = strategy.buildModuleIndex(projectData);
+        if (indexFile != null) {
+          writeIndex(indexFile, index);
+        }
+      }
+      indexes.put(key, index);
+      return index;
+    }
+  }
+
+  /** Deletes the persisted indexes, which won't be valid once the sync completes. */
+  private void onSyncStart() {
+    for (AbstractPyImportResolverStrategy strategy : getStrategies()) {
+      Path indexFile = getIndexFile(getIndexKey(strategy));
+      if (indexFile == null) {
+        continue;
+      }
+      try {
+        Files.deleteIfExists(indexFile);
+      } catch (IOException e) {
+        logger.warn("Failed to delete python module index " + indexFile, e);
+      }
+    }
+  }
+
+  /**
+   * Rebuilds the indexes from the new project data in the background. The previous indexes are
+   * used until then.
+   */
+  private void onSyncComplete(BlazeProjectData projectData) {
+    BUILD_EXECUTOR.execute(
+        () -> {
+          for (AbstractPyImportResolverStrategy strategy : getStrategies()) {
+            if (project.isDisposed()) {
+              return;
+            }
+            String key = getIndexKey(strategy);
+            PyModuleIndex index = strategy.buildModuleIndex(projectData);
+            synchronized (this) {
+              indexes.put(key, index);
+              Path indexFile = getIndexFile(key);
+              if (indexFile != null) {
+                writeIndex(indexFile, index);
+              }
+            }
+          }
+        });
+  }
+
+  private ImmutableList<AbstractPyImportResolverStrategy> getStrategies() {
+    BuildSystemName buildSystemName = Blaze.getBuildSystemName(project);
+    ImmutableList.Builder<AbstractPyImportResolverStrategy> strategies = ImmutableList.builder();
+    for (PyImportResolverStrategy strategy : PyImportResolverStrategy.EP_NAME.getExtensions()) {
+      if (strategy instanceof AbstractPyImportResolverStrategy
+          && strategy.appliesToBuildSystem(buildSystemName)) {
+        strategies.add((AbstractPyImportResolverStrategy) strategy);
+      }
+    }
+    return strategies.build();
+  }
+
+  private static String getIndexKey(AbstractPyImportResolverStrategy strategy) {
+    return strategy.getClass().getName();
+  }
+
+  @Nullable
+  private Path getIndexFile(String key) {
+    BlazeImportSettings importSettings =
+        BlazeImportSettingsManager.getInstance(project).getImportSettings();
+    if (importSettings == null) {
+      return null;
+    }
+    return BlazeDataStorage.getProjectDataDir(importSettings)
+        .toPath()
+        .resolve(INDEX_DIRECTORY)
+        .resolve(key + ".gz");
+  }
+
+  @Nullable
+  private static PyModuleIndex readIndex(Path file) {
+    if (!Files.exists(file)) {
+      return null;
+    }
+    try (DataInputStream in =
+        new DataInputStream(
+            new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+      return PyModuleIndex.readFrom(in);
+    } catch (IOException e) {
+      logger.warn("Failed to read python module index " + file, e);
+      return null;
+    }
+  }
+
+  private static void writeIndex(Path file, PyModuleIndex index) {
+    try {
+      Files.createDirectories(file.getParent());
+      Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+      try (DataOutputStream out =
+          new DataOutputStream(
+              new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmp))))) {
+        index.writeTo(out);
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      logger.warn("Failed to write python module index " + file, e);
+    }
+  }
+
+  /** Keeps the python module indexes up to date with each sync. */
+  static class UpdateIndexes implements SyncListener {
+    @Override
+    public void onSyncStart(Project project, BlazeContext context, SyncMode syncMode) {
+      if (isQuerySync(project)) {
+        return;
+      }
+      getInstance(project).onSyncStart();
+    }
+
+    @Override
+    public void onSyncComplete(
+        Project project,
+        BlazeContext context,
+        BlazeImportSettings importSettings,
+        ProjectViewSet projectViewSet,
+        ImmutableSet<Integer> buildIds,
+        BlazeProjectData blazeProjectData,
+        SyncMode syncMode,
+        SyncResult syncResult) {
+      if (importSettings.getProjectType() == ProjectType.QUERY_SYNC) {
+        return;
+      }
+      getInstance(project).onSyncComplete(blazeProjectData);
+    }
+
+    private static boolean isQuerySync(Project project) {
+      BlazeImportSettings importSettings =
+          BlazeImportSettingsManager.getInstance(project).getImportSettings();
+      return importSettings != null && importSettings.getProjectType() == ProjectType.QUERY_SYNC;
+    }
+  }
+}
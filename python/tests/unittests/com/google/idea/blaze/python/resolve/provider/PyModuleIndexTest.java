@@ -0,0 +1,119 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.python.resolve.provider;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.intellij.psi.util.QualifiedName;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link PyModuleIndex}. */
+@RunWith(JUnit4.class)
+public class PyModuleIndexTest {
+
+  private static final ArtifactLocation BAR = source("foo/bar.py");
+  private static final ArtifactLocation BAZ = source("foo/baz/__init__.py");
+  private static final ArtifactLocation QUX = source("foo/baz/qux.py");
+  private static final ArtifactLocation OTHER_BAR = source("other/bar.py");
+
+  @Test
+  public void testFind() {
+    PyModuleIndex index = buildIndex();
+
+    PyModuleIndex.Source bar = index.find(name("foo.bar"));
+    assertThat(bar.file).isEqualTo(BAR);
+    assertThat(bar.parentDirectory).isFalse();
+    assertThat(index.find(name("foo.baz")).file).isEqualTo(BAZ);
+    assertThat(index.find(name("foo.missing"))).isNull();
+  }
+
+  @Test
+  public void testFind_parentDirectory() {
+    PyModuleIndex index = buildIndex();
+
+    PyModuleIndex.Source foo = index.find(name("foo"));
+    assertThat(foo.parentDirectory).isTrue();
+    assertThat(index.find(name("other")).file).isEqualTo(OTHER_BAR);
+  }
+
+  @Test
+  public void testFindByShortName() {
+    PyModuleIndex index = buildIndex();
+
+    assertThat(index.findByShortName("bar"))
+        .containsExactly(name("foo.bar"), name("other.bar"));
+    assertThat(index.findByShortName("qux")).containsExactly(name("foo.baz.qux"));
+    // parent directories aren't auto-import candidates
+    assertThat(index.findByShortName("other")).isEmpty();
+  }
+
+  @Test
+  public void testFindByPrefix() {
+    PyModuleIndex index = buildIndex();
+
+    assertThat(index.findByPrefix(name("foo.ba"), 10))
+        .containsExactly(name("foo.bar"), name("foo.baz"), name("foo.baz.qux"))
+        .inOrder();
+    assertThat(index.findByPrefix(name("foo.baz.q"), 10)).containsExactly(name("foo.baz.qux"));
+    assertThat(index.findByPrefix(name("foo.ba"), 2))
+        .containsExactly(name("foo.bar"), name("foo.baz"))
+        .inOrder();
+    assertThat(index.findByPrefix(name("missing.b"), 10)).isEmpty();
+  }
+
+  @Test
+  public void testSerializationRoundTrip() throws Exception {
+    PyModuleIndex index = buildIndex();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    index.writeTo(new DataOutputStream(bytes));
+
+    PyModuleIndex read =
+        PyModuleIndex.readFrom(
+            new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+    assertThat(read.size()).isEqualTo(index.size());
+    assertThat(read.find(name("foo.baz.qux")).file).isEqualTo(QUX);
+    assertThat(read.find(name("foo")).parentDirectory).isTrue();
+    assertThat(read.findByShortName("bar")).containsExactly(name("foo.bar"), name("other.bar"));
+    QualifiedName all = QualifiedName.fromComponents();
+    assertThat(read.findByPrefix(all, 100)).isEqualTo(index.findByPrefix(all, 100));
+  }
+
+  private static PyModuleIndex buildIndex() {
+    // later sources take precedence, so foo.baz refers to its __init__.py rather than the directory
+    return new PyModuleIndex.Builder()
+        .addSource(name("foo.baz.qux"), QUX, true)
+        .addSource(name("foo.baz"), BAZ, true)
+        .addSource(name("foo.bar"), BAR, true)
+        .addSource(name("other.bar"), OTHER_BAR, true)
+        .build();
+  }
+
+  private static QualifiedName name(String name) {
+    return QualifiedName.fromDottedString(name);
+  }
+
+  private static ArtifactLocation source(String relativePath) {
+    return ArtifactLocation.builder().setRelativePath(relativePath).setIsSource(true).build();
+  }
+}
@@ -30,9 +30,9 @@ import com.google.idea.blaze.common.vcs.WorkspaceFileChange;
 import com.google.idea.blaze.common.vcs.WorkspaceFileChange.Operation;
 import com.google.idea.blaze.qsync.query.PackageSet;
 import com.google.idea.blaze.qsync.query.QuerySummary;
+import com.google.idea.blaze.qsync.query.ReverseLoadIndex;
 import java.nio.file.Path;
 import java.util.List;
-import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 
@@ -50,6 +50,8 @@ public abstract class AffectedPackagesCalculator {
 
   abstract QuerySummary lastQuery();
 
+  abstract ReverseLoadIndex reverseLoadIndex();
+
   abstract ImmutableSet<WorkspaceFileChange> changedFiles();
 
   static Builder builder() {
@@ -129,13 +131,13 @@ public abstract class AffectedPackagesCalculator {
       }
     }
 
-    // Find BUILD files that have been affected by edits to a subinclude (.bzl file)
+    // Find BUILD files that have been affected by edits to a subinclude (.bzl file), either
+    // directly or via another .bzl file
     ImmutableList<Path> affectedBySubinclude =
         changedFiles().stream()
             .map(c -> c.workspaceRelativePath)
-            .flatMap(path -> lastQuery().getReverseSubincludeMap().get(path).stream())
-            .filter(Objects::nonNull)
-            .filter(path -> path.endsWith("BUILD"))
+            .flatMap(path -> reverseLoadIndex().getLoadingBuildFiles(path).stream())
+            .distinct()
             .collect(toImmutableList());
 
     long nonProjectBuildAffectedCount =
@@ -259,8 +261,25 @@ public abstract class AffectedPackagesCalculator {
 
     public abstract Builder lastQuery(QuerySummary value);
 
+    /**
+     * Sets the reverse load index for {@link #lastQuery}. If not set, it is calculated from it
+     * when {@link #build()} is called.
+     */
+    public abstract Builder reverseLoadIndex(ReverseLoadIndex value);
+
     public abstract Builder changedFiles(Set<WorkspaceFileChange> value);
 
-    public abstract AffectedPackagesCalculator build();
+    abstract QuerySummary lastQuery();
+
+    abstract Optional<ReverseLoadIndex> reverseLoadIndex();
+
+    abstract AffectedPackagesCalculator autoBuild();
+
+    public AffectedPackagesCalculator build() {
+      if (reverseLoadIndex().isEmpty()) {
+        reverseLoadIndex(ReverseLoadIndex.create(lastQuery()));
+      }
+      return autoBuild();
+    }
   }
 }
@@ -15,18 +15,30 @@
  */
 package com.google.idea.blaze.qsync;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.idea.blaze.common.Context;
+import com.google.idea.blaze.common.PrintOutput;
 import com.google.idea.blaze.exception.BuildException;
 import com.google.idea.blaze.qsync.project.BlazeProjectSnapshot;
 import com.google.idea.blaze.qsync.project.BuildGraphData;
+import com.google.idea.blaze.qsync.project.DerivedSnapshot;
 import com.google.idea.blaze.qsync.project.PostQuerySyncData;
 import com.google.idea.blaze.qsync.project.ProjectProto;
 import com.google.idea.blaze.qsync.project.ProjectProto.Project;
+import com.google.idea.blaze.qsync.project.SnapshotSerializer;
 import com.google.idea.blaze.qsync.query.QuerySummary;
+import com.google.protobuf.CodedOutputStream;
+import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Optional;
 import java.util.function.Supplier;
+import javax.annotation.Nullable;
 
 /**
  * Project refresher creates an appropriate {@link RefreshOperation} based on the project and
@@ -39,18 +51,31 @@ public class BlazeProjectSnapshotBuilder {
   private final Path workspaceRoot;
   private final ImmutableSet<String> handledRuleKinds;
   private final Supplier<Boolean> ccEnabledFlag;
+  private final String derivationVersion;
+
+  /** The most recently derived state, reused for as long as its inputs are unchanged. */
+  @Nullable private volatile DerivedSnapshot derivedSnapshot;
+
+  /** The input hash of the most recently hashed {@link PostQuerySyncData} instance. */
+  @Nullable private volatile HashedInput lastHashedInput;
 
+  /**
+   * @param derivationVersion identifies the code deriving the project structure, e.g. the plugin
+   *     version. State derived by a different version is never reused.
+   */
   public BlazeProjectSnapshotBuilder(
       ListeningExecutorService executor,
       PackageReader workspaceRelativePackageReader,
       Path workspaceRoot,
       ImmutableSet<String> handledRuleKinds,
-      Supplier<Boolean> ccEnabledFlag) {
+      Supplier<Boolean> ccEnabledFlag,
+      String derivationVersion) {
     this.executor = executor;
     this.workspaceRelativePackageReader = workspaceRelativePackageReader;
     this.workspaceRoot = workspaceRoot;
     this.handledRuleKinds = handledRuleKinds;
     this.ccEnabledFlag = ccEnabledFlag;
+    this.derivationVersion = derivationVersion;
   }
 
   /** {@code Function<ProjectProto.Project, ProjectProto.Project>} that can throw exceptions. */
@@ -63,12 +88,39 @@ public class BlazeProjectSnapshotBuilder {
    * Creates a {@link BlazeProjectSnapshot}, which includes an expected IDE project structure, from
    * the {@code postQuerySyncData} and a function {@code applyBuiltDependenciesTransform} that
    * applies transformations required to account for any currently synced(i.e. built) dependencies.
+   *
+   * <p>The build graph and project structure are only derived again if their inputs have changed
+   * since they were last derived; the transform is always applied.
    */
   public BlazeProjectSnapshot createBlazeProjectSnapshot(
       Context<?> context,
       PostQuerySyncData postQuerySyncData,
       ProjectProtoTransform applyBuiltDependenciesTransform)
       throws BuildException {
+    String inputHash = hashInputs(postQuerySyncData);
+    DerivedSnapshot derived = derivedSnapshot;
+    if (derived != null && derived.inputHash().equals(inputHash)) {
+      context.output(PrintOutput.log("Project structure is unchanged, reusing it"));
+    } else {
+      derived = derive(context, postQuerySyncData, inputHash);
+      derivedSnapshot = derived;
+    }
+    Project project = null;
+    try {
+      project = applyBuiltDependenciesTransform.apply(derived.project());
+    } catch (Exception e) {
+      throw new BuildException(e);
+    }
+    return BlazeProjectSnapshot.builder()
+        .queryData(postQuerySyncData)
+        .graph(derived.graph())
+        .project(project)
+        .build();
+  }
+
+  private DerivedSnapshot derive(
+      Context<?> context, PostQuerySyncData postQuerySyncData, String inputHash)
+      throws BuildException {
     Path effectiveWorkspaceRoot =
         postQuerySyncData.vcsState().flatMap(s -> s.workspaceSnapshotPath).orElse(workspaceRoot);
     WorkspaceResolvingPackageReader packageReader =
@@ -85,14 +137,77 @@ public class BlazeProjectSnapshotBuilder {
         new BlazeQueryParser(querySummary, context, handledRuleKinds, ccEnabledFlag).parse();
     Project project = null;
     try {
-      project = applyBuiltDependenciesTransform.apply(graphToProjectConverter.createProject(graph));
+      project = graphToProjectConverter.createProject(graph);
     } catch (Exception e) {
       throw new BuildException(e);
     }
-    return BlazeProjectSnapshot.builder()
-        .queryData(postQuerySyncData)
-        .graph(graph)
-        .project(project)
-        .build();
+    return DerivedSnapshot.create(inputHash, graph, project);
+  }
+
+  /**
+   * Returns the most recently derived build graph and project structure, e.g. to persist them so
+   * they can be restored when the project is next loaded.
+   */
+  public Optional<DerivedSnapshot> getDerivedSnapshot() {
+    return Optional.ofNullable(derivedSnapshot);
+  }
+
+  /**
+   * Restores a previously derived build graph and project structure. It's reused by {@link
+   * #createBlazeProjectSnapshot} only if it was derived from the same inputs.
+   */
+  public void setDerivedSnapshot(DerivedSnapshot derivedSnapshot) {
+    this.derivedSnapshot = derivedSnapshot;
+  }
+
+  /**
+   * Returns true if a snapshot can be created for {@code postQuerySyncData} without deriving the
+   * build graph and project structure again.
+   */
+  public boolean hasDerivedSnapshotFor(PostQuerySyncData postQuerySyncData) throws BuildException {
+    DerivedSnapshot derived = derivedSnapshot;
+    return derived != null && derived.inputHash().equals(hashInputs(postQuerySyncData));
+  }
+
+  /**
+   * Hashes everything that the derived state depends on: the persisted query data, the parts of
+   * the project definition which aren't persisted with it, and the configuration of this builder.
+   */
+  private String hashInputs(PostQuerySyncData postQuerySyncData) throws BuildException {
+    HashedInput last = lastHashedInput;
+    if (last != null && last.input == postQuerySyncData) {
+      return last.hash;
+    }
+    Hasher hasher = Hashing.sha256().newHasher();
+    hasher.putInt(DerivedSnapshot.PROTO_VERSION);
+    hasher.putString(derivationVersion, UTF_8);
+    handledRuleKinds.stream()
+        .sorted()
+        .forEach(kind -> hasher.putString(kind, UTF_8).putByte((byte) 0));
+    hasher.putBoolean(ccEnabledFlag.get());
+    postQuerySyncData.projectDefinition().testSources().stream()
+        .sorted()
+        .forEach(source -> hasher.putString(source, UTF_8).putByte((byte) 0));
+    try {
+      CodedOutputStream out = CodedOutputStream.newInstance(Funnels.asOutputStream(hasher));
+      out.useDeterministicSerialization();
+      new SnapshotSerializer().visit(postQuerySyncData).toProto().writeTo(out);
+      out.flush();
+    } catch (IOException e) {
+      throw new BuildException(e);
+    }
+    String hash = hasher.hash().toString();
+    lastHashedInput = new HashedInput(postQuerySyncData, hash);
+    return hash;
+  }
+
+  private static class HashedInput {
+    final PostQuerySyncData input;
+    final String hash;
+
+    HashedInput(PostQuerySyncData input, String hash) {
+      this.input = input;
+      this.hash = hash;
+    }
   }
 }
@@ -84,6 +84,10 @@ class PartialProjectRefresh implements RefreshOperation {
         .setVcsState(currentVcsState)
         .setProjectDefinition(previousState.projectDefinition())
         .setQuerySummary(effectiveQuery)
+        .setReverseLoadIndex(
+            previousState
+                .reverseLoadIndex()
+                .applyDelta(deletedPackages, partialQuery, effectiveQuery))
         .build();
   }
 
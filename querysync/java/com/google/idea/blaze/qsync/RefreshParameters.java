@@ -128,6 +128,7 @@ public class RefreshParameters {
         .projectExcludes(currentProject.projectDefinition().projectExcludes())
         .changedFiles(changed)
         .lastQuery(currentProject.querySummary())
+        .reverseLoadIndex(currentProject.reverseLoadIndex())
         .build()
         .getAffectedPackages();
   }
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.qsync.project;
+
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.common.Label;
+import com.google.idea.blaze.qsync.project.BuildGraphData.Location;
+import com.google.idea.blaze.qsync.project.ProjectDefinition.LanguageClass;
+import com.google.idea.blaze.qsync.query.PackageSet;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Map;
+
+/** Converts {@link BuildGraphData} to and from its proto representation. */
+final class BuildGraphSerializer {
+
+  static SnapshotProto.BuildGraph toProto(BuildGraphData graph) {
+    SnapshotProto.BuildGraph.Builder proto = SnapshotProto.BuildGraph.newBuilder();
+    for (ProjectTarget target : graph.targetMap().values()) {
+      proto.addTargets(toProto(target));
+    }
+    for (Map.Entry<Label, Location> entry : graph.locations().entrySet()) {
+      Location location = entry.getValue();
+      proto.putLocations(
+          entry.getKey().toString(),
+          SnapshotProto.SourceLocation.newBuilder()
+              .setFile(location.file.toString())
+              .setRow(location.row)
+              .setColumn(location.column)
+              .build());
+    }
+    proto.addAllJavaSources(toStrings(graph.javaSources()));
+    proto.addAllPackages(toStrings(graph.packages().asPathSet()));
+    for (Map.Entry<Path, Label> entry : graph.fileToTarget().entrySet()) {
+      proto.putFileToTarget(entry.getKey().toString(), entry.getValue().toString());
+    }
+    proto.addAllProjectDeps(toStrings(graph.projectDeps()));
+    proto.addAllAllTargets(toStrings(graph.allTargets().toLabelSet()));
+    proto.addAllAndroidTargets(toStrings(graph.androidTargets()));
+    return proto.build();
+  }
+
+  static BuildGraphData fromProto(SnapshotProto.BuildGraph proto) {
+    BuildGraphData.Builder graph = BuildGraphData.builder();
+    for (SnapshotProto.GraphTarget target : proto.getTargetsList()) {
+      ProjectTarget projectTarget = fromProto(target);
+      graph.targetMapBuilder().put(projectTarget.label(), projectTarget);
+    }
+    for (Map.Entry<String, SnapshotProto.SourceLocation> entry :
+        proto.getLocationsMap().entrySet()) {
+      SnapshotProto.SourceLocation location = entry.getValue();
+      graph
+          .locationsBuilder()
+          .put(
+              Label.of(entry.getKey()),
+              new Location(
+                  location.getFile() + ":" + location.getRow() + ":" + location.getColumn()));
+    }
+    graph.javaSourcesBuilder().addAll(toLabels(proto.getJavaSourcesList()));
+    graph.packages(
+        new PackageSet(
+            proto.getPackagesList().stream().map(Path::of).collect(toImmutableSet())));
+    for (Map.Entry<String, String> entry : proto.getFileToTargetMap().entrySet()) {
+      graph.fileToTargetBuilder().put(Path.of(entry.getKey()), Label.of(entry.getValue()));
+    }
+    graph.projectDeps(toLabels(proto.getProjectDepsList()));
+    for (String target : proto.getAllTargetsList()) {
+      graph.allTargetsBuilder().add(Label.of(target));
+    }
+    graph.androidTargetsBuilder().addAll(toLabels(proto.getAndroidTargetsList()));
+    return graph.build();
+  }
+
+  private static SnapshotProto.GraphTarget toProto(ProjectTarget target) {
+    SnapshotProto.GraphTarget.Builder proto =
+        SnapshotProto.GraphTarget.newBuilder()
+            .setLabel(target.label().toString())
+            .setKind(target.kind())
+            .addAllDeps(toStrings(target.deps()))
+            .addAllRuntimeDeps(toStrings(target.runtimeDeps()))
+            .addAllSourceLabels(toStrings(target.sourceLabels()));
+    target.testApp().map(Label::toString).ifPresent(proto::setTestApp);
+    target.instruments().map(Label::toString).ifPresent(proto::setInstruments);
+    target.customPackage().ifPresent(proto::setCustomPackage);
+    target.languages().stream().map(LanguageClass::name).forEach(proto::addLanguages);
+    return proto.build();
+  }
+
+  private static ProjectTarget fromProto(SnapshotProto.GraphTarget proto) {
+    ProjectTarget.Builder target =
+        ProjectTarget.builder().label(Label.of(proto.getLabel())).kind(proto.getKind());
+    target.depsBuilder().addAll(toLabels(proto.getDepsList()));
+    target.runtimeDepsBuilder().addAll(toLabels(proto.getRuntimeDepsList()));
+    target.sourceLabelsBuilder().addAll(toLabels(proto.getSourceLabelsList()));
+    if (!proto.getTestApp().isEmpty()) {
+      target.testApp(Label.of(proto.getTestApp()));
+    }
+    if (!proto.getInstruments().isEmpty()) {
+      target.instruments(Label.of(proto.getInstruments()));
+    }
+    if (!proto.getCustomPackage().isEmpty()) {
+      target.customPackage(proto.getCustomPackage());
+    }
+    for (String language : proto.getLanguagesList()) {
+      target.languagesBuilder().add(LanguageClass.valueOf(language));
+    }
+    return target.build();
+  }
+
+  private static ImmutableSet<String> toStrings(Collection<?> values) {
+    return values.stream().map(Object::toString).collect(toImmutableSet());
+  }
+
+  private static ImmutableSet<Label> toLabels(Collection<String> values) {
+    return values.stream().map(Label::of).collect(toImmutableSet());
+  }
+
+  private BuildGraphSerializer() {}
+}
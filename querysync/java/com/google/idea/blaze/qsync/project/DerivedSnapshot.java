@@ -0,0 +1,73 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.qsync.project;
+
+import com.google.auto.value.AutoValue;
+import java.util.Optional;
+
+/**
+ * The state derived from a {@link PostQuerySyncData}: the build graph, and the project structure
+ * before any built dependencies are applied to it.
+ *
+ * <p>Deriving this is expensive for large projects, so it's persisted along with the hash of the
+ * inputs it was derived from. When the project is next loaded it can be reused if the inputs are
+ * unchanged, rather than being derived again.
+ */
+@AutoValue
+public abstract class DerivedSnapshot {
+
+  /** Incremented whenever the serialized form or the derivation logic changes. */
+  public static final int PROTO_VERSION = 1;
+
+  /** A hash of the {@link PostQuerySyncData} and any other inputs this was derived from. */
+  public abstract String inputHash();
+
+  public abstract BuildGraphData graph();
+
+  public abstract ProjectProto.Project project();
+
+  public static DerivedSnapshot create(
+      String inputHash, BuildGraphData graph, ProjectProto.Project project) {
+    return new AutoValue_DerivedSnapshot(inputHash, graph, project);
+  }
+
+  public SnapshotProto.DerivedSnapshot toProto() {
+    return SnapshotProto.DerivedSnapshot.newBuilder()
+        .setVersion(PROTO_VERSION)
+        .setInputHash(inputHash())
+        .setBuildGraph(BuildGraphSerializer.toProto(graph()))
+        .setProject(project())
+        .build();
+  }
+
+  /** Returns the deserialized state, or empty if it was written by an incompatible version. */
+  public static Optional<DerivedSnapshot> fromProto(SnapshotProto.DerivedSnapshot proto) {
+    if (proto.getVersion() != PROTO_VERSION) {
+      return Optional.empty();
+    }
+    return Optional.of(
+        create(
+            proto.getInputHash(),
+            BuildGraphSerializer.fromProto(proto.getBuildGraph()),
+            proto.getProject()));
+  }
+
+  /** Do not generate full contents in toString, this object can be very large. */
+  @Override
+  public final String toString() {
+    return String.format("DerivedSnapshot{inputHash=%s}", inputHash());
+  }
+}
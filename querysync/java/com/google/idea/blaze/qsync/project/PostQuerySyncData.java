@@ -22,6 +22,7 @@ import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import com.google.idea.blaze.common.vcs.VcsState;
 import com.google.idea.blaze.qsync.query.Query;
 import com.google.idea.blaze.qsync.query.QuerySummary;
+import com.google.idea.blaze.qsync.query.ReverseLoadIndex;
 import java.util.Optional;
 
 /**
@@ -56,12 +57,26 @@ public abstract class PostQuerySyncData {
   /** The summarised output from the query. */
   public abstract QuerySummary querySummary();
 
+  /**
+   * Index of loaded files to the BUILD files that load them, derived from {@link #querySummary()}.
+   */
+  public abstract ReverseLoadIndex reverseLoadIndex();
+
   public static Builder builder() {
     return new AutoValue_PostQuerySyncData.Builder();
   }
 
+  /**
+   * Returns a builder initialized with the values from this instance. The reverse load index is not
+   * copied, since it may not be valid for any new query summary set on the builder.
+   */
   @VisibleForTesting
-  public abstract Builder toBuilder();
+  public Builder toBuilder() {
+    return builder()
+        .setProjectDefinition(projectDefinition())
+        .setVcsState(vcsState())
+        .setQuerySummary(querySummary());
+  }
 
   /** Builder for {@link PostQuerySyncData}. */
   @AutoValue.Builder
@@ -78,6 +93,23 @@ public abstract class PostQuerySyncData {
       return setQuerySummary(QuerySummary.create(value));
     }
 
-    public abstract PostQuerySyncData build();
+    /**
+     * Sets the reverse load index. If not set, it is calculated from the query summary when {@link
+     * #build()} is called.
+     */
+    public abstract Builder setReverseLoadIndex(ReverseLoadIndex value);
+
+    abstract QuerySummary querySummary();
+
+    abstract Optional<ReverseLoadIndex> reverseLoadIndex();
+
+    abstract PostQuerySyncData autoBuild();
+
+    public PostQuerySyncData build() {
+      if (reverseLoadIndex().isEmpty()) {
+        setReverseLoadIndex(ReverseLoadIndex.create(querySummary()));
+      }
+      return autoBuild();
+    }
   }
 }
@@ -19,6 +19,7 @@ import static com.google.common.collect.ImmutableSet.toImmutableSet;
 
 import com.google.common.collect.ImmutableBiMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import com.google.idea.blaze.common.Context;
 import com.google.idea.blaze.common.PrintOutput;
@@ -27,10 +28,12 @@ import com.google.idea.blaze.common.vcs.WorkspaceFileChange;
 import com.google.idea.blaze.common.vcs.WorkspaceFileChange.Operation;
 import com.google.idea.blaze.qsync.project.SnapshotProto.ProjectDefinition.LanguageClass;
 import com.google.idea.blaze.qsync.query.Query;
+import com.google.idea.blaze.qsync.query.ReverseLoadIndex;
 import com.google.protobuf.ExtensionRegistry;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
+import java.util.Map;
 import java.util.Optional;
 
 /** Deserializes a {@link PostQuerySyncData} instance from an input stream. */
@@ -62,6 +65,7 @@ public class SnapshotDeserializer {
       visitVcsState(proto.getVcsState());
     }
     visitQuerySummay(proto.getQuerySummary());
+    visitReverseLoadIndex(proto.getReverseLoadIndex());
     return Optional.of(this);
   }
 
@@ -100,4 +104,13 @@ public class SnapshotDeserializer {
   private void visitQuerySummay(Query.Summary proto) {
     snapshot.setQuerySummary(proto);
   }
+
+  private void visitReverseLoadIndex(SnapshotProto.ReverseLoadIndex proto) {
+    ImmutableSetMultimap.Builder<Path, Path> loadedBy = ImmutableSetMultimap.builder();
+    for (Map.Entry<String, SnapshotProto.BuildFiles> entry : proto.getLoadedByMap().entrySet()) {
+      Path loadedFile = Path.of(entry.getKey());
+      entry.getValue().getPathsList().forEach(p -> loadedBy.put(loadedFile, Path.of(p)));
+    }
+    snapshot.setReverseLoadIndex(new ReverseLoadIndex(loadedBy.build()));
+  }
 }
@@ -15,6 +15,8 @@
  */
 package com.google.idea.blaze.qsync.project;
 
+import static java.util.stream.Collectors.toList;
+
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableBiMap;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
@@ -24,13 +26,16 @@ import com.google.idea.blaze.common.vcs.WorkspaceFileChange.Operation;
 import com.google.idea.blaze.qsync.project.ProjectDefinition.LanguageClass;
 import com.google.idea.blaze.qsync.project.SnapshotProto.WorkspaceSnapshot;
 import com.google.idea.blaze.qsync.query.QuerySummary;
+import com.google.idea.blaze.qsync.query.ReverseLoadIndex;
 import com.google.protobuf.AbstractMessageLite;
 import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Map;
 
 /** Serializes a {@link PostQuerySyncData} instance to a proto message. */
 public class SnapshotSerializer {
 
-  public static final int PROTO_VERSION = 1;
+  public static final int PROTO_VERSION = 2;
 
   static final ImmutableBiMap<Operation, SnapshotProto.WorkspaceFileChange.VcsOperation> OP_MAP =
       ImmutableBiMap.of(
@@ -60,6 +65,7 @@ public class SnapshotSerializer {
     visitProjectDefinition(snapshot.projectDefinition());
     snapshot.vcsState().ifPresent(this::visitVcsState);
     visitQuerySummary(snapshot.querySummary());
+    visitReverseLoadIndex(snapshot.reverseLoadIndex());
     return this;
   }
 
@@ -98,4 +104,15 @@ public class SnapshotSerializer {
   private void visitQuerySummary(QuerySummary summary) {
     proto.setQuerySummary(summary.proto());
   }
+
+  private void visitReverseLoadIndex(ReverseLoadIndex index) {
+    SnapshotProto.ReverseLoadIndex.Builder indexProto = proto.getReverseLoadIndexBuilder();
+    for (Map.Entry<Path, Collection<Path>> entry : index.asMultimap().asMap().entrySet()) {
+      indexProto.putLoadedBy(
+          entry.getKey().toString(),
+          SnapshotProto.BuildFiles.newBuilder()
+              .addAllPaths(entry.getValue().stream().map(Path::toString).collect(toList()))
+              .build());
+    }
+  }
 }
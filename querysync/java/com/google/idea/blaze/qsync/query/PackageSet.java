@@ -17,7 +17,6 @@ package com.google.idea.blaze.qsync.query;
 
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
 
-import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
@@ -55,7 +54,6 @@ public class PackageSet {
     return packages.size();
   }
 
-  @VisibleForTesting
   public ImmutableSet<Path> asPathSet() {
     return packages;
   }
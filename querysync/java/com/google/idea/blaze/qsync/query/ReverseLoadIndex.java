@@ -0,0 +1,182 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.qsync.query;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.idea.blaze.common.Label;
+import com.google.idea.blaze.qsync.query.Query.SourceFile;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An index from each loaded file (e.g. a {@code .bzl} file) to the BUILD files which load it,
+ * either directly or indirectly via other loaded files.
+ *
+ * <p>This allows the packages affected by an edit to a loaded file to be found with a single
+ * lookup. It is derived from a {@link QuerySummary}, and is persisted alongside it so that it
+ * need not be recalculated from scratch after a partial query.
+ */
+public class ReverseLoadIndex {
+
+  public static final ReverseLoadIndex EMPTY = new ReverseLoadIndex(ImmutableSetMultimap.of());
+
+  private static final String BUILD_FILE_NAME = "BUILD";
+
+  /** Map of loaded file path to the BUILD file paths that load it. */
+  private final ImmutableSetMultimap<Path, Path> loadedBy;
+
+  public ReverseLoadIndex(ImmutableSetMultimap<Path, Path> loadedBy) {
+    this.loadedBy = loadedBy;
+  }
+
+  /** Builds the index for all BUILD files in the given query output. */
+  public static ReverseLoadIndex create(QuerySummary summary) {
+    ImmutableSetMultimap.Builder<Path, Path> loadedBy = ImmutableSetMultimap.builder();
+    new TransitiveLoads(summary).addBuildFiles(summary.getSourceFilesMap().keySet(), loadedBy);
+    return new ReverseLoadIndex(loadedBy.build());
+  }
+
+  /**
+   * Returns the BUILD files which load the given file, directly or indirectly.
+   *
+   * @param loadedFile workspace relative path of the loaded file.
+   */
+  public ImmutableSet<Path> getLoadingBuildFiles(Path loadedFile) {
+    return loadedBy.get(loadedFile);
+  }
+
+  /** Returns the index as a map of loaded file path to the BUILD files that load it. */
+  public ImmutableSetMultimap<Path, Path> asMultimap() {
+    return loadedBy;
+  }
+
+  /**
+   * Derives a new index following a partial query.
+   *
+   * @param deletedPackages packages which have been deleted since the previous query.
+   * @param partialQuery the output of the partial query. Entries for BUILD files in its packages or
+   *     in deleted packages are dropped from the index, then re-added for all BUILD files within
+   *     it.
+   * @param effectiveQuery the query output resulting from applying the partial query to the
+   *     previous one. Used to resolve indirect loads.
+   */
+  public ReverseLoadIndex applyDelta(
+      Set<Path> deletedPackages, QuerySummary partialQuery, QuerySummary effectiveQuery) {
+    ImmutableSetMultimap.Builder<Path, Path> loadedBy = ImmutableSetMultimap.builder();
+    for (Map.Entry<Path, Path> entry : this.loadedBy.entries()) {
+      Path buildPackage = getPackage(entry.getValue());
+      if (!(deletedPackages.contains(buildPackage)
+          || partialQuery.getPackages().contains(buildPackage))) {
+        loadedBy.put(entry);
+      }
+    }
+    new TransitiveLoads(effectiveQuery)
+        .addBuildFiles(partialQuery.getSourceFilesMap().keySet(), loadedBy);
+    return new ReverseLoadIndex(loadedBy.build());
+  }
+
+  private static Path getPackage(Path buildFile) {
+    Path parent = buildFile.getParent();
+    return parent == null ? Path.of("") : parent;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof ReverseLoadIndex)) {
+      return false;
+    }
+    return loadedBy.equals(((ReverseLoadIndex) o).loadedBy);
+  }
+
+  @Override
+  public int hashCode() {
+    return loadedBy.hashCode();
+  }
+
+  /** Do not generate full contents in toString, this object can be very large. */
+  @Override
+  public String toString() {
+    return String.format("ReverseLoadIndex{%d loaded files}", loadedBy.keySet().size());
+  }
+
+  /** Resolves the transitive loads of source files in a query output, memoizing as it goes. */
+  private static class TransitiveLoads {
+    private final ImmutableMap<Path, ImmutableList<Path>> directLoads;
+    private final Map<Path, ImmutableSet<Path>> transitiveLoads = Maps.newHashMap();
+
+    TransitiveLoads(QuerySummary summary) {
+      ImmutableMap.Builder<Path, ImmutableList<Path>> directLoads = ImmutableMap.builder();
+      for (Map.Entry<Label, SourceFile> entry : summary.getSourceFilesMap().entrySet()) {
+        if (entry.getValue().getSubincludeCount() > 0) {
+          directLoads.put(
+              entry.getKey().toFilePath(),
+              entry.getValue().getSubincludeList().stream()
+                  .map(Label::of)
+                  .map(Label::toFilePath)
+                  .collect(toImmutableList()));
+        }
+      }
+      this.directLoads = directLoads.buildOrThrow();
+    }
+
+    void addBuildFiles(Set<Label> sourceFiles, ImmutableSetMultimap.Builder<Path, Path> index) {
+      for (Label sourceFile : sourceFiles) {
+        if (!sourceFile.getName().toString().equals(BUILD_FILE_NAME)) {
+          continue;
+        }
+        Path buildFile = sourceFile.toFilePath();
+        for (Path loaded : getTransitiveLoads(buildFile, Sets.newHashSet())) {
+          index.put(loaded, buildFile);
+        }
+      }
+    }
+
+    private ImmutableSet<Path> getTransitiveLoads(Path file, Set<Path> visiting) {
+      ImmutableSet<Path> cached = transitiveLoads.get(file);
+      if (cached != null) {
+        return cached;
+      }
+      ImmutableList<Path> direct = directLoads.get(file);
+      if (direct == null) {
+        return ImmutableSet.of();
+      }
+      if (!visiting.add(file)) {
+        // load cycles are an error in the build, but don't let them cause infinite recursion here
+        return ImmutableSet.of();
+      }
+      ImmutableSet.Builder<Path> loads = ImmutableSet.builder();
+      for (Path loaded : direct) {
+        loads.add(loaded);
+        loads.addAll(getTransitiveLoads(loaded, visiting));
+      }
+      visiting.remove(file);
+      ImmutableSet<Path> result = loads.build();
+      transitiveLoads.put(file, result);
+      return result;
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.qsync.project;
+
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth8.assertThat;
+import static com.google.idea.blaze.qsync.QuerySyncTestUtils.NOOP_CONTEXT;
+import static com.google.idea.blaze.qsync.QuerySyncTestUtils.getQuerySummary;
+
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.common.Label;
+import com.google.idea.blaze.qsync.BlazeQueryParser;
+import com.google.idea.blaze.qsync.testdata.TestData;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class DerivedSnapshotTest {
+
+  @Test
+  public void testRoundTrip_android() throws Exception {
+    assertRoundTrip(TestData.ANDROID_LIB_QUERY);
+  }
+
+  @Test
+  public void testRoundTrip_transitiveDeps() throws Exception {
+    assertRoundTrip(TestData.JAVA_LIBRARY_TRANSITIVE_DEP_QUERY);
+  }
+
+  @Test
+  public void testRoundTrip_cc() throws Exception {
+    assertRoundTrip(TestData.CC_LIBRARY_QUERY);
+  }
+
+  @Test
+  public void testFromProto_otherVersion_empty() throws Exception {
+    DerivedSnapshot original =
+        DerivedSnapshot.create("hash", parse(TestData.JAVA_LIBRARY_NO_DEPS_QUERY), project());
+    SnapshotProto.DerivedSnapshot proto =
+        original.toProto().toBuilder().setVersion(DerivedSnapshot.PROTO_VERSION + 1).build();
+    assertThat(DerivedSnapshot.fromProto(proto)).isEmpty();
+  }
+
+  private static void assertRoundTrip(TestData testData) throws Exception {
+    BuildGraphData graph = parse(testData);
+    DerivedSnapshot original = DerivedSnapshot.create("hash", graph, project());
+
+    DerivedSnapshot restored =
+        DerivedSnapshot.fromProto(
+                SnapshotProto.DerivedSnapshot.parseFrom(original.toProto().toByteArray()))
+            .orElseThrow();
+
+    assertThat(restored.inputHash()).isEqualTo("hash");
+    assertThat(restored.project()).isEqualTo(original.project());
+    BuildGraphData restoredGraph = restored.graph();
+    assertThat(restoredGraph.targetMap()).isEqualTo(graph.targetMap());
+    assertThat(locationStrings(restoredGraph)).isEqualTo(locationStrings(graph));
+    assertThat(restoredGraph.javaSources()).isEqualTo(graph.javaSources());
+    assertThat(restoredGraph.packages().asPathSet()).isEqualTo(graph.packages().asPathSet());
+    assertThat(restoredGraph.fileToTarget()).isEqualTo(graph.fileToTarget());
+    assertThat(restoredGraph.projectDeps()).isEqualTo(graph.projectDeps());
+    assertThat(restoredGraph.allTargets().toLabelSet())
+        .isEqualTo(graph.allTargets().toLabelSet());
+    assertThat(restoredGraph.androidTargets()).isEqualTo(graph.androidTargets());
+  }
+
+  private static BuildGraphData parse(TestData testData) throws Exception {
+    return new BlazeQueryParser(
+            getQuerySummary(testData), NOOP_CONTEXT, ImmutableSet.of(), Suppliers.ofInstance(true))
+        .parse();
+  }
+
+  private static ProjectProto.Project project() {
+    return ProjectProto.Project.newBuilder()
+        .addModules(ProjectProto.Module.newBuilder().setName(".workspace"))
+        .build();
+  }
+
+  private static ImmutableMap<Label, String> locationStrings(BuildGraphData graph) {
+    return graph.locations().entrySet().stream()
+        .collect(
+            toImmutableMap(
+                e -> e.getKey(),
+                e -> e.getValue().file + ":" + e.getValue().row + ":" + e.getValue().column));
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.qsync.query;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableSet;
+import java.nio.file.Path;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ReverseLoadIndexTest {
+
+  @Test
+  public void testCreate_directLoad() {
+    QuerySummary summary =
+        QuerySummary.create(
+            new QuerySummaryTestBuilder()
+                .addPackages("//my/build/package1:rule", "//my/build/package2:rule")
+                .addSubincludes(
+                    ImmutableMultimap.of(
+                        "//my/build/package1:BUILD", "//my/build/rules:defs.bzl"))
+                .build());
+    ReverseLoadIndex index = ReverseLoadIndex.create(summary);
+    assertThat(index.getLoadingBuildFiles(Path.of("my/build/rules/defs.bzl")))
+        .containsExactly(Path.of("my/build/package1/BUILD"));
+    assertThat(index.getLoadingBuildFiles(Path.of("my/build/rules/other.bzl"))).isEmpty();
+  }
+
+  @Test
+  public void testCreate_indirectLoad() {
+    QuerySummary summary =
+        QuerySummary.create(
+            new QuerySummaryTestBuilder()
+                .addPackages("//my/build/package1:rule", "//my/build/package2:rule")
+                .addSubincludes(
+                    ImmutableMultimap.of(
+                        "//my/build/package1:BUILD", "//my/build/rules:defs.bzl",
+                        "//my/build/package2:BUILD", "//my/build/rules:other.bzl",
+                        "//my/build/rules:defs.bzl", "//my/build/rules:common.bzl"))
+                .build());
+    ReverseLoadIndex index = ReverseLoadIndex.create(summary);
+    assertThat(index.getLoadingBuildFiles(Path.of("my/build/rules/common.bzl")))
+        .containsExactly(Path.of("my/build/package1/BUILD"));
+    assertThat(index.getLoadingBuildFiles(Path.of("my/build/rules/defs.bzl")))
+        .containsExactly(Path.of("my/build/package1/BUILD"));
+    assertThat(index.getLoadingBuildFiles(Path.of("my/build/rules/other.bzl")))
+        .containsExactly(Path.of("my/build/package2/BUILD"));
+  }
+
+  @Test
+  public void testApplyDelta_replacesEntriesForQueriedAndDeletedPackages() {
+    QuerySummary base =
+        QuerySummary.create(
+            new QuerySummaryTestBuilder()
+                .addPackages(
+                    "//my/build/package1:rule",
+                    "//my/build/package2:rule",
+                    "//my/build/package3:rule")
+                .addSubincludes(
+                    ImmutableMultimap.of(
+                        "//my/build/package1:BUILD", "//my/build/rules:defs.bzl",
+                        "//my/build/package2:BUILD", "//my/build/rules:defs.bzl",
+                        "//my/build/package3:BUILD", "//my/build/rules:defs.bzl"))
+                .build());
+    QuerySummary partial =
+        QuerySummary.create(
+            new QuerySummaryTestBuilder()
+                .addPackages("//my/build/package1:rule")
+                .addSubincludes(
+                    ImmutableMultimap.of(
+                        "//my/build/package1:BUILD", "//my/build/rules:other.bzl"))
+                .build());
+    QuerySummary effective =
+        QuerySummary.create(
+            new QuerySummaryTestBuilder()
+                .addPackages("//my/build/package1:rule", "//my/build/package2:rule")
+                .addSubincludes(
+                    ImmutableMultimap.of(
+                        "//my/build/package1:BUILD", "//my/build/rules:other.bzl",
+                        "//my/build/package2:BUILD", "//my/build/rules:defs.bzl"))
+                .build());
+
+    ReverseLoadIndex index =
+        ReverseLoadIndex.create(base)
+            .applyDelta(ImmutableSet.of(Path.of("my/build/package3")), partial, effective);
+
+    assertThat(index).isEqualTo(ReverseLoadIndex.create(effective));
+    assertThat(index.getLoadingBuildFiles(Path.of("my/build/rules/defs.bzl")))
+        .containsExactly(Path.of("my/build/package2/BUILD"));
+    assertThat(index.getLoadingBuildFiles(Path.of("my/build/rules/other.bzl")))
+        .containsExactly(Path.of("my/build/package1/BUILD"));
+  }
+}
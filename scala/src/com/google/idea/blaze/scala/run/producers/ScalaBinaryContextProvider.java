@@ -169,7 +169,6 @@ class ScalaBinaryContextProvider implements BinaryContextProvider {
 
   private static FilteredTargetMap computeTargetMap(Project project, BlazeProjectData projectData) {
     return new FilteredTargetMap(
-        project,
         projectData.getArtifactLocationDecoder(),
         projectData.getTargetMap(),
         target ->
@@ -75,6 +75,7 @@ public class ScalaSourceDirectoryCalculatorTest extends BlazeTestCase {
     applicationServices.register(InputStreamProvider.class, mockInputStreamProvider);
     applicationServices.register(JavaSourcePackageReader.class, new JavaSourcePackageReader());
     applicationServices.register(PackageManifestReader.class, new PackageManifestReader());
+    projectServices.register(SourceDirectoryCache.class, new SourceDirectoryCache());
     applicationServices.register(PrefetchService.class, new MockPrefetchService());
     applicationServices.register(FileOperationProvider.class, new FileOperationProvider());
     applicationServices.register(
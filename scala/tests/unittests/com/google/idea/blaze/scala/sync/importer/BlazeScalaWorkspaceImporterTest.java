@@ -69,6 +69,7 @@ import com.google.idea.blaze.java.sync.source.JavaLikeLanguage;
 import com.google.idea.blaze.java.sync.source.JavaSourcePackageReader;
 import com.google.idea.blaze.java.sync.source.PackageManifestReader;
 import com.google.idea.blaze.java.sync.source.SourceArtifact;
+import com.google.idea.blaze.java.sync.source.SourceDirectoryCache;
 import com.google.idea.blaze.scala.ScalaBlazeRules;
 import com.google.idea.blaze.scala.ScalaJavaLikeLanguage;
 import com.google.idea.blaze.scala.sync.model.BlazeScalaImportResult;
@@ -116,6 +117,7 @@ public class BlazeScalaWorkspaceImporterTest extends BlazeTestCase {
 
     applicationServices.register(PrefetchService.class, new MockPrefetchService());
     applicationServices.register(PackageManifestReader.class, new PackageManifestReader());
+    projectServices.register(SourceDirectoryCache.class, new SourceDirectoryCache());
     applicationServices.register(ExperimentService.class, new MockExperimentService());
     applicationServices.register(
         FileOperationProvider.class,
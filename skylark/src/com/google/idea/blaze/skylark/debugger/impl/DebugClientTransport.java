@@ -15,20 +15,28 @@
  */
 package com.google.idea.blaze.skylark.debugger.impl;
 
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.devtools.build.lib.starlarkdebugging.StarlarkDebuggingProtos.DebugEvent;
 import com.google.devtools.build.lib.starlarkdebugging.StarlarkDebuggingProtos.DebugRequest;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nullable;
 import org.jetbrains.ide.PooledThreadExecutor;
@@ -45,7 +53,6 @@ class DebugClientTransport implements Closeable {
 
   private static final int RETRY_DELAY_MILLIS = 200;
   private static final int RESPONSE_TIMEOUT_MILLIS = 30000;
-  private static final int RESPONSE_RECHECK_TIME_MILLIS = 1000;
 
   private static final String LOCAL_HOST = "localhost";
 
@@ -53,7 +60,9 @@ class DebugClientTransport implements Closeable {
   private final SkylarkDebugProcess debugProcess;
 
   private final AtomicLong sequence = new AtomicLong(1);
-  private final Map<Long, DebugEvent> responseQueue = new HashMap<>();
+  /** Requests which have been sent, but not yet responded to, keyed by sequence number. */
+  private final ConcurrentMap<Long, SettableFuture<DebugEvent>> pendingResponses =
+      new ConcurrentHashMap<>();
 
   @Nullable private Socket clientSocket;
   @Nullable private OutputStream requestStream;
@@ -80,6 +89,7 @@ class DebugClientTransport implements Closeable {
     if (readTask != null) {
       readTask.cancel(true);
     }
+    abandonPendingResponses();
     if (clientSocket == null) {
       return;
     }
@@ -132,21 +142,53 @@ class DebugClientTransport implements Closeable {
    */
   @Nullable
   DebugEvent sendRequest(DebugRequest.Builder builder) {
+    try {
+      return sendRequestAsync(builder).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException | CancellationException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Sends a {@link DebugRequest} to the server without waiting for a response, so that any number
+   * of requests can be in flight at once. The sequence number will be populated prior to sending
+   * the request.
+   *
+   * <p>The returned future is set to null if the connection is lost before a response is
+   * received, and fails if no response is received within the timeout. Cancelling it discards the
+   * response.
+   */
+  ListenableFuture<DebugEvent> sendRequestAsync(DebugRequest.Builder builder) {
     long seq = sequence.getAndIncrement();
     DebugRequest request = builder.setSequenceNumber(seq).build();
+    SettableFuture<DebugEvent> response = SettableFuture.create();
+    pendingResponses.put(seq, response);
+    response.addListener(() -> pendingResponses.remove(seq), directExecutor());
     try {
       synchronized (requestStream) {
         request.writeDelimitedTo(requestStream);
         requestStream.flush();
       }
-      return waitForResponse(seq);
-
     } catch (IOException e) {
       if (!ignoreErrors()) {
         logger.error("Error sending request to Skylark debugger", e);
       }
-      return null;
+      response.set(null);
+      return response;
+    }
+    if (readTask == null || readTask.isDone()) {
+      // no longer listening for responses
+      response.set(null);
+      return response;
     }
+    return Futures.withTimeout(
+        response,
+        RESPONSE_TIMEOUT_MILLIS,
+        TimeUnit.MILLISECONDS,
+        AppExecutorUtil.getAppScheduledExecutorService());
   }
 
   private ListenableFuture<?> processEvents(InputStream eventStream) {
@@ -161,6 +203,8 @@ class DebugClientTransport implements Closeable {
               logger.error("Malformed event proto", e);
             }
             close();
+          } finally {
+            abandonPendingResponses();
           }
         });
   }
@@ -168,6 +212,10 @@ class DebugClientTransport implements Closeable {
   private void listenForEvents(InputStream eventStream) throws IOException {
     while (true) {
       DebugEvent event = DebugEvent.parseDelimitedFrom(eventStream);
+      if (event == null) {
+        // end of stream
+        return;
+      }
       if (event.getSequenceNumber() == 0) {
         // sequence number is 0 iff it's not a response to a DebugRequest: handle it immediately
         debugProcess.handleEvent(event);
@@ -178,37 +226,20 @@ class DebugClientTransport implements Closeable {
   }
 
   private void placeResponse(long sequence, DebugEvent response) {
-    synchronized (responseQueue) {
-      responseQueue.put(sequence, response);
-      responseQueue.notifyAll();
+    SettableFuture<DebugEvent> future = pendingResponses.remove(sequence);
+    // null if the request was cancelled, or timed out
+    if (future != null) {
+      future.set(response);
     }
   }
 
-  /**
-   * Wait for a response from the debug server. Returns null if no response was received, or this
-   * thread was interrupted.
-   */
-  @Nullable
-  private DebugEvent waitForResponse(long sequence) {
-    DebugEvent response = null;
-    long startTime = System.currentTimeMillis();
-    synchronized (responseQueue) {
-      while (response == null && shouldWaitForResponse(startTime)) {
-        try {
-          responseQueue.wait(RESPONSE_RECHECK_TIME_MILLIS);
-        } catch (InterruptedException e) {
-          Thread.currentThread().interrupt();
-          return null;
-        }
-        response = responseQueue.remove(sequence);
+  /** Completes any requests still waiting for a response, once the connection is lost. */
+  private void abandonPendingResponses() {
+    for (Long sequence : pendingResponses.keySet()) {
+      SettableFuture<DebugEvent> future = pendingResponses.remove(sequence);
+      if (future != null) {
+        future.set(null);
       }
     }
-    return response;
-  }
-
-  private boolean shouldWaitForResponse(long startTime) {
-    return clientSocket.isConnected()
-        && !readTask.isDone()
-        && System.currentTimeMillis() - startTime < RESPONSE_TIMEOUT_MILLIS;
   }
 }
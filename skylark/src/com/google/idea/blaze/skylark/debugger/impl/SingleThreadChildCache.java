@@ -15,9 +15,14 @@
  */
 package com.google.idea.blaze.skylark.debugger.impl;
 
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.devtools.build.lib.starlarkdebugging.StarlarkDebuggingProtos;
-import com.google.devtools.build.lib.starlarkdebugging.StarlarkDebuggingProtos.DebugEvent;
 import com.google.devtools.build.lib.starlarkdebugging.StarlarkDebuggingProtos.DebugRequest;
 import com.google.devtools.build.lib.starlarkdebugging.StarlarkDebuggingProtos.GetChildrenRequest;
 import java.util.List;
@@ -28,34 +33,94 @@ import javax.annotation.Nullable;
 /**
  * A cache of 'getChildren' results for a currently-paused thread. This state is retained only while
  * the thread is paused.
+ *
+ * <p>Requests are sent without blocking, so the children of many values can be queried at once.
  */
 class SingleThreadChildCache {
 
+  /**
+   * The maximum number of values whose children are requested ahead of time in one batch. The
+   * debugger tree only shows the first 100 children of a node by default.
+   */
+  private static final int MAX_PREFETCHED_VALUES = 100;
+
   private final long threadId;
-  private final ConcurrentMap<Long, List<StarlarkDebuggingProtos.Value>> identifierToChildrenMap =
-      new ConcurrentHashMap<>();
+  private final ConcurrentMap<Long, ListenableFuture<List<StarlarkDebuggingProtos.Value>>>
+      identifierToChildrenMap = new ConcurrentHashMap<>();
 
   SingleThreadChildCache(long threadId) {
     this.threadId = threadId;
   }
 
-  @Nullable
-  List<StarlarkDebuggingProtos.Value> getChildren(
+  /**
+   * Returns the children of the given value. The future is set to null if the children couldn't
+   * be retrieved.
+   */
+  ListenableFuture<List<StarlarkDebuggingProtos.Value>> getChildren(
       DebugClientTransport transport, StarlarkDebuggingProtos.Value value) {
     // protocol specifies a non-zero ID for values with children
     if (!value.getHasChildren() || value.getId() == 0) {
-      return ImmutableList.of();
+      return Futures.immediateFuture(ImmutableList.of());
+    }
+    long id = value.getId();
+    SettableFuture<List<StarlarkDebuggingProtos.Value>> children = SettableFuture.create();
+    ListenableFuture<List<StarlarkDebuggingProtos.Value>> existing =
+        identifierToChildrenMap.putIfAbsent(id, children);
+    if (existing != null) {
+      return existing;
+    }
+    children.setFuture(queryChildren(transport, value));
+    // don't cache failures, so that they can be retried
+    Futures.addCallback(
+        children,
+        new FutureCallback<List<StarlarkDebuggingProtos.Value>>() {
+          @Override
+          public void onSuccess(@Nullable List<StarlarkDebuggingProtos.Value> result) {
+            if (result == null) {
+              identifierToChildrenMap.remove(id, children);
+            }
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            identifierToChildrenMap.remove(id, children);
+          }
+        },
+        directExecutor());
+    return children;
+  }
+
+  /**
+   * Requests the children of each of the given values (e.g. a newly visible level of the
+   * debugger tree) without waiting for the responses, so that they're cached by the time the
+   * values are expanded.
+   */
+  void prefetchChildren(
+      DebugClientTransport transport, List<StarlarkDebuggingProtos.Value> values) {
+    int count = 0;
+    for (StarlarkDebuggingProtos.Value value : values) {
+      if (count >= MAX_PREFETCHED_VALUES) {
+        return;
+      }
+      if (value.getHasChildren() && value.getId() != 0) {
+        getChildren(transport, value);
+        count++;
+      }
     }
-    return identifierToChildrenMap.computeIfAbsent(
-        value.getId(), id -> queryChildren(transport, value));
   }
 
-  @Nullable
-  private List<StarlarkDebuggingProtos.Value> queryChildren(
+  /** Cancels all outstanding requests, once their results are no longer relevant. */
+  void cancelPendingRequests() {
+    identifierToChildrenMap.values().forEach(future -> future.cancel(true));
+  }
+
+  private ListenableFuture<List<StarlarkDebuggingProtos.Value>> queryChildren(
       DebugClientTransport transport, StarlarkDebuggingProtos.Value value) {
     GetChildrenRequest request =
         GetChildrenRequest.newBuilder().setThreadId(threadId).setValueId(value.getId()).build();
-    DebugEvent response = transport.sendRequest(DebugRequest.newBuilder().setGetChildren(request));
-    return response == null ? null : response.getGetChildren().getChildrenList();
+    return Futures.transform(
+        transport.sendRequestAsync(DebugRequest.newBuilder().setGetChildren(request)),
+        response -> response == null ? null : response.getGetChildren().getChildrenList(),
+        directExecutor());
   }
 }
@@ -19,6 +19,8 @@ import static com.google.common.base.Preconditions.checkState;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.devtools.build.lib.starlarkdebugging.StarlarkDebuggingProtos;
 import com.google.devtools.build.lib.starlarkdebugging.StarlarkDebuggingProtos.ContinueExecutionRequest;
 import com.google.devtools.build.lib.starlarkdebugging.StarlarkDebuggingProtos.DebugEvent;
@@ -310,6 +312,8 @@ public class SkylarkDebugProcess extends XDebugProcess {
       // TODO(brendandouglas): cache suspended threads here, and apply stepping behavior to all?
       return;
     }
+    // any child values still being fetched will be stale once the thread continues
+    cancelPendingChildRequests(threadId);
     transport.sendRequest(
         DebugRequest.newBuilder()
             .setContinueExecution(
@@ -417,16 +421,39 @@ public class SkylarkDebugProcess extends XDebugProcess {
     callback.evaluated(SkylarkDebugValue.fromProto(frame, response.getEvaluate().getResult()));
   }
 
-  @Nullable
-  List<StarlarkDebuggingProtos.Value> getChildren(
+  /**
+   * Returns the children of the given value. The future is set to null if the thread is no longer
+   * paused, or the children couldn't be retrieved.
+   */
+  ListenableFuture<List<StarlarkDebuggingProtos.Value>> getChildren(
       long threadId, StarlarkDebuggingProtos.Value value) {
     PausedThreadState threadState = pausedThreads.get(threadId);
     if (threadState == null) {
-      return null;
+      return Futures.immediateFuture(null);
     }
     return threadState.childCache.getChildren(transport, value);
   }
 
+  /**
+   * Requests the children of each of the given values in a single batch, without waiting for the
+   * responses.
+   */
+  void prefetchChildren(long threadId, List<StarlarkDebuggingProtos.Value> values) {
+    PausedThreadState threadState = pausedThreads.get(threadId);
+    if (threadState != null) {
+      threadState.childCache.prefetchChildren(transport, values);
+    }
+  }
+
+  /** Cancels outstanding child value requests for the given thread, or all threads if 0. */
+  private void cancelPendingChildRequests(long threadId) {
+    for (PausedThreadState threadState : pausedThreads.values()) {
+      if (threadId == 0 || threadState.thread.getId() == threadId) {
+        threadState.childCache.cancelPendingRequests();
+      }
+    }
+  }
+
   void listFrames(long threadId, XExecutionStack.XStackFrameContainer container) {
     DebugEvent response =
         transport.sendRequest(
@@ -460,7 +487,7 @@ public class SkylarkDebugProcess extends XDebugProcess {
         handleThreadPausedEvent(event.getThreadPaused().getThread());
         return;
       case THREAD_CONTINUED:
-        pausedThreads.remove(event.getThreadContinued().getThreadId());
+        handleThreadContinuedEvent(event.getThreadContinued().getThreadId());
         return;
       case LIST_FRAMES:
       case EVALUATE:
@@ -497,6 +524,13 @@ public class SkylarkDebugProcess extends XDebugProcess {
     }
   }
 
+  private void handleThreadContinuedEvent(long threadId) {
+    PausedThreadState threadState = pausedThreads.remove(threadId);
+    if (threadState != null) {
+      threadState.childCache.cancelPendingRequests();
+    }
+  }
+
   // Check XLineBreakpointTypeBase for raw use of XBreakpointProperties after #api212.
   @SuppressWarnings("rawtypes")
   private void handleThreadPausedEvent(PausedThread thread) {
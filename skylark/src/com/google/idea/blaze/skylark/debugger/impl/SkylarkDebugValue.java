@@ -16,9 +16,11 @@
 package com.google.idea.blaze.skylark.debugger.impl;
 
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import com.google.devtools.build.lib.starlarkdebugging.StarlarkDebuggingProtos;
 import com.intellij.icons.AllIcons;
-import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.intellij.xdebugger.frame.XCompositeNode;
 import com.intellij.xdebugger.frame.XFullValueEvaluator;
 import com.intellij.xdebugger.frame.XNamedValue;
@@ -26,6 +28,7 @@ import com.intellij.xdebugger.frame.XValueChildrenList;
 import com.intellij.xdebugger.frame.XValueNode;
 import com.intellij.xdebugger.frame.XValuePlace;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import javax.annotation.Nullable;
 import javax.swing.Icon;
 
@@ -133,18 +136,32 @@ class SkylarkDebugValue extends XNamedValue {
       node.addChildren(XValueChildrenList.EMPTY, true);
       return;
     }
-    ApplicationManager.getApplication()
-        .executeOnPooledThread(
-            () -> {
-              List<StarlarkDebuggingProtos.Value> response =
-                  frameContext.debugProcess.getChildren(frameContext.threadId, value);
-              if (response == null) {
-                node.setErrorMessage("Error querying children.");
-                return;
-              }
-              XValueChildrenList children = new XValueChildrenList(response.size());
-              response.forEach(v -> children.add(SkylarkDebugValue.fromProto(frameContext, v)));
-              node.addChildren(children, true);
-            });
+    Futures.addCallback(
+        frameContext.debugProcess.getChildren(frameContext.threadId, value),
+        new FutureCallback<List<StarlarkDebuggingProtos.Value>>() {
+          @Override
+          public void onSuccess(@Nullable List<StarlarkDebuggingProtos.Value> response) {
+            if (response == null) {
+              node.setErrorMessage("Error querying children.");
+              return;
+            }
+            if (node.isObsolete()) {
+              return;
+            }
+            XValueChildrenList children = new XValueChildrenList(response.size());
+            response.forEach(v -> children.add(SkylarkDebugValue.fromProto(frameContext, v)));
+            node.addChildren(children, true);
+            // the children are now visible, so fetch the next level of the tree ahead of time
+            frameContext.debugProcess.prefetchChildren(frameContext.threadId, response);
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            if (!(t instanceof CancellationException)) {
+              node.setErrorMessage("Error querying children.");
+            }
+          }
+        },
+        AppExecutorUtil.getAppExecutorService());
   }
 }
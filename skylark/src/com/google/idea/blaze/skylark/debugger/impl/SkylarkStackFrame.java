@@ -136,6 +136,7 @@ class SkylarkStackFrame extends XStackFrame {
           .getBindingList()
           .forEach(v -> children.add(SkylarkDebugValue.fromProto(SkylarkStackFrame.this, v)));
       node.addChildren(children, true);
+      debugProcess.prefetchChildren(threadId, scope.getBindingList());
     }
   }
 }